@@ -0,0 +1,63 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line.
+ *
+ * Unless -rf or -rff are given the results are written as JSON to
+ * cogpar-benchmarks.json, so that runs can be compared over time.
+ */
+public class BenchmarkMain {
+
+    static final String RESULT_FILE = "cogpar-benchmarks.json";
+
+    public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        if(commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+
+        if(commandLine.shouldList() || commandLine.shouldListWithParams() || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+        if(!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+
+        if(!commandLine.getResult().hasValue()) {
+            options.result(RESULT_FILE);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
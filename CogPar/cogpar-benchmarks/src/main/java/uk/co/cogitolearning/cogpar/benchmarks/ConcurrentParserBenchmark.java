@@ -0,0 +1,125 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.cogitolearning.cogpar.ExpressionCache;
+import uk.co.cogitolearning.cogpar.Parser;
+
+/**
+ * Parsing the short corpus from several threads at once.
+ *
+ * All threads share one Parser and one ExpressionCache, the way a zoomer
+ * shares them between the windows that parse formulas. The parse benchmarks
+ * show whether parsing scales with the threads, the cached benchmarks
+ * whether hits on the same formulas do. Each benchmark runs with 1, 2, 4 and
+ * 8 threads, the score is the time of one thread for the whole corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentParserBenchmark {
+
+    private Parser parser;
+
+    private ExpressionCache cache;
+
+    @Setup
+    public void setup() {
+        parser = new Parser();
+        cache = new ExpressionCache(4096);
+
+        for(String formula : Formulas.SHORT) {
+            cache.parse(formula);
+        }
+    }
+
+    private void parse(Blackhole blackhole) {
+        for(String formula : Formulas.SHORT) {
+            blackhole.consume(parser.parse(formula));
+        }
+    }
+
+    private void cached(Blackhole blackhole) {
+        for(String formula : Formulas.SHORT) {
+            blackhole.consume(cache.parse(formula));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void parse1(Blackhole blackhole) {
+        parse(blackhole);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void parse2(Blackhole blackhole) {
+        parse(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void parse4(Blackhole blackhole) {
+        parse(blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void parse8(Blackhole blackhole) {
+        parse(blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void cached1(Blackhole blackhole) {
+        cached(blackhole);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void cached2(Blackhole blackhole) {
+        cached(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void cached4(Blackhole blackhole) {
+        cached(blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void cached8(Blackhole blackhole) {
+        cached(blackhole);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.DualEvaluator;
+import uk.co.cogitolearning.cogpar.ExpressionNode;
+import uk.co.cogitolearning.cogpar.FunctionDerivative2ArgumentsExpressionNode;
+import uk.co.cogitolearning.cogpar.Parser;
+import uk.co.cogitolearning.cogpar.TaylorEvaluator;
+
+/**
+ * The ways a derivative of a formula can be evaluated.
+ *
+ * Every path runs on the same formula. The symbolic f', f'' and f''' nodes
+ * are the ones the parser builds, the numeric ones always use central
+ * differences. The rough formula contains abs, which has no symbolic
+ * derivative, so its symbolic nodes fall back to differences for abs or, from
+ * the second derivative on, for the whole argument. The dual and Taylor
+ * evaluators propagate the derivatives through the tree instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DerivativeBenchmark {
+
+    static final String ANALYTIC = "z^3*sin(z) + c*exp(z)";
+
+    static final String ROUGH = "abs(z)*z^2 + c*z";
+
+    @Param({"analytic", "rough"})
+    public String formula;
+
+    private ExpressionNode[] symbolic;
+
+    private ExpressionNode[] numeric;
+
+    private ExpressionNode tree;
+
+    private DualEvaluator dual;
+
+    private TaylorEvaluator taylor;
+
+    private Complex value;
+
+    private Complex derivative;
+
+    private Complex[] derivatives;
+
+    @Setup
+    public void setup() {
+        String source = formula.equals("analytic") ? ANALYTIC : ROUGH;
+        String[] names = {"f'", "f''", "f'''"};
+        symbolic = new ExpressionNode[names.length];
+        numeric = new ExpressionNode[names.length];
+
+        for(int order = 0; order < names.length; order++) {
+            FunctionDerivative2ArgumentsExpressionNode node = (FunctionDerivative2ArgumentsExpressionNode)parse(names[order] + "(" + source + ", z)");
+            symbolic[order] = node;
+            numeric[order] = FunctionDerivative2ArgumentsExpressionNode.numeric(order, node.getArgument(), node.getArgument2());
+        }
+
+        tree = parse(source);
+        dual = new DualEvaluator();
+        taylor = new TaylorEvaluator();
+        value = new Complex();
+        derivative = new Complex();
+        derivatives = new Complex[TaylorEvaluator.MAX_ORDER + 1];
+        for(int k = 0; k < derivatives.length; k++) {
+            derivatives[k] = new Complex();
+        }
+    }
+
+    private static ExpressionNode parse(String formula) {
+        ExpressionNode tree = new Parser().parse(formula);
+        tree.variable("z").set(new Complex(0.3, -0.6));
+        tree.variable("c").set(new Complex(-0.4, 0.3));
+        return tree;
+    }
+
+    @Benchmark
+    public Complex symbolicFirst() {
+        return symbolic[0].getValue();
+    }
+
+    @Benchmark
+    public Complex symbolicSecond() {
+        return symbolic[1].getValue();
+    }
+
+    @Benchmark
+    public Complex symbolicThird() {
+        return symbolic[2].getValue();
+    }
+
+    @Benchmark
+    public Complex numericFirst() {
+        return numeric[0].getValue();
+    }
+
+    @Benchmark
+    public Complex numericSecond() {
+        return numeric[1].getValue();
+    }
+
+    @Benchmark
+    public Complex numericThird() {
+        return numeric[2].getValue();
+    }
+
+    @Benchmark
+    public Complex dual() {
+        dual.evaluate(tree, "z", value, derivative);
+        return derivative;
+    }
+
+    @Benchmark
+    public Complex[] taylor() {
+        taylor.evaluate(tree, "z", derivatives);
+        return derivatives;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.Derivative;
+
+/**
+ * The forward, central and backward difference quotients of Derivative on
+ * fixed samples, without the evaluations of the function that produce them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DifferenceQuotientBenchmark {
+
+    private Complex fz;
+
+    private Complex fzdz;
+
+    private Complex fz2dz;
+
+    private Complex fz3dz;
+
+    private Complex fzmdz;
+
+    private Complex fzm2dz;
+
+    private Complex fzm3dz;
+
+    @Setup
+    public void setup() {
+        Complex z = new Complex(0.3, -0.6);
+
+        fz = z.sin();
+        fzdz = z.plus(Derivative.DZ).sin();
+        fz2dz = z.plus(Derivative.DZ_2).sin();
+        fz3dz = z.plus(Derivative.DZ_3).sin();
+        fzmdz = z.sub(Derivative.DZ).sin();
+        fzm2dz = z.sub(Derivative.DZ_2).sin();
+        fzm3dz = z.sub(Derivative.DZ_3).sin();
+    }
+
+    @Benchmark
+    public Complex forwardFirst() {
+        return Derivative.numericalForwardDerivativeFirstOrder(fz, fzdz);
+    }
+
+    @Benchmark
+    public Complex centralFirst() {
+        return Derivative.numericalCentralDerivativeFirstOrder(fzdz, fzmdz);
+    }
+
+    @Benchmark
+    public Complex backwardFirst() {
+        return Derivative.numericalBackwardDerivativeFirstOrder(fz, fzmdz);
+    }
+
+    @Benchmark
+    public Complex forwardSecond() {
+        return Derivative.numericalForwardDerivativeSecondOrder(fz, fzdz, fz2dz);
+    }
+
+    @Benchmark
+    public Complex centralSecond() {
+        return Derivative.numericalCentralDerivativeSecondOrder(fz, fzdz, fzmdz);
+    }
+
+    @Benchmark
+    public Complex backwardSecond() {
+        return Derivative.numericalBackwardDerivativeSecondOrder(fz, fzmdz, fzm2dz);
+    }
+
+    @Benchmark
+    public Complex forwardThird() {
+        return Derivative.numericalForwardDerivativeThirdOrder(fz, fzdz, fz2dz, fz3dz);
+    }
+
+    @Benchmark
+    public Complex centralThird() {
+        return Derivative.numericalCentralDerivativeThirdOrder(fzdz, fz2dz, fzmdz, fzm2dz);
+    }
+
+    @Benchmark
+    public Complex backwardThird() {
+        return Derivative.numericalBackwardDerivativeThirdOrder(fz, fzmdz, fzm2dz, fzm3dz);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.cogitolearning.cogpar.BatchEvaluator;
+import uk.co.cogitolearning.cogpar.CommonSubexpressionEliminator;
+import uk.co.cogitolearning.cogpar.CompiledExpression;
+import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.EvaluationFrame;
+import uk.co.cogitolearning.cogpar.ExpressionCompiler;
+import uk.co.cogitolearning.cogpar.ExpressionNode;
+import uk.co.cogitolearning.cogpar.Optimizer;
+import uk.co.cogitolearning.cogpar.Parser;
+
+/**
+ * Evaluation of the fractal formulas through every evaluation path.
+ *
+ * All scores are per evaluation of the formula. The batch and orbit
+ * benchmarks evaluate many points per invocation and are normalized
+ * accordingly, the orbit iterates z = f(z) the way a zoomer does and starts
+ * over when the orbit escapes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    static final int POINTS = 256;
+
+    static final int ITERATIONS = 64;
+
+    private static final double BAILOUT = 1e8;
+
+    @Param({"mandelbrot", "cubic", "mandelbrot8", "burningShip", "lambda", "magnet", "newton", "nova", "sine", "exponential", "spider"})
+    public String formula;
+
+    private ExpressionNode tree;
+
+    private ExpressionNode optimized;
+
+    private EvaluationFrame frame;
+
+    private EvaluationFrame optimizedFrame;
+
+    private int zSlot;
+
+    private CompiledExpression compiled;
+
+    private double[] vars;
+
+    private double[] result;
+
+    private BatchEvaluator batch;
+
+    private double[] inRe;
+
+    private double[] inIm;
+
+    private double[] outRe;
+
+    private double[] outIm;
+
+    private Complex z0;
+
+    private Complex out;
+
+    @Setup
+    public void setup() {
+        z0 = new Complex(0.1, 0.05);
+        Complex c = new Complex(-0.4, 0.3);
+
+        tree = new Parser().parse(Formulas.fractal(formula));
+        tree.variable("z").set(z0);
+        tree.variable("c").set(c);
+
+        optimized = new CommonSubexpressionEliminator().eliminate(new Optimizer().optimize(new Parser().parse(Formulas.fractal(formula))));
+        optimized.variable("z").set(z0);
+        optimized.variable("c").set(c);
+
+        frame = new EvaluationFrame(tree);
+        optimizedFrame = new EvaluationFrame(optimized);
+        zSlot = frame.slot("z");
+
+        compiled = new ExpressionCompiler().compile(tree);
+        vars = new double[2 * compiled.getVariableCount()];
+        setCompiled("z", z0);
+        setCompiled("c", c);
+        result = new double[2];
+
+        batch = new BatchEvaluator();
+        inRe = new double[POINTS];
+        inIm = new double[POINTS];
+        outRe = new double[POINTS];
+        outIm = new double[POINTS];
+        for(int k = 0; k < POINTS; k++) {
+            double angle = 2 * Math.PI * k / POINTS;
+            inRe[k] = 0.75 * Math.cos(angle);
+            inIm[k] = 0.75 * Math.sin(angle);
+        }
+
+        out = new Complex();
+    }
+
+    private void setCompiled(String name, Complex value) {
+        int index = compiled.getVariableIndex(name);
+
+        if(index != -1) {
+            vars[2 * index] = value.getRe();
+            vars[2 * index + 1] = value.getIm();
+        }
+    }
+
+    @Benchmark
+    public Complex getValue() {
+        return tree.getValue();
+    }
+
+    @Benchmark
+    public Complex evaluateInto() {
+        tree.evaluateInto(frame, out);
+        return out;
+    }
+
+    @Benchmark
+    public Complex optimizedEvaluateInto() {
+        optimized.evaluateInto(optimizedFrame, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] compiled() {
+        compiled.evaluate(vars, result);
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void batch(Blackhole blackhole) {
+        batch.evaluate(frame, tree, "z", inRe, inIm, outRe, outIm);
+        blackhole.consume(outRe);
+        blackhole.consume(outIm);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITERATIONS)
+    public Complex orbit() {
+        if(zSlot == -1) {
+            return evaluateInto();
+        }
+
+        out.assign(z0);
+        for(int k = 0; k < ITERATIONS; k++) {
+            if(out.norm_squared() > BAILOUT) {
+                out.assign(z0);
+            }
+            frame.set(zSlot, out);
+            tree.evaluateInto(frame, out);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The formulas the benchmarks run on.
+ *
+ * The fractal formulas are the ones a zoomer evaluates once per iteration,
+ * with z the orbit value and c the pixel. The corpora for the tokenizer and
+ * the parser range from the short formulas users type to generated inputs
+ * that are long or deeply nested, up to a formula of a million tokens.
+ */
+final class Formulas {
+
+    /**
+     * typical fractal formulas by name, the names are the values of the
+     * formula parameters
+     */
+    static final Map<String, String> FRACTALS = new LinkedHashMap<String, String>();
+
+    static {
+        FRACTALS.put("mandelbrot", "z^2 + c");
+        FRACTALS.put("cubic", "z^3 + c");
+        FRACTALS.put("mandelbrot8", "z^8 + c");
+        FRACTALS.put("burningShip", "(abs(re(z)) + abs(im(z))*i)^2 + c");
+        FRACTALS.put("lambda", "c*z*(1 - z)");
+        FRACTALS.put("magnet", "((z^2 + c - 1) / (2*z + c - 2))^2");
+        FRACTALS.put("newton", "z - (z^3 - 1) / (3*z^2)");
+        FRACTALS.put("nova", "z - (z^3 - 1) / (3*z^2) + c");
+        FRACTALS.put("sine", "c*sin(z)");
+        FRACTALS.put("exponential", "exp(z) + c");
+        FRACTALS.put("spider", "z^2 + c + 0.5*z^-1.5");
+    }
+
+    /**
+     * short formulas as they are typed into a formula field
+     */
+    static final String[] SHORT = {
+        "z^2 + c",
+        "z^3 - z + c",
+        "z^2 + c/z",
+        "(abs(re(z)) + abs(im(z))*i)^2 + c",
+        "c*z*(1 - z)",
+        "((z^2 + c - 1) / (2*z + c - 2))^2",
+        "z - (z^3 - 1) / (3*z^2)",
+        "sin(z) + 1/c",
+        "exp(z) + c",
+        "z^2.5 + 0.25 - 0.5i",
+        "cosh(z)*c",
+        "log(z^2 + 1) + c",
+        "f'(z^3 + c, z)",
+        "pow(z, 3) + add(c, 0.1)",
+        "gamma(z) + erf(c)",
+        "conj(z)^2 + c",
+        "z^4 - 2*z^2*c + c^2",
+        "sqrt(abs(z)) * exp(i*arg(z)) + c",
+        "rzeta(z) * 1e-3 + c",
+        "fuzz(z^2, 1e-9) + c",
+    };
+
+    /**
+     * a single formula of about 500 terms
+     */
+    static final String LONG = longFormula(500);
+
+    /**
+     * a single formula with 150 levels of nested parentheses and functions
+     */
+    static final String NESTED = nestedFormula(150);
+
+    /**
+     * the number of terms of the huge formula, each term is 19 tokens long
+     * with the operator before it, which makes just over a million tokens
+     */
+    static final int HUGE_TERMS = 52632;
+
+    private Formulas() {
+
+    }
+
+    static String fractal(String name) {
+        String formula = FRACTALS.get(name);
+
+        if(formula == null) {
+            throw new IllegalArgumentException("Unknown fractal formula " + name + ".");
+        }
+
+        return formula;
+    }
+
+    /**
+     * @param name short, long, nested or huge
+     * @return the corpus of that name
+     */
+    static String[] corpus(String name) {
+        switch(name) {
+            case "short":
+                return SHORT;
+            case "long":
+                return new String[] {LONG};
+            case "nested":
+                return new String[] {NESTED};
+            case "huge":
+                // built on demand, it is a couple of megabytes
+                return new String[] {longFormula(HUGE_TERMS)};
+            default:
+                throw new IllegalArgumentException("Unknown corpus " + name + ".");
+        }
+    }
+
+    private static String longFormula(int terms) {
+        StringBuilder formula = new StringBuilder();
+        String[] functions = {"sin", "cos", "exp", "log", "sqrt", "tanh"};
+
+        for(int k = 0; k < terms; k++) {
+            if(k > 0) {
+                formula.append(k % 3 == 0 ? " - " : " + ");
+            }
+            formula.append(k + 1).append(".25e-2*").append(functions[k % functions.length])
+                    .append("(z*").append(k % 7 + 1).append(" + c)^").append(k % 4 + 1)
+                    .append(" / (z + ").append(k % 5 + 2).append("i)");
+        }
+
+        return formula.toString();
+    }
+
+    private static String nestedFormula(int depth) {
+        StringBuilder formula = new StringBuilder();
+        String[] functions = {"sin", "exp", "cos", "sqrt"};
+
+        for(int k = 0; k < depth; k++) {
+            formula.append(functions[k % functions.length]).append("(z + (");
+        }
+        formula.append("c");
+        for(int k = 0; k < depth; k++) {
+            formula.append(")*").append(k % 9 + 1).append(')');
+        }
+
+        return formula.toString();
+    }
+}
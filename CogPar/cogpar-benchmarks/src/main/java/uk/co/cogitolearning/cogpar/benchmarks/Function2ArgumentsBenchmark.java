@@ -0,0 +1,82 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.Function2ArgumentsExpressionNode;
+import uk.co.cogitolearning.cogpar.RealConstantExpressionNode;
+import uk.co.cogitolearning.cogpar.functions.AbstractTwoArgumentFunction;
+
+/**
+ * Every two argument function, called directly on fixed arguments.
+ *
+ * The parameter list is the one of
+ * Function2ArgumentsExpressionNode.getAllFunctions and has to be extended
+ * with it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class Function2ArgumentsBenchmark {
+
+    @Param({"bipol", "ibipol", "inflect", "foldu", "foldd", "foldl", "foldr", "foldi", "foldo", "shear",
+            "cmp", "add", "sub", "mul", "div", "rem", "pow", "logn", "fuzz", "normn", "rot", "dist", "sdist"})
+    public String function;
+
+    private AbstractTwoArgumentFunction implementation;
+
+    private Complex argument;
+
+    private Complex argument2;
+
+    private Complex out;
+
+    @Setup
+    public void setup() {
+        argument = new Complex(0.45, 0.3);
+        argument2 = new Complex(1.2, -0.7);
+        out = new Complex();
+        implementation = new Function2ArgumentsExpressionNode(Function2ArgumentsExpressionNode.stringToFunction(function),
+                new RealConstantExpressionNode(argument), new RealConstantExpressionNode(argument2)).getFunction();
+    }
+
+    @Benchmark
+    public Complex evaluate() {
+        return implementation.evaluate(argument, argument2);
+    }
+
+    @Benchmark
+    public Complex evaluateInto() {
+        implementation.evaluateInto(argument, argument2, out);
+        return out;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.FunctionExpressionNode;
+import uk.co.cogitolearning.cogpar.RealConstantExpressionNode;
+import uk.co.cogitolearning.cogpar.functions.AbstractOneArgumentFunction;
+
+/**
+ * Every one argument function, called directly on a fixed argument.
+ *
+ * The argument is a generic point, away from the poles, the branch cuts and
+ * the exact table entries some functions have. The parameter list is the one
+ * of FunctionExpressionNode.getAllFunctions and has to be extended with it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class FunctionBenchmark {
+
+    @Param({"sin", "sinh", "asin", "asinh", "cos", "cosh", "acos", "acosh", "tan", "tanh", "atan", "atanh",
+            "cot", "coth", "acot", "acoth", "sec", "sech", "asec", "asech", "csc", "csch", "acsc", "acsch",
+            "sqrt", "exp", "log", "log10", "log2", "abs", "conj", "re", "im", "norm", "arg", "gamma", "fact",
+            "absre", "absim", "gi", "rec", "flip", "round", "ceil", "floor", "trunc", "erf", "rzeta", "deta",
+            "vsin", "avsin", "vcos", "avcos", "cvsin", "acvsin", "cvcos", "acvcos", "hvsin", "ahvsin",
+            "hvcos", "ahvcos", "hcvsin", "ahcvsin", "hcvcos", "ahcvcos", "exsec", "aexsec", "excsc", "aexcsc",
+            "snorm", "fib"})
+    public String function;
+
+    private AbstractOneArgumentFunction implementation;
+
+    private Complex argument;
+
+    private Complex out;
+
+    @Setup
+    public void setup() {
+        argument = new Complex(0.45, 0.3);
+        out = new Complex();
+        implementation = new FunctionExpressionNode(FunctionExpressionNode.stringToFunction(function), new RealConstantExpressionNode(argument)).getFunction();
+    }
+
+    @Benchmark
+    public Complex evaluate() {
+        return implementation.evaluate(argument);
+    }
+
+    @Benchmark
+    public Complex evaluateInto() {
+        implementation.evaluateInto(argument, out);
+        return out;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.ExpressionNode;
+import uk.co.cogitolearning.cogpar.GridEvaluator;
+import uk.co.cogitolearning.cogpar.Parser;
+
+/**
+ * Evaluation of the fractal formulas over a whole image.
+ *
+ * The grid is evaluated by a pool of 1, 2, 4 and 8 workers, which shows how
+ * the tiles scale with the threads. The threads are those of the pool rather
+ * than JMH threads, one invocation evaluates the whole grid. The score is
+ * per point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+
+    static final int WIDTH = 512;
+
+    static final int HEIGHT = 512;
+
+    @Param({"mandelbrot", "burningShip", "newton", "sine"})
+    public String formula;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private ForkJoinPool pool;
+
+    private GridEvaluator grid;
+
+    private ExpressionNode tree;
+
+    private double[] outRe;
+
+    private double[] outIm;
+
+    @Setup
+    public void setup() {
+        pool = new ForkJoinPool(workers);
+        grid = new GridEvaluator(pool);
+
+        tree = new Parser().parse(Formulas.fractal(formula));
+        tree.variable("z").set(new Complex(0.1, 0.05));
+        tree.variable("c").set(new Complex(-0.4, 0.3));
+
+        outRe = new double[WIDTH * HEIGHT];
+        outIm = new double[WIDTH * HEIGHT];
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public void evaluate(Blackhole blackhole) {
+        grid.evaluate(tree, "z", -2, 2, -2, 2, WIDTH, HEIGHT, outRe, outIm);
+        blackhole.consume(outRe);
+        blackhole.consume(outIm);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.EvaluationFrame;
+import uk.co.cogitolearning.cogpar.ExpressionNode;
+import uk.co.cogitolearning.cogpar.FunctionExpressionNode;
+import uk.co.cogitolearning.cogpar.VariableExpressionNode;
+
+/**
+ * Function nodes of many different functions evaluated side by side, the
+ * way a formula that mixes them is.
+ *
+ * With specialized=false the nodes are created with the constructor and
+ * share the one call site of FunctionExpressionNode, with specialized=true
+ * they are created with FunctionExpressionNode.create. Running with
+ * -jvmArgsAppend "-XX:+UnlockDiagnosticVMOptions -XX:+PrintInlining" shows
+ * the functions inlined into the generated nodes and a virtual call in the
+ * plain one. Scores are per function call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixedFunctionBenchmark {
+
+    static final String[] FUNCTIONS = {"sin", "cos", "exp", "log", "sqrt", "re", "im", "conj", "flip", "rec", "absre", "snorm"};
+
+    @Param({"false", "true"})
+    public boolean specialized;
+
+    private ExpressionNode[] nodes;
+
+    private EvaluationFrame frame;
+
+    private Complex out;
+
+    @Setup
+    public void setup() {
+        VariableExpressionNode z = new VariableExpressionNode("z");
+        z.setValue(new Complex(0.45, 0.3));
+
+        nodes = new ExpressionNode[FUNCTIONS.length];
+        for(int i = 0; i < FUNCTIONS.length; i++) {
+            int id = FunctionExpressionNode.stringToFunction(FUNCTIONS[i]);
+            nodes[i] = specialized ? FunctionExpressionNode.create(id, z) : new FunctionExpressionNode(id, z);
+        }
+
+        frame = new EvaluationFrame(nodes[0]);
+        out = new Complex();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void getValue(Blackhole blackhole) {
+        for(ExpressionNode node : nodes) {
+            blackhole.consume(node.getValue());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void evaluateInto(Blackhole blackhole) {
+        for(ExpressionNode node : nodes) {
+            node.evaluateInto(frame, out);
+            blackhole.consume(out.getRe());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.cogitolearning.cogpar.Parser;
+import uk.co.cogitolearning.cogpar.Token;
+import uk.co.cogitolearning.cogpar.Tokenizer;
+
+/**
+ * Tokenizing and parsing of whole corpora.
+ *
+ * One operation handles every formula of the corpus. parseTokens starts from
+ * the tokens so that it measures the parser alone, parse includes the
+ * tokenizer. The huge corpus is a single formula of a million tokens, it shows
+ * whether tokenizing and parsing stay linear in the length of the input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"short", "long", "nested", "huge"})
+    public String corpus;
+
+    private String[] formulas;
+
+    private List<LinkedList<Token>> tokens;
+
+    private Tokenizer tokenizer;
+
+    private Parser parser;
+
+    @Setup
+    public void setup() {
+        formulas = Formulas.corpus(corpus);
+        tokenizer = Tokenizer.getExpressionTokenizer();
+        parser = new Parser();
+
+        tokens = new ArrayList<LinkedList<Token>>(formulas.length);
+        for(String formula : formulas) {
+            tokens.add(tokenizer.getTokens(formula));
+        }
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+        for(String formula : formulas) {
+            blackhole.consume(tokenizer.getTokens(formula));
+        }
+    }
+
+    @Benchmark
+    public void parseTokens(Blackhole blackhole) {
+        for(LinkedList<Token> list : tokens) {
+            blackhole.consume(parser.parse(list));
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for(String formula : formulas) {
+            blackhole.consume(parser.parse(formula));
+        }
+    }
+}
@@ -80,6 +80,26 @@ public class AdditionExpressionNode extends SequenceExpressionNode
     return sum;
   }
 
+  /**
+   * Evaluates the terms one after the other into a scratch register and adds
+   * or subtracts them from out.
+   */
+  public void evaluateInto(EvaluationFrame frame, Complex out)
+  {
+    Complex value = frame.acquire();
+    out.reset();
+    for (int i = 0; i < terms.size(); i++)
+    {
+      Term t = terms.get(i);
+      t.expression.evaluateInto(frame, value);
+      if (t.mode == ADD)
+        out.plus_mutable(value);
+      else
+        out.sub_mutable(value);
+    }
+    frame.release(1);
+  }
+
   /**
    * Implementation of the visitor design pattern.
    * 
@@ -0,0 +1,571 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import uk.co.cogitolearning.cogpar.functions.AbstractOneArgumentFunction;
+import uk.co.cogitolearning.cogpar.functions.AbstractTwoArgumentFunction;
+
+/**
+ * Evaluates an expression for many values of one variable.
+ *
+ * The inputs are processed in blocks of BLOCK_SIZE points. For every block the
+ * tree is walked once and each node applies its operation to the whole block,
+ * with the real and imaginary parts kept in separate arrays. Additions,
+ * multiplications, divisions and the square and cube fast paths of
+ * exponentiation are plain loops over these arrays that the JIT can
+ * vectorize, function nodes loop over the block with their allocation-free
+ * evaluateInto. Shared subexpressions are evaluated once per block and copied
+ * for their other occurrences. Nodes without a block implementation, such as
+ * derivatives, are evaluated point by point through an EvaluationFrame.
+ *
+ * The results are bit-identical to ExpressionNode.getValue. An evaluator keeps
+ * its buffers between calls and must not be shared between threads.
+ *
+ * fuzz draws from the SplitMix64 generator of the current thread, which is
+ * reseeded at the start of every block from the seed of the evaluator and
+ * the index of the first point of the block, so the same inputs and seed
+ * give the same results on any thread.
+ */
+public class BatchEvaluator {
+
+    /**
+     * the number of points evaluated per walk of the tree
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    private double[][] buffersRe;
+    private double[][] buffersIm;
+    private int top;
+
+    /* the values of shared nodes by index and the block they belong to */
+    private double[][] sharedRe;
+    private double[][] sharedIm;
+    private long[] sharedBlocks;
+    private long block;
+    private long blocks;
+    private long seed;
+
+    private EvaluationFrame frame;
+    private int slot;
+    private double[] inputRe;
+    private double[] inputIm;
+    private int offset;
+    private MetricsRecorder recorder;
+
+    private final Complex value;
+    private final Complex value2;
+    private final Complex result;
+
+    public BatchEvaluator() {
+        buffersRe = new double[0][];
+        buffersIm = new double[0][];
+        top = 0;
+        sharedRe = new double[0][];
+        sharedIm = new double[0][];
+        sharedBlocks = new long[0];
+        block = 0;
+        blocks = 0;
+        value = new Complex();
+        value2 = new Complex();
+        result = new Complex();
+    }
+
+    /**
+     * Sets the seed of the random numbers of fuzz, the default is 0.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Evaluates an expression at every point re[k] + im[k]i of a variable.
+     * Other variables keep the values they were given through the tree.
+     *
+     * @param expr the expression
+     * @param var the name of the variable that takes the input values
+     * @param re the real parts of the inputs
+     * @param im the imaginary parts of the inputs
+     * @param outRe receives the real parts of the results
+     * @param outIm receives the imaginary parts of the results
+     */
+    public void evaluate(ExpressionNode expr, String var, double[] re, double[] im, double[] outRe, double[] outIm) {
+        evaluate(new EvaluationFrame(expr), expr, var, re, im, outRe, outIm);
+    }
+
+    /**
+     * Evaluates an expression at every point re[k] + im[k]i of a variable.
+     * Other variables take their values from the frame, the slot of var in
+     * the frame is overwritten.
+     *
+     * @param frame the frame holding the values of the other variables
+     * @param expr the expression
+     * @param var the name of the variable that takes the input values
+     * @param re the real parts of the inputs
+     * @param im the imaginary parts of the inputs
+     * @param outRe receives the real parts of the results
+     * @param outIm receives the imaginary parts of the results
+     */
+    public void evaluate(EvaluationFrame frame, ExpressionNode expr, String var, double[] re, double[] im, double[] outRe, double[] outIm) {
+        if(im.length != re.length) {
+            throw new IllegalArgumentException("The input and output arrays must have matching lengths.");
+        }
+
+        evaluate(frame, expr, var, re, im, re.length, outRe, outIm, 0);
+    }
+
+    /**
+     * Evaluates an expression at the first length points re[k] + im[k]i of a
+     * variable and stores the results from index outOffset of the output
+     * arrays, so the input arrays can be reused for inputs of any length.
+     * Other variables take their values from the frame, the slot of var in
+     * the frame is overwritten.
+     *
+     * @param frame the frame holding the values of the other variables
+     * @param expr the expression
+     * @param var the name of the variable that takes the input values
+     * @param re the real parts of the inputs
+     * @param im the imaginary parts of the inputs
+     * @param length the number of inputs
+     * @param outRe receives the real parts of the results
+     * @param outIm receives the imaginary parts of the results
+     * @param outOffset the index of the result of the first input
+     */
+    public void evaluate(EvaluationFrame frame, ExpressionNode expr, String var, double[] re, double[] im, int length, double[] outRe, double[] outIm, int outOffset) {
+        if(length < 0 || outOffset < 0 || re.length < length || im.length < length || outRe.length - outOffset < length || outIm.length - outOffset < length) {
+            throw new IllegalArgumentException("The input and output arrays must have matching lengths.");
+        }
+
+        this.frame = frame;
+        slot = frame.slot(var);
+        inputRe = re;
+        inputIm = im;
+        SplitMix64 random = SplitMix64.current();
+
+        recorder = Metrics.recorder();
+        long start = recorder != Metrics.NONE ? System.nanoTime() : 0;
+        EvaluationEvent event = new EvaluationEvent();
+        event.begin();
+        boolean failed = true;
+
+        try {
+            for(offset = 0; offset < length; offset += BLOCK_SIZE) {
+                int n = Math.min(BLOCK_SIZE, length - offset);
+                block = ++blocks;
+                random.seed(SplitMix64.mix(seed + offset));
+                int b = acquire();
+                evaluate(expr, b, n);
+                System.arraycopy(buffersRe[b], 0, outRe, outOffset + offset, n);
+                System.arraycopy(buffersIm[b], 0, outIm, outOffset + offset, n);
+                release(1);
+            }
+            failed = false;
+        }
+        catch(EvaluationException ex) {
+            Metrics.evaluationException(ex);
+            throw ex;
+        }
+        finally {
+            if(recorder != Metrics.NONE) {
+                recorder.evaluated(System.nanoTime() - start, length);
+            }
+
+            event.end();
+            if(event.shouldCommit()) {
+                event.variable = var;
+                event.points = length;
+                event.failed = failed;
+                event.commit();
+            }
+
+            top = 0;
+            frame.reset();
+            this.frame = null;
+            recorder = null;
+            inputRe = null;
+            inputIm = null;
+        }
+    }
+
+    private int acquire() {
+        if(top == buffersRe.length) {
+            double[][] grownRe = new double[top + 8][];
+            double[][] grownIm = new double[top + 8][];
+            System.arraycopy(buffersRe, 0, grownRe, 0, top);
+            System.arraycopy(buffersIm, 0, grownIm, 0, top);
+            for(int i = top; i < grownRe.length; i++) {
+                grownRe[i] = new double[BLOCK_SIZE];
+                grownIm[i] = new double[BLOCK_SIZE];
+            }
+            buffersRe = grownRe;
+            buffersIm = grownIm;
+        }
+
+        return top++;
+    }
+
+    private void release(int count) {
+        top -= count;
+    }
+
+    /**
+     * Evaluates a node for the n points of the current block into buffer b.
+     */
+    private void evaluate(ExpressionNode node, int b, int n) {
+        switch(node.getType()) {
+            case ExpressionNode.VARIABLE_NODE:
+                if(slot != -1 && frame.slot(((VariableExpressionNode)node).getVariable()) == slot) {
+                    System.arraycopy(inputRe, offset, buffersRe[b], 0, n);
+                    System.arraycopy(inputIm, offset, buffersIm[b], 0, n);
+                }
+                else {
+                    fill(node, b, n);
+                }
+                break;
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+                fill(node, b, n);
+                break;
+            case ExpressionNode.ADDITION_NODE:
+                addition((AdditionExpressionNode)node, b, n);
+                break;
+            case ExpressionNode.MULTIPLICATION_NODE:
+                multiplication((MultiplicationExpressionNode)node, b, n);
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE:
+                exponentiation((ExponentiationExpressionNode)node, b, n);
+                break;
+            case ExpressionNode.FUNCTION_NODE:
+                function((FunctionExpressionNode)node, b, n);
+                break;
+            case ExpressionNode.FUNCTION_2_ARG_NODE:
+                function2((Function2ArgumentsExpressionNode)node, b, n);
+                break;
+            case ExpressionNode.SHARED_NODE:
+                shared((SharedExpressionNode)node, b, n);
+                break;
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE: {
+                ExpressionNode derivative = ((FunctionDerivative2ArgumentsExpressionNode)node).getDerivative();
+                if(derivative != null) {
+                    // the shared nodes of the derivative are numbered on their own
+                    long outer = block;
+                    block = ++blocks;
+                    evaluate(derivative, b, n);
+                    block = outer;
+                }
+                else {
+                    pointwise(node, b, n);
+                }
+                break;
+            }
+            default:
+                pointwise(node, b, n);
+                break;
+        }
+    }
+
+    /**
+     * Evaluates a shared subexpression at its first occurrence in the block,
+     * later occurrences copy the remembered values.
+     */
+    private void shared(SharedExpressionNode node, int b, int n) {
+        int index = node.getIndex();
+
+        if(index >= sharedBlocks.length) {
+            int length = Math.max(index + 1, 2 * sharedBlocks.length);
+            double[][] grownRe = new double[length][];
+            double[][] grownIm = new double[length][];
+            System.arraycopy(sharedRe, 0, grownRe, 0, sharedRe.length);
+            System.arraycopy(sharedIm, 0, grownIm, 0, sharedIm.length);
+            for(int i = sharedRe.length; i < length; i++) {
+                grownRe[i] = new double[BLOCK_SIZE];
+                grownIm[i] = new double[BLOCK_SIZE];
+            }
+            sharedRe = grownRe;
+            sharedIm = grownIm;
+            sharedBlocks = Arrays.copyOf(sharedBlocks, length);
+        }
+
+        if(sharedBlocks[index] == block) {
+            System.arraycopy(sharedRe[index], 0, buffersRe[b], 0, n);
+            System.arraycopy(sharedIm[index], 0, buffersIm[b], 0, n);
+        }
+        else {
+            evaluate(node.getExpression(), b, n);
+            System.arraycopy(buffersRe[b], 0, sharedRe[index], 0, n);
+            System.arraycopy(buffersIm[b], 0, sharedIm[index], 0, n);
+            sharedBlocks[index] = block;
+        }
+    }
+
+    /**
+     * Evaluates a node that does not depend on the input once and repeats the
+     * value over the block.
+     */
+    private void fill(ExpressionNode node, int b, int n) {
+        node.evaluateInto(frame, value);
+
+        double re = value.getRe();
+        double im = value.getIm();
+        double[] outRe = buffersRe[b];
+        double[] outIm = buffersIm[b];
+
+        for(int i = 0; i < n; i++) {
+            outRe[i] = re;
+            outIm[i] = im;
+        }
+    }
+
+    /**
+     * Evaluates a node point by point with the input bound in the frame.
+     */
+    private void pointwise(ExpressionNode node, int b, int n) {
+        double[] outRe = buffersRe[b];
+        double[] outIm = buffersIm[b];
+
+        for(int i = 0; i < n; i++) {
+            if(slot != -1) {
+                frame.set(slot, inputRe[offset + i], inputIm[offset + i]);
+            }
+            node.evaluateInto(frame, result);
+            outRe[i] = result.getRe();
+            outIm[i] = result.getIm();
+        }
+    }
+
+    private void addition(AdditionExpressionNode node, int b, int n) {
+        ArrayList<SequenceExpressionNode.Term> terms = node.getTerms();
+        double[] sumRe = buffersRe[b];
+        double[] sumIm = buffersIm[b];
+
+        for(int i = 0; i < n; i++) {
+            sumRe[i] = 0;
+            sumIm[i] = 0;
+        }
+
+        int t = acquire();
+        double[] termRe = buffersRe[t];
+        double[] termIm = buffersIm[t];
+
+        for(int k = 0; k < terms.size(); k++) {
+            SequenceExpressionNode.Term term = terms.get(k);
+            evaluate(term.expression, t, n);
+
+            if(term.mode == AdditionExpressionNode.ADD) {
+                for(int i = 0; i < n; i++) {
+                    sumRe[i] = sumRe[i] + termRe[i];
+                    sumIm[i] = sumIm[i] + termIm[i];
+                }
+            }
+            else {
+                for(int i = 0; i < n; i++) {
+                    sumRe[i] = sumRe[i] - termRe[i];
+                    sumIm[i] = sumIm[i] - termIm[i];
+                }
+            }
+        }
+
+        release(1);
+    }
+
+    private void multiplication(MultiplicationExpressionNode node, int b, int n) {
+        ArrayList<SequenceExpressionNode.Term> terms = node.getTerms();
+        double[] prodRe = buffersRe[b];
+        double[] prodIm = buffersIm[b];
+
+        for(int i = 0; i < n; i++) {
+            prodRe[i] = 1.0;
+            prodIm[i] = 0;
+        }
+
+        int t = acquire();
+        double[] factorRe = buffersRe[t];
+        double[] factorIm = buffersIm[t];
+
+        for(int k = 0; k < terms.size(); k++) {
+            SequenceExpressionNode.Term term = terms.get(k);
+            evaluate(term.expression, t, n);
+
+            if(term.mode == MultiplicationExpressionNode.MULT) {
+                for(int i = 0; i < n; i++) {
+                    double re = prodRe[i];
+                    double im = prodIm[i];
+                    double temp = factorRe[i];
+                    double temp2 = factorIm[i];
+                    prodRe[i] = re * temp - im * temp2;
+                    prodIm[i] = re * temp2 + im * temp;
+                }
+            }
+            else if(term.mode == MultiplicationExpressionNode.DIV) {
+                for(int i = 0; i < n; i++) {
+                    double re = prodRe[i];
+                    double im = prodIm[i];
+                    double temp = factorRe[i];
+                    double temp2 = factorIm[i];
+                    double temp3 = temp * temp + temp2 * temp2;
+                    prodRe[i] = (re * temp + im * temp2) / temp3;
+                    prodIm[i] = (im * temp - re * temp2) / temp3;
+                }
+            }
+            else {
+                for(int i = 0; i < n; i++) {
+                    result.setRe(prodRe[i]);
+                    result.setIm(prodIm[i]);
+                    value.setRe(factorRe[i]);
+                    value.setIm(factorIm[i]);
+                    result.remainder_mutable(value, value2);
+                    prodRe[i] = result.getRe();
+                    prodIm[i] = result.getIm();
+                }
+            }
+        }
+
+        release(1);
+    }
+
+    private void exponentiation(ExponentiationExpressionNode node, int b, int n) {
+        double[] baseRe = buffersRe[b];
+        double[] baseIm = buffersIm[b];
+
+        int e = acquire();
+        double[] exponentRe = buffersRe[e];
+        double[] exponentIm = buffersIm[e];
+
+        double exponent;
+        boolean uniform = true;
+        if(node instanceof IntegerPowerExpressionNode) {
+            exponent = ((IntegerPowerExpressionNode)node).getPower();
+        }
+        else if(node instanceof RealPowerExpressionNode) {
+            exponent = ((RealPowerExpressionNode)node).getPower();
+        }
+        else {
+            evaluate(node.getExponent(), e, n);
+            exponent = exponentRe[0];
+            for(int i = 0; i < n; i++) {
+                if(exponentIm[i] != 0 || exponentRe[i] != exponent) {
+                    uniform = false;
+                    break;
+                }
+            }
+        }
+        evaluate(node.getBase(), b, n);
+
+        if(uniform && exponent == 2) {
+            for(int i = 0; i < n; i++) {
+                double re = baseRe[i];
+                double im = baseIm[i];
+                double temp = re * im;
+                baseRe[i] = (re + im) * (re - im);
+                baseIm[i] = temp + temp;
+            }
+        }
+        else if(uniform && exponent == 3) {
+            for(int i = 0; i < n; i++) {
+                double re = baseRe[i];
+                double im = baseIm[i];
+                double temp = re * re;
+                double temp2 = im * im;
+                baseRe[i] = re * (temp - 3 * temp2);
+                baseIm[i] = im * (3 * temp - temp2);
+            }
+        }
+        else if(uniform && exponent == 4) {
+            for(int i = 0; i < n; i++) {
+                double re = baseRe[i];
+                double im = baseIm[i];
+                double temp = re * re;
+                double temp2 = im * im;
+                baseRe[i] = temp * (temp - 6 * temp2) + temp2 * temp2;
+                baseIm[i] = 4 * re * im * (temp - temp2);
+            }
+        }
+        else if(uniform) {
+            for(int i = 0; i < n; i++) {
+                result.setRe(baseRe[i]);
+                result.setIm(baseIm[i]);
+                ExponentiationExpressionNode.power(result, exponent);
+                baseRe[i] = result.getRe();
+                baseIm[i] = result.getIm();
+            }
+        }
+        else {
+            for(int i = 0; i < n; i++) {
+                result.setRe(baseRe[i]);
+                result.setIm(baseIm[i]);
+                value.setRe(exponentRe[i]);
+                value.setIm(exponentIm[i]);
+                ExponentiationExpressionNode.power(result, value);
+                baseRe[i] = result.getRe();
+                baseIm[i] = result.getIm();
+            }
+        }
+
+        release(1);
+    }
+
+    private void function(FunctionExpressionNode node, int b, int n) {
+        AbstractOneArgumentFunction function = node.getFunction();
+        double[] outRe = buffersRe[b];
+        double[] outIm = buffersIm[b];
+
+        evaluate(node.getArgument(), b, n);
+
+        for(int i = 0; i < n; i++) {
+            value.setRe(outRe[i]);
+            value.setIm(outIm[i]);
+            function.evaluateInto(value, result);
+            outRe[i] = result.getRe();
+            outIm[i] = result.getIm();
+        }
+
+        if(recorder != Metrics.NONE) {
+            recorder.functionEvaluated(Token.FUNCTION, node.getFunctionId(), n);
+        }
+    }
+
+    private void function2(Function2ArgumentsExpressionNode node, int b, int n) {
+        AbstractTwoArgumentFunction function = node.getFunction();
+        double[] outRe = buffersRe[b];
+        double[] outIm = buffersIm[b];
+
+        int a = acquire();
+        double[] argumentRe = buffersRe[a];
+        double[] argumentIm = buffersIm[a];
+        evaluate(node.getArgument(), b, n);
+        evaluate(node.getArgument2(), a, n);
+
+        for(int i = 0; i < n; i++) {
+            value.setRe(outRe[i]);
+            value.setIm(outIm[i]);
+            value2.setRe(argumentRe[i]);
+            value2.setIm(argumentIm[i]);
+            function.evaluateInto(value, value2, result);
+            outRe[i] = result.getRe();
+            outIm[i] = result.getIm();
+        }
+
+        if(recorder != Metrics.NONE) {
+            recorder.functionEvaluated(Token.FUNCTION_2ARGUMENTS, node.getFunctionId(), n);
+        }
+
+        release(1);
+    }
+}
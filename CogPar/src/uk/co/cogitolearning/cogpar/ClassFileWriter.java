@@ -0,0 +1,501 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A minimal class file writer used to generate classes at runtime.
+ *
+ * Only what the generators of this package need is supported: a single
+ * class with straight-line methods (no branches, so no stack map frames are
+ * needed), the double arithmetic opcodes, field access and method calls.
+ * The operand stack depth and the number of locals are tracked while the
+ * code is emitted.
+ */
+final class ClassFileWriter {
+
+    private static final int CLASS_FILE_VERSION = 52;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int DALOAD = 0x31;
+    static final int DASTORE = 0x52;
+    static final int AALOAD = 0x32;
+    static final int DUP = 0x59;
+    static final int POP = 0x57;
+    static final int RETURN = 0xb1;
+    static final int ARETURN = 0xb0;
+    static final int DRETURN = 0xaf;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes;
+    private final DataOutputStream pool;
+    private final HashMap<String, Integer> poolIndex;
+    private int poolCount;
+
+    private final int thisClass;
+    private final int superClass;
+    private final ArrayList<MethodWriter> methods;
+
+    /**
+     * Starts a new public final class.
+     *
+     * @param className the internal name of the class, for example
+     * uk/co/cogitolearning/cogpar/Foo
+     * @param superName the internal name of the super class
+     */
+    ClassFileWriter(String className, String superName) {
+        poolBytes = new ByteArrayOutputStream();
+        pool = new DataOutputStream(poolBytes);
+        poolIndex = new HashMap<String, Integer>();
+        poolCount = 1;
+        methods = new ArrayList<MethodWriter>();
+
+        thisClass = classRef(className);
+        superClass = classRef(superName);
+    }
+
+    /**
+     * Adds a method to the class.
+     *
+     * @param access the access flags
+     * @param name the name of the method
+     * @param descriptor the method descriptor
+     * @param argumentSlots the number of local slots taken by this and the
+     * arguments
+     * @return a writer for the code of the method
+     */
+    MethodWriter addMethod(int access, String name, String descriptor, int argumentSlots) {
+        MethodWriter method = new MethodWriter(access, utf8(name), utf8(descriptor), argumentSlots);
+        methods.add(method);
+        return method;
+    }
+
+    /**
+     * Returns the bytes of the class file.
+     */
+    byte[] toByteArray() {
+        try {
+            int code = utf8("Code");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(methods.size());
+            for(MethodWriter method : methods) {
+                method.write(out, code);
+            }
+
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    int classRef(String internalName) {
+        Integer index = poolIndex.get("C" + internalName);
+        if(index != null) {
+            return index;
+        }
+
+        int name = utf8(internalName);
+        return addEntry("C" + internalName, CONSTANT_CLASS, name, -1, 1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = poolIndex.get(key);
+        if(index != null) {
+            return index;
+        }
+
+        int ownerIndex = classRef(owner);
+
+        String ntKey = "N" + name + descriptor;
+        Integer nameAndType = poolIndex.get(ntKey);
+        if(nameAndType == null) {
+            nameAndType = addEntry(ntKey, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor), 1);
+        }
+
+        return addEntry(key, tag, ownerIndex, nameAndType, 1);
+    }
+
+    private int utf8(String value) {
+        String key = "U" + value;
+        Integer index = poolIndex.get(key);
+        if(index != null) {
+            return index;
+        }
+
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        index = poolCount++;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        String key = "D" + bits;
+        Integer index = poolIndex.get(key);
+        if(index != null) {
+            return index;
+        }
+
+        try {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeLong(bits);
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        index = poolCount;
+        poolCount += 2; // doubles take two entries
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private int intConstant(int value) {
+        String key = "I" + value;
+        Integer index = poolIndex.get(key);
+        if(index != null) {
+            return index;
+        }
+
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        index = poolCount++;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private int addEntry(String key, int tag, int first, int second, int size) {
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            if(second >= 0) {
+                pool.writeShort(second);
+            }
+        }
+        catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        int index = poolCount;
+        poolCount += size;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    /**
+     * Emits the code of a single method.
+     */
+    final class MethodWriter {
+
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final ByteArrayOutputStream code;
+        private int stack;
+        private int maxStack;
+        private int maxLocals;
+
+        private MethodWriter(int access, int name, int descriptor, int argumentSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            code = new ByteArrayOutputStream();
+            maxLocals = argumentSlots;
+        }
+
+        /**
+         * Emits an instruction without operands.
+         *
+         * @param opcode the opcode
+         * @param stackDelta the change of the operand stack in slots
+         */
+        void op(int opcode, int stackDelta) {
+            code.write(opcode);
+            adjustStack(stackDelta);
+        }
+
+        void aload(int slot) {
+            local(0x19, 0x2a, slot, 1);
+        }
+
+        void iload(int slot) {
+            local(0x15, 0x1a, slot, 1);
+        }
+
+        void dload(int slot) {
+            local(0x18, 0x26, slot, 2);
+        }
+
+        void dstore(int slot) {
+            local(0x39, 0x47, slot, -2);
+        }
+
+        void astore(int slot) {
+            local(0x3a, 0x4b, slot, -1);
+        }
+
+        void dconst(double value) {
+            if(Double.doubleToRawLongBits(value) == 0L) {
+                op(DCONST_0, 2);
+            }
+            else if(value == 1.0) {
+                op(DCONST_1, 2);
+            }
+            else {
+                code.write(0x14); // ldc2_w
+                writeShort(doubleConstant(value));
+                adjustStack(2);
+            }
+        }
+
+        void iconst(int value) {
+            if(value >= -1 && value <= 5) {
+                code.write(0x03 + value); // iconst_<n>
+            }
+            else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(0x10); // bipush
+                code.write(value);
+            }
+            else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(0x11); // sipush
+                writeShort(value);
+            }
+            else {
+                code.write(0x13); // ldc_w
+                writeShort(intConstant(value));
+            }
+            adjustStack(1);
+        }
+
+        void getField(String owner, String name, String descriptor) {
+            code.write(0xb4);
+            writeShort(fieldRef(owner, name, descriptor));
+            adjustStack(slots(descriptor) - 1);
+        }
+
+        void putField(String owner, String name, String descriptor) {
+            code.write(0xb5);
+            writeShort(fieldRef(owner, name, descriptor));
+            adjustStack(-slots(descriptor) - 1);
+        }
+
+        void newObject(String internalName) {
+            code.write(0xbb);
+            writeShort(classRef(internalName));
+            adjustStack(1);
+        }
+
+        void invokeVirtual(String owner, String name, String descriptor) {
+            code.write(0xb6);
+            writeShort(methodRef(owner, name, descriptor));
+            adjustStack(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+        }
+
+        void invokeSpecial(String owner, String name, String descriptor) {
+            code.write(0xb7);
+            writeShort(methodRef(owner, name, descriptor));
+            adjustStack(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+        }
+
+        void invokeStatic(String owner, String name, String descriptor) {
+            code.write(0xb8);
+            writeShort(methodRef(owner, name, descriptor));
+            adjustStack(returnSlots(descriptor) - argumentSlots(descriptor));
+        }
+
+        void invokeInterface(String owner, String name, String descriptor) {
+            int arguments = argumentSlots(descriptor);
+            code.write(0xb9);
+            writeShort(interfaceMethodRef(owner, name, descriptor));
+            code.write(arguments + 1);
+            code.write(0);
+            adjustStack(returnSlots(descriptor) - arguments - 1);
+        }
+
+        /**
+         * Returns the size of the code emitted so far in bytes.
+         */
+        int size() {
+            return code.size();
+        }
+
+        private void local(int opcode, int shortOpcode, int slot, int stackDelta) {
+            if(slot <= 3) {
+                code.write(shortOpcode + slot);
+            }
+            else if(slot <= 0xff) {
+                code.write(opcode);
+                code.write(slot);
+            }
+            else {
+                code.write(0xc4); // wide
+                code.write(opcode);
+                writeShort(slot);
+            }
+
+            int width = opcode == 0x18 || opcode == 0x39 ? 2 : 1;
+            maxLocals = Math.max(maxLocals, slot + width);
+            adjustStack(stackDelta);
+        }
+
+        private void adjustStack(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void writeShort(int value) {
+            code.write((value >>> 8) & 0xff);
+            code.write(value & 0xff);
+        }
+
+        private void write(DataOutputStream out, int codeAttribute) throws IOException {
+            if(code.size() > 0xffff) {
+                throw new EvaluationException("The generated method is too large.");
+            }
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1); // attributes
+
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+    }
+
+    /*
+     * The number of stack slots taken by a field or return type
+     */
+    private static int slots(String type) {
+        char c = type.charAt(0);
+        if(c == 'V') {
+            return 0;
+        }
+        return c == 'D' || c == 'J' ? 2 : 1;
+    }
+
+    private static int returnSlots(String descriptor) {
+        return slots(descriptor.substring(descriptor.indexOf(')') + 1));
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int count = 0;
+        int i = 1;
+        while(descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if(c == 'D' || c == 'J') {
+                count += 2;
+                i++;
+            }
+            else if(c == 'L') {
+                count++;
+                i = descriptor.indexOf(';', i) + 1;
+            }
+            else if(c == '[') {
+                while(descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if(descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i) + 1;
+                }
+                else {
+                    i++;
+                }
+                count++;
+            }
+            else {
+                count++;
+                i++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Turns an expression tree into a DAG in which structurally identical
+ * subexpressions are evaluated once.
+ *
+ * The parser builds a tree, so sin(z^2) + cos(z^2) * (z^2 - 1) computes z^2
+ * three times. Every subtree is hashed by its node type, its constants and
+ * functions and the classes of its children, identical subtrees become one
+ * node, and those with more than one parent are wrapped in a
+ * SharedExpressionNode that remembers its value for the rest of the
+ * evaluation. The results are bit-identical to the tree.
+ *
+ * Constants are identical if their bits are, variables if they are the same
+ * Variable. fuzz draws a new random number on every evaluation, so neither it
+ * nor any subtree containing it is shared. The variable nodes are shared with
+ * the original tree. Run the Optimizer first, it expands shared nodes again.
+ */
+public class CommonSubexpressionEliminator {
+
+    /* the class of every node of the tree */
+    private IdentityHashMap<ExpressionNode, Integer> classes;
+    private IdentityHashMap<Variable, Integer> variables;
+    private HashMap<String, Integer> keys;
+    /* the number of parents of every class in the DAG */
+    private ArrayList<Integer> parents;
+    private ExpressionNode[] built;
+    private int unique;
+    private int sharedCount;
+
+    /**
+     * Returns a copy of an expression in which identical subexpressions are
+     * shared.
+     *
+     * @param expression the root of the expression tree
+     * @return the root of the DAG
+     */
+    public ExpressionNode eliminate(ExpressionNode expression) {
+        classes = new IdentityHashMap<ExpressionNode, Integer>();
+        variables = new IdentityHashMap<Variable, Integer>();
+        keys = new HashMap<String, Integer>();
+        parents = new ArrayList<Integer>();
+        unique = 0;
+        sharedCount = 0;
+
+        try {
+            classify(expression);
+            built = new ExpressionNode[parents.size()];
+            return build(expression);
+        }
+        finally {
+            classes = null;
+            variables = null;
+            keys = null;
+            parents = null;
+            built = null;
+        }
+    }
+
+    /**
+     * @return the number of SharedExpressionNodes created by the last call of
+     * eliminate
+     */
+    public int getSharedCount() {
+        return sharedCount;
+    }
+
+    /*
+     * Assigns the class of a node, subtrees with the same class evaluate to
+     * the same value.
+     */
+    private int classify(ExpressionNode node) {
+        Integer known = classes.get(node);
+        if(known != null) {
+            return known;
+        }
+
+        ArrayList<Integer> children = new ArrayList<Integer>();
+        StringBuilder key = new StringBuilder();
+        key.append(node.getType()).append(':');
+
+        switch(node.getType()) {
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE: {
+                Complex value = node.getValue();
+                key.append(Double.doubleToRawLongBits(value.getRe())).append(',').append(Double.doubleToRawLongBits(value.getIm()));
+                break;
+            }
+            case ExpressionNode.VARIABLE_NODE: {
+                Variable variable = ((VariableExpressionNode)node).getVariable();
+                Integer id = variables.get(variable);
+                if(id == null) {
+                    id = variables.size();
+                    variables.put(variable, id);
+                }
+                key.append(id);
+                break;
+            }
+            case ExpressionNode.ADDITION_NODE:
+            case ExpressionNode.MULTIPLICATION_NODE:
+                for(SequenceExpressionNode.Term term : ((SequenceExpressionNode)node).getTerms()) {
+                    int child = classify(term.expression);
+                    children.add(child);
+                    key.append(term.mode).append('.').append(child).append(',');
+                }
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                children.add(classify(power.getBase()));
+                children.add(classify(power.getExponent()));
+                key.append(children);
+                break;
+            }
+            case ExpressionNode.FUNCTION_NODE: {
+                FunctionExpressionNode function = (FunctionExpressionNode)node;
+                children.add(classify(function.getArgument()));
+                key.append(function.getFunctionId()).append(children);
+                break;
+            }
+            case ExpressionNode.FUNCTION_2_ARG_NODE: {
+                Function2ArgumentsExpressionNode function = (Function2ArgumentsExpressionNode)node;
+                children.add(classify(function.getArgument()));
+                children.add(classify(function.getArgument2()));
+                key.append(function.getFunctionId()).append(children);
+                if(function.getFunctionId() == Function2ArgumentsExpressionNode.FUZZ) {
+                    key.append('#').append(unique++);
+                }
+                break;
+            }
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE: {
+                FunctionDerivative2ArgumentsExpressionNode derivative = (FunctionDerivative2ArgumentsExpressionNode)node;
+                children.add(classify(derivative.getArgument()));
+                children.add(classify(derivative.getArgument2()));
+                key.append(derivative.getFunctionId()).append(children);
+                break;
+            }
+            case ExpressionNode.SHARED_NODE: {
+                int shared = classify(((SharedExpressionNode)node).getExpression());
+                classes.put(node, shared);
+                return shared;
+            }
+            default:
+                // unknown nodes are never merged
+                key.append('#').append(unique++);
+                break;
+        }
+
+        Integer id = keys.get(key.toString());
+
+        if(id == null) {
+            id = parents.size();
+            keys.put(key.toString(), id);
+            parents.add(0);
+            for(int child : children) {
+                parents.set(child, parents.get(child) + 1);
+            }
+        }
+
+        classes.put(node, id);
+        return id;
+    }
+
+    /*
+     * Builds the node of the class of a tree node, once per class.
+     */
+    private ExpressionNode build(ExpressionNode node) {
+        int id = classes.get(node);
+
+        if(built[id] != null) {
+            return built[id];
+        }
+
+        ExpressionNode result;
+
+        switch(node.getType()) {
+            case ExpressionNode.ADDITION_NODE: {
+                AdditionExpressionNode sum = new AdditionExpressionNode();
+                for(SequenceExpressionNode.Term term : ((AdditionExpressionNode)node).getTerms()) {
+                    sum.add(build(term.expression), term.mode);
+                }
+                result = sum;
+                break;
+            }
+            case ExpressionNode.MULTIPLICATION_NODE: {
+                MultiplicationExpressionNode product = new MultiplicationExpressionNode();
+                for(SequenceExpressionNode.Term term : ((MultiplicationExpressionNode)node).getTerms()) {
+                    product.add(build(term.expression), term.mode);
+                }
+                result = product;
+                break;
+            }
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                result = ExponentiationExpressionNode.create(build(power.getBase()), build(power.getExponent()));
+                break;
+            }
+            case ExpressionNode.FUNCTION_NODE: {
+                FunctionExpressionNode function = (FunctionExpressionNode)node;
+                result = FunctionExpressionNode.create(function.getFunctionId(), build(function.getArgument()));
+                break;
+            }
+            case ExpressionNode.FUNCTION_2_ARG_NODE: {
+                Function2ArgumentsExpressionNode function = (Function2ArgumentsExpressionNode)node;
+                result = Function2ArgumentsExpressionNode.create(function.getFunctionId(), build(function.getArgument()), build(function.getArgument2()));
+                break;
+            }
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE: {
+                FunctionDerivative2ArgumentsExpressionNode derivative = (FunctionDerivative2ArgumentsExpressionNode)node;
+                if(derivative.getDerivative() != null) {
+                    result = new FunctionDerivative2ArgumentsExpressionNode(derivative.getFunctionId(), build(derivative.getArgument()), derivative.getArgument2());
+                }
+                else {
+                    result = FunctionDerivative2ArgumentsExpressionNode.numeric(derivative.getFunctionId(), build(derivative.getArgument()), derivative.getArgument2());
+                }
+                break;
+            }
+            case ExpressionNode.SHARED_NODE:
+                return build(((SharedExpressionNode)node).getExpression());
+            default:
+                // constants, variables and unknown nodes are leaves
+                built[id] = node;
+                return node;
+        }
+
+        if(parents.get(id) > 1) {
+            result = new SharedExpressionNode(result, sharedCount++);
+        }
+
+        built[id] = result;
+        return result;
+    }
+}
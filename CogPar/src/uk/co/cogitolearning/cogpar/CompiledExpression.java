@@ -0,0 +1,169 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import uk.co.cogitolearning.cogpar.functions.AbstractOneArgumentFunction;
+import uk.co.cogitolearning.cogpar.functions.AbstractTwoArgumentFunction;
+
+/**
+ * An expression that has been compiled to JVM bytecode by ExpressionCompiler.
+ *
+ * The variables of the expression are passed in a flat array of doubles,
+ * the real part of variable k is stored at index 2 * k and the imaginary part
+ * at index 2 * k + 1. The index of a variable can be queried with
+ * getVariableIndex.
+ *
+ * The generated code performs the same floating point operations in the same
+ * order as ExpressionNode.getValue, so the results are identical.
+ */
+public abstract class CompiledExpression {
+
+    /** the one argument functions called by the generated code */
+    final AbstractOneArgumentFunction[] functions;
+    /** the two argument functions called by the generated code */
+    final AbstractTwoArgumentFunction[] functions2;
+    /** the compiled arguments of the derivative functions */
+    final CompiledExpression[] derivatives;
+    /** the variable names, in the order of their indices */
+    private final String[] variables;
+
+    protected CompiledExpression(AbstractOneArgumentFunction[] functions, AbstractTwoArgumentFunction[] functions2, CompiledExpression[] derivatives, String[] variables) {
+        this.functions = functions;
+        this.functions2 = functions2;
+        this.derivatives = derivatives;
+        this.variables = variables;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param vars the values of the variables, two doubles per variable
+     * @param out receives the real part of the result at index 0 and the
+     * imaginary part at index 1
+     */
+    public abstract void evaluate(double[] vars, double[] out);
+
+    /**
+     * Convenience method that evaluates the expression and returns the value
+     * as a Complex.
+     *
+     * @param vars the values of the variables, two doubles per variable
+     * @return the value of the expression
+     */
+    public Complex evaluate(double[] vars) {
+        double[] out = new double[2];
+        evaluate(vars, out);
+        return new Complex(out[0], out[1]);
+    }
+
+    /**
+     * @param name the name of the variable
+     * @return the index of the variable or -1 if the expression does not use it
+     */
+    public int getVariableIndex(String name) {
+        for(int i = 0; i < variables.length; i++) {
+            if(variables[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of variables, the array passed to evaluate must hold
+     * twice as many doubles
+     */
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    /*
+     * base ^ exponent, the same cases as ExponentiationExpressionNode
+     */
+    static Complex power(double baseRe, double baseIm, double exponentRe, double exponentIm) {
+        Complex base = new Complex(baseRe, baseIm);
+        ExponentiationExpressionNode.power(base, new Complex(exponentRe, exponentIm));
+        return base;
+    }
+
+    /*
+     * base ^ n for an IntegerPowerExpressionNode
+     */
+    static Complex integerPower(double baseRe, double baseIm, int n) {
+        Complex base = new Complex(baseRe, baseIm);
+        ExponentiationExpressionNode.integerPower(base, n);
+        return base;
+    }
+
+    /*
+     * base ^ exponent for a RealPowerExpressionNode
+     */
+    static Complex realPower(double baseRe, double baseIm, double exponent) {
+        Complex base = new Complex(baseRe, baseIm);
+        ExponentiationExpressionNode.realPower(base, exponent);
+        return base;
+    }
+
+    /*
+     * z1 % z2
+     */
+    static Complex remainder(double re, double im, double re2, double im2) {
+        return new Complex(re, im).remainder_mutable(new Complex(re2, im2));
+    }
+
+    /*
+     * The numerical derivative of a compiled argument, the same stencils as
+     * FunctionDerivative2ArgumentsExpressionNode
+     */
+    static Complex derivative(CompiledExpression argument, int functionId, int variable, double[] vars) {
+        int re = 2 * variable;
+        int im = re + 1;
+
+        Complex secondArgument = new Complex(vars[re], vars[im]);
+        double[] shifted = vars.clone();
+
+        if(functionId == FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE) {
+            Complex fzdz = argument.evaluateAt(shifted, re, secondArgument.plus(Derivative.DZ));
+            Complex fzmdz = argument.evaluateAt(shifted, re, secondArgument.sub(Derivative.DZ));
+
+            return Derivative.numericalCentralDerivativeFirstOrder(fzdz, fzmdz);
+        }
+        else if(functionId == FunctionDerivative2ArgumentsExpressionNode.SECOND_DERIVATIVE) {
+            Complex fz = argument.evaluate(vars);
+            Complex fzdz = argument.evaluateAt(shifted, re, secondArgument.plus(Derivative.DZ));
+            Complex fzmdz = argument.evaluateAt(shifted, re, secondArgument.sub(Derivative.DZ));
+
+            return Derivative.numericalCentralDerivativeSecondOrder(fz, fzdz, fzmdz);
+        }
+        else if(functionId == FunctionDerivative2ArgumentsExpressionNode.THIRD_DERIVATIVE) {
+            Complex fzdz = argument.evaluateAt(shifted, re, secondArgument.plus(Derivative.DZ));
+            Complex fz2dz = argument.evaluateAt(shifted, re, secondArgument.plus(Derivative.DZ_2));
+            Complex fzmdz = argument.evaluateAt(shifted, re, secondArgument.sub(Derivative.DZ));
+            Complex fzm2dz = argument.evaluateAt(shifted, re, secondArgument.sub(Derivative.DZ_2));
+
+            return Derivative.numericalCentralDerivativeThirdOrder(fzdz, fz2dz, fzmdz, fzm2dz);
+        }
+
+        return new Complex();
+    }
+
+    private Complex evaluateAt(double[] vars, int index, Complex value) {
+        vars[index] = value.getRe();
+        vars[index + 1] = value.getIm();
+        return evaluate(vars);
+    }
+}
@@ -16,6 +16,9 @@
  */
 package uk.co.cogitolearning.cogpar;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
 
 public final class Complex {
     public static final double HALF_PI = Math.PI * 0.5;
@@ -24,6 +27,24 @@ public final class Complex {
     public static final double SQRT_TWO_PI = Math.sqrt(TWO_PI);
     public static final double HALF = 0.5 - 1e-14;
 
+    private static final double[] LANCZOS = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+        771.32342877765313, -176.61502916214059, 12.507343278686905,
+        -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+    private static final double LANCZOS_G = 7;
+    private static final double LOG_SQRT_TWO_PI = Math.log(SQRT_TWO_PI);
+    private static final double[] HALF_INTEGER_GAMMA = halfIntegerGamma(343);
+
+    private static final double ERF_SERIES_RADIUS = 2;
+    private static final double[] ERF_SERIES = erfSeries(40);
+    private static final int FADDEEVA_N = 40;
+    private static final double FADDEEVA_L = Math.sqrt(FADDEEVA_N / Math.sqrt(2));
+    private static final double[] FADDEEVA = faddeevaCoefficients(FADDEEVA_N, FADDEEVA_L);
+    private static final int ZETA_LEVEL = 16;
+    private static final int ZETA_MAX_TERMS = 352;
+    private static final double[] LOG_INTEGERS = logIntegers(ZETA_MAX_TERMS);
+    private static final int[] SMALLEST_FACTORS = smallestFactors(ZETA_MAX_TERMS);
+    private static final double[][] BORWEIN = borweinWeights(ZETA_LEVEL, ZETA_MAX_TERMS);
+
     private double re;
     private double im;
 
@@ -494,6 +515,27 @@ public final class Complex {
 
     }
 
+    /*
+     * z1 = z1 % z2, temp is used as scratch space instead of allocating
+     */
+    public final Complex remainder_mutable(Complex z, Complex temp) {
+
+        temp.re = re;
+        temp.im = im;
+        temp.divide_mutable(z);
+
+        if(z.im == 0 && im == 0 && re >= 0 && z.re >= 0)
+        {
+            temp.trunc_mutable();
+        }
+        else {
+            temp.gaussian_integer_mutable();
+        }
+
+        return this.sub_mutable(temp.times_mutable(z));
+
+    }
+
     /*
      * z = z1 % Real
      */
@@ -1146,6 +1188,15 @@ public final class Complex {
 
     }
 
+    /*
+     *  z1 = z1 ^ z2 = exp(z2 * log(z1))
+     */
+    public final Complex pow_mutable(Complex z) {
+
+        return this.log_mutable().times_mutable(z).exp_mutable();
+
+    }
+
     /*
      *  log(z) = ln|z| + arctan(Im/Re)i
      */
@@ -1187,6 +1238,25 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = cos(z) = (exp(iz) + exp(-iz)) / 2
+     */
+    public final Complex cos_mutable() {
+
+        double temp = Math.exp(-im);
+
+        double cos_re = Math.cos(re);
+        double sin_re = Math.sin(re);
+
+        double temp3 = Math.exp(im);
+
+        re = (temp * cos_re + temp3 * cos_re) * 0.5;
+        im = (temp * sin_re + temp3 * -sin_re) * 0.5;
+
+        return this;
+
+    }
+
     /*
      *  cosh(z) = (exp(z) + exp(-z)) / 2
      */
@@ -1206,6 +1276,25 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = cosh(z) = (exp(z) + exp(-z)) / 2
+     */
+    public final Complex cosh_mutable() {
+
+        double temp = Math.exp(re);
+
+        double cos_im = Math.cos(im);
+        double sin_im = Math.sin(im);
+
+        double temp3 = Math.exp(-re);
+
+        re = (temp * cos_im + temp3 * cos_im) * 0.5;
+        im = (temp * sin_im + temp3 * -sin_im) * 0.5;
+
+        return this;
+
+    }
+
     /*
      *  acos(z) = pi / 2 + ilog(iz + sqrt(1 - z^2))
      */
@@ -1243,6 +1332,28 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = sin(z) = (exp(iz) - exp(-iz)) / 2i
+     */
+    public final Complex sin_mutable() {
+
+        double temp = Math.exp(-im);
+
+        double cos_re = Math.cos(re);
+        double sin_re = Math.sin(re);
+
+        double temp3 = Math.exp(im);
+
+        double temp4 = temp * cos_re - temp3 * cos_re;
+        double temp5 = temp * sin_re - temp3 * -sin_re;
+
+        re = -temp5 * -0.5;
+        im = temp4 * -0.5;
+
+        return this;
+
+    }
+
     /*
      *  sinh(z) = (exp(z) - exp(-z)) / 2
      */
@@ -1262,6 +1373,25 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = sinh(z) = (exp(z) - exp(-z)) / 2
+     */
+    public final Complex sinh_mutable() {
+
+        double temp = Math.exp(re);
+
+        double cos_im = Math.cos(im);
+        double sin_im = Math.sin(im);
+
+        double temp3 = Math.exp(-re);
+
+        re = (temp * cos_im - temp3 * cos_im) * 0.5;
+        im = (temp * sin_im - temp3 * -sin_im) * 0.5;
+
+        return this;
+
+    }
+
     /*
      *  asin(z) =-ilog(iz + sqrt(1 - z^2))
      */
@@ -1298,6 +1428,25 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = tan(z) = (1 - exp(-2zi)) / i(1 + exp(-2zi))
+     */
+    public final Complex tan_mutable() {
+
+        double temp = Math.exp(2 * im);
+
+        double temp3 = 2 * re;
+
+        double cos_re = Math.cos(temp3);
+        double sin_re = Math.sin(temp3);
+
+        double a = temp * cos_re;
+        double b = temp * -sin_re;
+
+        return this.assign_quotient(1 - a, -b, -b * 1, (a + 1) * 1);
+
+    }
+
     /*
      *  tahn(z) = (1 - exp(-2z)) / (1 + exp(-2z))
      */
@@ -1316,6 +1465,25 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = tahn(z) = (1 - exp(-2z)) / (1 + exp(-2z))
+     */
+    public final Complex tanh_mutable() {
+
+        double temp = Math.exp(-2 * re);
+
+        double temp3 = 2 * im;
+
+        double cos_im = Math.cos(temp3);
+        double sin_im = Math.sin(temp3);
+
+        double a = temp * cos_im;
+        double b = temp * -sin_im;
+
+        return this.assign_quotient(1 - a, -b, a + 1, b);
+
+    }
+
     /*
      *  atan(z) = (i / 2)log((1 - iz) / (iz + 1))
      */
@@ -1354,6 +1522,25 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = cot(z) = i(1 + exp(-2zi)) / (1 - exp(-2zi))
+     */
+    public final Complex cot_mutable() {
+
+        double temp = Math.exp(2 * im);
+
+        double temp3 = 2 * re;
+
+        double cos_re = Math.cos(temp3);
+        double sin_re = Math.sin(temp3);
+
+        double a = temp * cos_re;
+        double b = temp * -sin_re;
+
+        return this.assign_quotient(-b * 1, a * 1 + 1, 1 - a, -b);
+
+    }
+
     /*
      *  coth(z) =  (1 + exp(-2z)) / (1 - exp(-2z))
      */
@@ -1372,6 +1559,25 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = coth(z) =  (1 + exp(-2z)) / (1 - exp(-2z))
+     */
+    public final Complex coth_mutable() {
+
+        double temp = Math.exp(-2 * re);
+
+        double temp3 = 2 * im;
+
+        double cos_im = Math.cos(temp3);
+        double sin_im = Math.sin(temp3);
+
+        double a = temp * cos_im;
+        double b = temp * -sin_im;
+
+        return this.assign_quotient(a + 1, b, 1 - a, -b);
+
+    }
+
     /*
      *  acot(z) = (i / 2)log((z^2 - iz) / (z^2 + iz))
      */
@@ -1659,6 +1865,20 @@ public final class Complex {
 
     }
 
+    /*
+     *  z = exp(z) = exp(Re(z)) * (cos(Im(z)) + sin(Im(z))i)
+     */
+    public final Complex exp_mutable() {
+
+        double temp = Math.exp(re);
+
+        re = temp * Math.cos(im);
+        im = temp * Math.sin(im);
+
+        return this;
+
+    }
+
     /*
      * sqrt(z) = z^0.5
      */
@@ -1880,27 +2100,166 @@ public final class Complex {
         return 2;
     }
 
+    /*
+     * Gamma(k / 2) for k = 1 .. n from exact factorials, the entry for 0 is
+     * unused and values past 171.5 overflow to infinity
+     */
+    private static double[] halfIntegerGamma(int n) {
+
+        BigInteger[] factorials = new BigInteger[n + 1];
+        factorials[0] = BigInteger.ONE;
+        for (int k = 1; k <= n; k++) {
+            factorials[k] = factorials[k - 1].multiply(BigInteger.valueOf(k));
+        }
+
+        double[] values = new double[n + 1];
+        for (int k = 1; k <= n; k++) {
+            int m = k / 2;
+            if (k % 2 == 0) {
+                values[k] = factorials[m - 1].doubleValue();
+            } else {
+                // Gamma(m + 1/2) = (2m)! / (4^m m!) sqrt(pi)
+                BigDecimal ratio = new BigDecimal(factorials[2 * m]).divide(new BigDecimal(factorials[m].shiftLeft(2 * m)), MathContext.DECIMAL128);
+                values[k] = ratio.doubleValue() * SQRT_PI;
+            }
+        }
+
+        return values;
+
+    }
+
+    /*
+     * The index of z in HALF_INTEGER_GAMMA when z is a positive integer or
+     * half integer within the table, -1 otherwise
+     */
+    private static int half_integer_index(double re, double im) {
+
+        double twice = 2 * re;
+
+        if (im == 0 && twice >= 1 && twice < HALF_INTEGER_GAMMA.length && twice == (int) twice) {
+            return (int) twice;
+        }
+
+        return -1;
+
+    }
+
+    /*
+     * z = Gamma(re + im i) with the Lanczos approximation (g = 7, n = 9) for
+     * re >= 0.5, sqrt(2 pi) t^(x + 0.5) e^-t a(x) with x = z - 1 and
+     * t = x + g + 0.5, where the power and the exponential are taken together
+     * as exp((x + 0.5) ln t - t) so that they do not overflow separately
+     */
+    private void lanczos(double zre, double zim) {
+
+        double xre = zre - 1;
+
+        double are = LANCZOS[0], aim = 0;
+        for (int i = 1; i < LANCZOS.length; i++) {
+            double dre = xre + i;
+            double temp = LANCZOS[i] / (dre * dre + zim * zim);
+            are += temp * dre;
+            aim -= temp * zim;
+        }
+
+        double tre = xre + LANCZOS_G + 0.5;
+        double logAbs = 0.5 * Math.log(tre * tre + zim * zim);
+        double arg = Math.atan2(zim, tre);
+
+        double wre = (xre + 0.5) * logAbs - zim * arg - tre;
+        double wim = (xre + 0.5) * arg + zim * logAbs - zim;
+
+        double magnitude = SQRT_TWO_PI * Math.exp(wre);
+
+        if (zim == 0) {
+            re = magnitude * are;
+            im = 0;
+            return;
+        }
+
+        double cre = magnitude * Math.cos(wim);
+        double cim = magnitude * Math.sin(wim);
+
+        re = cre * are - cim * aim;
+        im = cre * aim + cim * are;
+
+    }
+
     /*
      * Gamma function with lancos aproximation
      */
     public final Complex gamma_la() {
-        double[] p = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
-            771.32342877765313, -176.61502916214059, 12.507343278686905,
-            -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
-        int g = 7;
+
+        return new Complex(this).gamma_la_mutable();
+
+    }
+
+    /*
+     * z = Gamma(z), exact table values for positive integers and half
+     * integers, the Lanczos approximation for re >= 0.5 and the reflection
+     * formula pi / (sin(pi z) Gamma(1 - z)) otherwise
+     */
+    public final Complex gamma_la_mutable() {
+
+        int index = half_integer_index(re, im);
+        if (index > 0) {
+            re = HALF_INTEGER_GAMMA[index];
+            im = 0;
+            return this;
+        }
+
+        if (re < 0.5) {
+            double temp = Math.exp(Math.PI * im);
+            double temp2 = 1 / temp;
+            double sre = Math.sin(Math.PI * re) * (temp + temp2) * 0.5;
+            double sim = Math.cos(Math.PI * re) * (temp - temp2) * 0.5;
+
+            lanczos(1 - re, -im);
+
+            double dre = sre * re - sim * im;
+            double dim = sre * im + sim * re;
+            double temp3 = Math.PI / (dre * dre + dim * dim);
+            re = temp3 * dre;
+            im = -temp3 * dim;
+            return this;
+        }
+
+        lanczos(re, im);
+        return this;
+
+    }
+
+    /*
+     * A logarithm of Gamma that does not overflow, for re >= 0.5 it is
+     * (x + 0.5) ln t - t + ln(sqrt(2 pi) a(x)) from the Lanczos approximation,
+     * for re < 0.5 ln pi - ln sin(pi z) - lgamma(1 - z), which may differ
+     * from the analytic continuation of log Gamma by a multiple of 2 pi i
+     */
+    public final Complex lgamma() {
+
         if (re < 0.5) {
-            Complex pi = new Complex(Math.PI, 0);
-            return pi.divide_mutable((this.times(pi)).sin().times_mutable((this.r_sub(1.0)).gamma_la()));
+            return this.times(Math.PI).sin_mutable().log_mutable().r_sub_mutable(Math.log(Math.PI)).sub_mutable(this.r_sub(1.0).lgamma());
         }
 
-        Complex temp = this.sub(1.0);
-        Complex a = new Complex(p[0], 0);
-        Complex t = temp.plus(g + 0.5);
-        for (int i = 1; i < p.length; i++) {
-            a.plus_mutable(new Complex(p[i], 0).divide_mutable(temp.plus(i)));
+        double xre = re - 1;
+
+        double are = LANCZOS[0], aim = 0;
+        for (int i = 1; i < LANCZOS.length; i++) {
+            double dre = xre + i;
+            double temp = LANCZOS[i] / (dre * dre + im * im);
+            are += temp * dre;
+            aim -= temp * im;
         }
 
-        return new Complex(SQRT_TWO_PI, 0).times_mutable(t.pow(temp.plus(0.5))).times_mutable((t.negative()).exp()).times_mutable(a);
+        double tre = xre + LANCZOS_G + 0.5;
+        double logAbs = 0.5 * Math.log(tre * tre + im * im);
+        double arg = Math.atan2(im, tre);
+
+        double wre = (xre + 0.5) * logAbs - im * arg - tre;
+        double wim = (xre + 0.5) * arg + im * logAbs - im;
+
+        return new Complex(wre + LOG_SQRT_TWO_PI + 0.5 * Math.log(are * are + aim * aim), wim + Math.atan2(aim, are));
+
     }
 
     /*
@@ -1917,7 +2276,118 @@ public final class Complex {
      */
     public final Complex factorial() {
 
-        return (this.plus(1)).gamma_la();
+        return new Complex(re + 1, im).gamma_la_mutable();
+
+    }
+
+    /*
+     *  z = Gamma(z + 1)
+     */
+    public final Complex factorial_mutable() {
+
+        re += 1;
+
+        return this.gamma_la_mutable();
+
+    }
+
+    /*
+     * Digamma function, the logarithmic derivative of Gamma, with the
+     * reflection formula for re < 0.5, the recurrence psi(z) = psi(z + 1) - 1/z
+     * up to |z| >= 10 and the asymptotic series from there
+     */
+    public final Complex digamma() {
+
+        if (re < 0.5) {
+            return this.r_sub(1.0).digamma().sub_mutable(this.times(Math.PI).cot_mutable().times_mutable(Math.PI));
+        }
+
+        Complex z = new Complex(this);
+        Complex sum = new Complex();
+        while (z.re * z.re + z.im * z.im < 100) {
+            sum.sub_mutable(z.r_divide(1.0));
+            z.plus_mutable(1.0);
+        }
+
+        // ln(z) - 1/(2z) - sum B_2k / (2k z^2k), evaluated in 1/z^2
+        double[] coefficients = {1.0 / 12, -691.0 / 32760, 1.0 / 132, -1.0 / 240, 1.0 / 252, -1.0 / 120, 1.0 / 12};
+        Complex inv2 = z.square().r_divide_mutable(1.0);
+        Complex series = new Complex();
+        for (int k = 0; k < coefficients.length; k++) {
+            series.plus_mutable(coefficients[k]).times_mutable(inv2);
+        }
+
+        return sum.plus_mutable(z.log()).sub_mutable(z.r_divide(0.5)).sub_mutable(series);
+
+    }
+
+    /*
+     * Trigamma function, the derivative of digamma, with the reflection formula
+     * psi1(z) = pi^2 / sin(pi z)^2 - psi1(1 - z) for re < 0.5, the recurrence
+     * psi1(z) = psi1(z + 1) + 1/z^2 up to |z| >= 10 and the asymptotic series
+     * from there
+     */
+    public final Complex trigamma() {
+
+        if (re < 0.5) {
+            Complex csc = this.times(Math.PI).csc().times_mutable(Math.PI);
+            return csc.square_mutable().sub_mutable(this.r_sub(1.0).trigamma());
+        }
+
+        Complex z = new Complex(this);
+        Complex sum = new Complex();
+        while (z.re * z.re + z.im * z.im < 100) {
+            sum.plus_mutable(z.square().r_divide_mutable(1.0));
+            z.plus_mutable(1.0);
+        }
+
+        // 1/z + 1/(2z^2) + sum B_2k / z^(2k + 1)
+        double[] coefficients = {7.0 / 6, -691.0 / 2730, 5.0 / 66, -1.0 / 30, 1.0 / 42, -1.0 / 30, 1.0 / 6};
+        Complex inv = z.r_divide(1.0);
+        Complex inv2 = inv.square();
+        Complex series = new Complex();
+        for (int k = 0; k < coefficients.length; k++) {
+            series.times_mutable(inv2).plus_mutable(coefficients[k]);
+        }
+        series.times_mutable(inv2).times_mutable(inv);
+
+        return sum.plus_mutable(inv).plus_mutable(inv2.times(0.5)).plus_mutable(series);
+
+    }
+
+    /*
+     * Tetragamma function, the second derivative of digamma, with the
+     * reflection formula psi2(z) = psi2(1 - z) - 2 pi^3 cot(pi z) / sin(pi z)^2
+     * for re < 0.5, the recurrence psi2(z) = psi2(z + 1) - 2/z^3 up to
+     * |z| >= 10 and the asymptotic series from there
+     */
+    public final Complex tetragamma() {
+
+        if (re < 0.5) {
+            Complex piz = this.times(Math.PI);
+            Complex csc = piz.csc().times_mutable(Math.PI);
+            Complex cot = piz.cot_mutable().times_mutable(Math.PI);
+            return this.r_sub(1.0).tetragamma().sub_mutable(csc.square_mutable().times_mutable(cot).times_mutable(2));
+        }
+
+        Complex z = new Complex(this);
+        Complex sum = new Complex();
+        while (z.re * z.re + z.im * z.im < 100) {
+            sum.sub_mutable(z.cube().r_divide_mutable(2.0));
+            z.plus_mutable(1.0);
+        }
+
+        // -1/z^2 - 1/z^3 - sum (2k + 1) B_2k / z^(2k + 2)
+        double[] coefficients = {-35.0 / 2, 691.0 / 210, -5.0 / 6, 3.0 / 10, -1.0 / 6, 1.0 / 6, -1.0 / 2};
+        Complex inv = z.r_divide(1.0);
+        Complex inv2 = inv.square();
+        Complex series = new Complex();
+        for (int k = 0; k < coefficients.length; k++) {
+            series.times_mutable(inv2).plus_mutable(coefficients[k]);
+        }
+        series.times_mutable(inv2).times_mutable(inv2);
+
+        return sum.sub_mutable(inv2).sub_mutable(inv2.times(inv)).plus_mutable(series);
 
     }
 
@@ -2039,37 +2509,279 @@ public final class Complex {
 
     }
 
-    /* Series approximation of the error function */
+    /*
+     * 2 / sqrt(pi) * (-1)^k / (k! (2k + 1)), the Maclaurin coefficients of erf
+     * in z^(2k + 1)
+     */
+    private static double[] erfSeries(int terms) {
+
+        double[] coefficients = new double[terms];
+        double factorial = 1;
+        for (int k = 0; k < terms; k++) {
+            if (k > 0) {
+                factorial *= k;
+            }
+            coefficients[k] = (k % 2 == 0 ? 2.0 : -2.0) / (SQRT_PI * factorial * (2 * k + 1));
+        }
+
+        return coefficients;
+
+    }
+
+    /*
+     * Coefficients of Weideman's rational approximation of the Faddeeva
+     * function, the cosine transform of exp(-t^2) (L^2 + t^2) sampled at
+     * t = L tan(theta / 2), stored as a_1 .. a_n
+     */
+    private static double[] faddeevaCoefficients(int n, double l) {
+
+        int m = 2 * n;
+        double[] samples = new double[m];
+        for (int k = 0; k < m; k++) {
+            double t = l * Math.tan(k * Math.PI / (2 * m));
+            samples[k] = Math.exp(-t * t) * (l * l + t * t);
+        }
+
+        double[] coefficients = new double[n];
+        for (int j = 1; j <= n; j++) {
+            double sum = samples[0];
+            for (int k = 1; k < m; k++) {
+                sum += 2 * samples[k] * Math.cos(Math.PI * k * j / m);
+            }
+            coefficients[j - 1] = sum / (2 * m);
+        }
+
+        return coefficients;
+
+    }
+
+    /*
+     * Faddeeva function w(z) = exp(-z^2) erfc(-iz) for im >= 0, with Weideman's
+     * rational approximation
+     * w(z) = 2 p(Z) / (L - iz)^2 + 1 / (sqrt(pi) (L - iz)), Z = (L + iz) / (L - iz)
+     */
+    private Complex faddeeva_upper() {
+
+        // L - iz and L + iz
+        double dre = FADDEEVA_L + im, dim = -re;
+        double nre = FADDEEVA_L - im, nim = re;
+
+        double norm = dre * dre + dim * dim;
+        double ire = dre / norm, iim = -dim / norm;
+
+        double zre = nre * ire - nim * iim, zim = nre * iim + nim * ire;
+
+        double pre = FADDEEVA[FADDEEVA.length - 1], pim = 0;
+        for (int j = FADDEEVA.length - 2; j >= 0; j--) {
+            double temp = pre * zre - pim * zim + FADDEEVA[j];
+            pim = pre * zim + pim * zre;
+            pre = temp;
+        }
+
+        double i2re = ire * ire - iim * iim, i2im = 2 * ire * iim;
+
+        return new Complex(2 * (pre * i2re - pim * i2im) + ire / SQRT_PI, 2 * (pre * i2im + pim * i2re) + iim / SQRT_PI);
+
+    }
+
+    /*
+     * Scaled complementary error function exp(z^2) erfc(z) = w(iz), using
+     * w(-iz) = 2 exp(z^2) - w(iz) for re < 0
+     */
+    public final Complex erfcx() {
+
+        if (re < 0) {
+            return this.square().exp().times_mutable(2).sub_mutable(this.negative().erfcx());
+        }
+
+        return new Complex(-im, re).faddeeva_upper();
+
+    }
+
+    /*
+     * Complementary error function 1 - erf(z), exp(-z^2) w(iz) for re >= 0 and
+     * 2 - erfc(-z) otherwise
+     */
+    public final Complex erfc() {
+
+        if (re < 0) {
+            return this.negative().erfc().r_sub_mutable(2);
+        }
+
+        if (re * re + im * im < ERF_SERIES_RADIUS * ERF_SERIES_RADIUS) {
+            return this.erf().r_sub_mutable(1);
+        }
+
+        return this.square().negative().exp().times_mutable(new Complex(-im, re).faddeeva_upper());
+
+    }
+
+    /*
+     * Error function, the Maclaurin series in Horner form for |z| < 2 and
+     * 1 - exp(-z^2) w(iz) outside, with erf(-z) = -erf(z)
+     */
     public final Complex erf() {
 
-        Complex sum = new Complex();
+        double norm = re * re + im * im;
 
-        for (int k = 0; k < 50; k++) {
-            double temp = 2 * k + 1;
-            sum.plus_mutable((this.pow(temp).times_mutable(Math.pow(-1, k))).divide_mutable(new Complex(k, 0).factorial().times_mutable(temp)));
+        if (norm < ERF_SERIES_RADIUS * ERF_SERIES_RADIUS) {
+            int terms = 1;
+            for (double bound = 1; bound > 1e-17 && terms < ERF_SERIES.length; terms++) {
+                bound *= norm / terms;
+            }
+
+            double z2re = re * re - im * im, z2im = 2 * re * im;
+            double sre = ERF_SERIES[terms - 1], sim = 0;
+            for (int k = terms - 2; k >= 0; k--) {
+                double temp = sre * z2re - sim * z2im + ERF_SERIES[k];
+                sim = sre * z2im + sim * z2re;
+                sre = temp;
+            }
+
+            return new Complex(sre * re - sim * im, sre * im + sim * re);
         }
 
-        return sum.times_mutable(2.0 / SQRT_PI);
+        if (re < 0) {
+            return this.negative().erf().negative();
+        }
+
+        return this.square().negative().exp().times_mutable(new Complex(-im, re).faddeeva_upper()).r_sub_mutable(1);
 
     }
 
-    /* Series approximation of the riemann zeta function  re > 0*/
-    private final Complex riemann_zeta_positive() {
+    /*
+     * ln k for k = 0 .. n, the entry for 0 is unused
+     */
+    private static double[] logIntegers(int n) {
+
+        double[] logs = new double[n + 1];
+        for (int k = 1; k <= n; k++) {
+            logs[k] = Math.log(k);
+        }
+
+        return logs;
 
-        Complex temp = this.r_sub(1);
-        Complex temp2 = this.negative();
-        Complex sum2 = new Complex();
+    }
+
+    /*
+     * The smallest prime factor of k for k = 0 .. n, the entries for 0 and 1
+     * are unused
+     */
+    private static int[] smallestFactors(int n) {
 
-        for (int k = 1; k < 101; k++) {
-            sum2.plus_mutable((new Complex(-1, 0).pow(k - 1)).times_mutable(new Complex(k, 0).pow(temp2)));
+        int[] factors = new int[n + 1];
+        for (int k = 2; k <= n; k++) {
+            if (factors[k] == 0) {
+                for (int m = k; m <= n; m += k) {
+                    if (factors[m] == 0) {
+                        factors[m] = k;
+                    }
+                }
+            }
         }
 
-        return sum2.divide_mutable(new Complex(2, 0).pow(temp).r_sub_mutable(1));
+        return factors;
+
+    }
+
+    /*
+     * Borwein's weights (-1)^k (d_n - d_k) / d_n, k = 0 .. n - 1, with
+     * d_k = n sum_{i <= k} (n + i - 1)! 4^i / ((n - i)! (2i)!), for
+     * n = level, 2 level .. max
+     */
+    private static double[][] borweinWeights(int level, int max) {
+
+        double[][] weights = new double[max / level][];
+        for (int l = 0; l < weights.length; l++) {
+            int n = (l + 1) * level;
+
+            double[] terms = new double[n + 1];
+            terms[0] = 1;
+            for (int i = 1; i <= n; i++) {
+                terms[i] = terms[i - 1] * 4 * (n + i - 1) * (n - i + 1) / ((2.0 * i) * (2 * i - 1));
+            }
+
+            double[] tails = new double[n + 1];
+            for (int k = n - 1; k >= 0; k--) {
+                tails[k] = tails[k + 1] + terms[k + 1];
+            }
+            double total = tails[0] + terms[0];
+
+            weights[l] = new double[n];
+            for (int k = 0; k < n; k++) {
+                weights[l][k] = (k % 2 == 0 ? tails[k] : -tails[k]) / total;
+            }
+        }
+
+        return weights;
+
+    }
+
+    /*
+     * Dirichlet eta function for re > 0 with Borwein's accelerated alternating
+     * series sum_k w_k (k + 1)^-z. The number of terms grows with |im|, the
+     * powers k^-z are exp(-z ln k) for primes and products of earlier powers
+     * otherwise
+     */
+    private Complex dirichlet_eta_positive() {
+
+        int level = (int)Math.max(1, Math.min(BORWEIN.length, Math.ceil((32 + 0.8 * Math.abs(im)) / ZETA_LEVEL)));
+        double[] weights = BORWEIN[level - 1];
+        int n = weights.length;
+
+        double[] powersRe = new double[n + 1];
+        double[] powersIm = new double[n + 1];
+        powersRe[1] = 1;
+
+        double sumRe = weights[0], sumIm = 0;
+        for (int k = 2; k <= n; k++) {
+            int p = SMALLEST_FACTORS[k];
+            if (p == k) {
+                double magnitude = Math.exp(-re * LOG_INTEGERS[k]);
+                double angle = -im * LOG_INTEGERS[k];
+                powersRe[k] = magnitude * Math.cos(angle);
+                powersIm[k] = magnitude * Math.sin(angle);
+            } else {
+                int m = k / p;
+                powersRe[k] = powersRe[p] * powersRe[m] - powersIm[p] * powersIm[m];
+                powersIm[k] = powersRe[p] * powersIm[m] + powersIm[p] * powersRe[m];
+            }
+            sumRe += weights[k - 1] * powersRe[k];
+            sumIm += weights[k - 1] * powersIm[k];
+        }
+
+        return new Complex(sumRe, sumIm);
+
+    }
+
+    /*
+     * 1 - 2^(1 - z)
+     */
+    private Complex eta_factor() {
+
+        double magnitude = Math.exp((1 - re) * LOG_INTEGERS[2]);
+        double angle = -im * LOG_INTEGERS[2];
+
+        return new Complex(1 - magnitude * Math.cos(angle), -magnitude * Math.sin(angle));
 
     }
 
+    /*
+     * Riemann zeta function for re > 0, eta(z) / (1 - 2^(1 - z))
+     */
+    private Complex riemann_zeta_positive() {
+
+        return this.dirichlet_eta_positive().divide_mutable(this.eta_factor());
+
+    }
+
+    /* Riemann zeta function, the functional equation reflects re <= 0 into re >= 1 */
     public final Complex riemann_zeta() {
 
+        if (Double.isNaN(re) || Double.isNaN(im)) {
+            return new Complex(Double.NaN, Double.NaN);
+        }
+
         if (re > 0) {
             return this.riemann_zeta_positive();
         } else {
@@ -2089,7 +2801,15 @@ public final class Complex {
      */
     public final Complex dirichlet_eta() {
 
-        return ((new Complex(2, 0).pow(this.r_sub(1))).r_sub_mutable(1)).times_mutable(this.riemann_zeta());
+        if (Double.isNaN(re) || Double.isNaN(im)) {
+            return new Complex(Double.NaN, Double.NaN);
+        }
+
+        if (re > 0) {
+            return this.dirichlet_eta_positive();
+        }
+
+        return this.eta_factor().times_mutable(this.riemann_zeta());
 
     }
 
@@ -2254,31 +2974,46 @@ public final class Complex {
 
     }
 
+    /*
+     * z + (+-u1 * distance.re) + (+-u2 * distance.im)i with uniform u1, u2 in
+     * [0, 1) and random signs, drawn from the generator of the current thread
+     */
     public final Complex fuzz(Complex distance) {
-        double random;
 
-        Complex out = new Complex(re, im);
+        return new Complex(re, im).fuzz_mutable(distance, SplitMix64.current());
+
+    }
+
+    /*
+     * fuzz with the numbers drawn from random
+     */
+    public final Complex fuzz(Complex distance, SplitMix64 random) {
+
+        return new Complex(re, im).fuzz_mutable(distance, random);
+
+    }
+
+    /*
+     * z = fuzz(z, distance) with the numbers drawn from random
+     */
+    public final Complex fuzz_mutable(Complex distance, SplitMix64 random) {
+
         //Real modifier
-        random = Math.random();
-        if (random < 0.5) {
-            random = Math.random() * distance.re;
-            out.re -= random;
+        if (random.nextDouble() < 0.5) {
+            re -= random.nextDouble() * distance.re;
         } else {
-            random = Math.random() * distance.re;
-            out.re += random;
+            re += random.nextDouble() * distance.re;
         }
 
         //Imaginary modifier
-        random = Math.random();
-        if (random < 0.5) {
-            random = Math.random() * distance.im;
-            out.im -= random;
+        if (random.nextDouble() < 0.5) {
+            im -= random.nextDouble() * distance.im;
         } else {
-            random = Math.random() * distance.im;
-            out.im += random;
+            im += random.nextDouble() * distance.im;
         }
 
-        return out;
+        return this;
+
     }
 
     public final Complex rotate(Complex degrees) {
@@ -2379,6 +3114,20 @@ public final class Complex {
         return Double.isFinite(re) && Double.isFinite(im);
     }
 
+    /*
+     *  z = (a + bi) / (c + di), the same operations as divide_mutable
+     */
+    private Complex assign_quotient(double a, double b, double c, double d) {
+
+        double temp3 = c * c + d * d;
+
+        re = (a * c + b * d) / temp3;
+        im = (b * c - a * d) / temp3;
+
+        return this;
+
+    }
+
     private double triangle(double x) {
         double r = mod(x, 1.0f);
         return 2.0f * (r < 0.5 ? r : 1 - r);
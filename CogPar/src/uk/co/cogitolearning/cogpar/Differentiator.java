@@ -0,0 +1,475 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Builds the derivative of an expression as a new expression tree.
+ *
+ * Sums, products, quotients, powers and the holomorphic functions are
+ * differentiated with the usual rules, the chain rule is applied to their
+ * arguments. Functions without a complex derivative, such as abs, conj, re,
+ * floor or round, and the special functions gamma, fact, rzeta and deta, fall
+ * back to a numeric derivative of their subtree through a
+ * FunctionDerivative2ArgumentsExpressionNode, as does the remainder.
+ *
+ * The derivative shares the subtrees and variables of the original
+ * expression. Terms that are known to be zero or one are left out while the
+ * tree is built, so the derivative of z^3 is 3 * z^2.
+ */
+public class Differentiator {
+
+    private static final double LOG10_E = 0.43429448190325182765;
+    private static final double LOG2_E = 1.442695040888963407360;
+    private static final double TWO_OVER_SQRT_PI = 1.1283791670955125739;
+    private static final double PHI = 1.618033988749895;
+    private static final double SQRT_5 = 2.236067977499789;
+
+    private VariableExpressionNode variable;
+    private IdentityHashMap<ExpressionNode, ExpressionNode> derivatives;
+    private int fallbacks;
+
+    /**
+     * Differentiates an expression by a variable. All variables of the
+     * expression with the name of the given variable are differentiated.
+     *
+     * @param expression the expression
+     * @param variable the variable, used as the second argument of numeric
+     * derivatives
+     * @return the derivative
+     */
+    public ExpressionNode differentiate(ExpressionNode expression, VariableExpressionNode variable) {
+        this.variable = variable;
+        derivatives = new IdentityHashMap<ExpressionNode, ExpressionNode>();
+        fallbacks = 0;
+
+        try {
+            return derivative(expression);
+        }
+        finally {
+            this.variable = null;
+            derivatives = null;
+        }
+    }
+
+    /**
+     * @return the number of subtrees that were differentiated numerically by
+     * the last call of differentiate
+     */
+    public int getFallbackCount() {
+        return fallbacks;
+    }
+
+    private ExpressionNode derivative(ExpressionNode node) {
+        ExpressionNode known = derivatives.get(node);
+        if(known != null) {
+            return known;
+        }
+
+        ExpressionNode result;
+
+        switch(node.getType()) {
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+                result = constant(0);
+                break;
+            case ExpressionNode.VARIABLE_NODE:
+                result = constant(((VariableExpressionNode)node).getName().equals(variable.getName()) ? 1 : 0);
+                break;
+            case ExpressionNode.ADDITION_NODE:
+                result = constant(0);
+                for(SequenceExpressionNode.Term term : ((AdditionExpressionNode)node).getTerms()) {
+                    ExpressionNode d = derivative(term.expression);
+                    result = term.mode == AdditionExpressionNode.ADD ? sum(result, d) : difference(result, d);
+                }
+                break;
+            case ExpressionNode.MULTIPLICATION_NODE:
+                result = product((MultiplicationExpressionNode)node);
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                result = power(node, power.getBase(), power.getExponent());
+                break;
+            }
+            case ExpressionNode.FUNCTION_NODE:
+                result = function((FunctionExpressionNode)node);
+                break;
+            case ExpressionNode.FUNCTION_2_ARG_NODE:
+                result = function2((Function2ArgumentsExpressionNode)node);
+                break;
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE: {
+                ExpressionNode symbolic = ((FunctionDerivative2ArgumentsExpressionNode)node).getDerivative();
+                result = symbolic != null ? derivative(symbolic) : numeric(node);
+                break;
+            }
+            case ExpressionNode.SHARED_NODE:
+                result = derivative(((SharedExpressionNode)node).getExpression());
+                break;
+            case ExpressionNode.PROFILED_NODE:
+                result = derivative(((ProfiledExpressionNode)node).getExpression());
+                break;
+            default:
+                result = numeric(node);
+                break;
+        }
+
+        derivatives.put(node, result);
+        return result;
+    }
+
+    /*
+     * The product is evaluated from the left, the derivative of every prefix
+     * follows from the one before by the product or quotient rule.
+     */
+    private ExpressionNode product(MultiplicationExpressionNode node) {
+        ExpressionNode result = constant(0);
+        ExpressionNode prefix = constant(1);
+
+        for(SequenceExpressionNode.Term term : node.getTerms()) {
+            if(term.mode == MultiplicationExpressionNode.REM) {
+                return numeric(node);
+            }
+
+            ExpressionNode t = term.expression;
+            ExpressionNode d = derivative(t);
+
+            if(term.mode == MultiplicationExpressionNode.MULT) {
+                result = sum(product(result, t), product(prefix, d));
+                prefix = product(prefix, t);
+            }
+            else {
+                result = difference(quotient(result, t), quotient(product(prefix, d), square(t)));
+                prefix = quotient(prefix, t);
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * (b^e)' = e * b^(e - 1) * b' if e does not depend on the variable,
+     * b^e * (e' * ln(b) + e * b' / b) otherwise
+     */
+    private ExpressionNode power(ExpressionNode node, ExpressionNode base, ExpressionNode exponent) {
+        ExpressionNode db = derivative(base);
+        ExpressionNode de = derivative(exponent);
+
+        if(isConstant(de, 0)) {
+            if(isConstant(db, 0)) {
+                return constant(0);
+            }
+
+            ExpressionNode reduced;
+            if(isConstant(exponent)) {
+                reduced = new RealConstantExpressionNode(exponent.getValue().sub(1));
+            }
+            else {
+                reduced = difference(exponent, constant(1));
+            }
+
+            ExpressionNode outer = isConstant(reduced, 1) ? base : ExponentiationExpressionNode.create(base, reduced);
+            return product(product(exponent, outer), db);
+        }
+
+        return product(node, sum(product(de, function(FunctionExpressionNode.LN, base)), quotient(product(exponent, db), base)));
+    }
+
+    private ExpressionNode function(FunctionExpressionNode node) {
+        ExpressionNode argument = node.getArgument();
+        ExpressionNode d = derivative(argument);
+
+        if(isConstant(d, 0)) {
+            return d;
+        }
+
+        ExpressionNode outer = outer(node.getFunctionId(), argument);
+        return outer != null ? product(outer, d) : numeric(node);
+    }
+
+    private ExpressionNode function2(Function2ArgumentsExpressionNode node) {
+        ExpressionNode a = node.getArgument();
+        ExpressionNode b = node.getArgument2();
+
+        switch(node.getFunctionId()) {
+            case Function2ArgumentsExpressionNode.ADD:
+                return sum(derivative(a), derivative(b));
+            case Function2ArgumentsExpressionNode.SUB:
+                return difference(derivative(a), derivative(b));
+            case Function2ArgumentsExpressionNode.MUL:
+                return sum(product(derivative(a), b), product(a, derivative(b)));
+            case Function2ArgumentsExpressionNode.DIV:
+                return difference(quotient(derivative(a), b), quotient(product(a, derivative(b)), square(b)));
+            case Function2ArgumentsExpressionNode.POW:
+                return power(node, a, b);
+            case Function2ArgumentsExpressionNode.LOGN: {
+                // log(a) / log(b)
+                ExpressionNode logA = function(FunctionExpressionNode.LN, a);
+                ExpressionNode logB = function(FunctionExpressionNode.LN, b);
+                ExpressionNode dLogA = quotient(derivative(a), a);
+                ExpressionNode dLogB = quotient(derivative(b), b);
+                return difference(quotient(dLogA, logB), quotient(product(logA, dLogB), square(logB)));
+            }
+            default:
+                return numeric(node);
+        }
+    }
+
+    /**
+     * Returns the derivative of a function at its argument g, or null if the
+     * function has no complex derivative or no closed form is known.
+     */
+    private ExpressionNode outer(int id, ExpressionNode g) {
+        switch(id) {
+            case FunctionExpressionNode.SQRT:
+                return quotient(constant(0.5), function(FunctionExpressionNode.SQRT, g));
+            case FunctionExpressionNode.EXP:
+                return function(FunctionExpressionNode.EXP, g);
+            case FunctionExpressionNode.LN:
+                return quotient(constant(1), g);
+            case FunctionExpressionNode.LOG:
+                return quotient(constant(LOG10_E), g);
+            case FunctionExpressionNode.LOG2:
+                return quotient(constant(LOG2_E), g);
+            case FunctionExpressionNode.REC:
+                return negative(quotient(constant(1), square(g)));
+
+            case FunctionExpressionNode.SIN:
+                return function(FunctionExpressionNode.COS, g);
+            case FunctionExpressionNode.COS:
+                return negative(function(FunctionExpressionNode.SIN, g));
+            case FunctionExpressionNode.TAN:
+                return square(function(FunctionExpressionNode.SEC, g));
+            case FunctionExpressionNode.COT:
+                return negative(square(function(FunctionExpressionNode.CSC, g)));
+            case FunctionExpressionNode.SEC:
+                return product(function(FunctionExpressionNode.SEC, g), function(FunctionExpressionNode.TAN, g));
+            case FunctionExpressionNode.CSC:
+                return negative(product(function(FunctionExpressionNode.CSC, g), function(FunctionExpressionNode.COT, g)));
+
+            case FunctionExpressionNode.SINH:
+                return function(FunctionExpressionNode.COSH, g);
+            case FunctionExpressionNode.COSH:
+                return function(FunctionExpressionNode.SINH, g);
+            case FunctionExpressionNode.TANH:
+                return square(function(FunctionExpressionNode.SECH, g));
+            case FunctionExpressionNode.COTH:
+                return negative(square(function(FunctionExpressionNode.CSCH, g)));
+            case FunctionExpressionNode.SECH:
+                return negative(product(function(FunctionExpressionNode.SECH, g), function(FunctionExpressionNode.TANH, g)));
+            case FunctionExpressionNode.CSCH:
+                return negative(product(function(FunctionExpressionNode.CSCH, g), function(FunctionExpressionNode.COTH, g)));
+
+            case FunctionExpressionNode.ASIN:
+                return quotient(constant(1), function(FunctionExpressionNode.SQRT, difference(constant(1), square(g))));
+            case FunctionExpressionNode.ACOS:
+                return negative(outer(FunctionExpressionNode.ASIN, g));
+            case FunctionExpressionNode.ATAN:
+                return quotient(constant(1), sum(constant(1), square(g)));
+            case FunctionExpressionNode.ACOT:
+                return negative(outer(FunctionExpressionNode.ATAN, g));
+            case FunctionExpressionNode.ASEC:
+                return quotient(constant(1), product(square(g), function(FunctionExpressionNode.SQRT, difference(constant(1), quotient(constant(1), square(g))))));
+            case FunctionExpressionNode.ACSC:
+                return negative(outer(FunctionExpressionNode.ASEC, g));
+
+            case FunctionExpressionNode.ASINH:
+                return quotient(constant(1), function(FunctionExpressionNode.SQRT, sum(square(g), constant(1))));
+            case FunctionExpressionNode.ACOSH:
+                return quotient(constant(1), function(FunctionExpressionNode.SQRT, difference(square(g), constant(1))));
+            case FunctionExpressionNode.ATANH:
+            case FunctionExpressionNode.ACOTH:
+                return quotient(constant(1), difference(constant(1), square(g)));
+            case FunctionExpressionNode.ASECH:
+                return negative(quotient(constant(1), product(square(g), function(FunctionExpressionNode.SQRT, difference(quotient(constant(1), square(g)), constant(1))))));
+            case FunctionExpressionNode.ACSCH:
+                return negative(quotient(constant(1), product(square(g), function(FunctionExpressionNode.SQRT, sum(quotient(constant(1), square(g)), constant(1))))));
+
+            case FunctionExpressionNode.VSIN:
+                return function(FunctionExpressionNode.SIN, g);
+            case FunctionExpressionNode.VCOS:
+                return negative(function(FunctionExpressionNode.SIN, g));
+            case FunctionExpressionNode.CVSIN:
+                return negative(function(FunctionExpressionNode.COS, g));
+            case FunctionExpressionNode.CVCOS:
+                return function(FunctionExpressionNode.COS, g);
+            case FunctionExpressionNode.HVSIN:
+                return product(constant(0.5), function(FunctionExpressionNode.SIN, g));
+            case FunctionExpressionNode.HVCOS:
+                return product(constant(-0.5), function(FunctionExpressionNode.SIN, g));
+            case FunctionExpressionNode.HCVSIN:
+                return product(constant(-0.5), function(FunctionExpressionNode.COS, g));
+            case FunctionExpressionNode.HCVCOS:
+                return product(constant(0.5), function(FunctionExpressionNode.COS, g));
+            case FunctionExpressionNode.EXSEC:
+                return outer(FunctionExpressionNode.SEC, g);
+            case FunctionExpressionNode.EXCSC:
+                return outer(FunctionExpressionNode.CSC, g);
+
+            // the inverses are evaluated as acos(1 - g), acos(1 + g), asin(1 - g),
+            // asin(1 + g), 2 asin(sqrt(g)), 2 acos(sqrt(g)), asin(1 - 2g),
+            // asin(1 + 2g), asec(g + 1) and acsc(g + 1)
+            case FunctionExpressionNode.AVSIN:
+                return negative(outer(FunctionExpressionNode.ACOS, difference(constant(1), g)));
+            case FunctionExpressionNode.AVCOS:
+                return outer(FunctionExpressionNode.ACOS, sum(constant(1), g));
+            case FunctionExpressionNode.ACVSIN:
+                return negative(outer(FunctionExpressionNode.ASIN, difference(constant(1), g)));
+            case FunctionExpressionNode.ACVCOS:
+                return outer(FunctionExpressionNode.ASIN, sum(constant(1), g));
+            case FunctionExpressionNode.AHVSIN:
+                return product(constant(2), product(outer(FunctionExpressionNode.ASIN, function(FunctionExpressionNode.SQRT, g)), outer(FunctionExpressionNode.SQRT, g)));
+            case FunctionExpressionNode.AHVCOS:
+                return product(constant(2), product(outer(FunctionExpressionNode.ACOS, function(FunctionExpressionNode.SQRT, g)), outer(FunctionExpressionNode.SQRT, g)));
+            case FunctionExpressionNode.AHCVSIN:
+                return product(constant(-2), outer(FunctionExpressionNode.ASIN, difference(constant(1), product(constant(2), g))));
+            case FunctionExpressionNode.AHCVCOS:
+                return product(constant(2), outer(FunctionExpressionNode.ASIN, sum(constant(1), product(constant(2), g))));
+            case FunctionExpressionNode.AEXSEC:
+                return outer(FunctionExpressionNode.ASEC, sum(g, constant(1)));
+            case FunctionExpressionNode.AEXCSC:
+                return outer(FunctionExpressionNode.ACSC, sum(g, constant(1)));
+
+            case FunctionExpressionNode.ERF:
+                return product(constant(TWO_OVER_SQRT_PI), function(FunctionExpressionNode.EXP, negative(square(g))));
+            case FunctionExpressionNode.FIB: {
+                // fib(g) = (phi^g - (-phi)^(-g)) / sqrt(5), where -phi has a
+                // negative zero imaginary part and log(-phi) = ln(phi) - pi i
+                ExpressionNode rising = product(constant(Math.log(PHI)), ExponentiationExpressionNode.create(constant(PHI), g));
+                ExpressionNode falling = product(new RealConstantExpressionNode(new Complex(Math.log(PHI), -Math.PI)), ExponentiationExpressionNode.create(new RealConstantExpressionNode(new Complex(-PHI, -0.0)), negative(g)));
+                return quotient(sum(rising, falling), constant(SQRT_5));
+            }
+
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Differentiates a subtree numerically, unless it does not depend on the
+     * variable.
+     */
+    private ExpressionNode numeric(ExpressionNode node) {
+        final boolean[] depends = new boolean[1];
+        node.accept(new SetVariable(null, null) {
+            @Override
+            public void visit(VariableExpressionNode visited) {
+                depends[0] |= visited.getName().equals(variable.getName());
+            }
+        });
+
+        if(!depends[0]) {
+            return constant(0);
+        }
+
+        fallbacks++;
+        return FunctionDerivative2ArgumentsExpressionNode.numeric(FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE, node, variable);
+    }
+
+    /* node constructors that leave out zeros and ones */
+
+    private static ExpressionNode constant(double value) {
+        return new RealConstantExpressionNode(value);
+    }
+
+    private static ExpressionNode function(int id, ExpressionNode argument) {
+        return FunctionExpressionNode.create(id, argument);
+    }
+
+    private static ExpressionNode sum(ExpressionNode a, ExpressionNode b) {
+        if(isConstant(a, 0)) {
+            return b;
+        }
+        if(isConstant(b, 0)) {
+            return a;
+        }
+
+        AdditionExpressionNode sum = new AdditionExpressionNode(a, AdditionExpressionNode.ADD);
+        sum.add(b, AdditionExpressionNode.ADD);
+        return sum;
+    }
+
+    private static ExpressionNode difference(ExpressionNode a, ExpressionNode b) {
+        if(isConstant(b, 0)) {
+            return a;
+        }
+        if(isConstant(a, 0)) {
+            return negative(b);
+        }
+
+        AdditionExpressionNode sum = new AdditionExpressionNode(a, AdditionExpressionNode.ADD);
+        sum.add(b, AdditionExpressionNode.SUB);
+        return sum;
+    }
+
+    private static ExpressionNode negative(ExpressionNode a) {
+        if(isConstant(a)) {
+            return new RealConstantExpressionNode(a.getValue().negative());
+        }
+
+        return new AdditionExpressionNode(a, AdditionExpressionNode.SUB);
+    }
+
+    private static ExpressionNode product(ExpressionNode a, ExpressionNode b) {
+        if(isConstant(a, 0) || isConstant(b, 0)) {
+            return constant(0);
+        }
+        if(isConstant(a, 1)) {
+            return b;
+        }
+        if(isConstant(b, 1)) {
+            return a;
+        }
+        if(isConstant(a) && isConstant(b)) {
+            return new RealConstantExpressionNode(a.getValue().times(b.getValue()));
+        }
+
+        MultiplicationExpressionNode product = new MultiplicationExpressionNode(a, MultiplicationExpressionNode.MULT);
+        product.add(b, MultiplicationExpressionNode.MULT);
+        return product;
+    }
+
+    private static ExpressionNode quotient(ExpressionNode a, ExpressionNode b) {
+        if(isConstant(a, 0)) {
+            return constant(0);
+        }
+        if(isConstant(b, 1)) {
+            return a;
+        }
+
+        MultiplicationExpressionNode product = new MultiplicationExpressionNode(a, MultiplicationExpressionNode.MULT);
+        product.add(b, MultiplicationExpressionNode.DIV);
+        return product;
+    }
+
+    private static ExpressionNode square(ExpressionNode a) {
+        return ExponentiationExpressionNode.create(a, constant(2));
+    }
+
+    private static boolean isConstant(ExpressionNode node) {
+        return node.getType() == ExpressionNode.REAL_CONSTANT_NODE || node.getType() == ExpressionNode.IMAGINARY_CONSTANT_NODE;
+    }
+
+    private static boolean isConstant(ExpressionNode node, double re) {
+        if(!isConstant(node)) {
+            return false;
+        }
+
+        Complex value = node.getValue();
+        return value.getRe() == re && value.getIm() == 0;
+    }
+}
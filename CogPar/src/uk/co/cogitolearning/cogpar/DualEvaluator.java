@@ -0,0 +1,485 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Evaluates an expression and its derivative by one variable in a single
+ * walk of the tree.
+ *
+ * Every node computes a dual number, its value together with the derivative
+ * of the value, from the dual numbers of its children: sums and products by
+ * the usual rules, powers by the power rule and functions by the chain rule.
+ * The derivatives of the functions are the ones of the Differentiator, built
+ * once per function, and gamma and fact use the digamma function. As with the
+ * Differentiator, the subtrees of functions without a complex derivative are
+ * differentiated numerically, as are derivatives that could not be built
+ * symbolically.
+ *
+ * This replaces evaluating an expression and then f'(expression, z), which
+ * walks the tree two more times. The values are bit-identical to
+ * ExpressionNode.getValue. An evaluator keeps its registers and the numeric
+ * derivatives of the last expression between calls and must not be shared
+ * between threads.
+ */
+public class DualEvaluator {
+
+    private Complex[] registers;
+    private int top;
+
+    /* the values of shared nodes by index and the pass they belong to */
+    private Complex[] sharedValues;
+    private Complex[] sharedDerivatives;
+    private long[] sharedPasses;
+    private long pass;
+    private long passes;
+
+    /*
+     * the derivatives of the functions in the variables w and u, v, null for
+     * functions that are differentiated numerically
+     */
+    private final VariableExpressionNode w;
+    private final VariableExpressionNode u;
+    private final VariableExpressionNode v;
+    private ExpressionNode[] derivatives;
+    private ExpressionNode[] derivativesU;
+    private ExpressionNode[] derivativesV;
+    private boolean[] built;
+    private boolean[] built2;
+
+    private ExpressionNode expression;
+    private String variable;
+
+    /*
+     * the numeric derivatives of the nodes of the last expression that needed
+     * one, and the node of the variable they shift
+     */
+    private final IdentityHashMap<ExpressionNode, FunctionDerivative2ArgumentsExpressionNode> numericDerivatives;
+    private ExpressionNode numericExpression;
+    private String numericVariable;
+    private VariableExpressionNode variableNode;
+
+    public DualEvaluator() {
+        registers = new Complex[0];
+        top = 0;
+        sharedValues = new Complex[0];
+        sharedDerivatives = new Complex[0];
+        sharedPasses = new long[0];
+        pass = 0;
+        passes = 0;
+        w = new VariableExpressionNode("w");
+        u = new VariableExpressionNode("u");
+        v = new VariableExpressionNode("v");
+        derivatives = new ExpressionNode[0];
+        derivativesU = new ExpressionNode[0];
+        derivativesV = new ExpressionNode[0];
+        built = new boolean[0];
+        built2 = new boolean[0];
+        numericDerivatives = new IdentityHashMap<ExpressionNode, FunctionDerivative2ArgumentsExpressionNode>();
+    }
+
+    /**
+     * Evaluates an expression and its derivative by a variable. All variables
+     * take the values they were given through the tree.
+     *
+     * @param expr the expression
+     * @param var the name of the variable
+     * @param value receives the value of the expression
+     * @param derivative receives the derivative of the expression
+     */
+    public void evaluate(ExpressionNode expr, String var, Complex value, Complex derivative) {
+        expression = expr;
+        variable = var;
+        pass = ++passes;
+
+        try {
+            evaluate(expr, value, derivative);
+        }
+        catch(EvaluationException ex) {
+            Metrics.evaluationException(ex);
+            throw ex;
+        }
+        finally {
+            top = 0;
+            expression = null;
+            variable = null;
+        }
+    }
+
+    private Complex acquire() {
+        if(top == registers.length) {
+            Complex[] grown = Arrays.copyOf(registers, top + 8);
+            for(int i = top; i < grown.length; i++) {
+                grown[i] = new Complex();
+            }
+            registers = grown;
+        }
+
+        return registers[top++];
+    }
+
+    private void release(int count) {
+        top -= count;
+    }
+
+    private void evaluate(ExpressionNode node, Complex value, Complex derivative) {
+        switch(node.getType()) {
+            case ExpressionNode.VARIABLE_NODE:
+                value.assign(node.getValue());
+                if(((VariableExpressionNode)node).getName().equals(variable)) {
+                    derivative.assign(1.0);
+                }
+                else {
+                    derivative.reset();
+                }
+                break;
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+                // constants do not read the frame
+                node.evaluateInto(null, value);
+                derivative.reset();
+                break;
+            case ExpressionNode.ADDITION_NODE:
+                addition((AdditionExpressionNode)node, value, derivative);
+                break;
+            case ExpressionNode.MULTIPLICATION_NODE:
+                multiplication((MultiplicationExpressionNode)node, value, derivative);
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE:
+                exponentiation((ExponentiationExpressionNode)node, value, derivative);
+                break;
+            case ExpressionNode.FUNCTION_NODE:
+                function((FunctionExpressionNode)node, value, derivative);
+                break;
+            case ExpressionNode.FUNCTION_2_ARG_NODE:
+                function2((Function2ArgumentsExpressionNode)node, value, derivative);
+                break;
+            case ExpressionNode.SHARED_NODE:
+                shared((SharedExpressionNode)node, value, derivative);
+                break;
+            case ExpressionNode.PROFILED_NODE:
+                evaluate(((ProfiledExpressionNode)node).getExpression(), value, derivative);
+                break;
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE: {
+                ExpressionNode symbolic = ((FunctionDerivative2ArgumentsExpressionNode)node).getDerivative();
+                if(symbolic != null) {
+                    // the shared nodes of the derivative are numbered on their own
+                    long outer = pass;
+                    pass = ++passes;
+                    evaluate(symbolic, value, derivative);
+                    pass = outer;
+                }
+                else {
+                    numeric(node, value, derivative);
+                }
+                break;
+            }
+            default:
+                numeric(node, value, derivative);
+                break;
+        }
+    }
+
+    private void addition(AdditionExpressionNode node, Complex value, Complex derivative) {
+        Complex termValue = acquire();
+        Complex termDerivative = acquire();
+
+        value.reset();
+        derivative.reset();
+        for(SequenceExpressionNode.Term term : node.getTerms()) {
+            evaluate(term.expression, termValue, termDerivative);
+            if(term.mode == AdditionExpressionNode.ADD) {
+                value.plus_mutable(termValue);
+                derivative.plus_mutable(termDerivative);
+            }
+            else {
+                value.sub_mutable(termValue);
+                derivative.sub_mutable(termDerivative);
+            }
+        }
+
+        release(2);
+    }
+
+    /*
+     * (p * t)' = p' * t + p * t', (p / t)' = (p' - (p / t) * t') / t and
+     * (p % t)' = p' - q * t' with the integer quotient q of the remainder
+     */
+    private void multiplication(MultiplicationExpressionNode node, Complex value, Complex derivative) {
+        Complex termValue = acquire();
+        Complex termDerivative = acquire();
+
+        value.assign(1.0);
+        derivative.reset();
+        for(SequenceExpressionNode.Term term : node.getTerms()) {
+            evaluate(term.expression, termValue, termDerivative);
+            if(term.mode == MultiplicationExpressionNode.MULT) {
+                termDerivative.times_mutable(value);
+                derivative.times_mutable(termValue).plus_mutable(termDerivative);
+                value.times_mutable(termValue);
+            }
+            else if(term.mode == MultiplicationExpressionNode.DIV) {
+                value.divide_mutable(termValue);
+                termDerivative.times_mutable(value);
+                derivative.sub_mutable(termDerivative).divide_mutable(termValue);
+            }
+            else {
+                Complex quotient = acquire();
+                quotient.assign(value);
+                quotient.divide_mutable(termValue);
+                if(termValue.getIm() == 0 && value.getIm() == 0 && value.getRe() >= 0 && termValue.getRe() >= 0) {
+                    quotient.trunc_mutable();
+                }
+                else {
+                    quotient.gaussian_integer_mutable();
+                }
+                value.remainder_mutable(termValue);
+                derivative.sub_mutable(termDerivative.times_mutable(quotient));
+                release(1);
+            }
+        }
+
+        release(2);
+    }
+
+    /*
+     * (b^e)' = e * b^(e - 1) * b' if e' = 0, b^e * (e' * ln(b) + e * b' / b)
+     * otherwise
+     */
+    private void exponentiation(ExponentiationExpressionNode node, Complex value, Complex derivative) {
+        Complex exponent = acquire();
+        Complex exponentDerivative = acquire();
+        Complex base = acquire();
+        Complex baseDerivative = acquire();
+
+        evaluate(node.getExponent(), exponent, exponentDerivative);
+        evaluate(node.getBase(), base, baseDerivative);
+
+        value.assign(base);
+        ExponentiationExpressionNode.power(value, exponent);
+
+        if(isZero(exponentDerivative)) {
+            if(isZero(baseDerivative)) {
+                derivative.reset();
+            }
+            else {
+                Complex reduced = acquire();
+                reduced.assign(exponent);
+                reduced.sub_mutable(1.0);
+                derivative.assign(base);
+                ExponentiationExpressionNode.power(derivative, reduced);
+                derivative.times_mutable(exponent).times_mutable(baseDerivative);
+                release(1);
+            }
+        }
+        else {
+            derivative.assign(base);
+            derivative.log_mutable().times_mutable(exponentDerivative);
+            if(!isZero(baseDerivative)) {
+                derivative.plus_mutable(baseDerivative.divide_mutable(base).times_mutable(exponent));
+            }
+            derivative.times_mutable(value);
+        }
+
+        release(4);
+    }
+
+    private void function(FunctionExpressionNode node, Complex value, Complex derivative) {
+        int id = node.getFunctionId();
+        if(id != FunctionExpressionNode.GAMMA && id != FunctionExpressionNode.FACT && outer(id) == null) {
+            numeric(node, value, derivative);
+            return;
+        }
+
+        Complex argument = acquire();
+        Complex argumentDerivative = acquire();
+
+        evaluate(node.getArgument(), argument, argumentDerivative);
+        Metrics.functionEvaluated(Token.FUNCTION, id);
+        node.getFunction().evaluateInto(argument, value);
+
+        if(isZero(argumentDerivative)) {
+            derivative.reset();
+        }
+        else if(id == FunctionExpressionNode.GAMMA) {
+            // gamma'(z) = gamma(z) * digamma(z)
+            derivative.assign(argument.digamma());
+            derivative.times_mutable(value).times_mutable(argumentDerivative);
+        }
+        else if(id == FunctionExpressionNode.FACT) {
+            derivative.assign(argument.plus(1.0).digamma());
+            derivative.times_mutable(value).times_mutable(argumentDerivative);
+        }
+        else {
+            w.setValue(argument);
+            derivative.assign(outer(id).getValue());
+            derivative.times_mutable(argumentDerivative);
+        }
+
+        release(2);
+    }
+
+    private void function2(Function2ArgumentsExpressionNode node, Complex value, Complex derivative) {
+        int id = node.getFunctionId();
+        if(!partials(id)) {
+            numeric(node, value, derivative);
+            return;
+        }
+
+        Complex argument = acquire();
+        Complex argumentDerivative = acquire();
+        Complex argument2 = acquire();
+        Complex argument2Derivative = acquire();
+
+        evaluate(node.getArgument(), argument, argumentDerivative);
+        evaluate(node.getArgument2(), argument2, argument2Derivative);
+        Metrics.functionEvaluated(Token.FUNCTION_2ARGUMENTS, id);
+        node.getFunction().evaluateInto(argument, argument2, value);
+
+        derivative.reset();
+        if(!isZero(argumentDerivative) || !isZero(argument2Derivative)) {
+            u.setValue(argument);
+            v.setValue(argument2);
+            if(!isZero(argumentDerivative)) {
+                derivative.plus_mutable(argumentDerivative.times_mutable(derivativesU[id].getValue()));
+            }
+            if(!isZero(argument2Derivative)) {
+                derivative.plus_mutable(argument2Derivative.times_mutable(derivativesV[id].getValue()));
+            }
+        }
+
+        release(4);
+    }
+
+    private void shared(SharedExpressionNode node, Complex value, Complex derivative) {
+        int index = node.getIndex();
+
+        if(index >= sharedPasses.length) {
+            int length = Math.max(index + 1, 2 * sharedPasses.length);
+            sharedValues = Arrays.copyOf(sharedValues, length);
+            sharedDerivatives = Arrays.copyOf(sharedDerivatives, length);
+            for(int i = sharedPasses.length; i < length; i++) {
+                sharedValues[i] = new Complex();
+                sharedDerivatives[i] = new Complex();
+            }
+            sharedPasses = Arrays.copyOf(sharedPasses, length);
+        }
+
+        if(sharedPasses[index] == pass) {
+            value.assign(sharedValues[index]);
+            derivative.assign(sharedDerivatives[index]);
+        }
+        else {
+            evaluate(node.getExpression(), value, derivative);
+            sharedValues[index].assign(value);
+            sharedDerivatives[index].assign(derivative);
+            sharedPasses[index] = pass;
+        }
+    }
+
+    /*
+     * Differentiates a node numerically by shifting the variable. The
+     * derivative nodes are built once per node and kept while the same
+     * expression is differentiated by the same variable.
+     */
+    private void numeric(ExpressionNode node, Complex value, Complex derivative) {
+        value.assign(node.getValue());
+
+        if(expression != numericExpression || !variable.equals(numericVariable)) {
+            numericDerivatives.clear();
+            numericExpression = expression;
+            numericVariable = variable;
+            variableNode = null;
+            expression.accept(new SetVariable(null, null) {
+                @Override
+                public void visit(VariableExpressionNode visited) {
+                    if(variableNode == null && visited.getName().equals(variable)) {
+                        variableNode = visited;
+                    }
+                }
+            });
+        }
+
+        if(variableNode == null) {
+            derivative.reset();
+            return;
+        }
+
+        FunctionDerivative2ArgumentsExpressionNode numeric = numericDerivatives.get(node);
+        if(numeric == null) {
+            numeric = FunctionDerivative2ArgumentsExpressionNode.numeric(FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE, node, variableNode);
+            numericDerivatives.put(node, numeric);
+        }
+
+        derivative.assign(numeric.getValue());
+    }
+
+    /*
+     * Returns the derivative of a function in w, or null if the function has
+     * no symbolic derivative.
+     */
+    private ExpressionNode outer(int id) {
+        if(id >= built.length) {
+            derivatives = Arrays.copyOf(derivatives, id + 1);
+            built = Arrays.copyOf(built, id + 1);
+        }
+
+        if(!built[id]) {
+            Differentiator differentiator = new Differentiator();
+            ExpressionNode outer = differentiator.differentiate(FunctionExpressionNode.create(id, w), w);
+            derivatives[id] = differentiator.getFallbackCount() == 0 ? outer : null;
+            built[id] = true;
+        }
+
+        return derivatives[id];
+    }
+
+    /*
+     * Builds the partial derivatives of a function in u and v.
+     *
+     * @return false if the function has no symbolic derivative
+     */
+    private boolean partials(int id) {
+        if(id >= built2.length) {
+            derivativesU = Arrays.copyOf(derivativesU, id + 1);
+            derivativesV = Arrays.copyOf(derivativesV, id + 1);
+            built2 = Arrays.copyOf(built2, id + 1);
+        }
+
+        if(!built2[id]) {
+            ExpressionNode function = Function2ArgumentsExpressionNode.create(id, u, v);
+            Differentiator differentiator = new Differentiator();
+            ExpressionNode partialU = differentiator.differentiate(function, u);
+            int fallbacks = differentiator.getFallbackCount();
+            ExpressionNode partialV = differentiator.differentiate(function, v);
+            fallbacks += differentiator.getFallbackCount();
+            if(fallbacks == 0) {
+                derivativesU[id] = partialU;
+                derivativesV[id] = partialV;
+            }
+            built2[id] = true;
+        }
+
+        return derivativesU[id] != null;
+    }
+
+    private static boolean isZero(Complex value) {
+        return value.getRe() == 0 && value.getIm() == 0;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Java Flight Recorder event for a call of BatchEvaluator.evaluate that
+ * took longer than the threshold, 50 ms unless the recording sets another
+ * one.
+ */
+@Name("uk.co.cogitolearning.cogpar.Evaluation")
+@Label("Evaluation")
+@Category("CogPar")
+@Description("A long batch evaluation of an expression")
+@Threshold("50 ms")
+@StackTrace(false)
+final class EvaluationEvent extends Event {
+
+    @Label("Variable")
+    String variable;
+
+    @Label("Points")
+    int points;
+
+    @Label("Failed")
+    boolean failed;
+}
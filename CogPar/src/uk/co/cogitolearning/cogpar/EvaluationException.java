@@ -32,6 +32,9 @@ public class EvaluationException extends RuntimeException
 {
   private static final long serialVersionUID = 4794094610927358603L;
 
+  /** whether the exception has been reported to Metrics */
+  transient boolean reported;
+
   /**
    * Construct the evaluation exception with a message.
    * @param message the message containing the cause of the exception
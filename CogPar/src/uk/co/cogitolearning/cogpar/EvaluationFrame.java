@@ -0,0 +1,256 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.Arrays;
+
+/**
+ * The per-thread state of an evaluation through ExpressionNode.evaluateInto.
+ *
+ * A frame holds the values of the variables of one expression, indexed by the
+ * slots of its VariableTable, together with Complex scratch registers that are
+ * handed out in a stack-like fashion. The expression tree itself is not
+ * modified by evaluateInto, so any number of threads can evaluate the same
+ * tree at once as long as each of them uses a frame of its own.
+ *
+ * The frame also remembers the values of the SharedExpressionNodes of the
+ * expression by their index. Every assignment of a variable starts a new
+ * generation and makes the remembered values stale, so a frame must only be
+ * used with the expression it was created for. The symbolic derivatives of
+ * the expression number their shared nodes on their own and are evaluated in
+ * a generation of their own.
+ *
+ * After the first evaluation no further objects are created. If an evaluation
+ * throws, call reset before using the frame again.
+ */
+public class EvaluationFrame {
+
+    private final VariableTable variables;
+    private final Complex[] values;
+    private final boolean[] valueSet;
+    private Complex[] registers;
+    private int top;
+    private Complex[] shared;
+    private long[] sharedGenerations;
+    private long generation;
+    private long generations;
+
+    /**
+     * Creates a frame for an expression. Variables that already have a value
+     * assigned through the tree start out with that value.
+     *
+     * @param expression the expression that will be evaluated with the frame
+     */
+    public EvaluationFrame(ExpressionNode expression) {
+        variables = VariableTable.of(expression);
+        values = new Complex[variables.size()];
+        valueSet = new boolean[variables.size()];
+
+        for(int i = 0; i < values.length; i++) {
+            Variable variable = variables.get(i);
+            values[i] = variable.isSet() ? new Complex(variable.get()) : new Complex();
+            valueSet[i] = variable.isSet();
+        }
+
+        registers = new Complex[16];
+        for(int i = 0; i < registers.length; i++) {
+            registers[i] = new Complex();
+        }
+        top = 0;
+
+        shared = new Complex[0];
+        sharedGenerations = new long[0];
+        generation = 1;
+        generations = 1;
+    }
+
+    /**
+     * @param name the name of a variable
+     * @return the slot of the variable or -1 if the expression does not use it
+     */
+    public int slot(String name) {
+        Variable variable = variables.get(name);
+        return variable != null ? variables.slot(variable) : -1;
+    }
+
+    /**
+     * @param variable a variable of the expression
+     * @return the slot of the variable in this frame or -1 if the expression
+     * does not use it
+     */
+    int slot(Variable variable) {
+        return variables.slot(variable);
+    }
+
+    /**
+     * Sets the value of the variable in a slot.
+     *
+     * @param slot the slot of the variable
+     * @param re the real part
+     * @param im the imaginary part
+     */
+    public void set(int slot, double re, double im) {
+        Complex value = values[slot];
+        value.setRe(re);
+        value.setIm(im);
+        valueSet[slot] = true;
+        generation = ++generations;
+    }
+
+    /**
+     * Sets the value of the variable in a slot, the value is copied.
+     *
+     * @param slot the slot of the variable
+     * @param value the new value
+     */
+    public void set(int slot, Complex value) {
+        values[slot].assign(value);
+        valueSet[slot] = true;
+        generation = ++generations;
+    }
+
+    /**
+     * Sets the value of a variable by name. Names that the expression does
+     * not use are ignored.
+     *
+     * @param name the name of the variable
+     * @param value the new value
+     */
+    public void set(String name, Complex value) {
+        int slot = slot(name);
+
+        if(slot != -1) {
+            set(slot, value);
+        }
+    }
+
+    /**
+     * Returns the value of a variable but throws an exception if the value has
+     * not been set. The returned object is owned by the frame.
+     */
+    Complex get(Variable variable) {
+        int slot = variables.slot(variable);
+
+        if(slot == -1 || !valueSet[slot]) {
+            // nothing on the way to the caller catches it
+            EvaluationException ex = new EvaluationException("Variable '" + variable.getName() + "' was not initialized.");
+            Metrics.evaluationException(ex);
+            throw ex;
+        }
+
+        return values[slot];
+    }
+
+    boolean isSet(int slot) {
+        return valueSet[slot];
+    }
+
+    Complex value(int slot) {
+        return values[slot];
+    }
+
+    void clear(int slot) {
+        valueSet[slot] = false;
+        generation = ++generations;
+    }
+
+    /**
+     * Starts a new generation for a nested expression whose shared nodes are
+     * numbered independently of the enclosing one.
+     *
+     * @return the generation to restore with leave
+     */
+    long enter() {
+        long outer = generation;
+        generation = ++generations;
+        return outer;
+    }
+
+    /**
+     * Returns to the generation of the enclosing expression. The nested
+     * expression must have left the variables with the values they had.
+     */
+    void leave(long outer) {
+        generation = outer;
+    }
+
+    /**
+     * Copies the remembered value of a shared node into out.
+     *
+     * @return false if there is no value for the current variable values
+     */
+    boolean recall(int index, Complex out) {
+        if(index < sharedGenerations.length && sharedGenerations[index] == generation) {
+            out.assign(shared[index]);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Remembers the value of a shared node for the current variable values.
+     */
+    void remember(int index, Complex value) {
+        if(index >= shared.length) {
+            Complex[] grown = new Complex[Math.max(index + 1, shared.length * 2)];
+            System.arraycopy(shared, 0, grown, 0, shared.length);
+            for(int i = shared.length; i < grown.length; i++) {
+                grown[i] = new Complex();
+            }
+            shared = grown;
+            sharedGenerations = Arrays.copyOf(sharedGenerations, grown.length);
+        }
+
+        shared[index].assign(value);
+        sharedGenerations[index] = generation;
+    }
+
+    /**
+     * Takes the next free scratch register.
+     *
+     * @return a register whose value is undefined
+     */
+    public Complex acquire() {
+        if(top == registers.length) {
+            Complex[] grown = new Complex[registers.length * 2];
+            System.arraycopy(registers, 0, grown, 0, registers.length);
+            for(int i = registers.length; i < grown.length; i++) {
+                grown[i] = new Complex();
+            }
+            registers = grown;
+        }
+
+        return registers[top++];
+    }
+
+    /**
+     * Gives back the most recently acquired registers.
+     *
+     * @param count the number of registers to release
+     */
+    public void release(int count) {
+        top -= count;
+    }
+
+    /**
+     * Releases all registers.
+     */
+    public void reset() {
+        top = 0;
+    }
+}
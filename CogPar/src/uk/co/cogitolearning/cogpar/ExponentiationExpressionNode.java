@@ -29,6 +29,10 @@ package uk.co.cogitolearning.cogpar;
  * An ExpressionNode that handles exponentiation. The node holds
  * a base and an exponent and calulates base^exponent 
  * 
+ * Nodes should be created with create, which returns an
+ * IntegerPowerExpressionNode or a RealPowerExpressionNode when the exponent is
+ * a constant, so that the kind of power is chosen once instead of on every
+ * evaluation.
  */
 public class ExponentiationExpressionNode implements ExpressionNode
 {
@@ -48,6 +52,85 @@ public class ExponentiationExpressionNode implements ExpressionNode
     this.exponent = exponent;
   }
 
+  /**
+   * Creates the node for base^exponent. An exponent made of constants only is
+   * evaluated once, a real integer exponent gives an IntegerPowerExpressionNode
+   * and any other real exponent a RealPowerExpressionNode. All of them give
+   * the same results as the general node.
+   * 
+   * @param base the node containing the base
+   * @param exponent the node containing the exponent
+   * @return the node for base^exponent
+   */
+  public static ExponentiationExpressionNode create(ExpressionNode base, ExpressionNode exponent)
+  {
+    Complex value = constantValue(exponent);
+
+    if(value != null && value.getIm() == 0) {
+        if(isInteger(value.getRe())) {
+            return new IntegerPowerExpressionNode(base, exponent, (int)value.getRe());
+        }
+        return new RealPowerExpressionNode(base, exponent, value.getRe());
+    }
+
+    return new ExponentiationExpressionNode(base, exponent);
+  }
+
+  /**
+   * The value of a subtree of constants, sums and products, null for any
+   * other subtree or if it cannot be evaluated.
+   */
+  private static Complex constantValue(ExpressionNode node)
+  {
+    if(!isConstant(node)) {
+        return null;
+    }
+
+    try {
+        return node.getValue();
+    }
+    catch(EvaluationException ex) {
+        return null;
+    }
+  }
+
+  private static boolean isConstant(ExpressionNode node)
+  {
+    switch(node.getType()) {
+        case ExpressionNode.REAL_CONSTANT_NODE:
+        case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+            return true;
+        case ExpressionNode.ADDITION_NODE:
+        case ExpressionNode.MULTIPLICATION_NODE:
+            for(SequenceExpressionNode.Term t : ((SequenceExpressionNode)node).getTerms()) {
+                if(!isConstant(t.expression)) {
+                    return false;
+                }
+            }
+            return true;
+        case ExpressionNode.SHARED_NODE:
+            return isConstant(((SharedExpressionNode)node).getExpression());
+        default:
+            return false;
+    }
+  }
+
+  /**
+   * @return the node containing the base
+   */
+  public ExpressionNode getBase()
+  {
+    return base;
+  }
+
+  /**
+   * @return the node containing the exponent
+   */
+  public ExpressionNode getExponent()
+  {
+    return exponent;
+  }
+
   /**
    * Returns the type of the node, in this case ExpressionNode.EXPONENTIATION_NODE
    */
@@ -64,42 +147,157 @@ public class ExponentiationExpressionNode implements ExpressionNode
   public Complex getValue()
   {
       Complex zexponent = exponent.getValue();
-      
-      double re = zexponent.getRe();
-      double im = zexponent.getIm();
-      
-      if(im == 0) {
-          if(re == 2) {
-              return base.getValue().square();
-          }
-          else if(re == 3) {
-              return base.getValue().cube();
-          }
-          else if(re == 4) {
-              return base.getValue().fourth();
-          }
-          else if(re == 5) {
-              return base.getValue().fifth();
-          }
-          else if(re == 6) {
-              return base.getValue().sixth();
-          }
-          else if(re == 7) {
-              return base.getValue().seventh();
-          }
-          else if(re == 8) {
-              return base.getValue().eighth();
-          }
-          else if(re == 9) {
-              return base.getValue().ninth();
+      Complex value = new Complex(base.getValue());
+      power(value, zexponent);
+      return value;
+  }
+
+  /**
+   * Evaluates the exponent into a scratch register and the base into out,
+   * then raises out to the power in place.
+   */
+  public void evaluateInto(EvaluationFrame frame, Complex out)
+  {
+      Complex zexponent = frame.acquire();
+      exponent.evaluateInto(frame, zexponent);
+      base.evaluateInto(frame, out);
+      power(out, zexponent);
+      frame.release(1);
+  }
+
+  /**
+   * Raises value to the power of zexponent in place. Real exponents go
+   * through power(Complex, double), others through the polar form of pow.
+   */
+  static void power(Complex value, Complex zexponent)
+  {
+      if(zexponent.getIm() == 0) {
+          power(value, zexponent.getRe());
+      }
+      else {
+          value.pow_mutable(zexponent);
+      }
+  }
+
+  /**
+   * Raises value to a real power in place, with integerPower for integers
+   * and realPower otherwise.
+   */
+  static void power(Complex value, double exponent)
+  {
+      if(isInteger(exponent)) {
+          integerPower(value, (int)exponent);
+      }
+      else {
+          realPower(value, exponent);
+      }
+  }
+
+  /**
+   * True for the exponents that integerPower handles, the integers in the
+   * range of int whose negation is in it as well.
+   */
+  static boolean isInteger(double exponent)
+  {
+      return exponent == (int)exponent && exponent != Integer.MIN_VALUE;
+  }
+
+  /**
+   * Raises value to an integer power in place. 0 gives one, 1 leaves the
+   * value, 2 .. 10 use the expanded powers of Complex, negative powers take
+   * the reciprocal first and larger powers use binary exponentiation.
+   */
+  static void integerPower(Complex value, int n)
+  {
+      switch(n) {
+          case 0:
+              value.setRe(1);
+              value.setIm(0);
+              return;
+          case 1:
+              return;
+          case 2:
+              value.square_mutable();
+              return;
+          case 3:
+              value.cube_mutable();
+              return;
+          case 4:
+              value.fourth_mutable();
+              return;
+          case 5:
+              value.fifth_mutable();
+              return;
+          case 6:
+              value.sixth_mutable();
+              return;
+          case 7:
+              value.seventh_mutable();
+              return;
+          case 8:
+              value.eighth_mutable();
+              return;
+          case 9:
+              value.ninth_mutable();
+              return;
+          case 10:
+              value.tenth_mutable();
+              return;
+          default:
+              break;
+      }
+
+      if(n < 0) {
+          value.reciprocal_mutable();
+          integerPower(value, -n);
+          return;
+      }
+
+      double re = value.getRe();
+      double im = value.getIm();
+      double resultRe = 0;
+      double resultIm = 0;
+      boolean first = true;
+
+      while(true) {
+          if((n & 1) != 0) {
+              if(first) {
+                  resultRe = re;
+                  resultIm = im;
+                  first = false;
+              }
+              else {
+                  double temp = resultRe * re - resultIm * im;
+                  resultIm = resultRe * im + resultIm * re;
+                  resultRe = temp;
+              }
           }
-          else if(re == 10) {
-              return base.getValue().tenth();
+
+          n >>>= 1;
+          if(n == 0) {
+              break;
           }
-          return base.getValue().pow(exponent.getValue().getRe());
+
+          double temp = re * im;
+          re = (re + im) * (re - im);
+          im = temp + temp;
+      }
+
+      value.setRe(resultRe);
+      value.setIm(resultIm);
+  }
+
+  /**
+   * Raises value to a real power that is not an integer in place, sqrt for
+   * 0.5 and the polar form of pow otherwise.
+   */
+  static void realPower(Complex value, double exponent)
+  {
+      if(exponent == 0.5) {
+          value.sqrt_mutable();
       }
       else {
-          return base.getValue().pow(zexponent);
+          value.pow_mutable(exponent);
       }
   }
 
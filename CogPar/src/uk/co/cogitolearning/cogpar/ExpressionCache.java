@@ -0,0 +1,279 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of parsed expressions in front of Parser.
+ *
+ * Formulas are looked up by a canonical form of their tokens, so formulas
+ * that differ only in whitespace or in the case of function names, of pi, e
+ * and phi and of the letters in numbers share one entry. Variable names are
+ * case-sensitive and are kept as they are. The canonical forms of up to
+ * maximumSize spellings of the cached formulas are remembered as well, so a
+ * formula that arrives with the same text again is found without tokenizing
+ * it.
+ *
+ * The cache may be used by several threads at once. Looking up a cached
+ * formula takes no lock. Every entry remembers when it was last used, and
+ * when the cache overflows the least recently used eighth of the entries is
+ * evicted at once, so the eviction is approximately LRU. Only misses
+ * synchronize, while they store the parsed tree. Every caller of parse gets
+ * the same tree for the same formula, so a cached tree should be evaluated
+ * through an EvaluationFrame of the caller's own instead of assigning
+ * variables in the tree itself.
+ *
+ * Usage:
+ *
+ * <pre>
+ * ExpressionCache cache = new ExpressionCache(4096);
+ * ExpressionNode expression = cache.parse("z^2 + c");
+ * </pre>
+ */
+public class ExpressionCache {
+
+    private final int maximumSize;
+    private final Parser parser;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final ConcurrentHashMap<String, Entry> spellings;
+
+    /** advanced whenever an expression is stored, the age of the entries is measured in it */
+    private volatile long clock;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * A cached expression.
+     */
+    private static final class Entry {
+
+        final ExpressionNode expression;
+        /** the clock when the entry was last used */
+        volatile long used;
+        volatile boolean evicted;
+
+        Entry(ExpressionNode expression, long used) {
+            this.expression = expression;
+            this.used = used;
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maximumSize the number of expressions that are kept at most
+     */
+    public ExpressionCache(int maximumSize) {
+        if(maximumSize < 1) {
+            throw new IllegalArgumentException("The maximum size must be positive.");
+        }
+
+        this.maximumSize = maximumSize;
+        parser = new Parser();
+        entries = new ConcurrentHashMap<String, Entry>();
+        spellings = new ConcurrentHashMap<String, Entry>();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+    }
+
+    /**
+     * Returns the parsed expression for a formula, parsing it on a miss.
+     * Formulas that do not parse are not cached.
+     *
+     * @param expression the string holding the input
+     * @return the cached expression tree
+     */
+    public ExpressionNode parse(String expression) {
+        Entry entry = spellings.get(expression);
+        if(entry != null) {
+            return hit(entry);
+        }
+
+        LinkedList<Token> tokens = Tokenizer.getExpressionTokenizer().getTokens(expression);
+        String key = key(tokens);
+
+        entry = entries.get(key);
+        if(entry != null) {
+            remember(expression, entry);
+            return hit(entry);
+        }
+
+        misses.increment();
+        Metrics.recorder().cacheMiss();
+
+        // parsed outside the lock, if two threads miss at once the first
+        // tree to be stored is kept
+        ExpressionNode parsed = parser.parse(tokens);
+
+        synchronized(this) {
+            entry = entries.get(key);
+            if(entry == null) {
+                entry = new Entry(parsed, ++clock);
+                entries.put(key, entry);
+                if(entries.size() > maximumSize) {
+                    evict();
+                }
+            }
+            remember(expression, entry);
+            return entry.expression;
+        }
+    }
+
+    private ExpressionNode hit(Entry entry) {
+        // only written when it changes, so the entries of formulas that are
+        // used all the time are not written by every thread
+        long now = clock;
+        if(entry.used != now) {
+            entry.used = now;
+        }
+
+        hits.increment();
+        Metrics.recorder().cacheHit();
+        return entry.expression;
+    }
+
+    private void remember(String expression, Entry entry) {
+        // a spelling stored for an entry that is evicted meanwhile is
+        // removed at the next eviction
+        if(!entry.evicted && spellings.size() < maximumSize) {
+            spellings.put(expression, entry);
+        }
+    }
+
+    /*
+     * Removes the least recently used eighth of the entries, at least one,
+     * and their spellings. The entries are scanned once per maximumSize / 8
+     * misses. Called with the lock held.
+     */
+    private void evict() {
+        long[] used = new long[entries.size()];
+        int size = 0;
+        for(Entry entry : entries.values()) {
+            if(size == used.length) {
+                break;
+            }
+            used[size++] = entry.used;
+        }
+        Arrays.sort(used, 0, size);
+
+        int count = Math.max(1, entries.size() - (maximumSize - maximumSize / 8));
+        long oldest = used[Math.min(count, size) - 1];
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(iterator.hasNext() && count > 0) {
+            Entry entry = iterator.next();
+            if(entry.used <= oldest) {
+                entry.evicted = true;
+                iterator.remove();
+                evictions.increment();
+                count--;
+            }
+        }
+
+        spellings.values().removeIf(entry -> entry.evicted);
+    }
+
+    /**
+     * Builds the canonical form of a formula from its tokens, one token per
+     * space-separated word.
+     */
+    static String key(LinkedList<Token> tokens) {
+        StringBuilder key = new StringBuilder();
+
+        for(Token token : tokens) {
+            if(key.length() > 0) {
+                key.append(' ');
+            }
+
+            switch(token.token) {
+                case Token.FUNCTION:
+                case Token.FUNCTION_2ARGUMENTS:
+                case Token.FUNCTION_DERIVATIVE_2ARGUMENTS:
+                case Token.REAL_NUMBER:
+                    key.append(token.sequence.toLowerCase(Locale.ROOT));
+                    break;
+                case Token.IMAGINARY_NUMBER:
+                    key.append(token.sequence.replace(" ", "").toLowerCase(Locale.ROOT));
+                    break;
+                case Token.VARIABLE:
+                    String lower = token.sequence.toLowerCase(Locale.ROOT);
+                    key.append(lower.equals("pi") || lower.equals("e") || lower.equals("phi") ? lower : token.sequence);
+                    break;
+                default:
+                    key.append(token.sequence);
+                    break;
+            }
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * @return the number of calls of parse that found the expression
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of calls of parse that had to parse the formula
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of expressions removed to stay within the maximum size
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of cached expressions
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of expressions that are kept at most
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Removes all expressions, the counters are kept.
+     */
+    public synchronized void clear() {
+        for(Entry entry : entries.values()) {
+            entry.evicted = true;
+        }
+        entries.clear();
+        spellings.clear();
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import uk.co.cogitolearning.cogpar.functions.AbstractOneArgumentFunction;
+import uk.co.cogitolearning.cogpar.functions.AbstractTwoArgumentFunction;
+
+/**
+ * Compiles an expression tree into a hidden class that evaluates the
+ * expression on primitive doubles.
+ *
+ * Every node is translated into straight-line code that keeps the real and
+ * imaginary parts of intermediate values in local variables. Additions,
+ * multiplications, divisions, constants and variables are inlined, so the
+ * virtual dispatch of the tree and the temporary Complex objects are gone.
+ * Function nodes call their function object from a call site of their own,
+ * which keeps every call site monomorphic. A shared subexpression is computed
+ * at its first occurrence into locals of its own that the later occurrences
+ * read.
+ *
+ * Usage:
+ *
+ * <pre>
+ * CompiledExpression compiled = new ExpressionCompiler().compile(parser.parse("z^2 + c"));
+ * double[] vars = new double[2 * compiled.getVariableCount()];
+ * ...
+ * compiled.evaluate(vars, out);
+ * </pre>
+ */
+public class ExpressionCompiler {
+
+    private static final String COMPILED = "uk/co/cogitolearning/cogpar/CompiledExpression";
+    private static final String COMPLEX = "uk/co/cogitolearning/cogpar/Complex";
+    private static final String FUNCTION = "uk/co/cogitolearning/cogpar/functions/AbstractOneArgumentFunction";
+    private static final String FUNCTION2 = "uk/co/cogitolearning/cogpar/functions/AbstractTwoArgumentFunction";
+
+    private static final String FUNCTIONS_DESC = "[L" + FUNCTION + ";";
+    private static final String FUNCTIONS2_DESC = "[L" + FUNCTION2 + ";";
+    private static final String DERIVATIVES_DESC = "[L" + COMPILED + ";";
+    private static final String CONSTRUCTOR_DESC = "(" + FUNCTIONS_DESC + FUNCTIONS2_DESC + DERIVATIVES_DESC + "[Ljava/lang/String;)V";
+    private static final String COMPLEX_RESULT_DESC = "(DDDD)L" + COMPLEX + ";";
+    private static final String INTEGER_POWER_DESC = "(DDI)L" + COMPLEX + ";";
+    private static final String REAL_POWER_DESC = "(DDD)L" + COMPLEX + ";";
+
+    /** local slot of the vars argument */
+    private static final int VARS = 1;
+    /** local slot of the out argument */
+    private static final int OUT = 2;
+    /** first local slot used for intermediate values */
+    private static final int FIRST_SLOT = 3;
+
+    /* state of the class that is currently generated */
+    private LinkedHashMap<String, Integer> variables;
+    private ArrayList<AbstractOneArgumentFunction> functions;
+    private ArrayList<AbstractTwoArgumentFunction> functions2;
+    private ArrayList<CompiledExpression> derivatives;
+    private IdentityHashMap<SharedExpressionNode, Integer> shared;
+    private ClassFileWriter.MethodWriter code;
+
+    /**
+     * Compiles an expression.
+     *
+     * @param expression the root of the expression tree
+     * @return the compiled expression
+     */
+    public CompiledExpression compile(ExpressionNode expression) {
+        LinkedHashMap<String, Integer> vars = new LinkedHashMap<String, Integer>();
+        VariableTable table = VariableTable.of(expression);
+
+        for(int i = 0; i < table.size(); i++) {
+            vars.put(table.get(i).getName(), i);
+        }
+
+        try {
+            return compile(expression, vars);
+        }
+        catch(EvaluationException ex) {
+            Metrics.evaluationException(ex);
+            throw ex;
+        }
+    }
+
+    private CompiledExpression compile(ExpressionNode expression, LinkedHashMap<String, Integer> vars) {
+        variables = vars;
+        functions = new ArrayList<AbstractOneArgumentFunction>();
+        functions2 = new ArrayList<AbstractTwoArgumentFunction>();
+        derivatives = new ArrayList<CompiledExpression>();
+        shared = new IdentityHashMap<SharedExpressionNode, Integer>();
+
+        // the values of shared nodes are kept below the intermediate values
+        IdentityHashMap<SharedExpressionNode, Boolean> sharedNodes = new IdentityHashMap<SharedExpressionNode, Boolean>();
+        collectShared(expression, sharedNodes);
+        int first = FIRST_SLOT + 4 * sharedNodes.size();
+
+        ClassFileWriter writer = new ClassFileWriter(COMPILED + "$Generated", COMPILED);
+
+        ClassFileWriter.MethodWriter constructor = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, 5);
+        constructor.aload(0);
+        constructor.aload(1);
+        constructor.aload(2);
+        constructor.aload(3);
+        constructor.aload(4);
+        constructor.invokeSpecial(COMPILED, "<init>", CONSTRUCTOR_DESC);
+        constructor.op(ClassFileWriter.RETURN, 0);
+
+        code = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "evaluate", "([D[D)V", FIRST_SLOT);
+        compileNode(expression, first);
+
+        code.aload(OUT);
+        code.iconst(0);
+        code.dload(first);
+        code.op(ClassFileWriter.DASTORE, -4);
+        code.aload(OUT);
+        code.iconst(1);
+        code.dload(first + 2);
+        code.op(ClassFileWriter.DASTORE, -4);
+        code.op(ClassFileWriter.RETURN, 0);
+
+        String[] names = vars.keySet().toArray(new String[vars.size()]);
+        AbstractOneArgumentFunction[] functionArray = functions.toArray(new AbstractOneArgumentFunction[functions.size()]);
+        AbstractTwoArgumentFunction[] function2Array = functions2.toArray(new AbstractTwoArgumentFunction[functions2.size()]);
+        CompiledExpression[] derivativeArray = derivatives.toArray(new CompiledExpression[derivatives.size()]);
+
+        try {
+            Class<?> generated = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true).lookupClass();
+
+            return (CompiledExpression)generated.getConstructor(AbstractOneArgumentFunction[].class, AbstractTwoArgumentFunction[].class, CompiledExpression[].class, String[].class)
+                    .newInstance(functionArray, function2Array, derivativeArray, names);
+        }
+        catch(ReflectiveOperationException ex) {
+            throw new EvaluationException("Could not compile the expression: " + ex);
+        }
+    }
+
+    /*
+     * Emits the code for a node. The real part of the result is stored in
+     * the local slot, the imaginary part in slot + 2. Slots above slot + 4
+     * are free to use as scratch space.
+     */
+    private void compileNode(ExpressionNode node, int slot) {
+        switch (node.getType()) {
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+                Complex value = node.getValue();
+                code.dconst(value.getRe());
+                code.dstore(slot);
+                code.dconst(value.getIm());
+                code.dstore(slot + 2);
+                break;
+
+            case ExpressionNode.VARIABLE_NODE:
+                int index = variables.get(((VariableExpressionNode)node).getName());
+                code.aload(VARS);
+                code.iconst(2 * index);
+                code.op(ClassFileWriter.DALOAD, 0);
+                code.dstore(slot);
+                code.aload(VARS);
+                code.iconst(2 * index + 1);
+                code.op(ClassFileWriter.DALOAD, 0);
+                code.dstore(slot + 2);
+                break;
+
+            case ExpressionNode.ADDITION_NODE:
+                compileAddition((AdditionExpressionNode)node, slot);
+                break;
+
+            case ExpressionNode.MULTIPLICATION_NODE:
+                compileMultiplication((MultiplicationExpressionNode)node, slot);
+                break;
+
+            case ExpressionNode.EXPONENTIATION_NODE:
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                if(power instanceof IntegerPowerExpressionNode) {
+                    compileNode(power.getBase(), slot + 4);
+                    code.dload(slot + 4);
+                    code.dload(slot + 6);
+                    code.iconst(((IntegerPowerExpressionNode)power).getPower());
+                    code.invokeStatic(COMPILED, "integerPower", INTEGER_POWER_DESC);
+                    storeComplex(slot);
+                    break;
+                }
+                if(power instanceof RealPowerExpressionNode) {
+                    compileNode(power.getBase(), slot + 4);
+                    code.dload(slot + 4);
+                    code.dload(slot + 6);
+                    code.dconst(((RealPowerExpressionNode)power).getPower());
+                    code.invokeStatic(COMPILED, "realPower", REAL_POWER_DESC);
+                    storeComplex(slot);
+                    break;
+                }
+                compileNode(power.getExponent(), slot + 4);
+                compileNode(power.getBase(), slot + 8);
+                code.dload(slot + 8);
+                code.dload(slot + 10);
+                code.dload(slot + 4);
+                code.dload(slot + 6);
+                code.invokeStatic(COMPILED, "power", COMPLEX_RESULT_DESC);
+                storeComplex(slot);
+                break;
+
+            case ExpressionNode.FUNCTION_NODE:
+                FunctionExpressionNode function = (FunctionExpressionNode)node;
+                compileNode(function.getArgument(), slot + 4);
+                FunctionNodeSpecializer.meter(code, Token.FUNCTION, function.getFunctionId());
+                code.aload(0);
+                code.getField(COMPILED, "functions", FUNCTIONS_DESC);
+                code.iconst(functions.size());
+                code.op(ClassFileWriter.AALOAD, -1);
+                newComplex(slot + 4);
+                code.invokeVirtual(FUNCTION, "evaluate", "(L" + COMPLEX + ";)L" + COMPLEX + ";");
+                storeComplex(slot);
+                functions.add(function.getFunction());
+                break;
+
+            case ExpressionNode.FUNCTION_2_ARG_NODE:
+                Function2ArgumentsExpressionNode function2 = (Function2ArgumentsExpressionNode)node;
+                compileNode(function2.getArgument(), slot + 4);
+                compileNode(function2.getArgument2(), slot + 8);
+                FunctionNodeSpecializer.meter(code, Token.FUNCTION_2ARGUMENTS, function2.getFunctionId());
+                code.aload(0);
+                code.getField(COMPILED, "functions2", FUNCTIONS2_DESC);
+                code.iconst(functions2.size());
+                code.op(ClassFileWriter.AALOAD, -1);
+                newComplex(slot + 4);
+                newComplex(slot + 8);
+                code.invokeVirtual(FUNCTION2, "evaluate", "(L" + COMPLEX + ";L" + COMPLEX + ";)L" + COMPLEX + ";");
+                storeComplex(slot);
+                functions2.add(function2.getFunction());
+                break;
+
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE:
+                compileDerivative((FunctionDerivative2ArgumentsExpressionNode)node, slot);
+                break;
+
+            case ExpressionNode.SHARED_NODE:
+                compileShared((SharedExpressionNode)node, slot);
+                break;
+
+            default:
+                throw new EvaluationException("Cannot compile nodes of type " + node.getType() + ".");
+        }
+    }
+
+    /*
+     * The code is straight-line, so the first occurrence of a shared node in
+     * the code is also the first one to be executed.
+     */
+    private void compileShared(SharedExpressionNode node, int slot) {
+        Integer memo = shared.get(node);
+
+        if(memo == null) {
+            compileNode(node.getExpression(), slot);
+            memo = FIRST_SLOT + 4 * shared.size();
+            shared.put(node, memo);
+            code.dload(slot);
+            code.dstore(memo);
+            code.dload(slot + 2);
+            code.dstore(memo + 2);
+        }
+        else {
+            code.dload(memo);
+            code.dstore(slot);
+            code.dload(memo + 2);
+            code.dstore(slot + 2);
+        }
+    }
+
+    /*
+     * Collects the shared nodes that are compiled into the current class, the
+     * arguments of derivatives get classes of their own.
+     */
+    private static void collectShared(ExpressionNode node, IdentityHashMap<SharedExpressionNode, Boolean> found) {
+        switch (node.getType()) {
+            case ExpressionNode.ADDITION_NODE:
+            case ExpressionNode.MULTIPLICATION_NODE:
+                for(SequenceExpressionNode.Term t : ((SequenceExpressionNode)node).getTerms()) {
+                    collectShared(t.expression, found);
+                }
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE:
+                collectShared(((ExponentiationExpressionNode)node).getBase(), found);
+                collectShared(((ExponentiationExpressionNode)node).getExponent(), found);
+                break;
+            case ExpressionNode.FUNCTION_NODE:
+                collectShared(((FunctionExpressionNode)node).getArgument(), found);
+                break;
+            case ExpressionNode.FUNCTION_2_ARG_NODE:
+                collectShared(((Function2ArgumentsExpressionNode)node).getArgument(), found);
+                collectShared(((Function2ArgumentsExpressionNode)node).getArgument2(), found);
+                break;
+            case ExpressionNode.SHARED_NODE:
+                if(found.put((SharedExpressionNode)node, Boolean.TRUE) == null) {
+                    collectShared(((SharedExpressionNode)node).getExpression(), found);
+                }
+                break;
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE: {
+                ExpressionNode derivative = ((FunctionDerivative2ArgumentsExpressionNode)node).getDerivative();
+                if(derivative != null) {
+                    collectShared(derivative, found);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private void compileAddition(AdditionExpressionNode node, int slot) {
+        // sum = 0
+        code.dconst(0.0);
+        code.dstore(slot);
+        code.dconst(0.0);
+        code.dstore(slot + 2);
+
+        ArrayList<SequenceExpressionNode.Term> terms = node.getTerms();
+        for(int i = 0; i < terms.size(); i++) {
+            SequenceExpressionNode.Term t = terms.get(i);
+            compileNode(t.expression, slot + 4);
+
+            int op = t.mode == AdditionExpressionNode.ADD ? ClassFileWriter.DADD : ClassFileWriter.DSUB;
+
+            code.dload(slot);
+            code.dload(slot + 4);
+            code.op(op, -2);
+            code.dstore(slot);
+            code.dload(slot + 2);
+            code.dload(slot + 6);
+            code.op(op, -2);
+            code.dstore(slot + 2);
+        }
+    }
+
+    private void compileMultiplication(MultiplicationExpressionNode node, int slot) {
+        int re = slot, im = slot + 2, zre = slot + 4, zim = slot + 6, temp = slot + 8, temp2 = slot + 10;
+
+        // prod = 1
+        code.dconst(1.0);
+        code.dstore(re);
+        code.dconst(0.0);
+        code.dstore(im);
+
+        ArrayList<SequenceExpressionNode.Term> terms = node.getTerms();
+        for(int i = 0; i < terms.size(); i++) {
+            SequenceExpressionNode.Term t = terms.get(i);
+            compileNode(t.expression, zre);
+
+            if(t.mode == MultiplicationExpressionNode.MULT) {
+                // temp = re * zre - im * zim
+                code.dload(re);
+                code.dload(zre);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.dload(im);
+                code.dload(zim);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.op(ClassFileWriter.DSUB, -2);
+                code.dstore(temp);
+                // im = re * zim + im * zre
+                code.dload(re);
+                code.dload(zim);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.dload(im);
+                code.dload(zre);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.op(ClassFileWriter.DADD, -2);
+                code.dstore(im);
+                code.dload(temp);
+                code.dstore(re);
+            }
+            else if(t.mode == MultiplicationExpressionNode.DIV) {
+                // temp = zre * zre + zim * zim
+                code.dload(zre);
+                code.dload(zre);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.dload(zim);
+                code.dload(zim);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.op(ClassFileWriter.DADD, -2);
+                code.dstore(temp);
+                // temp2 = (re * zre + im * zim) / temp
+                code.dload(re);
+                code.dload(zre);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.dload(im);
+                code.dload(zim);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.op(ClassFileWriter.DADD, -2);
+                code.dload(temp);
+                code.op(ClassFileWriter.DDIV, -2);
+                code.dstore(temp2);
+                // im = (im * zre - re * zim) / temp
+                code.dload(im);
+                code.dload(zre);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.dload(re);
+                code.dload(zim);
+                code.op(ClassFileWriter.DMUL, -2);
+                code.op(ClassFileWriter.DSUB, -2);
+                code.dload(temp);
+                code.op(ClassFileWriter.DDIV, -2);
+                code.dstore(im);
+                code.dload(temp2);
+                code.dstore(re);
+            }
+            else {
+                code.dload(re);
+                code.dload(im);
+                code.dload(zre);
+                code.dload(zim);
+                code.invokeStatic(COMPILED, "remainder", COMPLEX_RESULT_DESC);
+                storeComplex(slot);
+            }
+        }
+    }
+
+    /*
+     * A symbolic derivative is compiled inline. Otherwise the argument is
+     * evaluated several times with the variable shifted, so it is compiled
+     * into a class of its own that shares the variable indices of the whole
+     * expression.
+     */
+    private void compileDerivative(FunctionDerivative2ArgumentsExpressionNode node, int slot) {
+        if(node.getDerivative() != null) {
+            compileNode(node.getDerivative(), slot);
+            return;
+        }
+
+        LinkedHashMap<String, Integer> vars = variables;
+        ArrayList<AbstractOneArgumentFunction> savedFunctions = functions;
+        ArrayList<AbstractTwoArgumentFunction> savedFunctions2 = functions2;
+        ArrayList<CompiledExpression> savedDerivatives = derivatives;
+        IdentityHashMap<SharedExpressionNode, Integer> savedShared = shared;
+        ClassFileWriter.MethodWriter savedCode = code;
+
+        CompiledExpression argument = compile(node.getArgument(), vars);
+
+        variables = vars;
+        functions = savedFunctions;
+        functions2 = savedFunctions2;
+        derivatives = savedDerivatives;
+        shared = savedShared;
+        code = savedCode;
+
+        code.aload(0);
+        code.getField(COMPILED, "derivatives", DERIVATIVES_DESC);
+        code.iconst(derivatives.size());
+        code.op(ClassFileWriter.AALOAD, -1);
+        code.iconst(node.getFunctionId());
+        code.iconst(variables.get(((VariableExpressionNode)node.getArgument2()).getName()));
+        code.aload(VARS);
+        code.invokeStatic(COMPILED, "derivative", "(L" + COMPILED + ";II[D)L" + COMPLEX + ";");
+        storeComplex(slot);
+
+        derivatives.add(argument);
+    }
+
+    /*
+     * Pushes a new Complex holding the value of the slots
+     */
+    private void newComplex(int slot) {
+        code.newObject(COMPLEX);
+        code.op(ClassFileWriter.DUP, 1);
+        code.dload(slot);
+        code.dload(slot + 2);
+        code.invokeSpecial(COMPLEX, "<init>", "(DD)V");
+    }
+
+    /*
+     * Pops a Complex from the stack and stores its parts in the slots
+     */
+    private void storeComplex(int slot) {
+        code.op(ClassFileWriter.DUP, 1);
+        code.invokeVirtual(COMPLEX, "getRe", "()D");
+        code.dstore(slot);
+        code.invokeVirtual(COMPLEX, "getIm", "()D");
+        code.dstore(slot + 2);
+    }
+}
@@ -50,6 +50,10 @@ public interface ExpressionNode
   public static final int FUNCTION_2_ARG_NODE = 8;
   /** Node id for derivative function nodes with 2 arguments */
   public static final int FUNCTION_DERIVATIVE_2_ARG_NODE = 9;
+  /** Node id for subexpressions shared by several parents */
+  public static final int SHARED_NODE = 10;
+  /** Node id for nodes that profile the evaluation of their subexpression */
+  public static final int PROFILED_NODE = 11;
 
   /**
    * Returns the type of the node.ExpressionNode
@@ -69,6 +73,44 @@ public interface ExpressionNode
    * @return value of expression
    */
   public Complex getValue();
+
+  /**
+   * Calculates the value of the sub-expression represented by the node and
+   * stores it in out.
+   * 
+   * Variable values are read from the frame and intermediate values are kept
+   * in its scratch registers, so the evaluation neither allocates nor modifies
+   * the tree and several threads may evaluate the same tree with frames of
+   * their own. The default implementation falls back to getValue, which is
+   * neither, all nodes of this package override it.
+   * 
+   * @param frame
+   *          the variable values and scratch registers of the evaluation
+   * @param out
+   *          receives the value of the expression
+   */
+  public default void evaluateInto(EvaluationFrame frame, Complex out)
+  {
+    out.assign(getValue());
+  }
+  
+  /**
+   * Returns a handle to the variable with the given name.
+   * 
+   * The tree is searched once, afterwards values can be assigned through the
+   * handle directly. For trees built by the Parser all occurrences of a name
+   * share the same variable. If the name does not occur in the expression a
+   * detached variable is returned, setting it has no effect.
+   * 
+   * @param name
+   *          the name of the variable
+   * @return the variable
+   */
+  public default Variable variable(String name)
+  {
+    Variable variable = VariableTable.of(this).get(name);
+    return variable != null ? variable : new Variable(name);
+  }
   
   /**
    * Method needed for the visitor design pattern
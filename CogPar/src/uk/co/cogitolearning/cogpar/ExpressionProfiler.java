@@ -0,0 +1,285 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+
+/**
+ * Finds out which parts of an expression its evaluation spends its time in.
+ *
+ * instrument returns a copy of an expression in which every node is wrapped
+ * in a ProfiledExpressionNode. Evaluating the copy, with getValue or
+ * evaluateInto, counts the calls of every node, the time spent in it with
+ * and without the nodes below, and the NaN and infinite results. report
+ * prints the tree annotated with these numbers:
+ *
+ * <pre>
+ * ExpressionProfiler profiler = new ExpressionProfiler();
+ * ExpressionNode profiled = profiler.instrument(parser.parse("rzeta(z) + erf(z)^2"));
+ * ...
+ * System.out.println(profiler.report());
+ * </pre>
+ *
+ * The expression that is passed in is not modified, so it costs nothing
+ * when it is evaluated without the profiler. Timing every node adds a few
+ * tens of nanoseconds per node and call, which shows in the self time of
+ * small nodes such as variables and constants. Derivatives are profiled as
+ * a whole. The variable nodes are shared with the original tree, the copy is
+ * meant to be evaluated, not optimized or compiled.
+ */
+public class ExpressionProfiler {
+
+    private static final String HEADER = "     calls    total ms     self ms  self %       NaN  infinite  expression\n";
+
+    /** the roots of the instrumented expressions */
+    private final ArrayList<ProfiledExpressionNode> roots;
+
+    /** every profiled node of the instrumented expressions */
+    private final ArrayList<ProfiledExpressionNode> nodes;
+
+    /* the copies of the nodes of the expression that is instrumented */
+    private IdentityHashMap<ExpressionNode, ExpressionNode> built;
+
+    /**
+     * Construct a profiler without expressions.
+     */
+    public ExpressionProfiler() {
+        roots = new ArrayList<ProfiledExpressionNode>();
+        nodes = new ArrayList<ProfiledExpressionNode>();
+    }
+
+    /**
+     * Returns a copy of an expression that records its evaluation in this
+     * profiler.
+     *
+     * @param expression the root of the expression
+     * @return the root of the instrumented copy
+     */
+    public synchronized ExpressionNode instrument(ExpressionNode expression) {
+        built = new IdentityHashMap<ExpressionNode, ExpressionNode>();
+
+        try {
+            ProfiledExpressionNode root = (ProfiledExpressionNode)build(expression);
+            roots.add(root);
+            return root;
+        }
+        finally {
+            built = null;
+        }
+    }
+
+    /**
+     * Clears the counters of all instrumented expressions.
+     */
+    public synchronized void reset() {
+        for(ProfiledExpressionNode node : nodes) {
+            node.reset();
+        }
+    }
+
+    /**
+     * Returns the instrumented expressions as trees with one node per line,
+     * preceded by its calls, total and self time, self time in percent of the
+     * time of the whole expression, and NaN and infinite results.
+     *
+     * Terms of sums and products are marked with their operator. A shared
+     * subexpression is shown at its first occurrence, later ones refer to it.
+     *
+     * @return the annotated trees
+     */
+    public synchronized String report() {
+        StringBuilder out = new StringBuilder();
+
+        for(ProfiledExpressionNode root : roots) {
+            out.append(HEADER);
+            dump(out, root, "", 0, root.getTotalNanos(), new IdentityHashMap<ExpressionNode, Boolean>());
+        }
+
+        return out.toString();
+    }
+
+    /*
+     * Copies a node with its children and wraps it, a node that occurs
+     * several times in a DAG is copied once.
+     */
+    private ExpressionNode build(ExpressionNode node) {
+        ExpressionNode known = built.get(node);
+        if(known != null) {
+            return known;
+        }
+
+        ExpressionNode result;
+
+        switch(node.getType()) {
+            case ExpressionNode.ADDITION_NODE: {
+                AdditionExpressionNode sum = new AdditionExpressionNode();
+                for(SequenceExpressionNode.Term term : ((AdditionExpressionNode)node).getTerms()) {
+                    sum.add(build(term.expression), term.mode);
+                }
+                result = sum;
+                break;
+            }
+            case ExpressionNode.MULTIPLICATION_NODE: {
+                MultiplicationExpressionNode product = new MultiplicationExpressionNode();
+                for(SequenceExpressionNode.Term term : ((MultiplicationExpressionNode)node).getTerms()) {
+                    product.add(build(term.expression), term.mode);
+                }
+                result = product;
+                break;
+            }
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                // a constant exponent is not evaluated and stays as it is
+                if(node instanceof IntegerPowerExpressionNode) {
+                    IntegerPowerExpressionNode power = (IntegerPowerExpressionNode)node;
+                    result = new IntegerPowerExpressionNode(build(power.getBase()), power.getExponent(), power.getPower());
+                }
+                else if(node instanceof RealPowerExpressionNode) {
+                    RealPowerExpressionNode power = (RealPowerExpressionNode)node;
+                    result = new RealPowerExpressionNode(build(power.getBase()), power.getExponent(), power.getPower());
+                }
+                else {
+                    ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                    result = new ExponentiationExpressionNode(build(power.getBase()), build(power.getExponent()));
+                }
+                break;
+            }
+            case ExpressionNode.FUNCTION_NODE: {
+                FunctionExpressionNode function = (FunctionExpressionNode)node;
+                result = FunctionExpressionNode.create(function.getFunctionId(), build(function.getArgument()));
+                break;
+            }
+            case ExpressionNode.FUNCTION_2_ARG_NODE: {
+                Function2ArgumentsExpressionNode function = (Function2ArgumentsExpressionNode)node;
+                result = Function2ArgumentsExpressionNode.create(function.getFunctionId(), build(function.getArgument()), build(function.getArgument2()));
+                break;
+            }
+            case ExpressionNode.SHARED_NODE: {
+                SharedExpressionNode shared = (SharedExpressionNode)node;
+                result = new SharedExpressionNode(build(shared.getExpression()), shared.getIndex());
+                break;
+            }
+            case ExpressionNode.PROFILED_NODE:
+                return build(((ProfiledExpressionNode)node).getExpression());
+            default:
+                // constants, variables, derivatives and unknown nodes are leaves
+                result = node;
+                break;
+        }
+
+        ProfiledExpressionNode profiled = new ProfiledExpressionNode(result);
+        nodes.add(profiled);
+        built.put(node, profiled);
+        return profiled;
+    }
+
+    private void dump(StringBuilder out, ProfiledExpressionNode node, String operator, int depth, long rootNanos, IdentityHashMap<ExpressionNode, Boolean> seen) {
+        ExpressionNode expression = node.getExpression();
+        boolean repeated = seen.put(node, Boolean.TRUE) != null;
+
+        out.append(String.format(Locale.ROOT, "%10d %11.3f %11.3f %6.1f%% %9d %9d  ",
+                node.getCalls(), node.getTotalNanos() / 1e6, node.getSelfNanos() / 1e6,
+                rootNanos > 0 ? 100.0 * node.getSelfNanos() / rootNanos : 0.0,
+                node.getNaNCount(), node.getInfiniteCount()));
+
+        for(int i = 0; i < depth; i++) {
+            out.append("  ");
+        }
+
+        out.append(operator).append(label(expression));
+
+        if(repeated) {
+            out.append(" (see above)\n");
+            return;
+        }
+        out.append('\n');
+
+        switch(expression.getType()) {
+            case ExpressionNode.ADDITION_NODE:
+                for(SequenceExpressionNode.Term term : ((AdditionExpressionNode)expression).getTerms()) {
+                    dumpChild(out, term.expression, term.mode == AdditionExpressionNode.SUB ? "- " : "+ ", depth, rootNanos, seen);
+                }
+                break;
+            case ExpressionNode.MULTIPLICATION_NODE:
+                for(SequenceExpressionNode.Term term : ((MultiplicationExpressionNode)expression).getTerms()) {
+                    dumpChild(out, term.expression, term.mode == MultiplicationExpressionNode.DIV ? "/ " : term.mode == MultiplicationExpressionNode.REM ? "% " : "* ", depth, rootNanos, seen);
+                }
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)expression;
+                dumpChild(out, power.getBase(), "", depth, rootNanos, seen);
+                dumpChild(out, power.getExponent(), "", depth, rootNanos, seen);
+                break;
+            }
+            case ExpressionNode.FUNCTION_NODE:
+                dumpChild(out, ((FunctionExpressionNode)expression).getArgument(), "", depth, rootNanos, seen);
+                break;
+            case ExpressionNode.FUNCTION_2_ARG_NODE: {
+                Function2ArgumentsExpressionNode function = (Function2ArgumentsExpressionNode)expression;
+                dumpChild(out, function.getArgument(), "", depth, rootNanos, seen);
+                dumpChild(out, function.getArgument2(), "", depth, rootNanos, seen);
+                break;
+            }
+            case ExpressionNode.SHARED_NODE:
+                dumpChild(out, ((SharedExpressionNode)expression).getExpression(), "", depth, rootNanos, seen);
+                break;
+        }
+    }
+
+    /*
+     * Children that are not profiled, such as constant exponents, are left
+     * out, they are not evaluated
+     */
+    private void dumpChild(StringBuilder out, ExpressionNode child, String operator, int depth, long rootNanos, IdentityHashMap<ExpressionNode, Boolean> seen) {
+        if(child.getType() == ExpressionNode.PROFILED_NODE) {
+            dump(out, (ProfiledExpressionNode)child, operator, depth + 1, rootNanos, seen);
+        }
+    }
+
+    private static String label(ExpressionNode node) {
+        switch(node.getType()) {
+            case ExpressionNode.VARIABLE_NODE:
+                return ((VariableExpressionNode)node).getName();
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+                return node.getValue().toString();
+            case ExpressionNode.ADDITION_NODE:
+                return "sum";
+            case ExpressionNode.MULTIPLICATION_NODE:
+                return "product";
+            case ExpressionNode.EXPONENTIATION_NODE:
+                if(node instanceof IntegerPowerExpressionNode) {
+                    return "^" + ((IntegerPowerExpressionNode)node).getPower();
+                }
+                if(node instanceof RealPowerExpressionNode) {
+                    return "^" + ((RealPowerExpressionNode)node).getPower();
+                }
+                return "^";
+            case ExpressionNode.FUNCTION_NODE:
+                return FunctionRegistry.name(Token.FUNCTION, ((FunctionExpressionNode)node).getFunctionId());
+            case ExpressionNode.FUNCTION_2_ARG_NODE:
+                return FunctionRegistry.name(Token.FUNCTION_2ARGUMENTS, ((Function2ArgumentsExpressionNode)node).getFunctionId());
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE:
+                return FunctionRegistry.name(Token.FUNCTION_DERIVATIVE_2ARGUMENTS, ((FunctionDerivative2ArgumentsExpressionNode)node).getFunctionId()) + " (whole)";
+            case ExpressionNode.SHARED_NODE:
+                return "shared #" + ((SharedExpressionNode)node).getIndex();
+            default:
+                return "node of type " + node.getType();
+        }
+    }
+}
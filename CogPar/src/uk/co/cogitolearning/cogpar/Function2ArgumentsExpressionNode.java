@@ -5,12 +5,16 @@
  */
 package uk.co.cogitolearning.cogpar;
 
-import uk.co.cogitolearning.cogpar.functions.*;
+import uk.co.cogitolearning.cogpar.functions.AbstractTwoArgumentFunction;
 
 /**
  * An ExpressionNode that handles mathematical functions with 2 arguments.
  *
- * Some pre-defined functions are handled, others can easily be added.
+ * Some pre-defined functions are handled, others can be added through
+ * FunctionRegistry.register.
+ *
+ * Nodes should be created with create, which returns a node of a subclass
+ * generated for the function.
  */
 public class Function2ArgumentsExpressionNode implements ExpressionNode {
 
@@ -146,7 +150,8 @@ public class Function2ArgumentsExpressionNode implements ExpressionNode {
     private ExpressionNode argument2;
 
     /**
-     * Construct a function by id and argument.
+     * Construct a function by id and argument. The implementation is the one
+     * shared instance the FunctionRegistry holds for the id.
      *
      * @param functionId the id of the function to apply
      * @param argument the first argument of the function
@@ -158,101 +163,50 @@ public class Function2ArgumentsExpressionNode implements ExpressionNode {
         this.argument = argument;
         this.argument2 = argument2;
         
-        switch (functionId) {
-
-            case TO_BIPOLAR:
-                function = new ToBipolarFunction();
-                break;
-
-            case FROM_BIPOLAR:
-                function = new FromBipolarFunction();
-                break;
-
-            case INFLECTION:
-                function = new InflectFunction();
-                break;
-
-            case FOLD_UP:
-                function = new FoldUpFunction();
-                break;
-
-            case FOLD_DOWN:
-                function = new FoldDownFunction();
-                break;
-
-            case FOLD_LEFT:
-                function = new FoldLeftFunction();
-                break;
-
-            case FOLD_RIGHT:
-                function = new FoldRightFunction();
-                break;
-
-            case FOLD_IN:
-                function = new FoldInFunction();
-                break;
-
-            case FOLD_OUT:
-                function = new FoldOutFunction();
-                break;
-
-            case SHEAR:
-                function = new ShearFunction();
-                break;
-
-            case COMPARE:
-                function = new CompareFunction();
-                break;
-
-            case ADD:
-                function = new AddFunction();
-                break;
-
-            case SUB:
-                function = new SubFunction();
-                break;
-
-            case MUL:
-                function = new MulFunction();
-                break;
-
-            case DIV:
-                function = new DivFunction();
-                break;
-
-            case REM:
-                function = new RemFunction();
-                break;
-
-            case POW:
-                function = new PowFunction();
-                break;
-
-            case LOGN:
-                function = new LogNFunction();
-                break;
-                
-            case FUZZ:
-                function = new FuzzFunction();
-                break;
-                
-            case NORMN:
-                function = new NormNFunction();
-                break;
-                
-            case ROT:
-                function = new RotFunction();
-                break;
-                
-            case DIST:
-                function = new DistanceFunction();
-                break;
-            
-            case SDIST:
-                function = new DistanceSquaredFunction();
-                break;
-
-        }
+        function = FunctionRegistry.twoArguments(functionId);
+    }
+
+    /**
+     * Creates the node for a function applied to two arguments. The node is of
+     * a class generated for the function, which keeps the call of the
+     * function monomorphic so that the JIT can inline it. It gives the same
+     * results as a node created with the constructor.
+     *
+     * @param functionId the id of the function to apply
+     * @param argument the first argument of the function
+     * @param argument2 the second argument of the function
+     * @return the node for the function applied to the arguments
+     */
+    public static Function2ArgumentsExpressionNode create(int functionId, ExpressionNode argument, ExpressionNode argument2) {
+        return FunctionNodeSpecializer.create(functionId, argument, argument2);
+    }
+
+    /**
+     * @return the id of the function
+     */
+    public int getFunctionId() {
+        return functionId;
+    }
+
+    /**
+     * @return the function applied to the arguments
+     */
+    public AbstractTwoArgumentFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * @return the first argument of the function
+     */
+    public ExpressionNode getArgument() {
+        return argument;
+    }
+
+    /**
+     * @return the second argument of the function
+     */
+    public ExpressionNode getArgument2() {
+        return argument2;
     }
 
     /**
@@ -267,120 +221,25 @@ public class Function2ArgumentsExpressionNode implements ExpressionNode {
     /**
      * Converts a string to a function id.
      *
-     * If the function is not found this method throws an error.
+     * If the function is not found this method throws a ParserException.
      *
      * @param stringInput the name of the function
      * @return the id of the function
      */
     public static int stringToFunction(String stringInput) {
-        
-        String str = stringInput.toLowerCase();
-        
-        if (str.equals("bipol")) {
-            return Function2ArgumentsExpressionNode.TO_BIPOLAR;
-        }
-
-        if (str.equals("ibipol")) {
-            return Function2ArgumentsExpressionNode.FROM_BIPOLAR;
-        }
-
-        if (str.equals("inflect")) {
-            return Function2ArgumentsExpressionNode.INFLECTION;
-        }
-
-        if (str.equals("foldu")) {
-            return Function2ArgumentsExpressionNode.FOLD_UP;
-        }
-
-        if (str.equals("foldd")) {
-            return Function2ArgumentsExpressionNode.FOLD_DOWN;
-        }
-
-        if (str.equals("foldl")) {
-            return Function2ArgumentsExpressionNode.FOLD_LEFT;
-        }
-
-        if (str.equals("foldr")) {
-            return Function2ArgumentsExpressionNode.FOLD_RIGHT;
-        }
-
-        if (str.equals("foldi")) {
-            return Function2ArgumentsExpressionNode.FOLD_IN;
-        }
-
-        if (str.equals("foldo")) {
-            return Function2ArgumentsExpressionNode.FOLD_OUT;
-        }
-
-        if (str.equals("shear")) {
-            return Function2ArgumentsExpressionNode.SHEAR;
-        }
-
-        if (str.equals("cmp")) {
-            return Function2ArgumentsExpressionNode.COMPARE;
-        }
-
-        if (str.equals("add")) {
-            return Function2ArgumentsExpressionNode.ADD;
-        }
-
-        if (str.equals("sub")) {
-            return Function2ArgumentsExpressionNode.SUB;
-        }
-
-        if (str.equals("mul")) {
-            return Function2ArgumentsExpressionNode.MUL;
-        }
-
-        if (str.equals("div")) {
-            return Function2ArgumentsExpressionNode.DIV;
-        }
-
-        if (str.equals("rem")) {
-            return Function2ArgumentsExpressionNode.REM;
-        }
-
-        if (str.equals("pow")) {
-            return Function2ArgumentsExpressionNode.POW;
-        }
-
-        if (str.equals("logn")) {
-            return Function2ArgumentsExpressionNode.LOGN;
-        }
-        
-        if (str.equals("fuzz")) {
-            return Function2ArgumentsExpressionNode.FUZZ;
-        }
-        
-        if (str.equals("normn")) {
-            return Function2ArgumentsExpressionNode.NORMN;
-        } 
-        
-        if (str.equals("rot")) {
-            return Function2ArgumentsExpressionNode.ROT;
-        } 
-        
-        if (str.equals("dist")) {
-            return Function2ArgumentsExpressionNode.DIST;
-        }
-        
-        if (str.equals("sdist")) {
-            return Function2ArgumentsExpressionNode.SDIST;
-        }
-
-        throw new ParserException("Unexpected Function " + str + " found.");
+        return FunctionRegistry.id(stringInput, Token.FUNCTION_2ARGUMENTS);
     }
 
     /**
      * Returns a string with all the function names concatenated by a | symbol.
      *
-     * This string is used in Tokenizer.createExpressionTokenizer to create a
-     * regular expression for recognizing function names.
+     * The names are those registered in the FunctionRegistry, which the
+     * Tokenizer reads directly.
      *
      * @return a string containing all the function names
      */
     public static String getAllFunctions() {
-        return "bipol|ibipol|inflect|foldu|foldd|foldl|foldr|foldi|foldo|shear|cmp|add|sub|mul|div|rem|pow|logn|fuzz|normn|rot|dist|sdist";
+        return FunctionRegistry.names(Token.FUNCTION_2ARGUMENTS);
     }
 
     /**
@@ -392,10 +251,28 @@ public class Function2ArgumentsExpressionNode implements ExpressionNode {
     @Override
     public Complex getValue() {
  
+        Metrics.functionEvaluated(Token.FUNCTION_2ARGUMENTS, functionId);
         return function.evaluate(argument.getValue(), argument2.getValue());
         
     }
 
+    /**
+     * Evaluates both arguments into scratch registers and applies the function
+     * to them.
+     */
+    @Override
+    public void evaluateInto(EvaluationFrame frame, Complex out) {
+
+        Metrics.functionEvaluated(Token.FUNCTION_2ARGUMENTS, functionId);
+        Complex value = frame.acquire();
+        Complex value2 = frame.acquire();
+        argument.evaluateInto(frame, value);
+        argument2.evaluateInto(frame, value2);
+        function.evaluateInto(value, value2, out);
+        frame.release(2);
+
+    }
+
     /**
      * Implementation of the visitor design pattern.
      *
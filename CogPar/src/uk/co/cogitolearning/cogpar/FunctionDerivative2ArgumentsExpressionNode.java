@@ -16,6 +16,7 @@
  */
 package uk.co.cogitolearning.cogpar;
 
+import java.util.ArrayList;
 
 /**
  * An ExpressionNode that handles function derivatives with 2 arguments.
@@ -55,21 +56,125 @@ public class FunctionDerivative2ArgumentsExpressionNode implements ExpressionNod
      */
     private ExpressionNode argument2;
     
-    private SetVariable visitor;
+    /**
+     * the distinct variables in the argument that are named like argument2
+     */
+    private Variable[] variables;
+
+    /**
+     * the values of the variables before the evaluation
+     */
+    private Complex[] saved;
+
+    /**
+     * which of the variables had a value before the evaluation
+     */
+    private boolean[] savedSet;
+
+    /**
+     * the symbolic derivative, or null if the derivative is computed
+     * numerically
+     */
+    private ExpressionNode derivative;
 
     /**
      * Construct a function by id and argument.
      *
+     * The derivative is built symbolically by a Differentiator and its common
+     * subexpressions are shared. Subtrees without a symbolic derivative are
+     * differentiated numerically, for the second and third derivative of such
+     * expressions the whole argument is differentiated numerically.
+     *
      * @param functionId the id of the function to apply
      * @param argument the first argument of the function
      * @param argument2 the second argument of the function
      */
     public FunctionDerivative2ArgumentsExpressionNode(int functionId, ExpressionNode argument, ExpressionNode argument2) {
+        this(functionId, argument, argument2, true);
+    }
+
+    private FunctionDerivative2ArgumentsExpressionNode(int functionId, ExpressionNode argument, ExpressionNode argument2, boolean symbolic) {
         super();
         this.functionId = functionId;
         this.argument = argument;
         this.argument2 = argument2;
-        visitor = new SetVariable(((VariableExpressionNode)argument2).getName(), null);
+        final String name = ((VariableExpressionNode)argument2).getName();
+        final ArrayList<Variable> found = new ArrayList<Variable>();
+        argument.accept(new SetVariable(null, null) {
+            @Override
+            public void visit(VariableExpressionNode node) {
+                if(node.getName().equals(name) && !found.contains(node.getVariable())) {
+                    found.add(node.getVariable());
+                }
+            }
+        });
+
+        variables = found.toArray(new Variable[found.size()]);
+        saved = new Complex[variables.length];
+        savedSet = new boolean[variables.length];
+        for(int i = 0; i < saved.length; i++) {
+            saved[i] = new Complex();
+        }
+
+        if(symbolic && functionId >= FIRST_DERIVATIVE && functionId <= THIRD_DERIVATIVE) {
+            Differentiator differentiator = new Differentiator();
+            int fallbacks = 0;
+            derivative = argument;
+            for(int order = FIRST_DERIVATIVE; order <= functionId; order++) {
+                derivative = differentiator.differentiate(derivative, (VariableExpressionNode)argument2);
+                fallbacks += differentiator.getFallbackCount();
+            }
+
+            if(functionId != FIRST_DERIVATIVE && fallbacks > 0) {
+                derivative = null;
+            }
+            else {
+                // the rules repeat the subexpressions of the argument
+                derivative = new CommonSubexpressionEliminator().eliminate(derivative);
+            }
+        }
+    }
+
+    /**
+     * Creates a derivative that is always computed numerically, even when the
+     * argument has a symbolic derivative.
+     *
+     * @param functionId the id of the function to apply
+     * @param argument the first argument of the function
+     * @param argument2 the second argument of the function
+     * @return the derivative node
+     */
+    public static FunctionDerivative2ArgumentsExpressionNode numeric(int functionId, ExpressionNode argument, ExpressionNode argument2) {
+        return new FunctionDerivative2ArgumentsExpressionNode(functionId, argument, argument2, false);
+    }
+
+    /**
+     * @return the id of the derivative function
+     */
+    public int getFunctionId() {
+        return functionId;
+    }
+
+    /**
+     * @return the expression that is differentiated
+     */
+    public ExpressionNode getArgument() {
+        return argument;
+    }
+
+    /**
+     * @return the variable the expression is differentiated by
+     */
+    public ExpressionNode getArgument2() {
+        return argument2;
+    }
+
+    /**
+     * @return the symbolic derivative of the argument, or null if it is
+     * computed numerically
+     */
+    public ExpressionNode getDerivative() {
+        return derivative;
     }
 
     /**
@@ -84,41 +189,25 @@ public class FunctionDerivative2ArgumentsExpressionNode implements ExpressionNod
     /**
      * Converts a string to a function id.
      *
-     * If the function is not found this method throws an error.
+     * If the function is not found this method throws a ParserException.
      *
      * @param stringInput the name of the function
      * @return the id of the function
      */
     public static int stringToFunction(String stringInput) {
-        
-        String str = stringInput.toLowerCase();
-
-        if(str.equals("f'")) {
-            return FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE;
-        }
-
-        if(str.equals("f''")) {
-            return FunctionDerivative2ArgumentsExpressionNode.SECOND_DERIVATIVE;
-        }
-        
-        if(str.equals("f'''")) {
-            return FunctionDerivative2ArgumentsExpressionNode.THIRD_DERIVATIVE;
-        }
-
-
-        throw new ParserException("Unexpected Function " + str + " found.");
+        return FunctionRegistry.id(stringInput, Token.FUNCTION_DERIVATIVE_2ARGUMENTS);
     }
 
     /**
      * Returns a string with all the function names concatenated by a | symbol.
      *
-     * This string is used in Tokenizer.createExpressionTokenizer to create a
-     * regular expression for recognizing function names.
+     * The names are those registered in the FunctionRegistry, which the
+     * Tokenizer reads directly.
      *
      * @return a string containing all the function names
      */
     public static String getAllFunctions() {
-        return "f'''|f''|f'";
+        return FunctionRegistry.names(Token.FUNCTION_DERIVATIVE_2ARGUMENTS);
     }
 
     /**
@@ -130,54 +219,162 @@ public class FunctionDerivative2ArgumentsExpressionNode implements ExpressionNod
     @Override
     public Complex getValue() {
 
+        if(derivative != null) {
+            return derivative.getValue();
+        }
+
         Complex secondArgument = new Complex(argument2.getValue());
 
-        if(functionId == FIRST_DERIVATIVE) {
-            visitor.setValue(secondArgument.plus(Derivative.DZ));
-            setDerivativeDelta(visitor);
-            Complex fzdz = argument.getValue();
+        for(int i = 0; i < variables.length; i++) {
+            savedSet[i] = variables[i].isSet();
+            if(savedSet[i]) {
+                saved[i].assign(variables[i].get());
+            }
+        }
 
-            visitor.setValue(secondArgument.sub(Derivative.DZ));
-            setDerivativeDelta(visitor);
-            Complex fzmdz = argument.getValue();
+        try {
+            if(functionId == FIRST_DERIVATIVE) {
+                Complex fzdz = valueAt(secondArgument.plus(Derivative.DZ));
+                Complex fzmdz = valueAt(secondArgument.sub(Derivative.DZ));
 
-            return Derivative.numericalCentralDerivativeFirstOrder(fzdz, fzmdz);
-        }
-        else if (functionId == SECOND_DERIVATIVE) {
-            Complex fz = argument.getValue();
+                return Derivative.numericalCentralDerivativeFirstOrder(fzdz, fzmdz);
+            }
+            else if (functionId == SECOND_DERIVATIVE) {
+                Complex fz = new Complex(argument.getValue());
+                Complex fzdz = valueAt(secondArgument.plus(Derivative.DZ));
+                Complex fzmdz = valueAt(secondArgument.sub(Derivative.DZ));
 
-            visitor.setValue(secondArgument.plus(Derivative.DZ));
-            setDerivativeDelta(visitor);
-            Complex fzdz = argument.getValue();
+                return Derivative.numericalCentralDerivativeSecondOrder(fz, fzdz, fzmdz);
+            }
+            else if (functionId == THIRD_DERIVATIVE) {
+                Complex fzdz = valueAt(secondArgument.plus(Derivative.DZ));
+                Complex fz2dz = valueAt(secondArgument.plus(Derivative.DZ_2));
+                Complex fzmdz = valueAt(secondArgument.sub(Derivative.DZ));
+                Complex fzm2dz = valueAt(secondArgument.sub(Derivative.DZ_2));
 
-            visitor.setValue(secondArgument.sub(Derivative.DZ));
-            setDerivativeDelta(visitor);
-            Complex fzmdz = argument.getValue();
+                return Derivative.numericalCentralDerivativeThirdOrder(fzdz, fz2dz, fzmdz, fzm2dz);
+            }
+        }
+        finally {
+            // the variables may be shared with the rest of the expression
+            for(int i = 0; i < variables.length; i++) {
+                if(savedSet[i]) {
+                    variables[i].set(saved[i]);
+                }
+                else {
+                    variables[i].clear();
+                }
+            }
+        }
+        
+        return new Complex();
+        
+    }
 
-            return Derivative.numericalCentralDerivativeSecondOrder(fz, fzdz, fzmdz);
+    /**
+     * Evaluates the derivative with the variable values of the frame. The
+     * variable is shifted in the frame only and restored before returning.
+     */
+    @Override
+    public void evaluateInto(EvaluationFrame frame, Complex out) {
+
+        if(derivative != null) {
+            long outer = frame.enter();
+            derivative.evaluateInto(frame, out);
+            frame.leave(outer);
+            return;
         }
-        else if (functionId == THIRD_DERIVATIVE) {
-            visitor.setValue(secondArgument.plus(Derivative.DZ));
-            setDerivativeDelta(visitor);
-            Complex fzdz = argument.getValue();
 
-            visitor.setValue(secondArgument.plus(Derivative.DZ_2));
-            setDerivativeDelta(visitor);
-            Complex fz2dz = argument.getValue();
+        int slot = frame.slot(((VariableExpressionNode)argument2).getVariable());
+
+        // the shifted points and the stencil are computed in registers, in
+        // the order of the operations of the Derivative methods that getValue
+        // uses, so both paths give the same bits
+        Complex secondArgument = frame.acquire();
+        Complex shifted = frame.acquire();
+        Complex fzdz = frame.acquire();
+        Complex fzmdz = frame.acquire();
+        argument2.evaluateInto(frame, secondArgument);
+
+        try {
+            if(functionId == FIRST_DERIVATIVE) {
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.plus_mutable(Derivative.DZ));
+                argument.evaluateInto(frame, fzdz);
+
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.sub_mutable(Derivative.DZ));
+                argument.evaluateInto(frame, fzmdz);
+
+                out.assign(fzdz);
+                out.sub_mutable(fzmdz).times_mutable(Derivative.INV_DZ_2);
+            }
+            else if (functionId == SECOND_DERIVATIVE) {
+                Complex fz = frame.acquire();
+                argument.evaluateInto(frame, fz);
+
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.plus_mutable(Derivative.DZ));
+                argument.evaluateInto(frame, fzdz);
 
-            visitor.setValue(secondArgument.sub(Derivative.DZ));
-            setDerivativeDelta(visitor);
-            Complex fzmdz = argument.getValue();
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.sub_mutable(Derivative.DZ));
+                argument.evaluateInto(frame, fzmdz);
 
-            visitor.setValue(secondArgument.sub(Derivative.DZ_2));
-            setDerivativeDelta(visitor);
-            Complex fzm2dz = argument.getValue();
+                fz.times_mutable(2);
+                out.assign(fzdz);
+                out.sub_mutable(fz).plus_mutable(fzmdz).times_mutable(Derivative.INV_DZ_SQUARED);
+                frame.release(1);
+            }
+            else if (functionId == THIRD_DERIVATIVE) {
+                Complex fz2dz = frame.acquire();
+                Complex fzm2dz = frame.acquire();
 
-            return Derivative.numericalCentralDerivativeThirdOrder(fzdz, fz2dz, fzmdz, fzm2dz);
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.plus_mutable(Derivative.DZ));
+                argument.evaluateInto(frame, fzdz);
+
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.plus_mutable(Derivative.DZ_2));
+                argument.evaluateInto(frame, fz2dz);
+
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.sub_mutable(Derivative.DZ));
+                argument.evaluateInto(frame, fzmdz);
+
+                shifted.assign(secondArgument);
+                frame.set(slot, shifted.sub_mutable(Derivative.DZ_2));
+                argument.evaluateInto(frame, fzm2dz);
+
+                fzm2dz.times_mutable(0.5);
+                fz2dz.times_mutable(0.5);
+                out.assign(fzmdz);
+                out.sub_mutable(fzm2dz).plus_mutable(fz2dz).sub_mutable(fzdz).times_mutable(Derivative.INV_DZ_CUBED);
+                frame.release(2);
+            }
+            else {
+                out.reset();
+            }
         }
-        
-        return new Complex();
-        
+        finally {
+            frame.set(slot, secondArgument);
+        }
+
+        frame.release(4);
+
+    }
+
+    /*
+     * The value of the argument with the variables set to point. It is a
+     * copy, a bare variable returns the Complex it owns and the next shift
+     * would overwrite it.
+     */
+    private Complex valueAt(Complex point) {
+        for(int i = 0; i < variables.length; i++) {
+            variables[i].set(point);
+        }
+
+        return new Complex(argument.getValue());
     }
 
     /**
@@ -16,12 +16,16 @@
  */
 package uk.co.cogitolearning.cogpar;
 
-import uk.co.cogitolearning.cogpar.functions.*;
+import uk.co.cogitolearning.cogpar.functions.AbstractOneArgumentFunction;
 
 /**
  * An ExpressionNode that handles mathematical functions.
  *
- * Some pre-defined functions are handled, others can easily be added.
+ * Some pre-defined functions are handled, others can be added through
+ * FunctionRegistry.register.
+ *
+ * Nodes should be created with create, which returns a node of a subclass
+ * generated for the function.
  */
 public class FunctionExpressionNode implements ExpressionNode {
 
@@ -372,7 +376,8 @@ public class FunctionExpressionNode implements ExpressionNode {
    
 
     /**
-     * Construct a function by id and argument.
+     * Construct a function by id and argument. The implementation is the one
+     * shared instance the FunctionRegistry holds for the id.
      *
      * @param functionId the id of the function to apply
      * @param argument the argument of the function
@@ -383,269 +388,42 @@ public class FunctionExpressionNode implements ExpressionNode {
         
         this.functionId = functionId;
         
-        switch (functionId) {
-            case SIN:
-                function = new SinFunction();
-                break;
-            case SINH:
-                function = new SinhFunction();
-                break;
-            case ASIN:
-                function = new ASinFunction();
-                break;
-            case ASINH:
-                function = new ASinhFunction();
-                break;
-
-            case COS:
-                function = new CosFunction();
-                break;
-            case COSH:
-                function = new CoshFunction();
-                break;
-            case ACOS:
-                function = new ACosFunction();
-                break;
-            case ACOSH:
-                function = new ACoshFunction();
-                break;
-
-            case TAN:
-                function = new TanFunction();
-                break;
-            case TANH:
-                function = new TanhFunction();
-                break;
-            case ATAN:
-                function = new ATanFunction();
-                break;
-            case ATANH:
-                function = new ATanhFunction();
-                break;
-
-            case COT:
-                function = new CotFunction();
-                break;
-            case COTH:
-                function = new CothFunction();
-                break;
-            case ACOT:
-                function = new ACotFunction();
-                break;
-            case ACOTH:
-                function = new ACothFunction();
-                break;
-
-            case SEC:
-                function = new SecFunction();
-                break;
-            case SECH:
-                function = new SechFunction();
-                break;
-            case ASEC:
-                function = new ASecFunction();
-                break;
-            case ASECH:
-                function = new ASechFunction();
-                break;
-
-            case CSC:
-                function = new CscFunction();
-                break;
-            case CSCH:
-                function = new CschFunction();
-                break;
-            case ACSC:
-                function = new ACscFunction();
-                break;
-            case ACSCH:
-                function = new ACschFunction();
-                break;
-
-            case SQRT:
-                function = new SqrtFunction();
-                break;
-            case EXP:
-                function = new ExpFunction();
-                break;
-            case LN:
-                function = new LogFunction();
-                break;
-            case ABS:
-                function = new AbsFunction();
-                break;
-            case LOG:
-                function = new Log10Function();
-                break;
-            case LOG2:
-                function = new Log2Function();
-                break;
-
-            case CONJ:
-                function = new ConjFunction();
-                break;
-
-            case RE:
-                function = new ReFunction();
-                break;
-
-            case IM:
-                function = new ImFunction();
-                break;
-
-            case NORM:
-                function = new Norm2Function();
-                break;
-
-            case ARG:
-                function = new ArgFunction();
-                break;
-
-            case GAMMA:
-                function = new GammaFunction();
-                break;
-
-            case FACT:
-                function = new FactFunction();
-                break;
-
-            case ABSRE:
-                function = new AbsReFunction();
-                break;
-
-            case ABSIM:
-                function = new AbsImFunction();
-                break;
-
-            case GI:
-                function = new GiFunction();
-                break;
-
-            case REC:
-                function = new RecFunction();
-                break;
-
-            case FLIP:
-                function = new FlipFunction();
-                break;
-
-            case ROUND:
-                function = new RoundFunction();
-                break;
-
-            case CEIL:
-                function = new CeilFunction();
-                break;
-
-            case FLOOR:
-                function = new FloorFunction();
-                break;
-
-            case TRUNC:
-                function = new TruncFunction();
-                break;
-
-            case ERF:
-                function = new ErfFunction();
-                break;
-
-            case R_ZETA:
-                function = new RZetaFunction();
-                break;
-                
-            case VSIN:
-                function = new VSinFunction();
-                break;
-                
-            case AVSIN:
-                function = new AVSinFunction();
-                break;
-                
-            case VCOS:
-                function = new VCosFunction();
-                break;
-                
-            case AVCOS:
-                function = new AVCosFunction();
-                break;
-                
-            case CVSIN:
-                function = new CVSinFunction();
-                break;
-                
-            case ACVSIN:
-                function = new ACVSinFunction();
-                break;
-                
-            case CVCOS:
-                function = new CVCosFunction();
-                break;
-                
-            case ACVCOS:
-                function = new ACVCosFunction();
-                break;
-                
-            case HVSIN:
-                function = new HVSinFunction();
-                break;
-                
-            case AHVSIN:
-                function = new AHVSinFunction();
-                break;
-                
-            case HVCOS:
-                function = new HVCosFunction();
-                break;
-                
-            case AHVCOS:
-                function = new AHVCosFunction();
-                break;
-                
-            case HCVSIN:
-                function = new HCVSinFunction();
-                break;
-                
-            case AHCVSIN:
-                function = new AHCVSinFunction();
-                break;
-                
-            case HCVCOS:
-                function = new HCVCosFunction();
-                break;
-                
-            case AHCVCOS:
-                function = new AHCVCosFunction();
-                break;
-                
-            case EXSEC:
-                function = new EXSecFunction();
-                break;
-                
-            case AEXSEC:
-                function = new AEXSecFunction();
-                break;
-            
-            case EXCSC:
-                function = new EXCscFunction();
-                break;
-                
-            case AEXCSC:
-                function = new AEXCscFunction();
-                break;
-            
-            case D_ETA:
-                function = new DEtaFunction();
-                break;
-                
-            case SNORM:
-                function = new NormSquaredFunction();
-                break;
-                
-            case FIB:
-                function = new FibonacciFunction();
-                break;
-
-        }
+        function = FunctionRegistry.oneArgument(functionId);
+    }
+
+    /**
+     * Creates the node for a function applied to an argument. The node is of a
+     * class generated for the function, which keeps the call of the function
+     * monomorphic so that the JIT can inline it. It gives the same results as
+     * a node created with the constructor.
+     *
+     * @param functionId the id of the function to apply
+     * @param argument the argument of the function
+     * @return the node for the function applied to the argument
+     */
+    public static FunctionExpressionNode create(int functionId, ExpressionNode argument) {
+        return FunctionNodeSpecializer.create(functionId, argument);
+    }
+
+    /**
+     * @return the id of the function
+     */
+    public int getFunctionId() {
+        return functionId;
+    }
+
+    /**
+     * @return the function applied to the argument
+     */
+    public AbstractOneArgumentFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * @return the argument of the function
+     */
+    public ExpressionNode getArgument() {
+        return argument;
     }
 
     /**
@@ -658,291 +436,25 @@ public class FunctionExpressionNode implements ExpressionNode {
     /**
      * Converts a string to a function id.
      *
-     * If the function is not found this method throws an error.
+     * If the function is not found this method throws a ParserException.
      *
      * @param stringInput the name of the function
      * @return the id of the function
      */
     public static int stringToFunction(String stringInput) {
-        
-        String str = stringInput.toLowerCase();
-        
-        if (str.equals("sin")) {
-            return FunctionExpressionNode.SIN;
-        }
-        if (str.equals("sinh")) {
-            return FunctionExpressionNode.SINH;
-        }
-        if (str.equals("asin")) {
-            return FunctionExpressionNode.ASIN;
-        }
-        if (str.equals("asinh")) {
-            return FunctionExpressionNode.ASINH;
-        }
-
-        if (str.equals("cos")) {
-            return FunctionExpressionNode.COS;
-        }
-        if (str.equals("cosh")) {
-            return FunctionExpressionNode.COSH;
-        }
-        if (str.equals("acos")) {
-            return FunctionExpressionNode.ACOS;
-        }
-        if (str.equals("acosh")) {
-            return FunctionExpressionNode.ACOSH;
-        }
-
-        if (str.equals("tan")) {
-            return FunctionExpressionNode.TAN;
-        }
-        if (str.equals("tanh")) {
-            return FunctionExpressionNode.TANH;
-        }
-        if (str.equals("atan")) {
-            return FunctionExpressionNode.ATAN;
-        }
-        if (str.equals("atanh")) {
-            return FunctionExpressionNode.ATANH;
-        }
-
-        if (str.equals("cot")) {
-            return FunctionExpressionNode.COT;
-        }
-        if (str.equals("coth")) {
-            return FunctionExpressionNode.COTH;
-        }
-        if (str.equals("acot")) {
-            return FunctionExpressionNode.ACOT;
-        }
-        if (str.equals("acoth")) {
-            return FunctionExpressionNode.ACOTH;
-        }
-
-        if (str.equals("sec")) {
-            return FunctionExpressionNode.SEC;
-        }
-        if (str.equals("sech")) {
-            return FunctionExpressionNode.SECH;
-        }
-        if (str.equals("asec")) {
-            return FunctionExpressionNode.ASEC;
-        }
-        if (str.equals("asech")) {
-            return FunctionExpressionNode.ASECH;
-        }
-
-        if (str.equals("csc")) {
-            return FunctionExpressionNode.CSC;
-        }
-        if (str.equals("csch")) {
-            return FunctionExpressionNode.CSCH;
-        }
-        if (str.equals("acsc")) {
-            return FunctionExpressionNode.ACSC;
-        }
-        if (str.equals("acsch")) {
-            return FunctionExpressionNode.ACSCH;
-        }
-
-        if (str.equals("sqrt")) {
-            return FunctionExpressionNode.SQRT;
-        }
-        if (str.equals("exp")) {
-            return FunctionExpressionNode.EXP;
-        }
-        if (str.equals("log")) {
-            return FunctionExpressionNode.LN;
-        }
-        if (str.equals("abs")) {
-            return FunctionExpressionNode.ABS;
-        }
-        if (str.equals("log10")) {
-            return FunctionExpressionNode.LOG;
-        }
-        if (str.equals("log2")) {
-            return FunctionExpressionNode.LOG2;
-        }
-
-        if (str.equals("conj")) {
-            return FunctionExpressionNode.CONJ;
-        }
-
-        if (str.equals("re")) {
-            return FunctionExpressionNode.RE;
-        }
-        if (str.equals("im")) {
-            return FunctionExpressionNode.IM;
-        }
-
-        if (str.equals("norm")) {
-            return FunctionExpressionNode.NORM;
-        }
-
-        if (str.equals("arg")) {
-            return FunctionExpressionNode.ARG;
-        }
-
-        if (str.equals("gamma")) {
-            return FunctionExpressionNode.GAMMA;
-        }
-
-        if (str.equals("fact")) {
-            return FunctionExpressionNode.FACT;
-        }
-
-        if (str.equals("absre")) {
-            return FunctionExpressionNode.ABSRE;
-        }
-
-        if (str.equals("absim")) {
-            return FunctionExpressionNode.ABSIM;
-        }
-
-        if (str.equals("gi")) {
-            return FunctionExpressionNode.GI;
-        }
-
-        if (str.equals("rec")) {
-            return FunctionExpressionNode.REC;
-        }
-
-        if (str.equals("flip")) {
-            return FunctionExpressionNode.FLIP;
-        }
-
-        if (str.equals("round")) {
-            return FunctionExpressionNode.ROUND;
-        }
-
-        if (str.equals("ceil")) {
-            return FunctionExpressionNode.CEIL;
-        }
-
-        if (str.equals("floor")) {
-            return FunctionExpressionNode.FLOOR;
-        }
-
-        if (str.equals("trunc")) {
-            return FunctionExpressionNode.TRUNC;
-        }
-
-        if (str.equals("erf")) {
-            return FunctionExpressionNode.ERF;
-        }
-
-        if (str.equals("rzeta")) {
-            return FunctionExpressionNode.R_ZETA;
-        }
-        
-        if (str.equals("deta")) {
-            return FunctionExpressionNode.D_ETA;
-        }
-        
-        if (str.equals("vsin")) {
-            return FunctionExpressionNode.VSIN;
-        }
-        
-        if (str.equals("avsin")) {
-            return FunctionExpressionNode.AVSIN;
-        }
-        
-        if (str.equals("vcos")) {
-            return FunctionExpressionNode.VCOS;
-        }
-        
-        if (str.equals("avcos")) {
-            return FunctionExpressionNode.AVCOS;
-        }
-        
-        if (str.equals("cvsin")) {
-            return FunctionExpressionNode.CVSIN;
-        }
-        
-        if (str.equals("acvsin")) {
-            return FunctionExpressionNode.ACVSIN;
-        }
-        
-        if (str.equals("cvcos")) {
-            return FunctionExpressionNode.CVCOS;
-        }
-        
-        if (str.equals("acvcos")) {
-            return FunctionExpressionNode.ACVCOS;
-        }
-        
-        if (str.equals("hvsin")) {
-            return FunctionExpressionNode.HVSIN;
-        }
-        
-        if (str.equals("ahvsin")) {
-            return FunctionExpressionNode.AHVSIN;
-        }
-        
-        if (str.equals("hvcos")) {
-            return FunctionExpressionNode.HVCOS;
-        }
-        
-        if (str.equals("ahvcos")) {
-            return FunctionExpressionNode.AHVCOS;
-        }
-        
-        if (str.equals("hcvsin")) {
-            return FunctionExpressionNode.HCVSIN;
-        }
-        
-        if (str.equals("ahcvsin")) {
-            return FunctionExpressionNode.AHCVSIN;
-        }
-        
-        if (str.equals("hcvcos")) {
-            return FunctionExpressionNode.HCVCOS;
-        }
-        
-        if (str.equals("ahcvcos")) {
-            return FunctionExpressionNode.AHCVCOS;
-        }
-        
-        if (str.equals("exsec")) {
-            return FunctionExpressionNode.EXSEC;
-        }
-        
-        if (str.equals("aexsec")) {
-            return FunctionExpressionNode.AEXSEC;
-        }
-        
-        if (str.equals("excsc")) {
-            return FunctionExpressionNode.EXCSC;
-        }
-        
-        if (str.equals("aexcsc")) {
-            return FunctionExpressionNode.AEXCSC;
-        }
-        
-        if (str.equals("snorm")) {
-            return FunctionExpressionNode.SNORM;
-        }
-        
-        if (str.equals("fib")) {
-            return FunctionExpressionNode.FIB;
-        }
-
-        throw new ParserException("Unexpected Function " + str + " found.");
+        return FunctionRegistry.id(stringInput, Token.FUNCTION);
     }
 
     /**
      * Returns a string with all the function names concatenated by a | symbol.
      *
-     * This string is used in Tokenizer.createExpressionTokenizer to create a
-     * regular expression for recognizing function names.
+     * The names are those registered in the FunctionRegistry, which the
+     * Tokenizer reads directly.
      *
      * @return a string containing all the function names
      */
     public static String getAllFunctions() {
-
-        return "sin|sinh|asin|asinh|cos|cosh|acos|acosh|tan|tanh|atan|atanh|cot|coth|acot|acoth|sec|sech|asec|asech|csc|csch|acsc|acsch|sqrt|exp|log|log10|log2|abs|conj|re|im|norm|arg|gamma|fact|absre|absim|gi|rec|flip|round|ceil|floor|trunc|erf|rzeta|deta" 
-                + "|vsin|avsin|vcos|avcos|cvsin|acvsin|cvcos|acvcos|hvsin|ahvsin|hvcos|ahvcos|hcvsin|ahcvsin|hcvcos|ahcvcos|exsec|aexsec|excsc|aexcsc|snorm|fib";
-        
+        return FunctionRegistry.names(Token.FUNCTION);
     }
 
     /**
@@ -954,10 +466,26 @@ public class FunctionExpressionNode implements ExpressionNode {
     @Override
     public Complex getValue() {
         
+        Metrics.functionEvaluated(Token.FUNCTION, functionId);
         return function.evaluate(argument.getValue());
         
     }
 
+    /**
+     * Evaluates the argument into a scratch register and applies the function
+     * to it.
+     */
+    @Override
+    public void evaluateInto(EvaluationFrame frame, Complex out) {
+
+        Metrics.functionEvaluated(Token.FUNCTION, functionId);
+        Complex value = frame.acquire();
+        argument.evaluateInto(frame, value);
+        function.evaluateInto(value, out);
+        frame.release(1);
+
+    }
+
     /**
      * Implementation of the visitor design pattern.
      *
@@ -0,0 +1,274 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import uk.co.cogitolearning.cogpar.functions.AbstractOneArgumentFunction;
+import uk.co.cogitolearning.cogpar.functions.AbstractTwoArgumentFunction;
+
+/**
+ * Generates a subclass of FunctionExpressionNode or
+ * Function2ArgumentsExpressionNode per function.
+ *
+ * The JIT profiles the receiver types of a call site per method, so the one
+ * call of the function in FunctionExpressionNode.getValue sees every function
+ * that is used anywhere and stops being inlined once there are more than two.
+ * The generated classes repeat getValue and evaluateInto in code of their
+ * own. Each of these call sites only ever sees one function, so it stays
+ * monomorphic and the function is inlined into the node.
+ *
+ * One hidden class is generated per function when a node of it is first
+ * created. If a class cannot be generated the plain node is used, which
+ * gives the same results.
+ *
+ * Every call is reported to Metrics, which returns at once unless a
+ * MetricsRecorder is installed. The check is a read of a volatile field, so
+ * the nodes of a tree start to report their calls as soon as a recorder is
+ * installed, whenever they have been created.
+ */
+final class FunctionNodeSpecializer {
+
+    private static final String NODE = "uk/co/cogitolearning/cogpar/ExpressionNode";
+    private static final String FRAME = "uk/co/cogitolearning/cogpar/EvaluationFrame";
+    private static final String COMPLEX = "uk/co/cogitolearning/cogpar/Complex";
+    private static final String FUNCTION_NODE = "uk/co/cogitolearning/cogpar/FunctionExpressionNode";
+    private static final String FUNCTION_2_NODE = "uk/co/cogitolearning/cogpar/Function2ArgumentsExpressionNode";
+    private static final String FUNCTION = "uk/co/cogitolearning/cogpar/functions/AbstractOneArgumentFunction";
+    private static final String FUNCTION2 = "uk/co/cogitolearning/cogpar/functions/AbstractTwoArgumentFunction";
+    private static final String METRICS = "uk/co/cogitolearning/cogpar/Metrics";
+
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(void.class, int.class, ExpressionNode.class);
+    private static final MethodType CONSTRUCTOR2 = MethodType.methodType(void.class, int.class, ExpressionNode.class, ExpressionNode.class);
+
+    /** the constructors of the generated classes, null if a class could not be generated */
+    private static final ConcurrentHashMap<Object, MethodHandle> CONSTRUCTORS = new ConcurrentHashMap<Object, MethodHandle>();
+
+    /** stands for a class that could not be generated, the map holds no nulls */
+    private static final MethodHandle NONE = MethodHandles.constant(Object.class, null);
+
+    private FunctionNodeSpecializer() {
+
+    }
+
+    /**
+     * @param functionId the id of a one argument function
+     * @param argument the argument of the function
+     * @return a node of the class generated for the function
+     */
+    static FunctionExpressionNode create(int functionId, ExpressionNode argument) {
+        MethodHandle constructor = CONSTRUCTORS.computeIfAbsent(FunctionRegistry.oneArgument(functionId), function -> generate(function, functionId));
+
+        if(constructor == NONE) {
+            return new FunctionExpressionNode(functionId, argument);
+        }
+
+        try {
+            return (FunctionExpressionNode)constructor.invokeExact(functionId, argument);
+        }
+        catch(RuntimeException | Error ex) {
+            throw ex;
+        }
+        catch(Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param functionId the id of a two argument function
+     * @param argument the first argument of the function
+     * @param argument2 the second argument of the function
+     * @return a node of the class generated for the function
+     */
+    static Function2ArgumentsExpressionNode create(int functionId, ExpressionNode argument, ExpressionNode argument2) {
+        MethodHandle constructor = CONSTRUCTORS.computeIfAbsent(FunctionRegistry.twoArguments(functionId), function -> generate(function, functionId));
+
+        if(constructor == NONE) {
+            return new Function2ArgumentsExpressionNode(functionId, argument, argument2);
+        }
+
+        try {
+            return (Function2ArgumentsExpressionNode)constructor.invokeExact(functionId, argument, argument2);
+        }
+        catch(RuntimeException | Error ex) {
+            throw ex;
+        }
+        catch(Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static MethodHandle generate(Object function, int functionId) {
+        try {
+            if(function instanceof AbstractOneArgumentFunction) {
+                Class<?> generated = define(oneArgument(name(FUNCTION_NODE, function), functionId));
+                return MethodHandles.lookup().findConstructor(generated, CONSTRUCTOR)
+                        .asType(MethodType.methodType(FunctionExpressionNode.class, int.class, ExpressionNode.class));
+            }
+
+            Class<?> generated = define(twoArguments(name(FUNCTION_2_NODE, function), functionId));
+            return MethodHandles.lookup().findConstructor(generated, CONSTRUCTOR2)
+                    .asType(MethodType.methodType(Function2ArgumentsExpressionNode.class, int.class, ExpressionNode.class, ExpressionNode.class));
+        }
+        catch(ReflectiveOperationException | LinkageError | SecurityException ex) {
+            return NONE;
+        }
+    }
+
+    private static Class<?> define(byte[] bytes) throws IllegalAccessException {
+        return MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+    }
+
+    /*
+     * The class is named after the function, which makes the inlining and
+     * profiling output readable
+     */
+    private static String name(String node, Object function) {
+        String simpleName = function.getClass().getSimpleName();
+        return node + "$" + (simpleName.isEmpty() ? "Specialized" : simpleName);
+    }
+
+    /*
+     * Emits Metrics.functionEvaluated(token, functionId)
+     */
+    static void meter(ClassFileWriter.MethodWriter code, int token, int functionId) {
+        code.iconst(token);
+        code.iconst(functionId);
+        code.invokeStatic(METRICS, "functionEvaluated", "(II)V");
+    }
+
+    /*
+     * The class for a one argument function
+     */
+    private static byte[] oneArgument(String className, int functionId) {
+        ClassFileWriter writer = new ClassFileWriter(className, FUNCTION_NODE);
+
+        String constructorDesc = "(IL" + NODE + ";)V";
+        ClassFileWriter.MethodWriter constructor = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", constructorDesc, 3);
+        constructor.aload(0);
+        constructor.iload(1);
+        constructor.aload(2);
+        constructor.invokeSpecial(FUNCTION_NODE, "<init>", constructorDesc);
+        constructor.op(ClassFileWriter.RETURN, 0);
+
+        // return getFunction().evaluate(getArgument().getValue());
+        ClassFileWriter.MethodWriter getValue = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "getValue", "()L" + COMPLEX + ";", 1);
+        meter(getValue, Token.FUNCTION, functionId);
+        getValue.aload(0);
+        getValue.invokeVirtual(FUNCTION_NODE, "getFunction", "()L" + FUNCTION + ";");
+        getValue.aload(0);
+        getValue.invokeVirtual(FUNCTION_NODE, "getArgument", "()L" + NODE + ";");
+        getValue.invokeInterface(NODE, "getValue", "()L" + COMPLEX + ";");
+        getValue.invokeVirtual(FUNCTION, "evaluate", "(L" + COMPLEX + ";)L" + COMPLEX + ";");
+        getValue.op(ClassFileWriter.ARETURN, -1);
+
+        // Complex value = frame.acquire();
+        // getArgument().evaluateInto(frame, value);
+        // getFunction().evaluateInto(value, out);
+        // frame.release(1);
+        ClassFileWriter.MethodWriter evaluateInto = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "evaluateInto", "(L" + FRAME + ";L" + COMPLEX + ";)V", 3);
+        meter(evaluateInto, Token.FUNCTION, functionId);
+        evaluateInto.aload(1);
+        evaluateInto.invokeVirtual(FRAME, "acquire", "()L" + COMPLEX + ";");
+        evaluateInto.astore(3);
+        evaluateInto.aload(0);
+        evaluateInto.invokeVirtual(FUNCTION_NODE, "getArgument", "()L" + NODE + ";");
+        evaluateInto.aload(1);
+        evaluateInto.aload(3);
+        evaluateInto.invokeInterface(NODE, "evaluateInto", "(L" + FRAME + ";L" + COMPLEX + ";)V");
+        evaluateInto.aload(0);
+        evaluateInto.invokeVirtual(FUNCTION_NODE, "getFunction", "()L" + FUNCTION + ";");
+        evaluateInto.aload(3);
+        evaluateInto.aload(2);
+        evaluateInto.invokeVirtual(FUNCTION, "evaluateInto", "(L" + COMPLEX + ";L" + COMPLEX + ";)V");
+        evaluateInto.aload(1);
+        evaluateInto.iconst(1);
+        evaluateInto.invokeVirtual(FRAME, "release", "(I)V");
+        evaluateInto.op(ClassFileWriter.RETURN, 0);
+
+        return writer.toByteArray();
+    }
+
+    /*
+     * The class for a two argument function
+     */
+    private static byte[] twoArguments(String className, int functionId) {
+        ClassFileWriter writer = new ClassFileWriter(className, FUNCTION_2_NODE);
+
+        String constructorDesc = "(IL" + NODE + ";L" + NODE + ";)V";
+        ClassFileWriter.MethodWriter constructor = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", constructorDesc, 4);
+        constructor.aload(0);
+        constructor.iload(1);
+        constructor.aload(2);
+        constructor.aload(3);
+        constructor.invokeSpecial(FUNCTION_2_NODE, "<init>", constructorDesc);
+        constructor.op(ClassFileWriter.RETURN, 0);
+
+        // return getFunction().evaluate(getArgument().getValue(), getArgument2().getValue());
+        ClassFileWriter.MethodWriter getValue = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "getValue", "()L" + COMPLEX + ";", 1);
+        meter(getValue, Token.FUNCTION_2ARGUMENTS, functionId);
+        getValue.aload(0);
+        getValue.invokeVirtual(FUNCTION_2_NODE, "getFunction", "()L" + FUNCTION2 + ";");
+        getValue.aload(0);
+        getValue.invokeVirtual(FUNCTION_2_NODE, "getArgument", "()L" + NODE + ";");
+        getValue.invokeInterface(NODE, "getValue", "()L" + COMPLEX + ";");
+        getValue.aload(0);
+        getValue.invokeVirtual(FUNCTION_2_NODE, "getArgument2", "()L" + NODE + ";");
+        getValue.invokeInterface(NODE, "getValue", "()L" + COMPLEX + ";");
+        getValue.invokeVirtual(FUNCTION2, "evaluate", "(L" + COMPLEX + ";L" + COMPLEX + ";)L" + COMPLEX + ";");
+        getValue.op(ClassFileWriter.ARETURN, -1);
+
+        // Complex value = frame.acquire();
+        // Complex value2 = frame.acquire();
+        // getArgument().evaluateInto(frame, value);
+        // getArgument2().evaluateInto(frame, value2);
+        // getFunction().evaluateInto(value, value2, out);
+        // frame.release(2);
+        ClassFileWriter.MethodWriter evaluateInto = writer.addMethod(ClassFileWriter.ACC_PUBLIC, "evaluateInto", "(L" + FRAME + ";L" + COMPLEX + ";)V", 3);
+        meter(evaluateInto, Token.FUNCTION_2ARGUMENTS, functionId);
+        evaluateInto.aload(1);
+        evaluateInto.invokeVirtual(FRAME, "acquire", "()L" + COMPLEX + ";");
+        evaluateInto.astore(3);
+        evaluateInto.aload(1);
+        evaluateInto.invokeVirtual(FRAME, "acquire", "()L" + COMPLEX + ";");
+        evaluateInto.astore(4);
+        evaluateInto.aload(0);
+        evaluateInto.invokeVirtual(FUNCTION_2_NODE, "getArgument", "()L" + NODE + ";");
+        evaluateInto.aload(1);
+        evaluateInto.aload(3);
+        evaluateInto.invokeInterface(NODE, "evaluateInto", "(L" + FRAME + ";L" + COMPLEX + ";)V");
+        evaluateInto.aload(0);
+        evaluateInto.invokeVirtual(FUNCTION_2_NODE, "getArgument2", "()L" + NODE + ";");
+        evaluateInto.aload(1);
+        evaluateInto.aload(4);
+        evaluateInto.invokeInterface(NODE, "evaluateInto", "(L" + FRAME + ";L" + COMPLEX + ";)V");
+        evaluateInto.aload(0);
+        evaluateInto.invokeVirtual(FUNCTION_2_NODE, "getFunction", "()L" + FUNCTION2 + ";");
+        evaluateInto.aload(3);
+        evaluateInto.aload(4);
+        evaluateInto.aload(2);
+        evaluateInto.invokeVirtual(FUNCTION2, "evaluateInto", "(L" + COMPLEX + ";L" + COMPLEX + ";L" + COMPLEX + ";)V");
+        evaluateInto.aload(1);
+        evaluateInto.iconst(2);
+        evaluateInto.invokeVirtual(FRAME, "release", "(I)V");
+        evaluateInto.op(ClassFileWriter.RETURN, 0);
+
+        return writer.toByteArray();
+    }
+}
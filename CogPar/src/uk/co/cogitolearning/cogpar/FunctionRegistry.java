@@ -0,0 +1,370 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import uk.co.cogitolearning.cogpar.functions.*;
+
+/**
+ * The functions known to the tokenizer and the parser, by name.
+ *
+ * Names are case insensitive and are found with a single hash lookup. Every
+ * function has one instance that all nodes applying it share, so an
+ * implementation must not keep state between calls.
+ *
+ * Applications add their own functions with register, preferably at startup
+ * before the first expression is parsed. Like the built-in functions they
+ * are assumed to be pure, the Optimizer folds them on constant arguments and
+ * the CommonSubexpressionEliminator shares equal calls. They have no symbolic
+ * derivative and are differentiated numerically.
+ */
+public final class FunctionRegistry {
+
+    /**
+     * A registered name, the token it is read as and the id of its function.
+     */
+    static final class Entry {
+        /** Token.FUNCTION, Token.FUNCTION_2ARGUMENTS or Token.FUNCTION_DERIVATIVE_2ARGUMENTS */
+        final int token;
+        /** the function id */
+        final int id;
+
+        Entry(int token, int id) {
+            this.token = token;
+            this.id = id;
+        }
+    }
+
+    /** the names in lower case */
+    private static final ConcurrentHashMap<String, Entry> NAMES = new ConcurrentHashMap<String, Entry>();
+
+    /** the names in the order they were registered */
+    private static final CopyOnWriteArrayList<String> ORDER = new CopyOnWriteArrayList<String>();
+
+    /** the one argument functions by id, replaced as a whole on registration */
+    private static volatile AbstractOneArgumentFunction[] oneArgument = new AbstractOneArgumentFunction[0];
+
+    /** the two argument functions by id, replaced as a whole on registration */
+    private static volatile AbstractTwoArgumentFunction[] twoArguments = new AbstractTwoArgumentFunction[0];
+
+    static {
+        register("sin", FunctionExpressionNode.SIN, new SinFunction());
+        register("sinh", FunctionExpressionNode.SINH, new SinhFunction());
+        register("asin", FunctionExpressionNode.ASIN, new ASinFunction());
+        register("asinh", FunctionExpressionNode.ASINH, new ASinhFunction());
+        register("cos", FunctionExpressionNode.COS, new CosFunction());
+        register("cosh", FunctionExpressionNode.COSH, new CoshFunction());
+        register("acos", FunctionExpressionNode.ACOS, new ACosFunction());
+        register("acosh", FunctionExpressionNode.ACOSH, new ACoshFunction());
+        register("tan", FunctionExpressionNode.TAN, new TanFunction());
+        register("tanh", FunctionExpressionNode.TANH, new TanhFunction());
+        register("atan", FunctionExpressionNode.ATAN, new ATanFunction());
+        register("atanh", FunctionExpressionNode.ATANH, new ATanhFunction());
+        register("cot", FunctionExpressionNode.COT, new CotFunction());
+        register("coth", FunctionExpressionNode.COTH, new CothFunction());
+        register("acot", FunctionExpressionNode.ACOT, new ACotFunction());
+        register("acoth", FunctionExpressionNode.ACOTH, new ACothFunction());
+        register("sec", FunctionExpressionNode.SEC, new SecFunction());
+        register("sech", FunctionExpressionNode.SECH, new SechFunction());
+        register("asec", FunctionExpressionNode.ASEC, new ASecFunction());
+        register("asech", FunctionExpressionNode.ASECH, new ASechFunction());
+        register("csc", FunctionExpressionNode.CSC, new CscFunction());
+        register("csch", FunctionExpressionNode.CSCH, new CschFunction());
+        register("acsc", FunctionExpressionNode.ACSC, new ACscFunction());
+        register("acsch", FunctionExpressionNode.ACSCH, new ACschFunction());
+        register("sqrt", FunctionExpressionNode.SQRT, new SqrtFunction());
+        register("exp", FunctionExpressionNode.EXP, new ExpFunction());
+        register("log", FunctionExpressionNode.LN, new LogFunction());
+        register("log10", FunctionExpressionNode.LOG, new Log10Function());
+        register("log2", FunctionExpressionNode.LOG2, new Log2Function());
+        register("abs", FunctionExpressionNode.ABS, new AbsFunction());
+        register("conj", FunctionExpressionNode.CONJ, new ConjFunction());
+        register("re", FunctionExpressionNode.RE, new ReFunction());
+        register("im", FunctionExpressionNode.IM, new ImFunction());
+        register("norm", FunctionExpressionNode.NORM, new Norm2Function());
+        register("arg", FunctionExpressionNode.ARG, new ArgFunction());
+        register("gamma", FunctionExpressionNode.GAMMA, new GammaFunction());
+        register("fact", FunctionExpressionNode.FACT, new FactFunction());
+        register("absre", FunctionExpressionNode.ABSRE, new AbsReFunction());
+        register("absim", FunctionExpressionNode.ABSIM, new AbsImFunction());
+        register("gi", FunctionExpressionNode.GI, new GiFunction());
+        register("rec", FunctionExpressionNode.REC, new RecFunction());
+        register("flip", FunctionExpressionNode.FLIP, new FlipFunction());
+        register("round", FunctionExpressionNode.ROUND, new RoundFunction());
+        register("ceil", FunctionExpressionNode.CEIL, new CeilFunction());
+        register("floor", FunctionExpressionNode.FLOOR, new FloorFunction());
+        register("trunc", FunctionExpressionNode.TRUNC, new TruncFunction());
+        register("erf", FunctionExpressionNode.ERF, new ErfFunction());
+        register("rzeta", FunctionExpressionNode.R_ZETA, new RZetaFunction());
+        register("deta", FunctionExpressionNode.D_ETA, new DEtaFunction());
+        register("vsin", FunctionExpressionNode.VSIN, new VSinFunction());
+        register("avsin", FunctionExpressionNode.AVSIN, new AVSinFunction());
+        register("vcos", FunctionExpressionNode.VCOS, new VCosFunction());
+        register("avcos", FunctionExpressionNode.AVCOS, new AVCosFunction());
+        register("cvsin", FunctionExpressionNode.CVSIN, new CVSinFunction());
+        register("acvsin", FunctionExpressionNode.ACVSIN, new ACVSinFunction());
+        register("cvcos", FunctionExpressionNode.CVCOS, new CVCosFunction());
+        register("acvcos", FunctionExpressionNode.ACVCOS, new ACVCosFunction());
+        register("hvsin", FunctionExpressionNode.HVSIN, new HVSinFunction());
+        register("ahvsin", FunctionExpressionNode.AHVSIN, new AHVSinFunction());
+        register("hvcos", FunctionExpressionNode.HVCOS, new HVCosFunction());
+        register("ahvcos", FunctionExpressionNode.AHVCOS, new AHVCosFunction());
+        register("hcvsin", FunctionExpressionNode.HCVSIN, new HCVSinFunction());
+        register("ahcvsin", FunctionExpressionNode.AHCVSIN, new AHCVSinFunction());
+        register("hcvcos", FunctionExpressionNode.HCVCOS, new HCVCosFunction());
+        register("ahcvcos", FunctionExpressionNode.AHCVCOS, new AHCVCosFunction());
+        register("exsec", FunctionExpressionNode.EXSEC, new EXSecFunction());
+        register("aexsec", FunctionExpressionNode.AEXSEC, new AEXSecFunction());
+        register("excsc", FunctionExpressionNode.EXCSC, new EXCscFunction());
+        register("aexcsc", FunctionExpressionNode.AEXCSC, new AEXCscFunction());
+        register("snorm", FunctionExpressionNode.SNORM, new NormSquaredFunction());
+        register("fib", FunctionExpressionNode.FIB, new FibonacciFunction());
+
+        register("bipol", Function2ArgumentsExpressionNode.TO_BIPOLAR, new ToBipolarFunction());
+        register("ibipol", Function2ArgumentsExpressionNode.FROM_BIPOLAR, new FromBipolarFunction());
+        register("inflect", Function2ArgumentsExpressionNode.INFLECTION, new InflectFunction());
+        register("foldu", Function2ArgumentsExpressionNode.FOLD_UP, new FoldUpFunction());
+        register("foldd", Function2ArgumentsExpressionNode.FOLD_DOWN, new FoldDownFunction());
+        register("foldl", Function2ArgumentsExpressionNode.FOLD_LEFT, new FoldLeftFunction());
+        register("foldr", Function2ArgumentsExpressionNode.FOLD_RIGHT, new FoldRightFunction());
+        register("foldi", Function2ArgumentsExpressionNode.FOLD_IN, new FoldInFunction());
+        register("foldo", Function2ArgumentsExpressionNode.FOLD_OUT, new FoldOutFunction());
+        register("shear", Function2ArgumentsExpressionNode.SHEAR, new ShearFunction());
+        register("cmp", Function2ArgumentsExpressionNode.COMPARE, new CompareFunction());
+        register("add", Function2ArgumentsExpressionNode.ADD, new AddFunction());
+        register("sub", Function2ArgumentsExpressionNode.SUB, new SubFunction());
+        register("mul", Function2ArgumentsExpressionNode.MUL, new MulFunction());
+        register("div", Function2ArgumentsExpressionNode.DIV, new DivFunction());
+        register("rem", Function2ArgumentsExpressionNode.REM, new RemFunction());
+        register("pow", Function2ArgumentsExpressionNode.POW, new PowFunction());
+        register("logn", Function2ArgumentsExpressionNode.LOGN, new LogNFunction());
+        register("fuzz", Function2ArgumentsExpressionNode.FUZZ, new FuzzFunction());
+        register("normn", Function2ArgumentsExpressionNode.NORMN, new NormNFunction());
+        register("rot", Function2ArgumentsExpressionNode.ROT, new RotFunction());
+        register("dist", Function2ArgumentsExpressionNode.DIST, new DistanceFunction());
+        register("sdist", Function2ArgumentsExpressionNode.SDIST, new DistanceSquaredFunction());
+
+        register("f'''", Token.FUNCTION_DERIVATIVE_2ARGUMENTS, FunctionDerivative2ArgumentsExpressionNode.THIRD_DERIVATIVE);
+        register("f''", Token.FUNCTION_DERIVATIVE_2ARGUMENTS, FunctionDerivative2ArgumentsExpressionNode.SECOND_DERIVATIVE);
+        register("f'", Token.FUNCTION_DERIVATIVE_2ARGUMENTS, FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE);
+    }
+
+    private FunctionRegistry() {
+
+    }
+
+    /**
+     * Registers a one argument function. The name can afterwards be used in
+     * expressions like the built-in functions.
+     *
+     * @param name the name, a letter followed by letters, digits or
+     * underscores, it may not be taken by a function or a constant
+     * @param function the implementation, shared by all expressions
+     * @return the id of the function, as returned by
+     * FunctionExpressionNode.getFunctionId
+     */
+    public static synchronized int register(String name, AbstractOneArgumentFunction function) {
+        checkNew(name, function);
+        int id = oneArgument.length;
+        register(name, id, function);
+        return id;
+    }
+
+    /**
+     * Registers a two argument function. The name can afterwards be used in
+     * expressions like the built-in functions.
+     *
+     * @param name the name, a letter followed by letters, digits or
+     * underscores, it may not be taken by a function or a constant
+     * @param function the implementation, shared by all expressions
+     * @return the id of the function, as returned by
+     * Function2ArgumentsExpressionNode.getFunctionId
+     */
+    public static synchronized int register(String name, AbstractTwoArgumentFunction function) {
+        checkNew(name, function);
+        int id = twoArguments.length;
+        register(name, id, function);
+        return id;
+    }
+
+    /**
+     * @param name the name of a function, in any case
+     * @return true if the tokenizer reads the name as a function
+     */
+    public static boolean isRegistered(String name) {
+        return NAMES.containsKey(toLowerCase(name));
+    }
+
+    private static void checkNew(String name, Object function) {
+        if(function == null) {
+            throw new IllegalArgumentException("The function " + name + " has no implementation.");
+        }
+
+        if(name == null || name.isEmpty() || !isLetter(name.charAt(0))) {
+            throw new IllegalArgumentException("The function name " + name + " does not start with a letter.");
+        }
+
+        for(int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(!isLetter(c) && !(c >= '0' && c <= '9') && c != '_') {
+                throw new IllegalArgumentException("The function name " + name + " contains the character " + c + ".");
+            }
+        }
+
+        String key = toLowerCase(name);
+
+        // the parser reads these as the imaginary unit and as constants
+        if(key.equals("i") || key.equals("pi") || key.equals("e") || key.equals("phi") || NAMES.containsKey(key)) {
+            throw new IllegalArgumentException("The name " + name + " is already defined.");
+        }
+    }
+
+    private static void register(String name, int id, AbstractOneArgumentFunction function) {
+        AbstractOneArgumentFunction[] functions = Arrays.copyOf(oneArgument, Math.max(oneArgument.length, id + 1));
+        functions[id] = function;
+        oneArgument = functions;
+        register(name, Token.FUNCTION, id);
+    }
+
+    private static void register(String name, int id, AbstractTwoArgumentFunction function) {
+        AbstractTwoArgumentFunction[] functions = Arrays.copyOf(twoArguments, Math.max(twoArguments.length, id + 1));
+        functions[id] = function;
+        twoArguments = functions;
+        register(name, Token.FUNCTION_2ARGUMENTS, id);
+    }
+
+    private static void register(String name, int token, int id) {
+        String key = toLowerCase(name);
+        NAMES.put(key, new Entry(token, id));
+        ORDER.add(key);
+    }
+
+    /**
+     * @param name the name of a function, in any case
+     * @return the entry of the name or null if no function has that name
+     */
+    static Entry get(String name) {
+        return NAMES.get(toLowerCase(name));
+    }
+
+    /**
+     * @param name the name of a function, in any case
+     * @param token the kind of function
+     * @return the id of the function
+     * @throws ParserException if no function of that kind has the name
+     */
+    static int id(String name, int token) {
+        Entry entry = get(name);
+
+        if(entry == null || entry.token != token) {
+            throw new ParserException("Unexpected Function " + toLowerCase(name) + " found.");
+        }
+
+        return entry.id;
+    }
+
+    /**
+     * @param id the id of a one argument function
+     * @return the shared implementation
+     * @throws IllegalArgumentException if no function has the id
+     */
+    static AbstractOneArgumentFunction oneArgument(int id) {
+        AbstractOneArgumentFunction[] functions = oneArgument;
+
+        if(id < 0 || id >= functions.length || functions[id] == null) {
+            throw new IllegalArgumentException("There is no function with id " + id + ".");
+        }
+
+        return functions[id];
+    }
+
+    /**
+     * @param id the id of a two argument function
+     * @return the shared implementation
+     * @throws IllegalArgumentException if no function has the id
+     */
+    static AbstractTwoArgumentFunction twoArguments(int id) {
+        AbstractTwoArgumentFunction[] functions = twoArguments;
+
+        if(id < 0 || id >= functions.length || functions[id] == null) {
+            throw new IllegalArgumentException("There is no function with id " + id + ".");
+        }
+
+        return functions[id];
+    }
+
+    /**
+     * @param token the kind of function
+     * @return the names of the functions of that kind in the order they were
+     * registered, concatenated by a | symbol
+     */
+    static String names(int token) {
+        StringBuilder names = new StringBuilder();
+
+        for(String name : ORDER) {
+            if(NAMES.get(name).token == token) {
+                if(names.length() > 0) {
+                    names.append('|');
+                }
+                names.append(name);
+            }
+        }
+
+        return names.toString();
+    }
+
+    /**
+     * @param token the kind of function
+     * @param id the id of the function
+     * @return the name of the function in lower case or null if there is no
+     * function of that kind with the id
+     */
+    static String name(int token, int id) {
+        for(String name : ORDER) {
+            Entry entry = NAMES.get(name);
+            if(entry.token == token && entry.id == id) {
+                return name;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /** the case folding of the tokenizer, which only covers US-ASCII */
+    private static String toLowerCase(String name) {
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(c >= 'A' && c <= 'Z') {
+                char[] chars = name.toCharArray();
+                for(int j = i; j < chars.length; j++) {
+                    if(chars[j] >= 'A' && chars[j] <= 'Z') {
+                        chars[j] = (char)(chars[j] + ('a' - 'A'));
+                    }
+                }
+                return new String(chars);
+            }
+        }
+
+        return name;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates an expression over a rectangular grid of the complex plane in
+ * parallel.
+ *
+ * The grid is split into bands of rows that are evaluated as fork-join tasks,
+ * so idle workers steal the remaining bands. Every worker thread evaluates
+ * its bands with a BatchEvaluator, an EvaluationFrame and coordinate arrays
+ * of its own, which it creates at its first band of an evaluation and reuses
+ * for the others. The parsed expression is shared by all workers without
+ * copying, the results are written straight into the result planes.
+ *
+ * Pixel (x, y) is the centre of its cell, x grows from xMin to xMax and y
+ * grows downwards from yMax to yMin, the result for it is stored at index
+ * y * width + x of the result planes.
+ *
+ * The random numbers of fuzz are seeded per band from the seed of the
+ * evaluator and the first row of the band, so a grid gives the same result
+ * whichever worker evaluates which band.
+ */
+public class GridEvaluator {
+
+    /**
+     * the largest number of points a task evaluates without splitting
+     */
+    public static final int TILE_POINTS = 4096;
+
+    private final ForkJoinPool pool;
+    private long seed;
+
+    /**
+     * Creates an evaluator that runs on the common pool.
+     */
+    public GridEvaluator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool that evaluates the tiles
+     */
+    public GridEvaluator(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the seed of the random numbers of fuzz, the default is 0.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Evaluates an expression at every point of the grid. Other variables
+     * keep the values they were given through the tree.
+     *
+     * @param expr the expression
+     * @param var the name of the variable that takes the grid coordinates
+     * @param xMin the smallest real part
+     * @param xMax the largest real part
+     * @param yMin the smallest imaginary part
+     * @param yMax the largest imaginary part
+     * @param width the number of columns
+     * @param height the number of rows
+     * @param outRe receives the real parts of the results, width * height values
+     * @param outIm receives the imaginary parts of the results, width * height values
+     */
+    public void evaluate(ExpressionNode expr, String var, double xMin, double xMax, double yMin, double yMax, int width, int height, double[] outRe, double[] outIm) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("The grid must have at least one row and one column.");
+        }
+
+        // in long, width * height may not fit in an int
+        long points = (long)width * height;
+        if(outRe.length < points || outIm.length < points) {
+            throw new IllegalArgumentException("The result planes are smaller than the grid.");
+        }
+
+        int rowsPerTile = Math.min(Math.max(1, TILE_POINTS / width), height);
+        Grid grid = new Grid(expr, var, xMin, (xMax - xMin) / width, yMax, (yMax - yMin) / height, width, rowsPerTile * width, seed, outRe, outIm);
+
+        pool.invoke(new Tile(grid, 0, height, rowsPerTile));
+    }
+
+    /**
+     * The parameters shared by all tiles of one evaluation.
+     */
+    private static class Grid {
+
+        final ExpressionNode expr;
+        final String var;
+        final double xMin;
+        final double xStep;
+        final double yMax;
+        final double yStep;
+        final int width;
+        final int tilePoints;
+        final long seed;
+        final double[] outRe;
+        final double[] outIm;
+        /** the state of every thread that has evaluated a band */
+        final ConcurrentHashMap<Thread, Worker> workers;
+
+        Grid(ExpressionNode expr, String var, double xMin, double xStep, double yMax, double yStep, int width, int tilePoints, long seed, double[] outRe, double[] outIm) {
+            this.expr = expr;
+            this.var = var;
+            this.xMin = xMin;
+            this.xStep = xStep;
+            this.yMax = yMax;
+            this.yStep = yStep;
+            this.width = width;
+            this.tilePoints = tilePoints;
+            this.seed = seed;
+            this.outRe = outRe;
+            this.outIm = outIm;
+            workers = new ConcurrentHashMap<Thread, Worker>();
+        }
+
+        /**
+         * @return the state of the current thread, created at its first band
+         */
+        Worker worker() {
+            return workers.computeIfAbsent(Thread.currentThread(), thread -> new Worker(this));
+        }
+    }
+
+    /**
+     * What a worker thread needs to evaluate a band, the inputs hold the
+     * largest band.
+     */
+    private static class Worker {
+
+        final BatchEvaluator batch;
+        final EvaluationFrame frame;
+        final double[] re;
+        final double[] im;
+
+        Worker(Grid grid) {
+            batch = new BatchEvaluator();
+            frame = new EvaluationFrame(grid.expr);
+            re = new double[grid.tilePoints];
+            im = new double[grid.tilePoints];
+        }
+    }
+
+    /**
+     * A band of rows, split in halves until it is small enough.
+     */
+    private static class Tile extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Grid grid;
+        private final int fromRow;
+        private final int toRow;
+        private final int rowsPerTile;
+
+        Tile(Grid grid, int fromRow, int toRow, int rowsPerTile) {
+            this.grid = grid;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.rowsPerTile = rowsPerTile;
+        }
+
+        @Override
+        protected void compute() {
+            if(toRow - fromRow > rowsPerTile) {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new Tile(grid, fromRow, middle, rowsPerTile), new Tile(grid, middle, toRow, rowsPerTile));
+                return;
+            }
+
+            int width = grid.width;
+            int points = (toRow - fromRow) * width;
+            Worker worker = grid.worker();
+            double[] re = worker.re;
+            double[] im = worker.im;
+
+            for(int y = fromRow, k = 0; y < toRow; y++) {
+                double imaginary = grid.yMax - (y + 0.5) * grid.yStep;
+                for(int x = 0; x < width; x++, k++) {
+                    re[k] = grid.xMin + (x + 0.5) * grid.xStep;
+                    im[k] = imaginary;
+                }
+            }
+
+            worker.batch.setSeed(SplitMix64.mix(grid.seed + fromRow));
+            worker.batch.evaluate(worker.frame, grid.expr, grid.var, re, im, points, grid.outRe, grid.outIm, fromRow * width);
+        }
+    }
+}
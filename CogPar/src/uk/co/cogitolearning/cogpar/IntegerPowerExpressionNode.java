@@ -0,0 +1,56 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+/**
+ * base^n for a constant integer n, created by
+ * ExponentiationExpressionNode.create.
+ *
+ * The exponent subtree is kept for visitors but not evaluated. The power is
+ * taken with ExponentiationExpressionNode.integerPower, which is what the
+ * general node uses for the same exponent, so z^50 costs a few
+ * multiplications and z^-3 a reciprocal and a cube.
+ */
+public class IntegerPowerExpressionNode extends ExponentiationExpressionNode {
+
+    private final int power;
+
+    IntegerPowerExpressionNode(ExpressionNode base, ExpressionNode exponent, int power) {
+        super(base, exponent);
+        this.power = power;
+    }
+
+    /**
+     * @return the constant integer exponent
+     */
+    public int getPower() {
+        return power;
+    }
+
+    @Override
+    public Complex getValue() {
+        Complex value = new Complex(getBase().getValue());
+        integerPower(value, power);
+        return value;
+    }
+
+    @Override
+    public void evaluateInto(EvaluationFrame frame, Complex out) {
+        getBase().evaluateInto(frame, out);
+        integerPower(out, power);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with one bucket per power of two.
+ *
+ * Bucket k counts the durations d with 2^(k-1) <= d < 2^k, bucket 0 those
+ * of zero. Recording increments striped counters and takes no lock, so
+ * threads that record at the same time do not wait for each other. The
+ * counts read while other threads record are not a consistent snapshot.
+ */
+public final class LatencyHistogram {
+
+    /** the number of buckets, enough for every non-negative long */
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets;
+    private final LongAdder totalNanos;
+    private final LongAccumulator maxNanos;
+
+    /**
+     * Construct an empty histogram.
+     */
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        totalNanos = new LongAdder();
+        maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a duration, negative durations count as zero.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+        long count = 0;
+        for(LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @param bucket the index of a bucket
+     * @return the number of recorded durations in the bucket
+     */
+    public long getBucketCount(int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    /**
+     * @return the sum of the recorded durations in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return the longest recorded duration in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns an upper bound of a quantile, the end of the bucket it falls
+     * into, but at most the longest duration.
+     *
+     * @param quantile the quantile, 0.5 for the median
+     * @return the upper bound in nanoseconds, 0 if nothing was recorded
+     */
+    public long getQuantileNanos(double quantile) {
+        long count = getCount();
+        if(count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(quantile * count));
+        long seen = 0;
+
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if(seen >= rank) {
+                // (1L << 63) - 1 is Long.MAX_VALUE
+                return Math.min((1L << i) - 1, getMaxNanos());
+            }
+        }
+
+        return getMaxNanos();
+    }
+
+    /**
+     * Clears the histogram.
+     */
+    public void reset() {
+        for(LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+}
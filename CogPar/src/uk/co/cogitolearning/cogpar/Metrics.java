@@ -0,0 +1,125 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The MetricsRecorder that the parser and the evaluators report to.
+ *
+ * By default nothing is recorded and the only cost is reading the recorder
+ * before a parse or a batch evaluation and at every call of a function. The
+ * calls are counted for every tree, cached and compiled ones included, from
+ * the moment a recorder is installed. The first service provider of
+ * MetricsRecorder on the class path is installed when the class is
+ * loaded, setRecorder replaces it:
+ *
+ * <pre>
+ * MetricsRegistry registry = new MetricsRegistry();
+ * Metrics.setRecorder(registry);
+ * ...
+ * System.out.println(registry.report());
+ * </pre>
+ *
+ * Independently of the recorder, long parses and batch evaluations are
+ * reported to Java Flight Recorder as uk.co.cogitolearning.cogpar.Parse and
+ * uk.co.cogitolearning.cogpar.Evaluation events. A grid is evaluated in
+ * batches, so it gives one event per band. Evaluations of single points
+ * through getValue, evaluateInto, a CompiledExpression or the derivative
+ * evaluators are too short for an event each and are not reported.
+ */
+public final class Metrics {
+
+    /** the recorder that records nothing */
+    static final MetricsRecorder NONE = new MetricsRecorder() {
+    };
+
+    private static volatile MetricsRecorder recorder = load();
+
+    private Metrics() {
+
+    }
+
+    /**
+     * Installs a recorder for all threads.
+     *
+     * @param metricsRecorder the recorder or null to record nothing
+     */
+    public static void setRecorder(MetricsRecorder metricsRecorder) {
+        recorder = metricsRecorder != null ? metricsRecorder : NONE;
+    }
+
+    /**
+     * @return the installed recorder, null if nothing is recorded
+     */
+    public static MetricsRecorder getRecorder() {
+        MetricsRecorder current = recorder;
+        return current != NONE ? current : null;
+    }
+
+    /**
+     * @return the installed recorder, NONE if nothing is recorded
+     */
+    static MetricsRecorder recorder() {
+        return recorder;
+    }
+
+    /**
+     * Called at every call of a function by the function nodes, the compiled
+     * expressions and the derivative evaluators.
+     */
+    static void functionEvaluated(int token, int functionId) {
+        MetricsRecorder current = recorder;
+        if(current != NONE) {
+            current.functionEvaluated(token, functionId, 1);
+        }
+    }
+
+    /**
+     * Reports an exception that is thrown out of the parser, unless it has
+     * been reported on its way out already.
+     */
+    static void parserException(ParserException exception) {
+        if(!exception.reported) {
+            exception.reported = true;
+            recorder.parserException(exception);
+        }
+    }
+
+    /**
+     * Reports an exception that is thrown out of an evaluation, unless it has
+     * been reported on its way out already.
+     */
+    static void evaluationException(EvaluationException exception) {
+        if(!exception.reported) {
+            exception.reported = true;
+            recorder.evaluationException(exception);
+        }
+    }
+
+    private static MetricsRecorder load() {
+        try {
+            Iterator<MetricsRecorder> providers = ServiceLoader.load(MetricsRecorder.class).iterator();
+            return providers.hasNext() ? providers.next() : NONE;
+        }
+        catch(ServiceConfigurationError ex) {
+            return NONE;
+        }
+    }
+}
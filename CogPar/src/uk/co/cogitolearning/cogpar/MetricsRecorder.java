@@ -0,0 +1,106 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+/**
+ * Receives the measurements of the parser and the evaluators, see Metrics.
+ *
+ * The methods are called on the threads that parse and evaluate, while
+ * they work, so they have to be thread safe and should return quickly
+ * without taking locks. All methods do nothing by default.
+ *
+ * An implementation can be installed with Metrics.setRecorder, or found
+ * through java.util.ServiceLoader as a service provider of this interface.
+ * MetricsRegistry collects everything into counters and histograms.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * A string has been turned into tokens.
+     *
+     * @param nanos the time it took
+     * @param length the length of the string
+     */
+    public default void tokenized(long nanos, int length) {
+    }
+
+    /**
+     * Parser.parse has returned or thrown.
+     *
+     * @param nanos the time it took, including the tokenizer
+     * @param failed whether it threw an exception
+     */
+    public default void parsed(long nanos, boolean failed) {
+    }
+
+    /**
+     * ExpressionCache.parse found the expression.
+     */
+    public default void cacheHit() {
+    }
+
+    /**
+     * ExpressionCache.parse had to parse the expression.
+     */
+    public default void cacheMiss() {
+    }
+
+    /**
+     * A function has been applied. BatchEvaluator reports the calls of a
+     * block at once, the function nodes, compiled expressions and derivative
+     * evaluators report every call. All trees report their calls, whether
+     * they were parsed before the recorder was installed or not.
+     *
+     * @param token Token.FUNCTION or Token.FUNCTION_2ARGUMENTS
+     * @param functionId the id of the function
+     * @param calls the number of calls
+     */
+    public default void functionEvaluated(int token, int functionId, int calls) {
+    }
+
+    /**
+     * BatchEvaluator has evaluated an expression at a number of points.
+     *
+     * @param nanos the time it took
+     * @param points the number of points
+     */
+    public default void evaluated(long nanos, int points) {
+    }
+
+    /**
+     * A ParserException has been thrown out of Parser.parse,
+     * ExpressionCache.parse or Tokenizer.getTokens. Each exception is reported
+     * once.
+     *
+     * @param exception the exception
+     */
+    public default void parserException(ParserException exception) {
+    }
+
+    /**
+     * An EvaluationException has been thrown out of an evaluation. A variable
+     * that has no value is reported where it is read, nothing catches the
+     * exception on its way to the caller. Other exceptions are reported when
+     * they leave BatchEvaluator, GridEvaluator, DualEvaluator, TaylorEvaluator
+     * or ExpressionCompiler. Each exception is reported once, exceptions that
+     * are caught inside CogPar are not reported.
+     *
+     * @param exception the exception
+     */
+    public default void evaluationException(EvaluationException exception) {
+    }
+}
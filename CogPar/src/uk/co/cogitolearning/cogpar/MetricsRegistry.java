@@ -0,0 +1,266 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A MetricsRecorder that keeps counters and latency histograms.
+ *
+ * Everything is recorded into striped counters, LongAdder and
+ * LatencyHistogram, so recording takes no lock and threads that parse or
+ * evaluate at the same time do not contend. The counters of the functions
+ * are grown under a lock when a function with a new id is first counted.
+ */
+public class MetricsRegistry implements MetricsRecorder {
+
+    private final LatencyHistogram tokenizeLatency;
+    private final LatencyHistogram parseLatency;
+    private final LatencyHistogram evaluationLatency;
+    private final LongAdder parseFailures;
+    private final LongAdder evaluatedPoints;
+    private final LongAdder cacheHits;
+    private final LongAdder cacheMisses;
+    private final LongAdder parserExceptions;
+    private final LongAdder evaluationExceptions;
+
+    /** the calls of the one and two argument functions by id, replaced as a whole when grown */
+    private volatile LongAdder[] functionCalls;
+    private volatile LongAdder[] function2Calls;
+
+    /**
+     * Construct a registry with all counters at zero.
+     */
+    public MetricsRegistry() {
+        tokenizeLatency = new LatencyHistogram();
+        parseLatency = new LatencyHistogram();
+        evaluationLatency = new LatencyHistogram();
+        parseFailures = new LongAdder();
+        evaluatedPoints = new LongAdder();
+        cacheHits = new LongAdder();
+        cacheMisses = new LongAdder();
+        parserExceptions = new LongAdder();
+        evaluationExceptions = new LongAdder();
+        functionCalls = new LongAdder[0];
+        function2Calls = new LongAdder[0];
+    }
+
+    @Override
+    public void tokenized(long nanos, int length) {
+        tokenizeLatency.record(nanos);
+    }
+
+    @Override
+    public void parsed(long nanos, boolean failed) {
+        parseLatency.record(nanos);
+        if(failed) {
+            parseFailures.increment();
+        }
+    }
+
+    @Override
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void functionEvaluated(int token, int functionId, int calls) {
+        LongAdder[] counters = token == Token.FUNCTION ? functionCalls : function2Calls;
+
+        if(functionId >= counters.length || counters[functionId] == null) {
+            counters = grow(token, functionId);
+        }
+
+        counters[functionId].add(calls);
+    }
+
+    private synchronized LongAdder[] grow(int token, int functionId) {
+        LongAdder[] calls = token == Token.FUNCTION ? functionCalls : function2Calls;
+
+        if(functionId < calls.length && calls[functionId] != null) {
+            return calls;
+        }
+
+        LongAdder[] grown = Arrays.copyOf(calls, Math.max(calls.length, functionId + 1));
+        for(int i = 0; i < grown.length; i++) {
+            if(grown[i] == null) {
+                grown[i] = new LongAdder();
+            }
+        }
+
+        if(token == Token.FUNCTION) {
+            functionCalls = grown;
+        }
+        else {
+            function2Calls = grown;
+        }
+
+        return grown;
+    }
+
+    @Override
+    public void evaluated(long nanos, int points) {
+        evaluationLatency.record(nanos);
+        evaluatedPoints.add(points);
+    }
+
+    @Override
+    public void parserException(ParserException exception) {
+        parserExceptions.increment();
+    }
+
+    @Override
+    public void evaluationException(EvaluationException exception) {
+        evaluationExceptions.increment();
+    }
+
+    /**
+     * @return the durations of Tokenizer.getTokens
+     */
+    public LatencyHistogram getTokenizeLatency() {
+        return tokenizeLatency;
+    }
+
+    /**
+     * @return the durations of Parser.parse, successful or not
+     */
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    /**
+     * @return the durations of the calls of BatchEvaluator.evaluate
+     */
+    public LatencyHistogram getEvaluationLatency() {
+        return evaluationLatency;
+    }
+
+    /**
+     * @return the number of calls of Parser.parse that threw an exception
+     */
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    /**
+     * @return the number of points evaluated by BatchEvaluator
+     */
+    public long getEvaluatedPoints() {
+        return evaluatedPoints.sum();
+    }
+
+    /**
+     * @return the number of expressions ExpressionCache found
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return the number of expressions ExpressionCache had to parse
+     */
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return the number of ParserExceptions thrown
+     */
+    public long getParserExceptions() {
+        return parserExceptions.sum();
+    }
+
+    /**
+     * @return the number of EvaluationExceptions thrown
+     */
+    public long getEvaluationExceptions() {
+        return evaluationExceptions.sum();
+    }
+
+    /**
+     * @param token Token.FUNCTION or Token.FUNCTION_2ARGUMENTS
+     * @param functionId the id of the function
+     * @return the number of calls of the function counted so far
+     */
+    public long getFunctionCalls(int token, int functionId) {
+        LongAdder[] calls = token == Token.FUNCTION ? functionCalls : function2Calls;
+        return functionId >= 0 && functionId < calls.length && calls[functionId] != null ? calls[functionId].sum() : 0;
+    }
+
+    /**
+     * Sets all counters back to zero.
+     */
+    public synchronized void reset() {
+        tokenizeLatency.reset();
+        parseLatency.reset();
+        evaluationLatency.reset();
+        parseFailures.reset();
+        evaluatedPoints.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        parserExceptions.reset();
+        evaluationExceptions.reset();
+        for(LongAdder calls : functionCalls) {
+            calls.reset();
+        }
+        for(LongAdder calls : function2Calls) {
+            calls.reset();
+        }
+    }
+
+    /**
+     * @return the counters, the median, 99th percentile and longest
+     * durations, and the calls of every function that was called, one per
+     * line
+     */
+    public String report() {
+        StringBuilder out = new StringBuilder();
+
+        latency(out, "tokenize", tokenizeLatency);
+        latency(out, "parse", parseLatency);
+        latency(out, "evaluate", evaluationLatency);
+        out.append(String.format(Locale.ROOT, "parse failures %d, evaluated points %d, cache hits %d, cache misses %d%n",
+                getParseFailures(), getEvaluatedPoints(), getCacheHits(), getCacheMisses()));
+        out.append(String.format(Locale.ROOT, "ParserExceptions %d, EvaluationExceptions %d%n", getParserExceptions(), getEvaluationExceptions()));
+
+        functions(out, Token.FUNCTION, functionCalls);
+        functions(out, Token.FUNCTION_2ARGUMENTS, function2Calls);
+
+        return out.toString();
+    }
+
+    private static void latency(StringBuilder out, String name, LatencyHistogram histogram) {
+        out.append(String.format(Locale.ROOT, "%-8s %10d calls, median <= %d ns, p99 <= %d ns, max %d ns%n",
+                name, histogram.getCount(), histogram.getQuantileNanos(0.5), histogram.getQuantileNanos(0.99), histogram.getMaxNanos()));
+    }
+
+    private static void functions(StringBuilder out, int token, LongAdder[] calls) {
+        for(int id = 0; id < calls.length; id++) {
+            long count = calls[id].sum();
+            if(count > 0) {
+                out.append(String.format(Locale.ROOT, "%-8s %10d calls%n", FunctionRegistry.name(token, id), count));
+            }
+        }
+    }
+}
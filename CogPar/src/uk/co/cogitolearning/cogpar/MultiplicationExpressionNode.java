@@ -82,6 +82,31 @@ public class MultiplicationExpressionNode extends SequenceExpressionNode
     return prod;
   }
 
+  /**
+   * Evaluates the factors one after the other into a scratch register and
+   * multiplies or divides out by them.
+   */
+  public void evaluateInto(EvaluationFrame frame, Complex out)
+  {
+    Complex value = frame.acquire();
+    out.assign(1.0);
+    for (int i = 0; i < terms.size(); i++)
+    {
+      Term t = terms.get(i);
+      t.expression.evaluateInto(frame, value);
+      if (t.mode == MULT)
+        out.times_mutable(value);
+      else if(t.mode == DIV)
+        out.divide_mutable(value);
+      else
+      {
+        out.remainder_mutable(value, frame.acquire());
+        frame.release(1);
+      }
+    }
+    frame.release(1);
+  }
+
   /**
    * Implementation of the visitor design pattern.
    * 
@@ -0,0 +1,236 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Simplifies a parsed expression without changing its value.
+ *
+ * Only rewrites that give bit-identical results for every value of the
+ * variables are applied, including infinities, NaN and the sign of zero:
+ *
+ * - subtrees without variables are evaluated once and replaced by a constant,
+ *   except for fuzz, which is random
+ * - a sum that is the first, added term of another sum is merged into it
+ * - sums of a single term, such as the negations the parser creates for
+ *   --z, are merged into the enclosing sum with the combined sign
+ * - zero terms of sums and leading factors of one in products are dropped
+ * - z^1 is replaced by z, integer powers are exact and one leaves the base
+ *   unchanged
+ *
+ * Products nested in products and factors of one after the first are kept,
+ * because multiplying by (1, 0) can flip the sign of a zero or turn an
+ * infinite part into NaN. Derivative nodes are kept as they are. The
+ * derivative of a rewritten argument can differ at singular points, as for
+ * f'''(z^-0, z) at z = 0.
+ *
+ * The variable and derivative nodes are shared with the original tree,
+ * handles taken from either tree refer to the same variables. Shared
+ * subexpressions of a DAG are expanded into copies.
+ */
+public class Optimizer {
+
+    private IdentityHashMap<ExpressionNode, Boolean> constants;
+
+    /**
+     * Returns a simplified copy of an expression.
+     *
+     * @param expression the root of the expression tree
+     * @return the root of the simplified tree
+     */
+    public ExpressionNode optimize(ExpressionNode expression) {
+        constants = new IdentityHashMap<ExpressionNode, Boolean>();
+
+        try {
+            return rewrite(expression);
+        }
+        finally {
+            constants = null;
+        }
+    }
+
+    private ExpressionNode rewrite(ExpressionNode node) {
+        int type = node.getType();
+
+        if(type != ExpressionNode.REAL_CONSTANT_NODE && type != ExpressionNode.IMAGINARY_CONSTANT_NODE && isConstant(node)) {
+            try {
+                return new RealConstantExpressionNode(new Complex(node.getValue()));
+            }
+            catch(EvaluationException ex) {
+                // keep the subtree, the error is reported when it is evaluated
+            }
+        }
+
+        switch(type) {
+            case ExpressionNode.ADDITION_NODE:
+                return addition((AdditionExpressionNode)node);
+            case ExpressionNode.MULTIPLICATION_NODE:
+                return multiplication((MultiplicationExpressionNode)node);
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                ExpressionNode base = rewrite(power.getBase());
+                ExponentiationExpressionNode result = ExponentiationExpressionNode.create(base, rewrite(power.getExponent()));
+                if(result instanceof IntegerPowerExpressionNode && ((IntegerPowerExpressionNode)result).getPower() == 1) {
+                    return base;
+                }
+                return result;
+            }
+            case ExpressionNode.FUNCTION_NODE: {
+                FunctionExpressionNode function = (FunctionExpressionNode)node;
+                return FunctionExpressionNode.create(function.getFunctionId(), rewrite(function.getArgument()));
+            }
+            case ExpressionNode.FUNCTION_2_ARG_NODE: {
+                Function2ArgumentsExpressionNode function = (Function2ArgumentsExpressionNode)node;
+                return Function2ArgumentsExpressionNode.create(function.getFunctionId(), rewrite(function.getArgument()), rewrite(function.getArgument2()));
+            }
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE:
+                // differentiating the rewritten argument would give another derivative
+                return node;
+            case ExpressionNode.SHARED_NODE:
+                return rewrite(((SharedExpressionNode)node).getExpression());
+            default:
+                return node;
+        }
+    }
+
+    /*
+     * A sum starts at +0 and only adds or subtracts, so it can never become -0.
+     * Adding or subtracting a zero of either sign leaves it unchanged, and
+     * 0 + x, 0 - x differ from x, -x only in the sign of a zero. The first
+     * added term of a sum is 0 + t, which the nested sum already computed
+     * from 0 in the same order.
+     */
+    private ExpressionNode addition(AdditionExpressionNode node) {
+        AdditionExpressionNode sum = new AdditionExpressionNode();
+
+        for(SequenceExpressionNode.Term term : node.getTerms()) {
+            int mode = term.mode;
+            ExpressionNode expression = rewrite(term.expression);
+
+            while(expression.getType() == ExpressionNode.ADDITION_NODE && ((AdditionExpressionNode)expression).getTerms().size() == 1) {
+                SequenceExpressionNode.Term inner = ((AdditionExpressionNode)expression).getTerms().get(0);
+                mode = mode == inner.mode ? AdditionExpressionNode.ADD : AdditionExpressionNode.SUB;
+                expression = inner.expression;
+            }
+
+            if(isConstantEqualTo(expression, 0)) {
+                continue;
+            }
+
+            if(expression.getType() == ExpressionNode.ADDITION_NODE && mode == AdditionExpressionNode.ADD && sum.getTerms().isEmpty()) {
+                for(SequenceExpressionNode.Term inner : ((AdditionExpressionNode)expression).getTerms()) {
+                    sum.add(inner.expression, inner.mode);
+                }
+                continue;
+            }
+
+            sum.add(expression, mode);
+        }
+
+        if(sum.getTerms().isEmpty()) {
+            return new RealConstantExpressionNode(new Complex());
+        }
+
+        return sum;
+    }
+
+    /*
+     * A product starts at (1, 0), multiplying or dividing that by a one of
+     * either zero sign gives exactly (1, 0) again.
+     */
+    private ExpressionNode multiplication(MultiplicationExpressionNode node) {
+        MultiplicationExpressionNode product = new MultiplicationExpressionNode();
+
+        for(SequenceExpressionNode.Term term : node.getTerms()) {
+            ExpressionNode expression = rewrite(term.expression);
+
+            if(product.getTerms().isEmpty() && term.mode != MultiplicationExpressionNode.REM && isConstantEqualTo(expression, 1)) {
+                continue;
+            }
+
+            product.add(expression, term.mode);
+        }
+
+        if(product.getTerms().isEmpty()) {
+            return new RealConstantExpressionNode(1.0);
+        }
+
+        return product;
+    }
+
+    private static boolean isConstantEqualTo(ExpressionNode node, double re) {
+        if(node.getType() != ExpressionNode.REAL_CONSTANT_NODE && node.getType() != ExpressionNode.IMAGINARY_CONSTANT_NODE) {
+            return false;
+        }
+
+        Complex value = node.getValue();
+        return value.getRe() == re && value.getIm() == 0;
+    }
+
+    /**
+     * @return true if the value of the subtree does not depend on variables or
+     * random numbers
+     */
+    private boolean isConstant(ExpressionNode node) {
+        Boolean known = constants.get(node);
+        if(known != null) {
+            return known;
+        }
+
+        boolean constant;
+
+        switch(node.getType()) {
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+                constant = true;
+                break;
+            case ExpressionNode.ADDITION_NODE:
+            case ExpressionNode.MULTIPLICATION_NODE:
+                constant = true;
+                ArrayList<SequenceExpressionNode.Term> terms = ((SequenceExpressionNode)node).getTerms();
+                for(int i = 0; i < terms.size() && constant; i++) {
+                    constant = isConstant(terms.get(i).expression);
+                }
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                constant = isConstant(power.getBase()) && isConstant(power.getExponent());
+                break;
+            }
+            case ExpressionNode.FUNCTION_NODE:
+                constant = isConstant(((FunctionExpressionNode)node).getArgument());
+                break;
+            case ExpressionNode.FUNCTION_2_ARG_NODE: {
+                Function2ArgumentsExpressionNode function = (Function2ArgumentsExpressionNode)node;
+                constant = function.getFunctionId() != Function2ArgumentsExpressionNode.FUZZ
+                        && isConstant(function.getArgument()) && isConstant(function.getArgument2());
+                break;
+            }
+            case ExpressionNode.SHARED_NODE:
+                constant = isConstant(((SharedExpressionNode)node).getExpression());
+                break;
+            default:
+                constant = false;
+                break;
+        }
+
+        constants.put(node, constant);
+        return constant;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Java Flight Recorder event for a call of Parser.parse that took longer
+ * than the threshold, 10 ms unless the recording sets another one.
+ */
+@Name("uk.co.cogitolearning.cogpar.Parse")
+@Label("Parse")
+@Category("CogPar")
+@Description("A long parse of an expression")
+@Threshold("10 ms")
+@StackTrace(false)
+final class ParseEvent extends Event {
+
+    @Label("Expression")
+    String expression;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -47,8 +47,8 @@
  */
 package uk.co.cogitolearning.cogpar;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
-import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
 
 /**
@@ -56,19 +56,37 @@ import java.util.StringTokenizer;
  * parse() which takes a string and returns an ExpressionNode that holds a
  * representation of the expression.
  *
- * Parsing is implemented in the form of a recursive descent parser.
+ * Parsing is implemented in the form of a recursive descent parser. Sums,
+ * products, chains of powers and runs of signs are read in loops, so the
+ * depth of the recursion only grows with the nesting of brackets and
+ * function arguments.
  *
+ * A Parser may be used by several threads at once, every call of parse
+ * works on a state of its own.
  */
 public class Parser {
 
+    /**
+     * the token that follows the last one
+     */
+    private static final Token END = new Token(Token.EPSILON, "", -1);
+
     /**
      * the tokens to parse
      */
-    LinkedList<Token> tokens;
+    Token[] tokens;
+    /**
+     * the index of the next token
+     */
+    int position;
     /**
      * the next token
      */
     Token lookahead;
+    /**
+     * the variables of the expression that is being parsed
+     */
+    VariableTable variables;
 
     /**
      * Parse a mathematical expression in a string and return an ExpressionNode.
@@ -82,10 +100,7 @@ public class Parser {
      * expression tree made out of ExpressionNode objects
      */
     public ExpressionNode parse(String expression) {
-        Tokenizer tokenizer = Tokenizer.getExpressionTokenizer();
-        tokenizer.tokenize(expression);
-        LinkedList<Token> tokens = tokenizer.getTokens();
-        return this.parse(tokens);
+        return parse(expression, null);
     }
 
     /**
@@ -97,15 +112,61 @@ public class Parser {
      * expression tree made out of ExpressionNode objects
      */
     public ExpressionNode parse(LinkedList<Token> tokens) {
-        // implementing a recursive descent parser
-        this.tokens = (LinkedList<Token>)tokens.clone();
+        return parse(null, tokens);
+    }
+
+    /**
+     * Tokenizes the expression unless the tokens are given and parses them.
+     * The parse is reported to the MetricsRecorder, if one is installed, and
+     * to Java Flight Recorder if it takes long.
+     */
+    private ExpressionNode parse(String expression, LinkedList<Token> tokens) {
+        MetricsRecorder recorder = Metrics.recorder();
+        long start = recorder != Metrics.NONE ? System.nanoTime() : 0;
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        boolean failed = true;
 
         try {
-            lookahead = this.tokens.getFirst();
+            if(tokens == null) {
+                tokens = Tokenizer.getExpressionTokenizer().getTokens(expression);
+            }
+            ExpressionNode expr = new Parser().descend(tokens.toArray(new Token[tokens.size()]));
+            failed = false;
+            return expr;
+        }
+        catch(ParserException ex) {
+            Metrics.parserException(ex);
+            throw ex;
+        }
+        finally {
+            if(recorder != Metrics.NONE) {
+                recorder.parsed(System.nanoTime() - start, failed);
+            }
+
+            event.end();
+            if(event.shouldCommit()) {
+                event.expression = expression;
+                event.tokens = tokens != null ? tokens.size() : 0;
+                event.failed = failed;
+                event.commit();
+            }
         }
-        catch(NoSuchElementException ex) {
+    }
+
+    /**
+     * Runs the descent on a parser that belongs to the calling thread alone.
+     */
+    private ExpressionNode descend(Token[] tokens) {
+        // implementing a recursive descent parser
+        this.tokens = tokens;
+        position = 0;
+        variables = new VariableTable();
+
+        if(tokens.length == 0) {
             throw new ParserException("No input found.");
         }
+        lookahead = tokens[0];
 
         // top level non-terminal is expression
         ExpressionNode expr = expression();
@@ -123,37 +184,24 @@ public class Parser {
     private ExpressionNode expression() {
         // only one rule
         // expression -> signed_term sum_op
+        // sum_op -> PLUSMINUS signed_term sum_op | EPSILON
+        // the terms are added to one sum in a loop, so long sums do not
+        // use up the stack
         ExpressionNode expr = signedTerm();
-        expr = sumOp(expr);
-        return expr;
-    }
 
-    /**
-     * handles the non-terminal sum_op
-     */
-    private ExpressionNode sumOp(ExpressionNode expr) {
-        // sum_op -> PLUSMINUS signed_term sum_op
-        if(lookahead.token == Token.PLUSMINUS) {
-            AdditionExpressionNode sum;
+        while(lookahead.token == Token.PLUSMINUS) {
             // This means we are actually dealing with a sum
             // If expr is not already a sum, we have to create one
-            if(expr.getType() == ExpressionNode.ADDITION_NODE) {
-                sum = (AdditionExpressionNode)expr;
-            }
-            else {
-                sum = new AdditionExpressionNode(expr, AdditionExpressionNode.ADD);
+            if(expr.getType() != ExpressionNode.ADDITION_NODE) {
+                expr = new AdditionExpressionNode(expr, AdditionExpressionNode.ADD);
             }
 
-            // reduce the input and recursively call sum_op
             int mode = lookahead.sequence.equals("+") ? AdditionExpressionNode.ADD : AdditionExpressionNode.SUB;
             nextToken();
             ExpressionNode t = signedTerm();
-            sum.add(t, mode);
-
-            return sumOp(sum);
+            ((AdditionExpressionNode)expr).add(t, mode);
         }
 
-        // sum_op -> EPSILON
         return expr;
     }
 
@@ -162,20 +210,9 @@ public class Parser {
      */
     private ExpressionNode signedTerm() {
         // signed_term -> PLUSMINUS signed_term
-        if(lookahead.token == Token.PLUSMINUS) {
-            int mode = lookahead.sequence.equals("+") ? AdditionExpressionNode.ADD : AdditionExpressionNode.SUB;
-            nextToken();
-            ExpressionNode t = signedTerm();
-            if(mode == AdditionExpressionNode.ADD) {
-                return t;
-            }
-            else {
-                return new AdditionExpressionNode(t, AdditionExpressionNode.SUB);
-            }
-        }
-
         // signed_term -> term
-        return term();
+        int negations = signs();
+        return negate(term(), negations);
     }
 
     /**
@@ -183,28 +220,16 @@ public class Parser {
      */
     private ExpressionNode term() {
         // term -> factor term_op
-        ExpressionNode f = factor();
-        return termOp(f);
-    }
-
-    /**
-     * handles the non-terminal term_op
-     */
-    private ExpressionNode termOp(ExpressionNode expression) {
-        // term_op -> MULTDIV signed_factor term_op
-        if(lookahead.token == Token.MULTDIVREM) {
-            MultiplicationExpressionNode prod;
+        // term_op -> MULTDIV signed_factor term_op | EPSILON
+        ExpressionNode expression = factor();
 
+        while(lookahead.token == Token.MULTDIVREM) {
             // This means we are actually dealing with a product
             // If expr is not already a product, we have to create one
-            if(expression.getType() == ExpressionNode.MULTIPLICATION_NODE) {
-                prod = (MultiplicationExpressionNode)expression;
-            }
-            else {
-                prod = new MultiplicationExpressionNode(expression, MultiplicationExpressionNode.MULT);
+            if(expression.getType() != ExpressionNode.MULTIPLICATION_NODE) {
+                expression = new MultiplicationExpressionNode(expression, MultiplicationExpressionNode.MULT);
             }
 
-            // reduce the input and recursively call sum_op
             int mode;
 
             if(lookahead.sequence.equals("*")) {
@@ -218,12 +243,9 @@ public class Parser {
             }
             nextToken();
             ExpressionNode f = signedFactor();
-            prod.add(f, mode);
-
-            return termOp(prod);
+            ((MultiplicationExpressionNode)expression).add(f, mode);
         }
 
-        // term_op -> EPSILON
         return expression;
     }
 
@@ -232,20 +254,9 @@ public class Parser {
      */
     private ExpressionNode signedFactor() {
         // signed_factor -> PLUSMINUS signed_factor
-        if(lookahead.token == Token.PLUSMINUS) {
-            int mode = lookahead.sequence.equals("+") ? AdditionExpressionNode.ADD : AdditionExpressionNode.SUB;
-            nextToken();
-            ExpressionNode t = signedFactor();
-            if(mode == AdditionExpressionNode.ADD) {
-                return t;
-            }
-            else {
-                return new AdditionExpressionNode(t, AdditionExpressionNode.SUB);
-            }
-        }
-
         // signed_factor -> factor
-        return factor();
+        int negations = signs();
+        return negate(factor(), negations);
     }
 
     /**
@@ -253,23 +264,60 @@ public class Parser {
      */
     private ExpressionNode factor() {
         // factor -> argument factor_op
+        // factor_op -> RAISED signed_factor | EPSILON
         ExpressionNode a = argument();
-        return factorOp(a);
+
+        if(lookahead.token != Token.RAISED) {
+            return a;
+        }
+
+        // a ^ -b ^ c is right-associative, the chain is read first and the
+        // powers are built from the right
+        ArrayList<ExpressionNode> bases = new ArrayList<ExpressionNode>();
+        ArrayList<Integer> negations = new ArrayList<Integer>();
+        bases.add(a);
+
+        while(lookahead.token == Token.RAISED) {
+            nextToken();
+            negations.add(signs());
+            bases.add(argument());
+        }
+
+        ExpressionNode expr = bases.get(bases.size() - 1);
+        for(int i = bases.size() - 2; i >= 0; i--) {
+            expr = ExponentiationExpressionNode.create(bases.get(i), negate(expr, negations.get(i)));
+        }
+
+        return expr;
     }
 
     /**
-     * handles the non-terminal factor_op
+     * Reads the signs in front of a signed term or factor.
+     *
+     * @return the number of minus signs
      */
-    private ExpressionNode factorOp(ExpressionNode expr) {
-        // factor_op -> RAISED signed_factor
-        if(lookahead.token == Token.RAISED) {
+    private int signs() {
+        int negations = 0;
+
+        while(lookahead.token == Token.PLUSMINUS) {
+            if(!lookahead.sequence.equals("+")) {
+                negations++;
+            }
             nextToken();
-            ExpressionNode exponent = signedFactor();
+        }
 
-            return new ExponentiationExpressionNode(expr, exponent);
+        return negations;
+    }
+
+    /**
+     * Wraps an expression into one negation per minus sign, a plus sign
+     * leaves it unchanged.
+     */
+    private static ExpressionNode negate(ExpressionNode expr, int negations) {
+        for(int i = 0; i < negations; i++) {
+            expr = new AdditionExpressionNode(expr, AdditionExpressionNode.SUB);
         }
 
-        // factor_op -> EPSILON
         return expr;
     }
 
@@ -279,23 +327,23 @@ public class Parser {
     private ExpressionNode argument() {
         // argument -> FUNCTION function_argument
         if(lookahead.token == Token.FUNCTION) {
-            int function = FunctionExpressionNode.stringToFunction(lookahead.sequence);
+            int function = FunctionRegistry.id(lookahead.sequence, Token.FUNCTION);
 
             nextToken();
             ExpressionNode expr = functionArgument();
-            return new FunctionExpressionNode(function, expr);
+            return FunctionExpressionNode.create(function, expr);
         }
         // argument -> FUNCTION_2ARG function_argument2
         else if(lookahead.token == Token.FUNCTION_2ARGUMENTS) {
-            int function = Function2ArgumentsExpressionNode.stringToFunction(lookahead.sequence);
+            int function = FunctionRegistry.id(lookahead.sequence, Token.FUNCTION_2ARGUMENTS);
 
             nextToken();
             ExpressionNode expr[] = functionArgument2();
-            return new Function2ArgumentsExpressionNode(function, expr[0], expr[1]);
+            return Function2ArgumentsExpressionNode.create(function, expr[0], expr[1]);
         }
         // argument -> FUNCTION_DERIVATIVE_2_ARG function_argument2
         else if(lookahead.token == Token.FUNCTION_DERIVATIVE_2ARGUMENTS) {
-            int function = FunctionDerivative2ArgumentsExpressionNode.stringToFunction(lookahead.sequence);
+            int function = FunctionRegistry.id(lookahead.sequence, Token.FUNCTION_DERIVATIVE_2ARGUMENTS);
 
             nextToken();
             ExpressionNode expr[] = functionArgument2();
@@ -407,7 +455,7 @@ public class Parser {
                 return expr;
             }
             
-            ExpressionNode expr = new VariableExpressionNode(lookahead.sequence);
+            ExpressionNode expr = new VariableExpressionNode(variables.intern(lookahead.sequence));
             
             nextToken();
             return expr;
@@ -422,17 +470,16 @@ public class Parser {
     }
 
     /**
-     * Remove the first token from the list and store the next token in
-     * lookahead
+     * Advance to the next token and store it in lookahead
      */
     private void nextToken() {
-        tokens.pop();
+        position++;
         // at the end of input we return an epsilon token
-        if(tokens.isEmpty()) {
-            lookahead = new Token(Token.EPSILON, "", -1);
+        if(position >= tokens.length) {
+            lookahead = END;
         }
         else {
-            lookahead = tokens.getFirst();
+            lookahead = tokens[position];
         }
     }
 
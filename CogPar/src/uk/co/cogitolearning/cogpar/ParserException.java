@@ -37,6 +37,9 @@ public class ParserException extends RuntimeException
   /** the token that caused the error */
   private Token token = null;
 
+  /** whether the exception has been reported to Metrics */
+  transient boolean reported;
+
   /**
    * Construct the evaluation exception with a message.
    * @param message the message containing the cause of the exception
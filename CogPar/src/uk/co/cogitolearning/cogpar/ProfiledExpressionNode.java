@@ -0,0 +1,209 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A node of an expression instrumented by ExpressionProfiler.
+ *
+ * It evaluates its subexpression and counts the calls, the time spent in
+ * them and the results that are NaN or infinite. The time spent in the
+ * profiled nodes below is kept apart, so the self time of a node is what
+ * its own work took. Several threads may evaluate the same instrumented
+ * tree.
+ *
+ * Visitors are passed on to the subexpression, so they see the nodes of the
+ * original tree.
+ */
+public class ProfiledExpressionNode implements ExpressionNode {
+
+    /**
+     * the time spent in profiled nodes below the node that the calling thread
+     * is evaluating
+     */
+    private static final ThreadLocal<long[]> CHILD_NANOS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final ExpressionNode expression;
+
+    private final LongAdder calls;
+    private final LongAdder nanos;
+    private final LongAdder childNanos;
+    private final LongAdder nanResults;
+    private final LongAdder infiniteResults;
+
+    /**
+     * Construct a profiled node.
+     *
+     * @param expression the subexpression to evaluate, its own children
+     * should already be profiled
+     */
+    public ProfiledExpressionNode(ExpressionNode expression) {
+        this.expression = expression;
+        calls = new LongAdder();
+        nanos = new LongAdder();
+        childNanos = new LongAdder();
+        nanResults = new LongAdder();
+        infiniteResults = new LongAdder();
+    }
+
+    /**
+     * @return the profiled subexpression
+     */
+    public ExpressionNode getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the number of evaluations
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return the time spent in the evaluations in nanoseconds, including the
+     * nodes below
+     */
+    public long getTotalNanos() {
+        return nanos.sum();
+    }
+
+    /**
+     * @return the time spent in the evaluations in nanoseconds, excluding the
+     * profiled nodes below
+     */
+    public long getSelfNanos() {
+        return nanos.sum() - childNanos.sum();
+    }
+
+    /**
+     * @return the number of evaluations that gave NaN
+     */
+    public long getNaNCount() {
+        return nanResults.sum();
+    }
+
+    /**
+     * @return the number of evaluations that gave an infinite value
+     */
+    public long getInfiniteCount() {
+        return infiniteResults.sum();
+    }
+
+    /**
+     * Clears the counters.
+     */
+    public void reset() {
+        calls.reset();
+        nanos.reset();
+        childNanos.reset();
+        nanResults.reset();
+        infiniteResults.reset();
+    }
+
+    /**
+     * Returns the type of the node, in this case ExpressionNode.PROFILED_NODE
+     */
+    @Override
+    public int getType() {
+        return ExpressionNode.PROFILED_NODE;
+    }
+
+    /**
+     * Evaluates the subexpression and records the call.
+     */
+    @Override
+    public Complex getValue() {
+
+        long[] clock = CHILD_NANOS.get();
+        long outer = clock[0];
+        clock[0] = 0;
+        long start = System.nanoTime();
+        Complex value = null;
+
+        try {
+            value = expression.getValue();
+            return value;
+        }
+        finally {
+            record(clock, outer, start, value);
+        }
+
+    }
+
+    /**
+     * Evaluates the subexpression into out and records the call.
+     */
+    @Override
+    public void evaluateInto(EvaluationFrame frame, Complex out) {
+
+        long[] clock = CHILD_NANOS.get();
+        long outer = clock[0];
+        clock[0] = 0;
+        long start = System.nanoTime();
+        boolean done = false;
+
+        try {
+            expression.evaluateInto(frame, out);
+            done = true;
+        }
+        finally {
+            record(clock, outer, start, done ? out : null);
+        }
+
+    }
+
+    /*
+     * Adds the call to the counters and its time to the node that is
+     * evaluating this one
+     */
+    private void record(long[] clock, long outer, long start, Complex value) {
+        long elapsed = System.nanoTime() - start;
+
+        calls.increment();
+        nanos.add(elapsed);
+        childNanos.add(clock[0]);
+        clock[0] = outer + elapsed;
+
+        if(value != null) {
+            if(value.isNaN()) {
+                nanResults.increment();
+            }
+            else if(value.isInfinite()) {
+                infiniteResults.increment();
+            }
+        }
+    }
+
+    /**
+     * Implementation of the visitor design pattern.
+     *
+     * Passes the visitor on to the accept method of the subexpression.
+     *
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ExpressionNodeVisitor visitor) {
+        expression.accept(visitor);
+    }
+}
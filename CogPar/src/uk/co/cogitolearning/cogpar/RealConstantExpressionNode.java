@@ -69,6 +69,14 @@ public class RealConstantExpressionNode implements ExpressionNode
     return new Complex(value);
   }
 
+  /**
+   * Copies the value of the constant into out
+   */
+  public void evaluateInto(EvaluationFrame frame, Complex out)
+  {
+    out.assign(value);
+  }
+
   /**
    * Returns the type of the node, in this case ExpressionNode.CONSTANT_NODE
    */
@@ -0,0 +1,55 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+/**
+ * base^p for a constant real p that is not an integer, created by
+ * ExponentiationExpressionNode.create.
+ *
+ * The exponent subtree is kept for visitors but not evaluated. The power is
+ * taken with ExponentiationExpressionNode.realPower, sqrt for 0.5 and the
+ * polar form of pow otherwise, as the general node does.
+ */
+public class RealPowerExpressionNode extends ExponentiationExpressionNode {
+
+    private final double power;
+
+    RealPowerExpressionNode(ExpressionNode base, ExpressionNode exponent, double power) {
+        super(base, exponent);
+        this.power = power;
+    }
+
+    /**
+     * @return the constant real exponent
+     */
+    public double getPower() {
+        return power;
+    }
+
+    @Override
+    public Complex getValue() {
+        Complex value = new Complex(getBase().getValue());
+        realPower(value, power);
+        return value;
+    }
+
+    @Override
+    public void evaluateInto(EvaluationFrame frame, Complex out) {
+        getBase().evaluateInto(frame, out);
+        realPower(out, power);
+    }
+}
@@ -95,4 +95,13 @@ public abstract class SequenceExpressionNode implements ExpressionNode
     this.terms.add(new Term(mode, node));
   }
 
+  /**
+   * Get the terms of the sequence.
+   * @return the list of terms in the order they are applied
+   */
+  public ArrayList<Term> getTerms()
+  {
+    return terms;
+  }
+
 }
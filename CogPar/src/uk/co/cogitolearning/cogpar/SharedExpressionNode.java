@@ -0,0 +1,154 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+
+/**
+ * A subexpression that occurs several times in an expression, see
+ * CommonSubexpressionEliminator.
+ *
+ * All occurrences refer to the same node, which evaluates its subexpression
+ * once and hands out the remembered value until a variable changes. getValue
+ * keeps the value in the node and compares the versions of the variables the
+ * subexpression depends on, evaluateInto keeps it in the EvaluationFrame.
+ *
+ * Visitors are passed on to the subexpression, so they see the nodes of the
+ * original tree and visit a shared subexpression once per occurrence.
+ */
+public class SharedExpressionNode implements ExpressionNode {
+
+    private final ExpressionNode expression;
+    private final int index;
+
+    /**
+     * the variables of the subexpression and their versions when the value
+     * was remembered
+     */
+    private final Variable[] variables;
+    private final int[] versions;
+
+    private final Complex value;
+    private boolean valueKnown;
+
+    /**
+     * Construct a shared node.
+     *
+     * @param expression the shared subexpression
+     * @param index the index of the remembered value in an EvaluationFrame,
+     * distinct for every shared node of an expression
+     */
+    public SharedExpressionNode(ExpressionNode expression, int index) {
+        this.expression = expression;
+        this.index = index;
+
+        final ArrayList<Variable> found = new ArrayList<Variable>();
+        expression.accept(new SetVariable(null, null) {
+            @Override
+            public void visit(VariableExpressionNode node) {
+                if(!found.contains(node.getVariable())) {
+                    found.add(node.getVariable());
+                }
+            }
+        });
+
+        variables = found.toArray(new Variable[found.size()]);
+        versions = new int[variables.length];
+        value = new Complex();
+        valueKnown = false;
+    }
+
+    /**
+     * @return the shared subexpression
+     */
+    public ExpressionNode getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return the index of the node in an EvaluationFrame
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the type of the node, in this case ExpressionNode.SHARED_NODE
+     */
+    @Override
+    public int getType() {
+        return ExpressionNode.SHARED_NODE;
+    }
+
+    /**
+     * Returns the value of the subexpression, which is only evaluated if a
+     * variable has been assigned since the last call.
+     */
+    @Override
+    public Complex getValue() {
+
+        if(!valueKnown || !isCurrent()) {
+            valueKnown = false;
+            value.assign(expression.getValue());
+
+            // read afterwards, derivatives shift and restore the variables
+            for(int i = 0; i < variables.length; i++) {
+                versions[i] = variables[i].version;
+            }
+            valueKnown = true;
+        }
+
+        return new Complex(value);
+
+    }
+
+    private boolean isCurrent() {
+        for(int i = 0; i < variables.length; i++) {
+            if(variables[i].version != versions[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Evaluates the subexpression unless the frame remembers its value for
+     * the current variable values.
+     */
+    @Override
+    public void evaluateInto(EvaluationFrame frame, Complex out) {
+
+        if(!frame.recall(index, out)) {
+            expression.evaluateInto(frame, out);
+            frame.remember(index, out);
+        }
+
+    }
+
+    /**
+     * Implementation of the visitor design pattern.
+     *
+     * Passes the visitor on to the accept method of the subexpression.
+     *
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ExpressionNodeVisitor visitor) {
+        expression.accept(visitor);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SplitMix64 generator, the random source of fuzz.
+ *
+ * The state is a counter that advances by the golden gamma, every output is
+ * the counter passed through a 64-bit finalizer, so a generator can be
+ * reseeded in place and the same seed always gives the same sequence. A
+ * generator is not thread-safe; current returns one per thread, so threads
+ * never share state. Each thread's generator starts from its own seed.
+ * Call seed on it to make an evaluation reproducible; BatchEvaluator and
+ * GridEvaluator do so for every block from their seed and the position of
+ * the block.
+ */
+public final class SplitMix64 {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final AtomicLong SEEDS = new AtomicLong();
+
+    private static final ThreadLocal<SplitMix64> CURRENT = ThreadLocal.withInitial(() -> new SplitMix64(mix(SEEDS.addAndGet(GOLDEN_GAMMA))));
+
+    private long state;
+
+    /**
+     * @param seed the initial state
+     */
+    public SplitMix64(long seed) {
+        state = seed;
+    }
+
+    /**
+     * @return the generator of the current thread
+     */
+    public static SplitMix64 current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Restarts the sequence from a seed.
+     *
+     * @param seed the new state
+     */
+    public void seed(long seed) {
+        state = seed;
+    }
+
+    /**
+     * @return the next 64 random bits
+     */
+    public long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return the next random double, uniform in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * The SplitMix64 finalizer, a bijection of 64-bit values that spreads
+     * every input bit over the output. Seeds derived from counters or
+     * indices are passed through it so that neighbouring seeds give
+     * unrelated sequences.
+     *
+     * @param z the value to mix
+     * @return the mixed value
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,615 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates an expression and its first, second and third derivative by one
+ * variable in a single walk of the tree.
+ *
+ * Every node computes the truncated Taylor series c0 + c1 h + c2 h^2 + c3 h^3
+ * of its value around the current value of the variable, with
+ * ck = f^(k) / k!. Sums, products and quotients are series arithmetic, powers
+ * with a variable exponent are exp(e ln(b)), and a function f of a series g is
+ * composed from f', f'' and f''' at g0:
+ *
+ *   c1 = f' g1
+ *   c2 = f' g2 + f'' g1^2 / 2
+ *   c3 = f' g3 + f'' g1 g2 + f''' g1^3 / 6
+ *
+ * The derivatives of sin and cos come from Complex.der0123_sin and
+ * der0123_cos, those of gamma and fact from digamma, trigamma and tetragamma,
+ * and those of the other functions from the Differentiator, built once per
+ * function. Subtrees of functions without a complex derivative and
+ * derivatives that could not be built symbolically are differentiated
+ * numerically, as in the Differentiator.
+ *
+ * The values are bit-identical to ExpressionNode.getValue. An evaluator keeps
+ * its registers between calls and must not be shared between threads.
+ */
+public class TaylorEvaluator {
+
+    /**
+     * the highest derivative that can be evaluated
+     */
+    public static final int MAX_ORDER = 3;
+
+    private static final double[] FACTORIALS = {1, 1, 2, 6};
+
+    private Complex[][] registers;
+    private int top;
+    private int terms;
+
+    /* the series of shared nodes by index and the pass they belong to */
+    private Complex[][] sharedSeries;
+    private long[] sharedPasses;
+    private long pass;
+    private long passes;
+
+    /*
+     * the first three derivatives of the functions in the variable w, null for
+     * functions that are differentiated numerically
+     */
+    private final VariableExpressionNode w;
+    private ExpressionNode[][] derivatives;
+    private boolean[] built;
+
+    private ExpressionNode expression;
+    private String variable;
+    private VariableExpressionNode variableNode;
+
+    public TaylorEvaluator() {
+        registers = new Complex[0][];
+        top = 0;
+        sharedSeries = new Complex[0][];
+        sharedPasses = new long[0];
+        pass = 0;
+        passes = 0;
+        w = new VariableExpressionNode("w");
+        derivatives = new ExpressionNode[0][];
+        built = new boolean[0];
+    }
+
+    /**
+     * Evaluates an expression and its derivatives by a variable. All
+     * variables take the values they were given through the tree.
+     *
+     * @param expr the expression
+     * @param var the name of the variable
+     * @param derivatives receives the value in derivatives[0] and the k-th
+     * derivative in derivatives[k], up to derivatives.length - 1, which may be
+     * at most MAX_ORDER
+     */
+    public void evaluate(ExpressionNode expr, String var, Complex[] derivatives) {
+        if(derivatives.length < 1 || derivatives.length > MAX_ORDER + 1) {
+            throw new IllegalArgumentException("Derivatives of order 0 to " + MAX_ORDER + " can be evaluated.");
+        }
+
+        expression = expr;
+        variable = var;
+        terms = derivatives.length;
+        pass = ++passes;
+
+        try {
+            Complex[] series = acquire();
+            evaluate(expr, series);
+            for(int k = 0; k < terms; k++) {
+                derivatives[k].assign(series[k].times(FACTORIALS[k]));
+            }
+        }
+        catch(EvaluationException ex) {
+            Metrics.evaluationException(ex);
+            throw ex;
+        }
+        finally {
+            top = 0;
+            expression = null;
+            variable = null;
+            variableNode = null;
+        }
+    }
+
+    private Complex[] acquire() {
+        if(top == registers.length) {
+            Complex[][] grown = Arrays.copyOf(registers, top + 8);
+            for(int i = top; i < grown.length; i++) {
+                grown[i] = newSeries();
+            }
+            registers = grown;
+        }
+
+        return registers[top++];
+    }
+
+    private void release(int count) {
+        top -= count;
+    }
+
+    private static Complex[] newSeries() {
+        Complex[] series = new Complex[MAX_ORDER + 1];
+        for(int k = 0; k < series.length; k++) {
+            series[k] = new Complex();
+        }
+        return series;
+    }
+
+    private void evaluate(ExpressionNode node, Complex[] out) {
+        switch(node.getType()) {
+            case ExpressionNode.VARIABLE_NODE:
+                out[0].assign(node.getValue());
+                clear(out, 1);
+                if(terms > 1 && ((VariableExpressionNode)node).getName().equals(variable)) {
+                    out[1].assign(1.0);
+                }
+                break;
+            case ExpressionNode.REAL_CONSTANT_NODE:
+            case ExpressionNode.IMAGINARY_CONSTANT_NODE:
+                // constants do not read the frame
+                node.evaluateInto(null, out[0]);
+                clear(out, 1);
+                break;
+            case ExpressionNode.ADDITION_NODE:
+                addition((AdditionExpressionNode)node, out);
+                break;
+            case ExpressionNode.MULTIPLICATION_NODE:
+                multiplication((MultiplicationExpressionNode)node, out);
+                break;
+            case ExpressionNode.EXPONENTIATION_NODE: {
+                ExponentiationExpressionNode power = (ExponentiationExpressionNode)node;
+                Complex[] exponent = acquire();
+                Complex[] base = acquire();
+                evaluate(power.getExponent(), exponent);
+                evaluate(power.getBase(), base);
+                out[0].assign(base[0]);
+                ExponentiationExpressionNode.power(out[0], exponent[0]);
+                power(base, exponent, out);
+                release(2);
+                break;
+            }
+            case ExpressionNode.FUNCTION_NODE:
+                function((FunctionExpressionNode)node, out);
+                break;
+            case ExpressionNode.FUNCTION_2_ARG_NODE:
+                function2((Function2ArgumentsExpressionNode)node, out);
+                break;
+            case ExpressionNode.SHARED_NODE:
+                shared((SharedExpressionNode)node, out);
+                break;
+            case ExpressionNode.PROFILED_NODE:
+                evaluate(((ProfiledExpressionNode)node).getExpression(), out);
+                break;
+            case ExpressionNode.FUNCTION_DERIVATIVE_2_ARG_NODE: {
+                ExpressionNode symbolic = ((FunctionDerivative2ArgumentsExpressionNode)node).getDerivative();
+                if(symbolic != null) {
+                    // the shared nodes of the derivative are numbered on their own
+                    long outer = pass;
+                    pass = ++passes;
+                    evaluate(symbolic, out);
+                    pass = outer;
+                }
+                else {
+                    numeric(node, out);
+                }
+                break;
+            }
+            default:
+                numeric(node, out);
+                break;
+        }
+    }
+
+    private void addition(AdditionExpressionNode node, Complex[] out) {
+        Complex[] term = acquire();
+
+        clear(out, 0);
+        for(SequenceExpressionNode.Term t : node.getTerms()) {
+            evaluate(t.expression, term);
+            for(int k = 0; k < terms; k++) {
+                if(t.mode == AdditionExpressionNode.ADD) {
+                    out[k].plus_mutable(term[k]);
+                }
+                else {
+                    out[k].sub_mutable(term[k]);
+                }
+            }
+        }
+
+        release(1);
+    }
+
+    /*
+     * The product p of the terms so far is multiplied or divided by the next
+     * term t in place, from the highest coefficient down:
+     *
+     *   (p t)_k = sum p_i t_(k - i)
+     *   (p / t)_k = (p_k - sum_(i >= 1) t_i (p / t)_(k - i)) / t_0
+     *
+     * and the remainder p - q t keeps the integer quotient q constant.
+     */
+    private void multiplication(MultiplicationExpressionNode node, Complex[] out) {
+        Complex[] term = acquire();
+
+        out[0].assign(1.0);
+        clear(out, 1);
+        for(SequenceExpressionNode.Term t : node.getTerms()) {
+            evaluate(t.expression, term);
+            if(t.mode == MultiplicationExpressionNode.MULT) {
+                for(int k = terms - 1; k > 0; k--) {
+                    out[k].times_mutable(term[0]);
+                    for(int i = 0; i < k; i++) {
+                        out[k].plus_mutable(out[i].times(term[k - i]));
+                    }
+                }
+                out[0].times_mutable(term[0]);
+            }
+            else if(t.mode == MultiplicationExpressionNode.DIV) {
+                out[0].divide_mutable(term[0]);
+                for(int k = 1; k < terms; k++) {
+                    for(int i = 1; i <= k; i++) {
+                        out[k].sub_mutable(term[i].times(out[k - i]));
+                    }
+                    out[k].divide_mutable(term[0]);
+                }
+            }
+            else {
+                Complex quotient = out[0].divide(term[0]);
+                if(term[0].getIm() == 0 && out[0].getIm() == 0 && out[0].getRe() >= 0 && term[0].getRe() >= 0) {
+                    quotient.trunc_mutable();
+                }
+                else {
+                    quotient.gaussian_integer_mutable();
+                }
+                out[0].remainder_mutable(term[0]);
+                for(int k = 1; k < terms; k++) {
+                    out[k].sub_mutable(term[k].times(quotient));
+                }
+            }
+        }
+
+        release(1);
+    }
+
+    /*
+     * The series of b^e from its value in out[0]: the power rule
+     * f^(k) = e (e - 1) ... (e - k + 1) b0^(e - k) if e is constant,
+     * exp(e ln(b)) otherwise.
+     */
+    private void power(Complex[] base, Complex[] exponent, Complex[] out) {
+        if(isConstant(base) && isConstant(exponent)) {
+            clear(out, 1);
+            return;
+        }
+
+        if(isConstant(exponent)) {
+            Complex[] f = acquire();
+            Complex factor = new Complex(1.0, 0);
+            for(int k = 1; k < terms; k++) {
+                factor.times_mutable(exponent[0].sub(k - 1));
+                Complex reduced = exponent[0].sub(k);
+                if(factor.getRe() == 0 && factor.getIm() == 0) {
+                    f[k].reset();
+                }
+                else if(reduced.getRe() == 0 && reduced.getIm() == 0) {
+                    f[k].assign(factor);
+                }
+                else {
+                    f[k].assign(base[0]);
+                    ExponentiationExpressionNode.power(f[k], reduced);
+                    f[k].times_mutable(factor);
+                }
+            }
+            compose(base, f, out);
+            release(1);
+        }
+        else {
+            Complex[] log = acquire();
+            Complex[] f = acquire();
+            log[0].assign(base[0].log());
+            logarithm(base[0], f);
+            compose(base, f, log);
+            Complex[] product = acquire();
+            multiply(exponent, log, product);
+            // every derivative of exp is its value
+            for(int k = 1; k < terms; k++) {
+                f[k].assign(out[0]);
+            }
+            compose(product, f, out);
+            release(3);
+        }
+    }
+
+    private void function(FunctionExpressionNode node, Complex[] out) {
+        int id = node.getFunctionId();
+        ExpressionNode[] trees = null;
+        if(id != FunctionExpressionNode.SIN && id != FunctionExpressionNode.COS && id != FunctionExpressionNode.EXP
+                && id != FunctionExpressionNode.GAMMA && id != FunctionExpressionNode.FACT) {
+            trees = derivatives(id);
+            if(trees == null) {
+                numeric(node, out);
+                return;
+            }
+        }
+
+        Complex[] argument = acquire();
+        evaluate(node.getArgument(), argument);
+        Metrics.functionEvaluated(Token.FUNCTION, id);
+        node.getFunction().evaluateInto(argument[0], out[0]);
+
+        if(terms > 1 && !isConstant(argument)) {
+            Complex[] f = acquire();
+            Complex a = argument[0];
+
+            if(id == FunctionExpressionNode.SIN || id == FunctionExpressionNode.COS) {
+                Complex[] der = id == FunctionExpressionNode.SIN ? a.der0123_sin() : a.der0123_cos();
+                for(int k = 1; k < terms; k++) {
+                    f[k].assign(der[k]);
+                }
+            }
+            else if(id == FunctionExpressionNode.EXP) {
+                for(int k = 1; k < terms; k++) {
+                    f[k].assign(out[0]);
+                }
+            }
+            else if(id == FunctionExpressionNode.GAMMA || id == FunctionExpressionNode.FACT) {
+                // gamma' = gamma psi, gamma'' = gamma (psi^2 + psi1), gamma''' = gamma (psi^3 + 3 psi psi1 + psi2)
+                Complex z = id == FunctionExpressionNode.GAMMA ? a : a.plus(1.0);
+                Complex psi = z.digamma();
+                f[1].assign(out[0].times(psi));
+                if(terms > 2) {
+                    Complex psi1 = z.trigamma();
+                    f[2].assign(out[0].times(psi.square().plus_mutable(psi1)));
+                    if(terms > 3) {
+                        f[3].assign(out[0].times(psi.cube().plus_mutable(psi.times(psi1).times_mutable(3)).plus_mutable(z.tetragamma())));
+                    }
+                }
+            }
+            else {
+                w.setValue(a);
+                for(int k = 1; k < terms; k++) {
+                    f[k].assign(trees[k - 1].getValue());
+                }
+            }
+
+            compose(argument, f, out);
+            release(1);
+        }
+        else {
+            clear(out, 1);
+        }
+
+        release(1);
+    }
+
+    /*
+     * The arithmetic functions of two arguments, others are differentiated
+     * numerically.
+     */
+    private void function2(Function2ArgumentsExpressionNode node, Complex[] out) {
+        int id = node.getFunctionId();
+        if(id != Function2ArgumentsExpressionNode.ADD && id != Function2ArgumentsExpressionNode.SUB && id != Function2ArgumentsExpressionNode.MUL
+                && id != Function2ArgumentsExpressionNode.DIV && id != Function2ArgumentsExpressionNode.POW && id != Function2ArgumentsExpressionNode.LOGN) {
+            numeric(node, out);
+            return;
+        }
+
+        Complex[] a = acquire();
+        Complex[] b = acquire();
+        evaluate(node.getArgument(), a);
+        evaluate(node.getArgument2(), b);
+        Complex value = new Complex();
+        Metrics.functionEvaluated(Token.FUNCTION_2ARGUMENTS, id);
+        node.getFunction().evaluateInto(a[0], b[0], value);
+
+        if(isConstant(a) && isConstant(b)) {
+            id = Function2ArgumentsExpressionNode.ADD;
+        }
+
+        switch(id) {
+            case Function2ArgumentsExpressionNode.ADD:
+                for(int k = 1; k < terms; k++) {
+                    out[k].assign(a[k].plus(b[k]));
+                }
+                break;
+            case Function2ArgumentsExpressionNode.SUB:
+                for(int k = 1; k < terms; k++) {
+                    out[k].assign(a[k].sub(b[k]));
+                }
+                break;
+            case Function2ArgumentsExpressionNode.MUL:
+                multiply(a, b, out);
+                break;
+            case Function2ArgumentsExpressionNode.DIV:
+                divide(a, b, out);
+                break;
+            case Function2ArgumentsExpressionNode.POW:
+                out[0].assign(value);
+                power(a, b, out);
+                break;
+            default: {
+                // logn(a, b) = ln(a) / ln(b)
+                Complex[] f = acquire();
+                Complex[] logA = acquire();
+                Complex[] logB = acquire();
+                logA[0].assign(a[0].log());
+                logarithm(a[0], f);
+                compose(a, f, logA);
+                logB[0].assign(b[0].log());
+                logarithm(b[0], f);
+                compose(b, f, logB);
+                divide(logA, logB, out);
+                release(3);
+                break;
+            }
+        }
+
+        out[0].assign(value);
+        release(2);
+    }
+
+    private void shared(SharedExpressionNode node, Complex[] out) {
+        int index = node.getIndex();
+
+        if(index >= sharedPasses.length) {
+            int length = Math.max(index + 1, 2 * sharedPasses.length);
+            sharedSeries = Arrays.copyOf(sharedSeries, length);
+            for(int i = sharedPasses.length; i < length; i++) {
+                sharedSeries[i] = newSeries();
+            }
+            sharedPasses = Arrays.copyOf(sharedPasses, length);
+        }
+
+        Complex[] remembered = sharedSeries[index];
+        if(sharedPasses[index] == pass) {
+            for(int k = 0; k < terms; k++) {
+                out[k].assign(remembered[k]);
+            }
+        }
+        else {
+            evaluate(node.getExpression(), out);
+            for(int k = 0; k < terms; k++) {
+                remembered[k].assign(out[k]);
+            }
+            sharedPasses[index] = pass;
+        }
+    }
+
+    /*
+     * Differentiates a node numerically by shifting the variable.
+     */
+    private void numeric(ExpressionNode node, Complex[] out) {
+        out[0].assign(node.getValue());
+
+        if(variableNode == null) {
+            expression.accept(new SetVariable(null, null) {
+                @Override
+                public void visit(VariableExpressionNode visited) {
+                    if(variableNode == null && visited.getName().equals(variable)) {
+                        variableNode = visited;
+                    }
+                }
+            });
+        }
+
+        for(int k = 1; k < terms; k++) {
+            if(variableNode == null) {
+                out[k].reset();
+            }
+            else {
+                out[k].assign(FunctionDerivative2ArgumentsExpressionNode.numeric(k - 1, node, variableNode).getValue().divide_mutable(FACTORIALS[k]));
+            }
+        }
+    }
+
+    /*
+     * out = a b, from the second coefficient on
+     */
+    private void multiply(Complex[] a, Complex[] b, Complex[] out) {
+        out[0].assign(a[0].times(b[0]));
+        for(int k = 1; k < terms; k++) {
+            out[k].reset();
+            for(int i = 0; i <= k; i++) {
+                out[k].plus_mutable(a[i].times(b[k - i]));
+            }
+        }
+    }
+
+    /*
+     * out = a / b, from the second coefficient on
+     */
+    private void divide(Complex[] a, Complex[] b, Complex[] out) {
+        out[0].assign(a[0].divide(b[0]));
+        for(int k = 1; k < terms; k++) {
+            out[k].assign(a[k]);
+            for(int i = 1; i <= k; i++) {
+                out[k].sub_mutable(b[i].times(out[k - i]));
+            }
+            out[k].divide_mutable(b[0]);
+        }
+    }
+
+    /*
+     * The derivatives 1/z, -1/z^2 and 2/z^3 of ln at z
+     */
+    private void logarithm(Complex z, Complex[] f) {
+        Complex inverse = z.r_divide(1.0);
+        f[1].assign(inverse);
+        if(terms > 2) {
+            f[2].assign(inverse.square().negative());
+        }
+        if(terms > 3) {
+            f[3].assign(inverse.cube().times_mutable(2));
+        }
+    }
+
+    /*
+     * The coefficients 1 to 3 of f(g) from f^(k)(g0) in f[k], out[0] is left
+     * alone.
+     */
+    private void compose(Complex[] g, Complex[] f, Complex[] out) {
+        out[1].assign(f[1].times(g[1]));
+        if(terms > 2) {
+            out[2].assign(f[1].times(g[2]).plus_mutable(f[2].times(g[1].square()).times_mutable(0.5)));
+        }
+        if(terms > 3) {
+            out[3].assign(f[1].times(g[3]).plus_mutable(f[2].times(g[1]).times_mutable(g[2])).plus_mutable(f[3].times(g[1].cube()).divide_mutable(6)));
+        }
+    }
+
+    /*
+     * Returns the first three derivatives of a function in w, or null if the
+     * function has no symbolic derivative.
+     */
+    private ExpressionNode[] derivatives(int id) {
+        if(id >= built.length) {
+            derivatives = Arrays.copyOf(derivatives, id + 1);
+            built = Arrays.copyOf(built, id + 1);
+        }
+
+        if(!built[id]) {
+            Differentiator differentiator = new Differentiator();
+            CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+            ExpressionNode[] trees = new ExpressionNode[MAX_ORDER];
+            ExpressionNode tree = FunctionExpressionNode.create(id, w);
+            int fallbacks = 0;
+            for(int k = 0; k < MAX_ORDER; k++) {
+                tree = differentiator.differentiate(tree, w);
+                fallbacks += differentiator.getFallbackCount();
+                trees[k] = eliminator.eliminate(tree);
+            }
+            derivatives[id] = fallbacks == 0 ? trees : null;
+            built[id] = true;
+        }
+
+        return derivatives[id];
+    }
+
+    private void clear(Complex[] series, int from) {
+        for(int k = from; k < terms; k++) {
+            series[k].reset();
+        }
+    }
+
+    private boolean isConstant(Complex[] series) {
+        for(int k = 1; k < terms; k++) {
+            if(series[k].getRe() != 0 || series[k].getIm() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
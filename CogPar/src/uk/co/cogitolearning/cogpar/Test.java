@@ -151,6 +151,918 @@ public class Test {
                 throw new AssertionError();
             }
 
+            Complex z = new Complex(-4.3242342, 5.534543);
+            String[] none = {};
+            ExpressionNode[] constants = {expr, expr2, expr3, expr4, expr5, expr6, expr7, expr8};
+            Complex[] constantValues = {val1, val2, val3, val4, val5, val6, val7, val8};
+
+            for(int i = 0; i < constants.length; i++) {
+                if(!sameBits(compiledValue(constants[i], none, null), constantValues[i])) {
+                    throw new AssertionError();
+                }
+            }
+
+            if(!sameBits(compiledValue(expr9, new String[] {"z"}, new Complex[] {z}), val9)) {
+                throw new AssertionError();
+            }
+
+            if(!sameBits(compiledValue(expr10, new String[] {"z"}, new Complex[] {z}), val10)) {
+                throw new AssertionError();
+            }
+
+            if(!sameBits(compiledValue(expr11, new String[] {"z"}, new Complex[] {z}), val11)) {
+                throw new AssertionError();
+            }
+
+            if(!sameBits(compiledValue(expr12, new String[] {"z"}, new Complex[] {new Complex(1, 0)}), val12)) {
+                throw new AssertionError();
+            }
+
+            if(!sameBits(compiledValue(expr14, new String[] {"z", "c"}, new Complex[] {new Complex(3, 0), new Complex(6, 0)}), val14)) {
+                throw new AssertionError();
+            }
+
+            if(!sameBits(compiledValue(expr15, new String[] {"z"}, new Complex[] {z}), val15)) {
+                throw new AssertionError();
+            }
+
+            ExpressionNode[] all = {expr, expr2, expr3, expr4, expr5, expr6, expr7, expr8, expr9, expr10, expr11, expr12, expr13, expr14, expr15};
+            Complex[] allValues = {val1, val2, val3, val4, val5, val6, val7, val8, val9, val10, val11, val12, val13, val14, val15};
+            Complex out = new Complex();
+
+            for(int i = 0; i < all.length; i++) {
+                all[i].evaluateInto(new EvaluationFrame(all[i]), out);
+                if(!sameBits(out, allValues[i])) {
+                    throw new AssertionError();
+                }
+            }
+
+            ExpressionNode functions = parser.parse("sin(z)+cos(z)*tan(z)-cot(z)+sinh(z)/cosh(z)+tanh(z)-coth(z)+sec(z)*csc(z)+sech(z)-csch(z)"
+                    + "+exp(z)+log(z)+log10(z)*log2(z)+sqrt(z)+abs(z)-absre(z)+absim(z)*conj(z)+flip(z)+rec(z)+floor(z)+ceil(z)-round(z)+trunc(z)+gi(z)"
+                    + "+re(z)+im(z)*norm(z)+arg(z)+snorm(z)+add(z, c)-sub(z, c)+mul(z, c)/div(z, c)+pow(z, 3)+pow(z, 2.5)+pow(z, c)+dist(z, c)+sdist(z, c)"
+                    + "+z^c+z^2.5+z^7+z%c+c%2+asin(z)+gamma(z)");
+            functions.accept(new SetVariable("z", z));
+            functions.accept(new SetVariable("c", new Complex(1.5, -0.5)));
+
+            functions.evaluateInto(new EvaluationFrame(functions), out);
+            if(!sameBits(out, functions.getValue())) {
+                throw new AssertionError();
+            }
+
+            ExpressionNode loop = parser.parse("sin(z)*z^3 - c/(z+1) + exp(z)%2 + norm(z)");
+            loop.accept(new SetVariable("z", z));
+            loop.accept(new SetVariable("c", new Complex(1.5, -0.5)));
+
+            if(allocatedBytesPerEvaluation(loop, new EvaluationFrame(loop), out) != 0) {
+                throw new AssertionError();
+            }
+
+            // abs has no symbolic derivative, so f' falls back to numeric nodes and f'' and f''' are numeric as a whole
+            ExpressionNode derivativeLoop = parser.parse("f'(abs(z)*z, z) + f''(abs(z)*z, z) - f'''(abs(z)*z^2, z) + f'(sin(z)*z^3 - c/(z+1), z)");
+            derivativeLoop.accept(new SetVariable("z", z));
+            derivativeLoop.accept(new SetVariable("c", new Complex(1.5, -0.5)));
+
+            derivativeLoop.evaluateInto(new EvaluationFrame(derivativeLoop), out);
+            if(!sameBits(out, derivativeLoop.getValue()) || allocatedBytesPerEvaluation(derivativeLoop, new EvaluationFrame(derivativeLoop), out) != 0) {
+                throw new AssertionError();
+            }
+            
+            ExpressionNode shared = parser.parse("z^2 + z*c - f'(z^3, z) + z");
+            ExpressionNode visited = parser.parse("z^2 + z*c - f'(z^3, z) + z");
+            visited.accept(new SetVariable("z", z));
+            visited.accept(new SetVariable("c", new Complex(1.5, -0.5)));
+
+            Variable zVar = shared.variable("z");
+            Variable cVar = shared.variable("c");
+            if(zVar.getSlot() != 0 || cVar.getSlot() != 1 || shared.variable("w").getSlot() != -1) {
+                throw new AssertionError();
+            }
+
+            zVar.set(z.getRe(), z.getIm());
+            cVar.set(1.5, -0.5);
+            Complex sharedValue = shared.getValue();
+            if(!sameBits(sharedValue, visited.getValue()) || !sameBits(shared.getValue(), sharedValue)) {
+                throw new AssertionError();
+            }
+
+            Complex c = new Complex(1.5, -0.5);
+            Complex expected = z.square().plus_mutable(z.times(c)).sub_mutable(z.square().times_mutable(3)).plus_mutable(z);
+            if(sharedValue.distance(expected) > 1e-3) {
+                throw new AssertionError();
+            }
+
+            shared.accept(new SetVariable("z", new Complex(1, 0)));
+            if(zVar.get().compare(new Complex(1, 0)) != 0) {
+                throw new AssertionError();
+            }
+
+            // a bare variable returns the value it owns, the stencil must not keep it across a shift
+            ExpressionNode bareZ = parser.parse("z");
+            bareZ.variable("z").set(z);
+            for(int order = FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE; order <= FunctionDerivative2ArgumentsExpressionNode.THIRD_DERIVATIVE; order++) {
+                ExpressionNode stencil = FunctionDerivative2ArgumentsExpressionNode.numeric(order, bareZ, bareZ);
+                Complex stencilExpected = new Complex(order == FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE ? 1 : 0, 0);
+                Complex stencilInto = new Complex();
+                stencil.evaluateInto(new EvaluationFrame(stencil), stencilInto);
+                if(stencil.getValue().distance(stencilExpected) > 1e-3 || stencilInto.distance(stencilExpected) > 1e-3 || !sameBits(bareZ.getValue(), z)) {
+                    throw new AssertionError();
+                }
+            }
+
+            // a subtree shares the Variables of its tree, its frames and compiled forms must not move the slots of the tree
+            ExpressionNode slotted = parser.parse("c*z + z");
+            slotted.variable("c").set(10, 0);
+            slotted.variable("z").set(2, 0);
+            EvaluationFrame slottedFrame = new EvaluationFrame(slotted);
+            Complex slottedInto = new Complex();
+            slotted.evaluateInto(slottedFrame, slottedInto);
+            ExpressionNode slottedTerm = ((AdditionExpressionNode)slotted).getTerms().get(1).expression;
+            Complex slottedCompiled = compiledValue(slottedTerm, new String[] {"z"}, new Complex[] {new Complex(2, 0)});
+            Complex slottedTermInto = new Complex();
+            slottedTerm.evaluateInto(new EvaluationFrame(slottedTerm), slottedTermInto);
+            Complex slottedAgain = new Complex();
+            slotted.evaluateInto(slottedFrame, slottedAgain);
+            if(slottedInto.compare(new Complex(22, 0)) != 0 || slottedAgain.compare(slottedInto) != 0 || slottedTermInto.compare(new Complex(2, 0)) != 0
+                    || slottedCompiled.compare(new Complex(2, 0)) != 0 || slottedTerm.variable("z").getSlot() != 1) {
+                throw new AssertionError();
+            }
+            
+            final ExpressionNode concurrent = parser.parse("f'(sin(z)*z^3 - c/(z+1), z) + f''(z^4, z) + exp(z)%2 + z*c");
+            final int points = 2000;
+            final Complex[] expectedValues = new Complex[points];
+            EvaluationFrame serial = new EvaluationFrame(concurrent);
+            final int zSlot = serial.slot("z");
+            final int cSlot = serial.slot("c");
+
+            for(int i = 0; i < points; i++) {
+                serial.set(zSlot, 0.001 * i - 1, 0.5);
+                serial.set(cSlot, -0.7, 0.001 * i);
+                expectedValues[i] = new Complex();
+                concurrent.evaluateInto(serial, expectedValues[i]);
+            }
+
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(8);
+            java.util.List<java.util.concurrent.Future<Boolean>> results = new java.util.ArrayList<java.util.concurrent.Future<Boolean>>();
+
+            for(int task = 0; task < 64; task++) {
+                results.add(pool.submit(() -> {
+                    EvaluationFrame own = new EvaluationFrame(concurrent);
+                    Complex value = new Complex();
+                    for(int i = 0; i < points; i++) {
+                        own.set(zSlot, 0.001 * i - 1, 0.5);
+                        own.set(cSlot, -0.7, 0.001 * i);
+                        concurrent.evaluateInto(own, value);
+                        if(!sameBits(value, expectedValues[i])) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+
+            for(java.util.concurrent.Future<Boolean> result : results) {
+                if(!result.get()) {
+                    throw new AssertionError();
+                }
+            }
+            pool.shutdown();
+            
+            String[] batched = {"z^2 + c", "(z^2 + c)*(z-1)/(z+2) + 0.5*z - z^3 + z^4", "sin(z)*z^c - log(z)%c + pow(z, 2.5) + f'(z^3, z)", "c^2 - 3i"};
+            int batchSize = 1000;
+            double[] inRe = new double[batchSize];
+            double[] inIm = new double[batchSize];
+            double[] batchRe = new double[batchSize];
+            double[] batchIm = new double[batchSize];
+
+            for(int i = 0; i < batchSize; i++) {
+                inRe[i] = 0.003 * i - 1.5;
+                inIm[i] = 1 - 0.002 * i;
+            }
+
+            BatchEvaluator batch = new BatchEvaluator();
+            for(String source : batched) {
+                ExpressionNode batchExpr = parser.parse(source);
+                Variable batchZ = batchExpr.variable("z");
+                batchExpr.variable("c").set(-0.7, 0.25);
+                batch.evaluate(batchExpr, "z", inRe, inIm, batchRe, batchIm);
+
+                for(int i = 0; i < batchSize; i++) {
+                    batchZ.set(inRe[i], inIm[i]);
+                    if(!sameBits(new Complex(batchRe[i], batchIm[i]), batchExpr.getValue())) {
+                        throw new AssertionError();
+                    }
+                }
+            }
+            
+            ExpressionNode gridExpr = parser.parse("(z^2 + c)*(z-1)/(z+2) + sin(z)");
+            gridExpr.variable("c").set(-0.7, 0.25);
+            int gridWidth = 300;
+            int gridHeight = 41;
+            double[] gridRe = new double[gridWidth * gridHeight];
+            double[] gridIm = new double[gridWidth * gridHeight];
+            java.util.concurrent.ForkJoinPool gridPool = new java.util.concurrent.ForkJoinPool(4);
+            new GridEvaluator(gridPool).evaluate(gridExpr, "z", -2, 1, -1, 1, gridWidth, gridHeight, gridRe, gridIm);
+            try {
+                // 65536 * 65536 wraps around to 0 in an int
+                new GridEvaluator(gridPool).evaluate(gridExpr, "z", -2, 1, -1, 1, 65536, 65536, gridRe, gridIm);
+                throw new AssertionError();
+            }
+            catch(IllegalArgumentException e) {
+            }
+            gridPool.shutdown();
+
+            Variable gridZ = gridExpr.variable("z");
+            for(int y = 0; y < gridHeight; y++) {
+                for(int x = 0; x < gridWidth; x++) {
+                    gridZ.set(-2 + (x + 0.5) * (3.0 / gridWidth), 1 - (y + 0.5) * (2.0 / gridHeight));
+                    if(!sameBits(new Complex(gridRe[y * gridWidth + x], gridIm[y * gridWidth + x]), gridExpr.getValue())) {
+                        throw new AssertionError();
+                    }
+                }
+            }
+            
+            Optimizer optimizer = new Optimizer();
+            for(int i = 0; i < all.length; i++) {
+                all[i].accept(new SetVariable("z", z));
+                ExpressionNode optimized = optimizer.optimize(all[i]);
+                if(!sameBits(optimized.getValue(), all[i].getValue())) {
+                    throw new AssertionError();
+                }
+            }
+
+            if(optimizer.optimize(expr).getType() != ExpressionNode.REAL_CONSTANT_NODE || optimizer.optimize(expr4).getType() != ExpressionNode.REAL_CONSTANT_NODE) {
+                throw new AssertionError();
+            }
+
+            ExpressionNode simplify = parser.parse("--z + 0 - -(c - 2*0) + (z - c + 1) - 1*1/z*1 + (1+1)^z + -(-(-z)) + f'(z^2 + 0, z)");
+            ExpressionNode simplified = optimizer.optimize(simplify);
+            if(((AdditionExpressionNode)simplified).getTerms().size() != 7) {
+                throw new AssertionError();
+            }
+
+            double[] special = {0.0, -0.0, 1.0, -2.5, Double.POSITIVE_INFINITY, Double.NaN};
+            Variable simplifyZ = simplify.variable("z");
+            Variable simplifyC = simplify.variable("c");
+            for(double zRe : special) {
+                for(double zIm : special) {
+                    for(double cRe : special) {
+                        simplifyZ.set(zRe, zIm);
+                        simplifyC.set(cRe, -cRe);
+                        if(!sameBits(simplified.getValue(), simplify.getValue())) {
+                            throw new AssertionError();
+                        }
+                    }
+                }
+            }
+
+            // derivatives are not differentiated again from the folded argument
+            String[] singularDerivatives = {"f'''(z^-0, z)", "f'''(z^-0, z) - (pi*z - pi)^12", "f''(z^0*z + 0*z, z)", "f'(1*z^1 + (2 - 2), z)"};
+            for(String singular : singularDerivatives) {
+                ExpressionNode derivativeExpr = parser.parse(singular);
+                ExpressionNode optimizedDerivative = optimizer.optimize(derivativeExpr);
+                Variable derivativeZ = derivativeExpr.variable("z");
+                for(double zRe : special) {
+                    for(double zIm : special) {
+                        derivativeZ.set(zRe, zIm);
+                        if(!sameBits(optimizedDerivative.getValue(), derivativeExpr.getValue())) {
+                            throw new AssertionError(singular + " at " + derivativeZ.get());
+                        }
+                    }
+                }
+            }
+            
+            CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator();
+            for(int i = 0; i < all.length; i++) {
+                if(!sameBits(eliminator.eliminate(all[i]).getValue(), all[i].getValue())) {
+                    throw new AssertionError();
+                }
+            }
+
+            ExpressionNode repeated = parser.parse("sin(z^2) + cos(z^2) * (z^2 - 1) + f'((z+c)^3, z)*(z+c)^3 + (z+c)");
+            ExpressionNode dag = eliminator.eliminate(repeated);
+            if(eliminator.getSharedCount() != 3) {
+                throw new AssertionError();
+            }
+
+            eliminator.eliminate(parser.parse("fuzz(z, c) - fuzz(z, c)"));
+            if(eliminator.getSharedCount() != 0) {
+                throw new AssertionError();
+            }
+
+            Variable repeatedZ = repeated.variable("z");
+            repeated.variable("c").set(-0.7, 0.25);
+            EvaluationFrame dagFrame = new EvaluationFrame(dag);
+            int dagZ = dagFrame.slot("z");
+            Complex dagValue = new Complex();
+            for(int i = 0; i < batchSize; i++) {
+                repeatedZ.set(inRe[i], inIm[i]);
+                Complex repeatedValue = repeated.getValue();
+                dagFrame.set(dagZ, inRe[i], inIm[i]);
+                dag.evaluateInto(dagFrame, dagValue);
+                if(!sameBits(dag.getValue(), repeatedValue) || !sameBits(dagValue, repeatedValue)
+                        || !sameBits(compiledValue(dag, new String[] {"z", "c"}, new Complex[] {repeatedZ.get(), new Complex(-0.7, 0.25)}), repeatedValue)) {
+                    throw new AssertionError();
+                }
+            }
+
+            batch.evaluate(dag, "z", inRe, inIm, batchRe, batchIm);
+            for(int i = 0; i < batchSize; i++) {
+                repeatedZ.set(inRe[i], inIm[i]);
+                if(!sameBits(new Complex(batchRe[i], batchIm[i]), repeated.getValue())) {
+                    throw new AssertionError();
+                }
+            }
+
+            ExpressionNode cube = parser.parse("f'(z^3, z)");
+            cube.accept(new SetVariable("z", new Complex(2, 0)));
+            if(!sameBits(cube.getValue(), new Complex(12, 0))) {
+                throw new AssertionError();
+            }
+
+            String[] differentiated = {"sin(z)*exp(z) / (z + 1)", "tan(sin(exp(z)))", "z^z - 2^(z*z)", "sqrt(z)*log(z) + log2(z) - atan(z)", "asinh(z) + acosh(z) + atanh(z) + sech(z)",
+                "acsc(z) + asec(z) + acot(z) + asech(z) + acsch(z)", "vsin(z) + ahvcos(z) + aexsec(z) + acvcos(z)", "erf(z) + fib(z) + rec(z)", "logn(z, 2*z + 1) + pow(z, z)", "abs(z)*z + floor(z) + z % 3"};
+            String[] orders = {"f'", "f''", "f'''"};
+            Complex point = new Complex(0.3, 0.4);
+            for(String source : differentiated) {
+                for(int order = 0; order < orders.length; order++) {
+                    FunctionDerivative2ArgumentsExpressionNode symbolic = (FunctionDerivative2ArgumentsExpressionNode)parser.parse(orders[order] + "(" + source + ", z)");
+                    ExpressionNode numeric = FunctionDerivative2ArgumentsExpressionNode.numeric(order, symbolic.getArgument(), symbolic.getArgument2());
+                    symbolic.accept(new SetVariable("z", point));
+                    Complex reference = numeric.getValue();
+                    if(symbolic.getValue().sub(reference).norm() > (order == 0 ? 1e-5 : 1e-2) * Math.max(1, reference.norm())) {
+                        throw new AssertionError(orders[order] + "(" + source + ", z)");
+                    }
+                }
+            }
+
+            if(((FunctionDerivative2ArgumentsExpressionNode)parser.parse("f'(abs(z)*z, z)")).getDerivative() == null
+                    || ((FunctionDerivative2ArgumentsExpressionNode)parser.parse("f''(abs(z)*z, z)")).getDerivative() != null) {
+                throw new AssertionError();
+            }
+
+            // the shared nodes of the derivatives are numbered independently of the enclosing DAG
+            ExpressionNode nested = parser.parse("sin(z^2)*cos(z^2) + f'(sin(z^2)*cos(z^2)*exp(z^2), z) + f''(c*z^4, z)*cos(z^2)");
+            ExpressionNode nestedDag = eliminator.eliminate(nested);
+            Variable nestedZ = nested.variable("z");
+            nested.variable("c").set(-0.7, 0.25);
+            EvaluationFrame nestedFrame = new EvaluationFrame(nestedDag);
+            int nestedSlot = nestedFrame.slot("z");
+            Complex nestedValue = new Complex();
+            batch.evaluate(nestedDag, "z", inRe, inIm, batchRe, batchIm);
+            for(int i = 0; i < batchSize; i++) {
+                nestedZ.set(inRe[i], inIm[i]);
+                Complex nestedExpected = nested.getValue();
+                nestedFrame.set(nestedSlot, inRe[i], inIm[i]);
+                nestedDag.evaluateInto(nestedFrame, nestedValue);
+                if(!sameBits(nestedDag.getValue(), nestedExpected) || !sameBits(nestedValue, nestedExpected) || !sameBits(new Complex(batchRe[i], batchIm[i]), nestedExpected)
+                        || !sameBits(compiledValue(nestedDag, new String[] {"z", "c"}, new Complex[] {nestedZ.get(), new Complex(-0.7, 0.25)}), nestedExpected)) {
+                    throw new AssertionError();
+                }
+            }
+            
+            if(new Complex(1, 0).digamma().plus(0.5772156649015329).norm() > 1e-14
+                    || new Complex(1, 1).digamma().sub(new Complex(0.0946503206224770, 1.076674047468581)).norm() > 1e-14) {
+                throw new AssertionError();
+            }
+
+            VariableExpressionNode bare = new VariableExpressionNode("z");
+            bare.setValue(point);
+            if(FunctionDerivative2ArgumentsExpressionNode.numeric(FunctionDerivative2ArgumentsExpressionNode.FIRST_DERIVATIVE, bare, bare).getValue().sub(1).norm() > 1e-9) {
+                throw new AssertionError();
+            }
+
+            String[] dualSources = {"z^8 + c*z^3 - 1", "sin(z)*exp(z) / (z + 1) + z^c - log(z)", "tan(sinh(z)) * z / c + pow(z, c) - logn(z, c)", "abs(z)*z + f'(z^3*c, z) + erf(z)", "sin(z^2)*cos(z^2) + f'(sin(z^2)*cos(z^2), z)"};
+            DualEvaluator dual = new DualEvaluator();
+            Complex dualValue = new Complex();
+            Complex dualDerivative = new Complex();
+            for(String source : dualSources) {
+                ExpressionNode dualExpr = eliminator.eliminate(parser.parse(source));
+                ExpressionNode derivative = parser.parse("f'(" + source + ", z)");
+                for(int i = 0; i < batchSize; i += 37) {
+                    Complex at = new Complex(inRe[i], inIm[i]);
+                    dualExpr.accept(new SetVariable("z", at));
+                    dualExpr.accept(new SetVariable("c", new Complex(-0.7, 0.25)));
+                    derivative.accept(new SetVariable("z", at));
+                    derivative.accept(new SetVariable("c", new Complex(-0.7, 0.25)));
+                    dual.evaluate(dualExpr, "z", dualValue, dualDerivative);
+                    Complex dualExpected = derivative.getValue();
+                    if(!sameBits(dualValue, dualExpr.getValue()) || dualDerivative.sub(dualExpected).norm() > 1e-9 * Math.max(1, dualExpected.norm())) {
+                        throw new AssertionError(source);
+                    }
+                }
+            }
+
+            // the remainder z - q * c has the derivative 1 where the integer quotient q does not jump
+            ExpressionNode remainder = parser.parse("z % c");
+            remainder.accept(new SetVariable("z", new Complex(2.3, 0.4)));
+            remainder.accept(new SetVariable("c", new Complex(-0.7, 0.25)));
+            dual.evaluate(remainder, "z", dualValue, dualDerivative);
+            if(!sameBits(dualValue, remainder.getValue()) || !sameBits(dualDerivative, new Complex(1, 0))) {
+                throw new AssertionError();
+            }
+
+            // the numeric derivatives kept by the evaluator must follow the expression and the variable
+            ExpressionNode mixed = parser.parse("abs(z)*c + abs(c)*z");
+            mixed.accept(new SetVariable("z", z));
+            mixed.accept(new SetVariable("c", new Complex(-0.7, 0.25)));
+            Complex freshDerivative = new Complex();
+            for(String mixedVariable : new String[] {"z", "c", "z", "c"}) {
+                dual.evaluate(mixed, mixedVariable, dualValue, dualDerivative);
+                dual.evaluate(remainder, "z", new Complex(), new Complex());
+                new DualEvaluator().evaluate(mixed, mixedVariable, new Complex(), freshDerivative);
+                if(!sameBits(dualDerivative, freshDerivative)) {
+                    throw new AssertionError();
+                }
+            }
+
+            // gamma'(z) = gamma(z) * digamma(z) against a Richardson extrapolated central difference
+            ExpressionNode gamma = parser.parse("gamma(z)");
+            Complex at = new Complex(1.7, 0.9);
+            gamma.accept(new SetVariable("z", at));
+            dual.evaluate(gamma, "z", dualValue, dualDerivative);
+            Complex h1 = at.plus(1e-4).gamma_la().sub(at.sub(1e-4).gamma_la()).divide(2e-4);
+            Complex h2 = at.plus(2e-4).gamma_la().sub(at.sub(2e-4).gamma_la()).divide(4e-4);
+            if(dualDerivative.sub(h1.times(4).sub(h2).divide(3)).norm() > 1e-9) {
+                throw new AssertionError();
+            }
+
+            if(new Complex(1, 0).trigamma().sub(Math.PI * Math.PI / 6).norm() > 1e-14 || new Complex(1, 0).tetragamma().plus(2.404113806319188).norm() > 1e-14) {
+                throw new AssertionError();
+            }
+
+            String[] taylorSources = {"z^8 + c*z^3 - 1", "sin(z)*exp(z) / (z + 1) + z^c - log(z)", "cos(z)^2 / (z - c) + pow(z, c) - logn(z, c) + 2^(z*z)", "tan(sinh(z)) + f'(z^3*c, z) + erf(z)", "sin(z^2)*cos(z^2) + f'(sin(z^2)*cos(z^2), z)"};
+            String[] taylorOrders = {"f'", "f''", "f'''"};
+            TaylorEvaluator taylor = new TaylorEvaluator();
+            Complex[] series = {new Complex(), new Complex(), new Complex(), new Complex()};
+            for(String source : taylorSources) {
+                ExpressionNode taylorExpr = eliminator.eliminate(parser.parse(source));
+                ExpressionNode[] references = new ExpressionNode[taylorOrders.length];
+                for(int k = 0; k < references.length; k++) {
+                    references[k] = parser.parse(taylorOrders[k] + "(" + source + ", z)");
+                }
+                for(int i = 0; i < batchSize; i += 101) {
+                    Complex taylorAt = new Complex(inRe[i], inIm[i]);
+                    taylorExpr.accept(new SetVariable("z", taylorAt));
+                    taylorExpr.accept(new SetVariable("c", new Complex(-0.7, 0.25)));
+                    taylor.evaluate(taylorExpr, "z", series);
+                    if(!sameBits(series[0], taylorExpr.getValue())) {
+                        throw new AssertionError(source);
+                    }
+                    for(int k = 0; k < references.length; k++) {
+                        references[k].accept(new SetVariable("z", taylorAt));
+                        references[k].accept(new SetVariable("c", new Complex(-0.7, 0.25)));
+                        Complex reference = references[k].getValue();
+                        if(series[k + 1].sub(reference).norm() > 1e-9 * Math.max(1, reference.norm())) {
+                            throw new AssertionError(taylorOrders[k] + "(" + source + ", z)");
+                        }
+                    }
+                }
+            }
+
+            // gamma'' = gamma (psi^2 + psi1) against the derivative of gamma' = gamma psi
+            gamma.accept(new SetVariable("z", at));
+            taylor.evaluate(gamma, "z", series);
+            Complex d1 = at.plus(1e-4).gamma_la().times(at.plus(1e-4).digamma()).sub(at.sub(1e-4).gamma_la().times(at.sub(1e-4).digamma())).divide(2e-4);
+            Complex d2 = at.plus(2e-4).gamma_la().times(at.plus(2e-4).digamma()).sub(at.sub(2e-4).gamma_la().times(at.sub(2e-4).digamma())).divide(4e-4);
+            if(series[2].sub(d1.times(4).sub(d2).divide(3)).norm() > 1e-9 || !sameBits(series[1], dualDerivative)) {
+                throw new AssertionError();
+            }
+
+            try {
+                taylor.evaluate(gamma, "z", new Complex[5]);
+                throw new AssertionError();
+            }
+            catch(IllegalArgumentException ex) {
+            }
+
+            Complex[][] erfValues = {{new Complex(1, 0), new Complex(0.8427007929497149, 0)}, {new Complex(1, 1), new Complex(1.3161512816979477, 0.19045346923783468)}, {new Complex(0, 2), new Complex(0, 18.564802414575553)}, {new Complex(-3, 0.5), new Complex(-1.0000280653614764, -2.6284897222588233e-7)}, {new Complex(3, 4), new Complex(-120.18699139507945, -27.750337293623904)}};
+            for(Complex[] erfValue : erfValues) {
+                if(erfValue[0].erf().sub(erfValue[1]).norm() > 1e-13 * erfValue[1].norm() || erfValue[0].erfc().plus(erfValue[0].erf()).sub(1).norm() > 1e-14 * Math.max(1, erfValue[1].norm())) {
+                    throw new AssertionError(erfValue[0].toString());
+                }
+            }
+            if(new Complex(10, 0).erfc().sub(2.088487583762545e-45).norm() > 1e-58 || new Complex(100, 0).erfcx().sub(5.6416137829894329e-3).norm() > 1e-16) {
+                throw new AssertionError();
+            }
+
+            Complex[][] zetaValues = {{new Complex(2, 0), new Complex(Math.PI * Math.PI / 6, 0)}, {new Complex(3, 0), new Complex(1.2020569031595942, 0)}, {new Complex(0.5, 0), new Complex(-1.4603545088095868, 0)}, {new Complex(-1, 0), new Complex(-1.0 / 12, 0)}, {new Complex(0.5, 14.134725141734693790), new Complex()}, {new Complex(0.5, 101.317851005731391), new Complex()}};
+            for(Complex[] zetaValue : zetaValues) {
+                if(zetaValue[0].riemann_zeta().sub(zetaValue[1]).norm() > 1e-13 * Math.max(1, zetaValue[1].norm())) {
+                    throw new AssertionError(zetaValue[0].toString());
+                }
+            }
+            if(new Complex(1, 0).dirichlet_eta().sub(Math.log(2)).norm() > 1e-15) {
+                throw new AssertionError();
+            }
+            // NaN and infinite arguments must neither recurse nor index outside the weights
+            Complex[] zetaSpecials = {new Complex(Double.NaN, 0), new Complex(0, Double.NaN), new Complex(-1, Double.NaN), new Complex(Double.NaN, Double.NaN), new Complex(Double.POSITIVE_INFINITY, 0), new Complex(Double.NEGATIVE_INFINITY, 0), new Complex(0.5, Double.POSITIVE_INFINITY), new Complex(-2, Double.NEGATIVE_INFINITY)};
+            for(Complex zetaSpecial : zetaSpecials) {
+                Complex zeta = zetaSpecial.riemann_zeta();
+                Complex eta = zetaSpecial.dirichlet_eta();
+                if((Double.isNaN(zetaSpecial.getRe()) || Double.isNaN(zetaSpecial.getIm())) && (!Double.isNaN(zeta.getRe()) || !Double.isNaN(eta.getRe()))) {
+                    throw new AssertionError(zetaSpecial.toString());
+                }
+            }
+            if(!Double.isNaN(parser.parse("rzeta(0/0)").getValue().getRe()) || !Double.isNaN(parser.parse("deta((-0)^-(2))").getValue().getRe())) {
+                throw new AssertionError();
+            }
+
+            if(!sameBits(new Complex(5, 0).gamma_la(), new Complex(24, 0)) || !sameBits(new Complex(20, 0).factorial(), new Complex(2432902008176640000.0, 0)) || !sameBits(new Complex(0.5, 0).gamma_la(), new Complex(Complex.SQRT_PI, 0))) {
+                throw new AssertionError();
+            }
+            if(new Complex(1, 1).gamma_la().sub(new Complex(0.49801566811835604, -0.15494982830181069)).norm() > 1e-15 || new Complex(1000, 0).lgamma().sub(5905.220423209181).norm() > 1e-12 || !Double.isInfinite(new Complex(172, 0).gamma_la().getRe())) {
+                throw new AssertionError();
+            }
+            for(int i = 0; i < batchSize; i += 97) {
+                Complex gammaAt = new Complex(inRe[i] * 4, inIm[i] * 4);
+                Complex gammaValue = gammaAt.gamma_la();
+                if(gammaAt.lgamma().exp().sub(gammaValue).norm() > 1e-13 * gammaValue.norm() || !sameBits(new Complex(gammaAt).gamma_la_mutable(), gammaValue)) {
+                    throw new AssertionError(gammaAt.toString());
+                }
+            }
+
+            if(((IntegerPowerExpressionNode)parser.parse("z^50")).getPower() != 50 || ((IntegerPowerExpressionNode)parser.parse("z^-3")).getPower() != -3
+                    || ((RealPowerExpressionNode)parser.parse("z^(1/2)")).getPower() != 0.5 || parser.parse("z^c").getClass() != ExponentiationExpressionNode.class) {
+                throw new AssertionError();
+            }
+
+            ExpressionNode powerExpr = parser.parse("z^50 - z^-3 + z^0.5 - z^(1/3) + z^(c - c + 2) + z^0 + z^-1 + (z + 1)^-12 + z^1*c");
+            ExpressionNode sharedPowerExpr = eliminator.eliminate(powerExpr);
+            ExpressionNode optimizedPowerExpr = optimizer.optimize(powerExpr);
+            powerExpr.variable("c").set(-0.7, 0.25);
+            ExpressionNode fifty = parser.parse("z^50");
+            ExpressionNode minusThree = parser.parse("z^-3");
+            ExpressionNode half = parser.parse("z^0.5");
+            batch.evaluate(powerExpr, "z", inRe, inIm, batchRe, batchIm);
+            for(int i = 0; i < batchSize; i += 7) {
+                Complex powerAt = new Complex(inRe[i], inIm[i]);
+                powerExpr.accept(new SetVariable("z", powerAt));
+                Complex powerValue = powerExpr.getValue();
+                powerExpr.evaluateInto(new EvaluationFrame(powerExpr), out);
+                if(!sameBits(out, powerValue) || !sameBits(new Complex(batchRe[i], batchIm[i]), powerValue) || !sameBits(sharedPowerExpr.getValue(), powerValue) || !sameBits(optimizedPowerExpr.getValue(), powerValue)
+                        || !sameBits(compiledValue(powerExpr, new String[] {"z", "c"}, new Complex[] {powerAt, new Complex(-0.7, 0.25)}), powerValue)) {
+                    throw new AssertionError(powerAt.toString());
+                }
+
+                fifty.accept(new SetVariable("z", powerAt));
+                minusThree.accept(new SetVariable("z", powerAt));
+                half.accept(new SetVariable("z", powerAt));
+                Complex fiftyExpected = powerAt.pow(new Complex(50, 0));
+                Complex minusThreeExpected = powerAt.cube().reciprocal();
+                if(fifty.getValue().sub(fiftyExpected).norm() > 1e-13 * fiftyExpected.norm() || minusThree.getValue().sub(minusThreeExpected).norm() > 1e-15 * minusThreeExpected.norm() || !sameBits(half.getValue(), powerAt.sqrt())) {
+                    throw new AssertionError(powerAt.toString());
+                }
+            }
+
+            if(new SplitMix64(0).nextLong() != 0xe220a8397b1dcdafL) {
+                throw new AssertionError();
+            }
+
+            ExpressionNode fuzzed = parser.parse("fuzz(z, c) + fuzz(z*z, c)");
+            fuzzed.variable("c").set(0.25, 0.5);
+            double[][] fuzzRe = new double[3][gridWidth * gridHeight];
+            double[][] fuzzIm = new double[3][gridWidth * gridHeight];
+            java.util.concurrent.ForkJoinPool fuzzPool = new java.util.concurrent.ForkJoinPool(4);
+            GridEvaluator fuzzGrid = new GridEvaluator(fuzzPool);
+            for(int run = 0; run < 3; run++) {
+                fuzzGrid.setSeed(run == 2 ? 1 : 0);
+                fuzzGrid.evaluate(fuzzed, "z", -2, 1, -1, 1, gridWidth, gridHeight, fuzzRe[run], fuzzIm[run]);
+            }
+            fuzzPool.shutdown();
+            if(!java.util.Arrays.equals(fuzzRe[0], fuzzRe[1]) || !java.util.Arrays.equals(fuzzIm[0], fuzzIm[1]) || java.util.Arrays.equals(fuzzRe[0], fuzzRe[2])) {
+                throw new AssertionError();
+            }
+            for(int i = 0; i < 1000; i++) {
+                Complex fuzz = z.fuzz(new Complex(0.25, 0.5));
+                if(Math.abs(fuzz.getRe() - z.getRe()) > 0.25 || Math.abs(fuzz.getIm() - z.getIm()) > 0.5) {
+                    throw new AssertionError();
+                }
+            }
+
+            Tokenizer tokenizer = Tokenizer.getExpressionTokenizer();
+            tokenizer.tokenize("  SIN (z)+2.5e3  i*f''(x) - log2(ix)");
+            String lexed = "";
+            for(Token token : tokenizer.getTokens()) {
+                lexed += token.token + ":" + token.sequence + ":" + token.pos + " ";
+            }
+            if(!lexed.equals("4:SIN:0 5:(:4 8:z:5 6:):6 1:+:7 9:2.5e3  i:8 2:*:16 12:f'':17 5:(:20 8:x:21 6:):22 1:-:24 4:log2:26 5:(:30 9:i:31 8:x:32 6:):33 ")) {
+                throw new AssertionError(lexed);
+            }
+
+            final Parser sharedParser = new Parser();
+            final String[] sources = {"sin(z^2) + cos(z^2) * (z^2 - 1)", "(z^2 + c)*(z-1)/(z+2) + 0.5*z - z^3 + z^4", "f''(z^3 - 2.5e-3i*log(z), z) + pow(z, c)", "--(+12/+3++4^+4/-2*+3/-2+-24/+3*+8/-2*+cos(0)+-(+10/-2-+3*-5))"};
+            final Complex[] sourceValues = new Complex[sources.length];
+            for(int i = 0; i < sources.length; i++) {
+                ExpressionNode source = sharedParser.parse(sources[i]);
+                source.accept(new SetVariable("z", z));
+                source.accept(new SetVariable("c", z));
+                sourceValues[i] = source.getValue();
+            }
+
+            java.util.concurrent.ForkJoinPool parsePool = new java.util.concurrent.ForkJoinPool(8);
+            java.util.List<java.util.concurrent.Future<Boolean>> parsed = new java.util.ArrayList<java.util.concurrent.Future<Boolean>>();
+            for(int task = 0; task < 32; task++) {
+                final int first = task;
+                parsed.add(parsePool.submit(() -> {
+                    for(int i = 0; i < 400; i++) {
+                        int k = (first + i) % sources.length;
+                        ExpressionNode source = sharedParser.parse(sources[k]);
+                        source.accept(new SetVariable("z", z));
+                        source.accept(new SetVariable("c", z));
+                        if(!sameBits(source.getValue(), sourceValues[k])) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+
+            for(java.util.concurrent.Future<Boolean> result : parsed) {
+                if(!result.get()) {
+                    throw new AssertionError();
+                }
+            }
+            parsePool.shutdown();
+
+            StringBuilder longSum = new StringBuilder("z");
+            StringBuilder signs = new StringBuilder();
+            StringBuilder powers = new StringBuilder("1");
+            for(int i = 1; i < 50000; i++) {
+                longSum.append(i % 2 == 0 ? " + z*1" : " - -z");
+            }
+            for(int i = 0; i < 1000; i++) {
+                signs.append("-+");
+            }
+            for(int i = 0; i < 10000; i++) {
+                powers.append("^-1");
+            }
+            ExpressionNode longExpr = parser.parse(longSum + " + " + signs + "z");
+            longExpr.accept(new SetVariable("z", new Complex(1, -1)));
+            if(((AdditionExpressionNode)longExpr).getTerms().size() != 50001 || longExpr.getValue().compare(new Complex(50001, -50001)) != 0) {
+                throw new AssertionError();
+            }
+            if(parser.parse(powers.toString()).getType() != ExpressionNode.EXPONENTIATION_NODE) {
+                throw new AssertionError();
+            }
+
+            ExpressionCache cache = new ExpressionCache(2);
+            ExpressionNode cachedExpr = cache.parse("sin(z) + 2 i*PI");
+            if(cache.parse("  SIN( z )+2i * pi") != cachedExpr || cache.parse("Z + z") == cache.parse("z + Z")) {
+                throw new AssertionError();
+            }
+            if(cache.getHits() != 1 || cache.getMisses() != 3 || cache.getEvictions() != 1 || cache.size() != 2) {
+                throw new AssertionError();
+            }
+            ExpressionNode uncached = parser.parse("sin(z) + 2i*pi");
+            cachedExpr.accept(new SetVariable("z", z));
+            uncached.accept(new SetVariable("z", z));
+            if(!sameBits(cachedExpr.getValue(), uncached.getValue())) {
+                throw new AssertionError();
+            }
+
+            // the least recently used eighth, at least one, is evicted when the cache overflows
+            ExpressionCache lruCache = new ExpressionCache(16);
+            for(int i = 0; i < 16; i++) {
+                lruCache.parse("z + " + i);
+            }
+            for(int i = 0; i < 8; i++) {
+                lruCache.parse("z + " + i);
+            }
+            lruCache.parse("z + 16");
+            if(lruCache.size() != 14 || lruCache.getEvictions() != 3 || lruCache.getHits() != 8) {
+                throw new AssertionError();
+            }
+            for(int i = 0; i < 8; i++) {
+                lruCache.parse("z+" + i);
+            }
+            lruCache.parse("z + 8");
+            if(lruCache.getHits() != 16 || lruCache.getMisses() != 18) {
+                throw new AssertionError();
+            }
+
+            final ExpressionCache sharedCache = new ExpressionCache(4);
+            final ExpressionNode[] firstTrees = new ExpressionNode[8];
+            java.util.concurrent.ForkJoinPool cachePool = new java.util.concurrent.ForkJoinPool(4);
+            java.util.List<java.util.concurrent.Future<Boolean>> cached = new java.util.ArrayList<java.util.concurrent.Future<Boolean>>();
+            for(int task = 0; task < 16; task++) {
+                final int first = task;
+                cached.add(cachePool.submit(() -> {
+                    for(int i = 0; i < 2000; i++) {
+                        int k = (first + i / 50) % firstTrees.length;
+                        ExpressionNode tree = sharedCache.parse("z^" + k + " + c");
+                        Complex value = new Complex();
+                        EvaluationFrame frame = new EvaluationFrame(tree);
+                        frame.set("z", new Complex(2, 0));
+                        frame.set("c", new Complex(1, 0));
+                        tree.evaluateInto(frame, value);
+                        if(value.compare(new Complex(Math.pow(2, k) + 1, 0)) != 0) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for(java.util.concurrent.Future<Boolean> result : cached) {
+                if(!result.get()) {
+                    throw new AssertionError();
+                }
+            }
+            cachePool.shutdown();
+            if(sharedCache.size() > 4 || sharedCache.getHits() + sharedCache.getMisses() != 16 * 2000) {
+                throw new AssertionError();
+            }
+
+            int twice = FunctionRegistry.register("Twice", new uk.co.cogitolearning.cogpar.functions.AbstractOneArgumentFunction() {
+                @Override
+                public Complex evaluate(Complex argument) {
+                    return argument.plus(argument);
+                }
+            });
+            FunctionRegistry.register("avg", new uk.co.cogitolearning.cogpar.functions.AbstractTwoArgumentFunction() {
+                @Override
+                public Complex evaluate(Complex argument, Complex argument2) {
+                    return argument.plus(argument2).divide(2);
+                }
+            });
+            ExpressionNode registered = parser.parse("twice(z) + AVG(z, 3) + f'(twice(z), z)");
+            registered.accept(new SetVariable("z", z));
+            if(((FunctionExpressionNode)parser.parse("TWICE(z)")).getFunctionId() != twice || registered.getValue().sub(z.times(2).plus(z.plus(3).divide(2)).plus(2)).norm() > 1e-6) {
+                throw new AssertionError();
+            }
+            if(FunctionExpressionNode.stringToFunction("SIN") != FunctionExpressionNode.SIN || !FunctionRegistry.isRegistered("Avg") || FunctionRegistry.isRegistered("twic")) {
+                throw new AssertionError();
+            }
+            for(String name : new String[] {"sin", "pi", "1x", "f'"}) {
+                try {
+                    FunctionRegistry.register(name, new uk.co.cogitolearning.cogpar.functions.SinFunction());
+                    throw new AssertionError(name);
+                }
+                catch(IllegalArgumentException e) {
+                }
+            }
+
+            if(parser.parse("sin(z)").getClass() == FunctionExpressionNode.class || parser.parse("sin(z)").getClass() != parser.parse("SIN(c)").getClass()
+                    || parser.parse("rot(z, c)").getClass() == Function2ArgumentsExpressionNode.class || parser.parse("cos(z)").getClass() == parser.parse("sin(z)").getClass()) {
+                throw new AssertionError();
+            }
+            ExpressionNode specializedArgument = new RealConstantExpressionNode(z);
+            ExpressionNode specializedArgument2 = new RealConstantExpressionNode(new Complex(0.5, -0.25));
+            int[] specializedIds = {FunctionExpressionNode.SIN, FunctionExpressionNode.EXP, FunctionExpressionNode.GAMMA, FunctionExpressionNode.ERF, twice};
+            for(int id : specializedIds) {
+                ExpressionNode specialized = FunctionExpressionNode.create(id, specializedArgument);
+                Complex specializedInto = new Complex();
+                specialized.evaluateInto(new EvaluationFrame(specialized), specializedInto);
+                Complex plain = new FunctionExpressionNode(id, specializedArgument).getValue();
+                if(!sameBits(specialized.getValue(), plain) || !sameBits(specializedInto, plain)) {
+                    throw new AssertionError();
+                }
+            }
+            for(int id : new int[] {Function2ArgumentsExpressionNode.ROT, Function2ArgumentsExpressionNode.LOGN, Function2ArgumentsExpressionNode.POW}) {
+                ExpressionNode specialized = Function2ArgumentsExpressionNode.create(id, specializedArgument, specializedArgument2);
+                Complex specializedInto = new Complex();
+                specialized.evaluateInto(new EvaluationFrame(specialized), specializedInto);
+                Complex plain = new Function2ArgumentsExpressionNode(id, specializedArgument, specializedArgument2).getValue();
+                if(!sameBits(specialized.getValue(), plain) || !sameBits(specializedInto, plain)) {
+                    throw new AssertionError();
+                }
+            }
+
+            ExpressionProfiler profiler = new ExpressionProfiler();
+            ExpressionNode unprofiled = new CommonSubexpressionEliminator().eliminate(parser.parse("rzeta(z) + sin(z^2)*cos(z^2) - log(c)"));
+            ExpressionNode profiled = profiler.instrument(unprofiled);
+            profiled.variable("z").set(z);
+            profiled.variable("c").set(0, 0);
+            EvaluationFrame profiledFrame = new EvaluationFrame(profiled);
+            Complex profiledInto = new Complex();
+            for(int i = 0; i < 5; i++) {
+                profiled.getValue();
+                profiled.evaluateInto(profiledFrame, profiledInto);
+            }
+            ProfiledExpressionNode profiledRoot = (ProfiledExpressionNode)profiled;
+            if(!sameBits(profiled.getValue(), unprofiled.getValue()) || !sameBits(profiledInto, unprofiled.getValue()) || unprofiled.getType() != ExpressionNode.ADDITION_NODE) {
+                throw new AssertionError();
+            }
+            if(profiledRoot.getCalls() != 11 || profiledRoot.getInfiniteCount() != 11 || profiledRoot.getNaNCount() != 0 || profiledRoot.getSelfNanos() > profiledRoot.getTotalNanos()) {
+                throw new AssertionError();
+            }
+            String profile = profiler.report();
+            if(!profile.contains("+ rzeta\n") || !profile.contains("(see above)") || !profile.contains("- log\n") || profile.split("\n").length != 13) {
+                throw new AssertionError(profile);
+            }
+            profiler.reset();
+            if(profiledRoot.getCalls() != 0) {
+                throw new AssertionError();
+            }
+
+            // the derivatives see through the profiled nodes
+            VariableExpressionNode profiledZ = new VariableExpressionNode(profiled.variable("z"));
+            Complex profiledDerivative = new Differentiator().differentiate(profiled, profiledZ).getValue();
+            if(!sameBits(profiledDerivative, new Differentiator().differentiate(unprofiled, profiledZ).getValue())) {
+                throw new AssertionError();
+            }
+            Complex profiledValue = new Complex();
+            Complex unprofiledValue = new Complex();
+            Complex unprofiledDerivative = new Complex();
+            new DualEvaluator().evaluate(profiled, "z", profiledValue, profiledDerivative);
+            new DualEvaluator().evaluate(unprofiled, "z", unprofiledValue, unprofiledDerivative);
+            if(!sameBits(profiledValue, unprofiledValue) || !sameBits(profiledDerivative, unprofiledDerivative)) {
+                throw new AssertionError();
+            }
+            Complex[] profiledSeries = new Complex[TaylorEvaluator.MAX_ORDER + 1];
+            Complex[] unprofiledSeries = new Complex[TaylorEvaluator.MAX_ORDER + 1];
+            for(int k = 0; k < profiledSeries.length; k++) {
+                profiledSeries[k] = new Complex();
+                unprofiledSeries[k] = new Complex();
+            }
+            new TaylorEvaluator().evaluate(profiled, "z", profiledSeries);
+            new TaylorEvaluator().evaluate(unprofiled, "z", unprofiledSeries);
+            for(int k = 0; k < profiledSeries.length; k++) {
+                if(!sameBits(profiledSeries[k], unprofiledSeries[k])) {
+                    throw new AssertionError();
+                }
+            }
+            if(profiledRoot.getCalls() != 0) {
+                throw new AssertionError();
+            }
+
+            ExpressionNode parsedBefore = parser.parse("sin(z)*cos(z)");
+            parsedBefore.variable("z").set(z);
+            MetricsRegistry registry = new MetricsRegistry();
+            Metrics.setRecorder(registry);
+            try {
+                ExpressionCache meteredCache = new ExpressionCache(4);
+                ExpressionNode metered = meteredCache.parse("sin(z) + cos(z)*sin(z)");
+                meteredCache.parse("sin(z) + cos(z)*sin(z)");
+                try {
+                    parser.parse("sin(z");
+                    throw new AssertionError();
+                }
+                catch(ParserException e) {
+                }
+                batch.evaluate(metered, "z", inRe, inIm, batchRe, batchIm);
+                metered.variable("z").set(z);
+                metered.getValue();
+                metered.evaluateInto(new EvaluationFrame(metered), new Complex());
+
+                int sinId = FunctionRegistry.id("sin", Token.FUNCTION);
+                if(registry.getCacheHits() != 1 || registry.getCacheMisses() != 1 || registry.getParseLatency().getCount() != 2 || registry.getParseFailures() != 1) {
+                    throw new AssertionError(registry.report());
+                }
+                if(registry.getParserExceptions() != 1 || registry.getEvaluatedPoints() != batchSize || registry.getEvaluationLatency().getCount() != 1) {
+                    throw new AssertionError(registry.report());
+                }
+                if(registry.getFunctionCalls(Token.FUNCTION, sinId) != 2 * batchSize + 4 || !registry.report().contains("sin")) {
+                    throw new AssertionError(registry.report());
+                }
+
+                // trees parsed before the recorder and compiled trees report their calls as well
+                registry.reset();
+                parsedBefore.getValue();
+                parsedBefore.evaluateInto(new EvaluationFrame(parsedBefore), new Complex());
+                compiledValue(parsedBefore, new String[] {"z"}, new Complex[] {z});
+                int cosId = FunctionRegistry.id("cos", Token.FUNCTION);
+                if(registry.getFunctionCalls(Token.FUNCTION, sinId) != 3 || registry.getFunctionCalls(Token.FUNCTION, cosId) != 3) {
+                    throw new AssertionError(registry.report());
+                }
+
+                // exceptions are reported once when they reach the caller, not when they are created
+                registry.reset();
+                new EvaluationException("Not thrown.");
+                new ParserException("Not thrown.");
+                ExpressionNode unset = parser.parse("sin(q)*2 + exp(q^2) + 1");
+                try {
+                    unset.getValue();
+                    throw new AssertionError();
+                }
+                catch(EvaluationException e) {
+                }
+                try {
+                    batch.evaluate(unset, "z", inRe, inIm, batchRe, batchIm);
+                    throw new AssertionError();
+                }
+                catch(EvaluationException e) {
+                }
+                try {
+                    meteredCache.parse("z $ 2");
+                    throw new AssertionError();
+                }
+                catch(ParserException e) {
+                }
+                if(registry.getEvaluationExceptions() != 2 || registry.getParserExceptions() != 1) {
+                    throw new AssertionError(registry.report());
+                }
+            }
+            finally {
+                Metrics.setRecorder(null);
+            }
+            long sinCalls = registry.getFunctionCalls(Token.FUNCTION, FunctionRegistry.id("sin", Token.FUNCTION));
+            ExpressionNode unmetered = parser.parse("sin(z)");
+            unmetered.variable("z").set(z);
+            unmetered.getValue();
+            if(registry.getFunctionCalls(Token.FUNCTION, FunctionRegistry.id("sin", Token.FUNCTION)) != sinCalls || Metrics.getRecorder() != null) {
+                throw new AssertionError();
+            }
+
             System.out.println("Test Completed.");
 
         }
@@ -160,5 +1072,54 @@ public class Test {
         catch(EvaluationException e) {
             System.out.println(e.getMessage());
         }
+        catch(InterruptedException | java.util.concurrent.ExecutionException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Compiles an expression and evaluates it with the given variable values
+     */
+    private static Complex compiledValue(ExpressionNode expr, String[] names, Complex[] values) {
+        CompiledExpression compiled = new ExpressionCompiler().compile(expr);
+        double[] vars = new double[2 * compiled.getVariableCount()];
+
+        for(int i = 0; i < names.length; i++) {
+            int index = compiled.getVariableIndex(names[i]);
+            vars[2 * index] = values[i].getRe();
+            vars[2 * index + 1] = values[i].getIm();
+        }
+
+        return compiled.evaluate(vars);
+    }
+
+    /**
+     * Bytes allocated by the current thread per evaluation of an expression
+     * into a preallocated result, a constant overhead of the measurement is
+     * rounded away
+     */
+    private static long allocatedBytesPerEvaluation(ExpressionNode expr, EvaluationFrame frame, Complex out) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        int iterations = 100000;
+
+        for(int i = 0; i < iterations; i++) {
+            expr.evaluateInto(frame, out);
+        }
+
+        long start = bean.getThreadAllocatedBytes(id);
+        for(int i = 0; i < iterations; i++) {
+            expr.evaluateInto(frame, out);
+        }
+
+        return (bean.getThreadAllocatedBytes(id) - start) / iterations;
+    }
+
+    /**
+     * Bitwise equality of two complex numbers
+     */
+    private static boolean sameBits(Complex a, Complex b) {
+        return Double.doubleToLongBits(a.getRe()) == Double.doubleToLongBits(b.getRe())
+                && Double.doubleToLongBits(a.getIm()) == Double.doubleToLongBits(b.getIm());
     }
 }
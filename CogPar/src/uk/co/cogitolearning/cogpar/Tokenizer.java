@@ -25,6 +25,7 @@
 package uk.co.cogitolearning.cogpar;
 
 import java.util.LinkedList;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +37,18 @@ import java.util.regex.Pattern;
  * of the string. Regular expressions should not contain beginning-of-string or
  * end-of-string anchors or any capturing groups as these will be added by the
  * tokenizer itslef.
+ * 
+ * The tokenizer for mathematical expressions does not use regular expressions
+ * for its own tokens. It scans the input once, character by character, and
+ * looks each word up in the FunctionRegistry, which gives the same tokens as
+ * the regular expressions it replaces in time linear in the length of the
+ * input. Functions registered later are recognized from then on.
+ * Regular expressions added to it are tried after the built-in tokens.
+ * 
+ * Tokenizers can be used by several threads at once. getTokens(String)
+ * returns a new list on every call, the list of getTokens() belongs to the
+ * calling thread. Regular expressions may be added while other threads
+ * tokenize.
  */
 public class Tokenizer
 {
@@ -60,27 +73,61 @@ public class Tokenizer
     }
   }
 
+  /**
+   * The state of one call of tokenize.
+   */
+  private static class Scan
+  {
+    /** the input */
+    final String str;
+    /** the end of the input without trailing whitespace */
+    final int end;
+    /** the end of the token found by the last scan */
+    int tokenEnd;
+
+    Scan(String str, int end)
+    {
+      this.str = str;
+      this.end = end;
+    }
+  }
+
   /** 
    * a list of TokenInfo objects
    * 
    * Each token type corresponds to one entry in the list
    */
-  private LinkedList<TokenInfo> tokenInfos;
+  private final CopyOnWriteArrayList<TokenInfo> tokenInfos;
   
-  /** the list of tokens produced when tokenizing the input */
-  private LinkedList<Token> tokens;
+  /** the list of tokens produced when the calling thread last called tokenize */
+  private final ThreadLocal<LinkedList<Token>> tokens;
+
+  /** whether the built-in tokens and the functions of the FunctionRegistry are recognized */
+  private final boolean builtIn;
 
-  /** a tokenizer that can handle mathematical expressions */
-  private static Tokenizer expressionTokenizer = null;
+  /**
+   * Holds the tokenizer that can handle mathematical expressions, the class
+   * is initialized on first use
+   */
+  private static class ExpressionTokenizer
+  {
+    static final Tokenizer INSTANCE = createExpressionTokenizer();
+  }
 
   /**
    * Default constructor
    */
   public Tokenizer()
+  {
+    this(false);
+  }
+
+  private Tokenizer(boolean builtIn)
   {
     super();
-    tokenInfos = new LinkedList<TokenInfo>();
-    tokens = new LinkedList<Token>();
+    tokenInfos = new CopyOnWriteArrayList<TokenInfo>();
+    tokens = new ThreadLocal<LinkedList<Token>>();
+    this.builtIn = builtIn;
   }
 
   /**
@@ -89,35 +136,32 @@ public class Tokenizer
    */
   public static Tokenizer getExpressionTokenizer()
   {
-    if (expressionTokenizer == null)
-      expressionTokenizer = createExpressionTokenizer();
-    return expressionTokenizer;
+    return ExpressionTokenizer.INSTANCE;
   }
 
   /**
-   * A static method that actually creates a tokenizer for mathematical expressions
+   * A static method that actually creates a tokenizer for mathematical expressions.
+   * 
+   * The built-in tokens are, in order of precedence:
+   * 
+   * <pre>
+   * [+-]                          PLUSMINUS
+   * [*&#47;%]                         MULTDIVREM
+   * \^                            RAISED
+   * (?i)(functions)(?!\w)         FUNCTION, FUNCTION_2ARGUMENTS, FUNCTION_DERIVATIVE_2ARGUMENTS
+   * \( , \)                       OPEN_BRACKET, COMMA, CLOSE_BRACKET
+   * (number)?( )*(i|I)            IMAGINARY_NUMBER
+   * (?:\d+\.?|\.\d)\d*(?:[Ee][-+]?\d+)?   REAL_NUMBER
+   * [a-zA-Z]\w*                   VARIABLE
+   * </pre>
+   * 
+   * where functions are the names registered in the FunctionRegistry.
+   * 
    * @return a tokenizer that can handle mathematical expressions
    */
   private static Tokenizer createExpressionTokenizer()
   {
-    Tokenizer tokenizer = new Tokenizer();
-
-    tokenizer.add("[+-]", Token.PLUSMINUS);
-    tokenizer.add("[*/%]", Token.MULTDIVREM);
-    tokenizer.add("\\^", Token.RAISED);
-
-    tokenizer.add("(?i)(" + FunctionExpressionNode.getAllFunctions() + ")(?!\\w)", Token.FUNCTION);
-    tokenizer.add("(?i)(" + Function2ArgumentsExpressionNode.getAllFunctions() + ")(?!\\w)", Token.FUNCTION_2ARGUMENTS);
-    tokenizer.add("(?i)(" + FunctionDerivative2ArgumentsExpressionNode.getAllFunctions() + ")(?!\\w)", Token.FUNCTION_DERIVATIVE_2ARGUMENTS);
-    
-    tokenizer.add("\\(", Token.OPEN_BRACKET);
-    tokenizer.add(",", Token.COMMA);
-    tokenizer.add("\\)", Token.CLOSE_BRACKET);
-    tokenizer.add("((?:\\d+\\.?|\\.\\d)\\d*(?:[Ee][-+]?\\d+)?)?( )*(i|I)", Token.IMAGINARY_NUMBER);
-    tokenizer.add("(?:\\d+\\.?|\\.\\d)\\d*(?:[Ee][-+]?\\d+)?", Token.REAL_NUMBER);   
-    tokenizer.add("[a-zA-Z]\\w*", Token.VARIABLE);
-
-    return tokenizer;
+    return new Tokenizer(true);
   }
 
   /**
@@ -139,39 +183,260 @@ public class Tokenizer
    */
   public void tokenize(String str)
   {
-    String s = str.trim();
-    int totalLength = s.length();
-    tokens.clear();
-    while (!s.equals(""))
+    tokens.set(getTokens(str));
+  }
+
+  /**
+   * Tokenize an input string and return the tokens.
+   * 
+   * @param str the string to tokenize
+   * @return a new list of tokens to be fed to Parser
+   */
+  public LinkedList<Token> getTokens(String str)
+  {
+    MetricsRecorder recorder = Metrics.recorder();
+    long start = recorder != Metrics.NONE ? System.nanoTime() : 0;
+    LinkedList<Token> result;
+    try
+    {
+      result = lex(str);
+    }
+    catch (ParserException ex)
+    {
+      Metrics.parserException(ex);
+      throw ex;
+    }
+
+    if (recorder != Metrics.NONE)
+      recorder.tokenized(System.nanoTime() - start, str.length());
+    return result;
+  }
+
+  /**
+   * Splits the string into tokens, getTokens adds the measurement.
+   */
+  private LinkedList<Token> lex(String str)
+  {
+    int start = 0;
+    int end = str.length();
+    while (start < end && str.charAt(start) <= ' ')
+      start++;
+    while (end > start && str.charAt(end - 1) <= ' ')
+      end--;
+
+    LinkedList<Token> result = new LinkedList<Token>();
+    Scan scan = new Scan(str, end);
+    int i = start;
+    while (i < end)
     {
-      int remaining = s.length();
-      boolean match = false;
-      for (TokenInfo info : tokenInfos)
+      int token = builtIn ? scanBuiltIn(scan, i) : -1;
+      String tok = null;
+
+      if (token != -1)
+      {
+        tok = str.substring(i, scan.tokenEnd);
+      }
+      else
       {
-        Matcher m = info.regex.matcher(s);
-        if (m.find())
+        for (TokenInfo info : tokenInfos)
         {
-          match = true;
-          String tok = m.group().trim();
-          // System.out.println("Success matching " + s + " against " +
-          // info.regex.pattern() + " : " + tok);
-          s = m.replaceFirst("").trim();
-          tokens.add(new Token(info.token, tok, totalLength - remaining));
-          break;
+          Matcher m = info.regex.matcher(str);
+          m.region(i, end);
+          if (m.lookingAt() && m.end() > i)
+          {
+            token = info.token;
+            tok = m.group().trim();
+            scan.tokenEnd = m.end();
+            break;
+          }
         }
       }
-      if (!match)
-        throw new ParserException("Unexpected character in input: " + s);
+
+      if (token == -1)
+        throw new ParserException("Unexpected character in input: " + str.substring(i, end));
+
+      result.add(new Token(token, tok, i - start));
+      i = scan.tokenEnd;
+      while (i < end && str.charAt(i) <= ' ')
+        i++;
     }
+
+    return result;
+  }
+
+  /**
+   * Recognizes the built-in token at position i. 
+   * 
+   * @return the token id or -1 if no built-in token starts at i, the end of
+   *         the token is stored in scan.tokenEnd
+   */
+  private int scanBuiltIn(Scan scan, int i)
+  {
+    String str = scan.str;
+    int end = scan.end;
+    char c = str.charAt(i);
+    scan.tokenEnd = i + 1;
+
+    switch (c)
+    {
+      case '+':
+      case '-':
+        return Token.PLUSMINUS;
+      case '*':
+      case '/':
+      case '%':
+        return Token.MULTDIVREM;
+      case '^':
+        return Token.RAISED;
+    }
+
+    int token = scanName(scan, i);
+    if (token != -1)
+      return token;
+
+    switch (c)
+    {
+      case '(':
+        scan.tokenEnd = i + 1;
+        return Token.OPEN_BRACKET;
+      case ',':
+        scan.tokenEnd = i + 1;
+        return Token.COMMA;
+      case ')':
+        scan.tokenEnd = i + 1;
+        return Token.CLOSE_BRACKET;
+    }
+
+    int number = scanNumber(str, i, end);
+    int j = number;
+    while (j < end && str.charAt(j) == ' ')
+      j++;
+    if (j < end && (str.charAt(j) == 'i' || str.charAt(j) == 'I'))
+    {
+      scan.tokenEnd = j + 1;
+      return Token.IMAGINARY_NUMBER;
+    }
+
+    if (number > i)
+    {
+      scan.tokenEnd = number;
+      return Token.REAL_NUMBER;
+    }
+
+    if (isLetter(c))
+    {
+      j = i + 1;
+      while (j < end && isWordChar(str.charAt(j)))
+        j++;
+      scan.tokenEnd = j;
+      return Token.VARIABLE;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Finds the name of a function of the FunctionRegistry at position i that
+   * is not followed by a word character. Names are whole words, only the
+   * derivative names end in primes.
+   */
+  private static int scanName(Scan scan, int i)
+  {
+    String str = scan.str;
+    int end = scan.end;
+    if (!isLetter(str.charAt(i)))
+      return -1;
+
+    int j = i + 1;
+    while (j < end && isWordChar(str.charAt(j)))
+      j++;
+
+    int k = j;
+    while (k < end && str.charAt(k) == '\'')
+      k++;
+
+    FunctionRegistry.Entry entry = null;
+    if (k > j && (k == end || !isWordChar(str.charAt(k))))
+      entry = FunctionRegistry.get(str.substring(i, k));
+    if (entry == null)
+    {
+      entry = FunctionRegistry.get(str.substring(i, j));
+      k = j;
+    }
+    if (entry == null)
+      return -1;
+
+    scan.tokenEnd = k;
+    return entry.token;
+  }
+
+  /**
+   * Matches (?:\d+\.?|\.\d)\d*(?:[Ee][-+]?\d+)? at position i.
+   * 
+   * @return the end of the number, i if there is none
+   */
+  private static int scanNumber(String str, int i, int end)
+  {
+    int j = i;
+    if (j < end && isDigit(str.charAt(j)))
+    {
+      while (j < end && isDigit(str.charAt(j)))
+        j++;
+      if (j < end && str.charAt(j) == '.')
+        j++;
+    }
+    else if (j + 1 < end && str.charAt(j) == '.' && isDigit(str.charAt(j + 1)))
+    {
+      j++;
+    }
+    else
+    {
+      return i;
+    }
+
+    while (j < end && isDigit(str.charAt(j)))
+      j++;
+
+    if (j < end && (str.charAt(j) == 'e' || str.charAt(j) == 'E'))
+    {
+      int k = j + 1;
+      if (k < end && (str.charAt(k) == '+' || str.charAt(k) == '-'))
+        k++;
+      if (k < end && isDigit(str.charAt(k)))
+      {
+        while (k < end && isDigit(str.charAt(k)))
+          k++;
+        j = k;
+      }
+    }
+
+    return j;
+  }
+
+  private static boolean isDigit(char c)
+  {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLetter(char c)
+  {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /** the characters of \w */
+  private static boolean isWordChar(char c)
+  {
+    return isLetter(c) || isDigit(c) || c == '_';
   }
 
   /**
-   * Get the tokens generated in the last call to tokenize.
+   * Get the tokens generated in the last call to tokenize by the calling thread.
    * @return a list of tokens to be fed to Parser
    */
   public LinkedList<Token> getTokens()
   {
-    return tokens;
+    LinkedList<Token> list = tokens.get();
+    return list != null ? list : new LinkedList<Token>();
   }
 
 }
@@ -0,0 +1,126 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+/**
+ * A named variable of an expression.
+ *
+ * The parser creates one Variable per distinct name and lets every
+ * VariableExpressionNode with that name refer to it, so assigning a value
+ * through the handle updates all occurrences at once without walking the
+ * tree.
+ */
+public class Variable {
+
+    private final String name;
+    private final Complex value;
+    private boolean valueSet;
+    /** the slot in the parser's table, -1 for variables created otherwise */
+    final int slot;
+    /** incremented whenever the value changes */
+    int version;
+
+    /**
+     * Creates a variable that does not belong to any table yet.
+     *
+     * @param name the name of the variable
+     */
+    public Variable(String name) {
+        this(name, -1);
+    }
+
+    Variable(String name, int slot) {
+        this.name = name;
+        value = new Complex();
+        valueSet = false;
+        this.slot = slot;
+    }
+
+    /**
+     * @return the name of the variable
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the slot the parser gave the variable, or -1 if the variable
+     * was not created by the parser. The frames of other trees that contain
+     * the variable may keep it in another slot, see EvaluationFrame.slot.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Sets the value of the variable.
+     *
+     * @param re the real part
+     * @param im the imaginary part
+     */
+    public void set(double re, double im) {
+        value.setRe(re);
+        value.setIm(im);
+        valueSet = true;
+        version++;
+    }
+
+    /**
+     * Sets the value of the variable, the value is copied.
+     *
+     * @param value the new value
+     */
+    public void set(Complex value) {
+        this.value.assign(value);
+        valueSet = true;
+        version++;
+    }
+
+    /**
+     * Returns the value of the variable but throws an exception if the value
+     * has not been set. The returned object is owned by the variable and must
+     * not be modified. It changes with the next set, so a caller that keeps
+     * the value across a set has to copy it.
+     *
+     * @return the value of the variable
+     */
+    public Complex get() {
+        if(!valueSet) {
+            // nothing on the way to the caller catches it
+            EvaluationException ex = new EvaluationException("Variable '" + name + "' was not initialized.");
+            Metrics.evaluationException(ex);
+            throw ex;
+        }
+
+        return value;
+    }
+
+    /**
+     * @return true if a value has been assigned
+     */
+    public boolean isSet() {
+        return valueSet;
+    }
+
+    /**
+     * Forgets the assigned value.
+     */
+    void clear() {
+        valueSet = false;
+        version++;
+    }
+}
@@ -29,24 +29,30 @@ package uk.co.cogitolearning.cogpar;
  */
 public class VariableExpressionNode implements ExpressionNode
 {
-  /** The name of the variable */
-  private String name;
-  /** The value of the variable */
-  private Complex value;
-  /** indicates if the value has been set */
-  private boolean valueSet;
+  /** The variable, possibly shared with other nodes of the same name */
+  private Variable variable;
 
   /**
-   * Construct with the name of the variable.
+   * Construct with the name of the variable. The node gets a variable of its
+   * own.
    * 
    * @param name
    *          the name of the variable
    */
   public VariableExpressionNode(String name)
   {
-    this.name = name;
-    valueSet = false;
-    value = new Complex();
+    this(new Variable(name));
+  }
+
+  /**
+   * Construct a node that refers to an existing variable.
+   * 
+   * @param variable
+   *          the variable
+   */
+  public VariableExpressionNode(Variable variable)
+  {
+    this.variable = variable;
   }
 
   /**
@@ -54,7 +60,15 @@ public class VariableExpressionNode implements ExpressionNode
    */
   public String getName()
   {
-    return name;
+    return variable.getName();
+  }
+
+  /**
+   * @return the variable this node refers to
+   */
+  public Variable getVariable()
+  {
+    return variable;
   }
 
   /**
@@ -73,8 +87,7 @@ public class VariableExpressionNode implements ExpressionNode
    */
   public void setValue(Complex value)
   {
-    this.value = value;
-    this.valueSet = true;
+    variable.set(value);
   }
 
   /**
@@ -83,10 +96,16 @@ public class VariableExpressionNode implements ExpressionNode
    */
   public Complex getValue()
   {
-    if (valueSet)
-      return value;
-    else
-      throw new EvaluationException("Variable '" + name + "' was not initialized.");
+    return variable.get();
+  }
+
+  /**
+   * Copies the value of the variable in the frame into out but throws an
+   * exception if the value has not been set
+   */
+  public void evaluateInto(EvaluationFrame frame, Complex out)
+  {
+    out.assign(frame.get(variable));
   }
 
   /**
@@ -0,0 +1,139 @@
+/*
+ * Fractal Zoomer, Copyright (C) 2020 hrkalona2
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package uk.co.cogitolearning.cogpar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * The variables of one expression, each with a fixed slot.
+ *
+ * Slots are numbered from 0 in the order in which the names first appear in
+ * the expression. The slots are kept in the table, a Variable may be part of
+ * several expressions, a parsed tree and its subtrees for example, and has a
+ * different slot in each of them. Only the parser's table gives a Variable
+ * its own slot, which the table of the whole parsed tree finds without a
+ * lookup.
+ */
+public class VariableTable {
+
+    private final ArrayList<Variable> variables;
+    private final HashMap<String, Variable> byName;
+    /** the slot of every variable in the table, including the duplicates of a name */
+    private final IdentityHashMap<Variable, Integer> slots;
+
+    public VariableTable() {
+        variables = new ArrayList<Variable>();
+        byName = new HashMap<String, Variable>();
+        slots = new IdentityHashMap<Variable, Integer>();
+    }
+
+    /**
+     * Returns the variable with the given name, creating it in the next free
+     * slot if the name is new.
+     *
+     * @param name the name of the variable
+     * @return the shared variable
+     */
+    public Variable intern(String name) {
+        Variable variable = byName.get(name);
+
+        if(variable == null) {
+            variable = new Variable(name, variables.size());
+            add(variable);
+        }
+
+        return variable;
+    }
+
+    private void add(Variable variable) {
+        slots.put(variable, variables.size());
+        variables.add(variable);
+        byName.put(variable.getName(), variable);
+    }
+
+    /**
+     * @param name the name of the variable
+     * @return the variable or null if there is no variable with that name
+     */
+    public Variable get(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * @param slot the slot of the variable
+     * @return the variable in that slot
+     */
+    public Variable get(int slot) {
+        return variables.get(slot);
+    }
+
+    /**
+     * @param variable a variable
+     * @return the slot of the variable in this table, or -1 if the variable
+     * is not part of the expression
+     */
+    public int slot(Variable variable) {
+        int slot = variable.slot;
+
+        if(slot >= 0 && slot < variables.size() && variables.get(slot) == variable) {
+            return slot;
+        }
+
+        Integer found = slots.get(variable);
+        return found != null ? found : -1;
+    }
+
+    /**
+     * @return the number of variables
+     */
+    public int size() {
+        return variables.size();
+    }
+
+    /**
+     * Collects the variables of an expression tree. For trees built by the
+     * parser the slots are those of the parser's table. Trees put together by
+     * hand may contain several Variables with the same name, these share the
+     * slot of the first one. The variables themselves are not modified, so
+     * the tables of a tree and of its subtrees can be used at the same time.
+     *
+     * @param expression the root of the expression tree
+     * @return the variables in order of first appearance
+     */
+    public static VariableTable of(ExpressionNode expression) {
+        final VariableTable table = new VariableTable();
+
+        expression.accept(new SetVariable(null, null) {
+            @Override
+            public void visit(VariableExpressionNode node) {
+                Variable variable = node.getVariable();
+                Variable first = table.get(variable.getName());
+
+                if(first == null) {
+                    table.add(variable);
+                }
+                else if(variable != first && !table.slots.containsKey(variable)) {
+                    table.slots.put(variable, table.slots.get(first));
+                }
+            }
+        });
+
+        return table;
+    }
+}
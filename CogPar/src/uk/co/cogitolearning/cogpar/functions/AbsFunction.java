@@ -37,4 +37,12 @@ public class AbsFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.abs_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class AbsImFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.absim_mutable();
+        
+    }
+    
 }
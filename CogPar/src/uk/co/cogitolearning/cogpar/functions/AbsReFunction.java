@@ -37,4 +37,12 @@ public class AbsReFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.absre_mutable();
+        
+    }
+    
 }
@@ -30,4 +30,18 @@ public abstract class AbstractOneArgumentFunction {
     
     public abstract Complex evaluate(Complex argument);
     
+    /**
+     * Evaluates the function and stores the result in out. Functions that can
+     * work in place override this so that no new Complex is created, the
+     * default simply copies the result of evaluate.
+     * 
+     * @param argument the argument, it is not modified
+     * @param out receives the result, it may not be the argument
+     */
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(evaluate(argument));
+        
+    }
+    
 }
@@ -30,4 +30,19 @@ public abstract class AbstractTwoArgumentFunction {
     
     public abstract Complex evaluate(Complex argument, Complex argument2);
     
+    /**
+     * Evaluates the function and stores the result in out. Functions that can
+     * work in place override this so that no new Complex is created, the
+     * default simply copies the result of evaluate.
+     * 
+     * @param argument the first argument, it is not modified
+     * @param argument2 the second argument, it is not modified
+     * @param out receives the result, it may not be either argument
+     */
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        out.assign(evaluate(argument, argument2));
+        
+    }
+    
 }
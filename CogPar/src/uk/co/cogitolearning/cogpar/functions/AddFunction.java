@@ -37,4 +37,12 @@ public class AddFunction extends AbstractTwoArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        out.assign(argument);
+        out.plus_mutable(argument2);
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class CeilFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.ceil_mutable();
+        
+    }
+    
 }
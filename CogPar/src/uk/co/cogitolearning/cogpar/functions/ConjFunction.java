@@ -37,4 +37,12 @@ public class ConjFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.conjugate_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class CosFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.cos_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class CoshFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.cosh_mutable();
+        
+    }
+    
 }
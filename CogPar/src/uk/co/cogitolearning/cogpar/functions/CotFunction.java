@@ -37,4 +37,12 @@ public class CotFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.cot_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class CothFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.coth_mutable();
+        
+    }
+    
 }
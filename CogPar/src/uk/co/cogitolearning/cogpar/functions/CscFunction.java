@@ -37,4 +37,12 @@ public class CscFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.sin_mutable().reciprocal_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class CschFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.sinh_mutable().reciprocal_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,11 @@ public class DistanceFunction extends AbstractTwoArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        out.assign(argument.distance(argument2));
+        
+    }
+    
 }
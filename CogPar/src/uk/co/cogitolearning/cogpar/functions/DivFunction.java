@@ -37,4 +37,12 @@ public class DivFunction extends AbstractTwoArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        out.assign(argument);
+        out.divide_mutable(argument2);
+        
+    }
+    
 }
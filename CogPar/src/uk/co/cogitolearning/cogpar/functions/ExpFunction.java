@@ -37,4 +37,12 @@ public class ExpFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.exp_mutable();
+        
+    }
+    
 }
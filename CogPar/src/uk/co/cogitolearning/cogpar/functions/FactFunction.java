@@ -37,4 +37,12 @@ public class FactFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.factorial_mutable();
+        
+    }
+    
 }
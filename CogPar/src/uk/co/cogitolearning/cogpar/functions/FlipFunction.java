@@ -37,4 +37,12 @@ public class FlipFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.flip_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class FloorFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.floor_mutable();
+        
+    }
+    
 }
@@ -17,6 +17,7 @@
 package uk.co.cogitolearning.cogpar.functions;
 
 import uk.co.cogitolearning.cogpar.Complex;
+import uk.co.cogitolearning.cogpar.SplitMix64;
 
 /**
  *
@@ -37,4 +38,12 @@ public class FuzzFunction extends AbstractTwoArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        out.assign(argument);
+        out.fuzz_mutable(argument2, SplitMix64.current());
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class GammaFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.gamma_la_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class GiFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.gaussian_integer_mutable();
+        
+    }
+    
 }
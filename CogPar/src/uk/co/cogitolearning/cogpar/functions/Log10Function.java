@@ -37,4 +37,12 @@ public class Log10Function extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.log_mutable().times_mutable(0.43429448190325182765);
+        
+    }
+    
 }
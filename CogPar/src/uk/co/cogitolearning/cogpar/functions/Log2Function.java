@@ -37,4 +37,12 @@ public class Log2Function extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.log_mutable().times_mutable(1.442695040888963407360);
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class LogFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.log_mutable();
+        
+    }
+    
 }
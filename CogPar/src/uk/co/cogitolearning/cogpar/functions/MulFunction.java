@@ -37,4 +37,12 @@ public class MulFunction extends AbstractTwoArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        out.assign(argument);
+        out.times_mutable(argument2);
+        
+    }
+    
 }
@@ -72,4 +72,50 @@ public class PowFunction extends AbstractTwoArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        double re = argument2.getRe();
+        double im = argument2.getIm();
+        
+        out.assign(argument);
+
+        if(im == 0) {
+            if(re == 2) {
+                out.square_mutable();
+            }
+            else if(re == 3) {
+                out.cube_mutable();
+            }
+            else if(re == 4) {
+                out.fourth_mutable();
+            }
+            else if(re == 5) {
+                out.fifth_mutable();
+            }
+            else if(re == 6) {
+                out.sixth_mutable();
+            }
+            else if(re == 7) {
+                out.seventh_mutable();
+            }
+            else if(re == 8) {
+                out.eighth_mutable();
+            }
+            else if(re == 9) {
+                out.ninth_mutable();
+            }
+            else if(re == 10) {
+                out.tenth_mutable();
+            }
+            else {
+                out.pow_mutable(re);
+            }
+        }
+        else {
+            out.pow_mutable(argument2);
+        }
+        
+    }
+    
 }
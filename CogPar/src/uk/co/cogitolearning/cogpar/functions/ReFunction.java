@@ -37,4 +37,11 @@ public class ReFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument.getRe());
+        
+    }
+    
 }
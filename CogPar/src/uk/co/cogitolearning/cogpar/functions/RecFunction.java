@@ -37,4 +37,12 @@ public class RecFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.reciprocal_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class RoundFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.round_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class SecFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.cos_mutable().reciprocal_mutable();
+        
+    }
+    
 }
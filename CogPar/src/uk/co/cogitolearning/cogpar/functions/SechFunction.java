@@ -37,4 +37,12 @@ public class SechFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.cosh_mutable().reciprocal_mutable();
+        
+    }
+    
 }
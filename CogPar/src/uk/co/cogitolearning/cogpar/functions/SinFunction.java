@@ -37,4 +37,12 @@ public class SinFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.sin_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class SinhFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.sinh_mutable();
+        
+    }
+    
 }
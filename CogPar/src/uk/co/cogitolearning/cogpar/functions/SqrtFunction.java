@@ -37,4 +37,12 @@ public class SqrtFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.sqrt_mutable();
+        
+    }
+    
 }
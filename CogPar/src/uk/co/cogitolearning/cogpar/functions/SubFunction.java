@@ -37,4 +37,12 @@ public class SubFunction extends AbstractTwoArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex argument2, Complex out) {
+        
+        out.assign(argument);
+        out.sub_mutable(argument2);
+        
+    }
+    
 }
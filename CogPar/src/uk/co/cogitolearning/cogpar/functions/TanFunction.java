@@ -37,4 +37,12 @@ public class TanFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.tan_mutable();
+        
+    }
+    
 }
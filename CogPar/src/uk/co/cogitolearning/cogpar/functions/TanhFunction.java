@@ -37,4 +37,12 @@ public class TanhFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.tanh_mutable();
+        
+    }
+    
 }
@@ -37,4 +37,12 @@ public class TruncFunction extends AbstractOneArgumentFunction {
         
     }
     
+    @Override
+    public void evaluateInto(Complex argument, Complex out) {
+        
+        out.assign(argument);
+        out.trunc_mutable();
+        
+    }
+    
 }